@@ -27,8 +27,6 @@ import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.ui.PrivateChatWindow;
 import net.usikkert.kouchat.util.Validate;
 
-import android.content.Context;
-
 /**
  * Represents a private chat window with a user.
  *
@@ -41,13 +39,13 @@ public class AndroidPrivateChatWindow implements PrivateChatWindow {
 
     private PrivateChatController privateChatController;
 
-    public AndroidPrivateChatWindow(final Context context, final User user) {
-        Validate.notNull(context, "Context can not be null");
+    public AndroidPrivateChatWindow(final CachingMessageStyler cachingMessageStyler, final User user) {
+        Validate.notNull(cachingMessageStyler, "Caching message styler can not be null");
         Validate.notNull(user, "User can not be null");
 
         this.user = user;
 
-        messageStyler = new MessageStylerWithHistory(context);
+        messageStyler = new MessageStylerWithHistory(cachingMessageStyler);
     }
 
     public void registerPrivateChatController(final PrivateChatController thePrivateChatController) {
@@ -65,10 +63,10 @@ public class AndroidPrivateChatWindow implements PrivateChatWindow {
     public void appendToPrivateChat(final String privateMessage, final int color) {
         Validate.notEmpty(privateMessage, "Private message can not be empty");
 
-        final CharSequence styledPrivateMessage = messageStyler.styleAndAppend(privateMessage, color);
+        final ChatMessage chatMessage = messageStyler.append(privateMessage, color);
 
         if (privateChatController != null) {
-            privateChatController.appendToPrivateChat(styledPrivateMessage);
+            privateChatController.appendToPrivateChat(chatMessage);
         }
     }
 
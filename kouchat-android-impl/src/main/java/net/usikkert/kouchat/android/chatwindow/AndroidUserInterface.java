@@ -23,7 +23,14 @@
 package net.usikkert.kouchat.android.chatwindow;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.android.R;
@@ -32,6 +39,9 @@ import net.usikkert.kouchat.android.filetransfer.AndroidFileTransferListener;
 import net.usikkert.kouchat.android.filetransfer.AndroidFileUtils;
 import net.usikkert.kouchat.android.notification.NotificationService;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
+import net.usikkert.kouchat.history.HistoryQuery;
+import net.usikkert.kouchat.history.HistoryRecord;
+import net.usikkert.kouchat.history.HistoryStore;
 import net.usikkert.kouchat.misc.ChatLogger;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.CommandParser;
@@ -50,6 +60,7 @@ import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.os.AsyncTask;
 import android.widget.Toast;
 
@@ -60,10 +71,19 @@ import android.widget.Toast;
  */
 public class AndroidUserInterface implements UserInterface, ChatWindow {
 
+    private static final Logger LOG = Logger.getLogger(AndroidUserInterface.class.getName());
+
+    /** The number of older messages to load from the history at a time. */
+    private static final int OLDER_MESSAGES_PAGE_SIZE = 100;
+
+    /** The color of messages from other users loaded from the history, as their color is not stored there. */
+    private static final int HISTORY_USER_COLOR = Color.BLACK;
+
     private final MessageController msgController;
     private final Controller controller;
     private final UserList userList;
     private final User me;
+    private final CachingMessageStyler cachingMessageStyler;
     private final MessageStylerWithHistory messageStyler;
     private final Context context;
     private final Settings settings;
@@ -84,7 +104,8 @@ public class AndroidUserInterface implements UserInterface, ChatWindow {
         this.settings = settings;
         this.notificationService = notificationService;
 
-        messageStyler = new MessageStylerWithHistory(context);
+        cachingMessageStyler = new CachingMessageStyler(context);
+        messageStyler = new MessageStylerWithHistory(cachingMessageStyler);
         msgController = new MessageController(this, this, settings);
         controller = new Controller(this, settings);
         commandParser = new CommandParser(controller, this, settings);
@@ -234,7 +255,7 @@ public class AndroidUserInterface implements UserInterface, ChatWindow {
         Validate.notNull(user, "User can not be null");
 
         if (user.getPrivchat() == null) {
-            user.setPrivchat(new AndroidPrivateChatWindow(context, user));
+            user.setPrivchat(new AndroidPrivateChatWindow(cachingMessageStyler, user));
         }
 
         if (user.getPrivateChatLogger() == null) {
@@ -261,10 +282,10 @@ public class AndroidUserInterface implements UserInterface, ChatWindow {
     public void appendToChat(final String message, final int color) {
         Validate.notEmpty(message, "Message can not be empty");
 
-        final CharSequence styledMessage = messageStyler.styleAndAppend(message, color);
+        final ChatMessage chatMessage = messageStyler.append(message, color);
 
         if (mainChatController != null) {
-            mainChatController.appendToChat(styledMessage);
+            mainChatController.appendToChat(chatMessage);
         }
     }
 
@@ -300,6 +321,85 @@ public class AndroidUserInterface implements UserInterface, ChatWindow {
         mainChatController = null;
     }
 
+    /**
+     * Loads a page of messages older than the given time from the history of the main chat,
+     * in the background. The messages are given to the main chat controller afterwards,
+     * on the UI thread. No messages are given if the history is not available.
+     *
+     * <p>Must be called from the UI thread.</p>
+     *
+     * @param beforeTime Only load messages older than this time.
+     */
+    public void loadOlderMessages(final long beforeTime) {
+        final AsyncTask<Void, Void, List<ChatMessage>> loadOlderMessagesTask = new AsyncTask<Void, Void, List<ChatMessage>>() {
+            @Override
+            protected List<ChatMessage> doInBackground(final Void... voids) {
+                return findOlderMessages(beforeTime);
+            }
+
+            @Override
+            protected void onPostExecute(final List<ChatMessage> olderMessages) {
+                if (mainChatController != null) {
+                    mainChatController.addOlderMessages(olderMessages);
+                }
+            }
+        };
+
+        loadOlderMessagesTask.execute((Void) null);
+    }
+
+    private List<ChatMessage> findOlderMessages(final long beforeTime) {
+        final HistoryStore historyStore = msgController.getHistoryStore();
+
+        if (historyStore == null) {
+            return Collections.emptyList();
+        }
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setToTime(beforeTime - 1);
+
+        try {
+            final List<HistoryRecord> records = historyStore.findLatest(query, OLDER_MESSAGES_PAGE_SIZE);
+            final List<ChatMessage> olderMessages = new ArrayList<ChatMessage>(records.size());
+
+            for (final HistoryRecord record : records) {
+                olderMessages.add(createMessageFromHistory(record));
+            }
+
+            return olderMessages;
+        }
+
+        // The history might have been closed
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, "Could not load older messages: " + e.toString());
+        }
+
+        catch (final IllegalStateException e) {
+            LOG.log(Level.WARNING, "Could not load older messages: " + e.toString());
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Creates a message looking like the message shown when the record was added to the history.
+     */
+    private ChatMessage createMessageFromHistory(final HistoryRecord record) {
+        final String time = Tools.dateToString(new Date(record.getTime()), "[HH:mm:ss]");
+
+        if (record.getUserCode() == HistoryRecord.SYSTEM_USER_CODE) {
+            return messageStyler.createMessage(time + " *** " + record.getMessage(), settings.getSysColor(), record.getTime());
+        }
+
+        int color = HISTORY_USER_COLOR;
+
+        if (record.getUserCode() == me.getCode()) {
+            color = settings.getOwnColor();
+        }
+
+        return messageStyler.createMessage(time + " <" + record.getNick() + ">: " + record.getMessage(), color, record.getTime());
+    }
+
     public void sendMessage(final String message) {
         Validate.notEmpty(message, "Message can not be empty");
 
@@ -0,0 +1,211 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.usikkert.kouchat.android.component.DefaultLineHeightSpan;
+import net.usikkert.kouchat.android.smiley.Smiley;
+import net.usikkert.kouchat.android.smiley.SmileyLocator;
+import net.usikkert.kouchat.android.smiley.SmileyMap;
+import net.usikkert.kouchat.util.Validate;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
+import android.text.util.Linkify;
+
+/**
+ * Adds styling to messages, with support for smileys, links and colors.
+ *
+ * <p>One instance is shared by the main chat and all the private chats. The most recently styled messages
+ * are cached, so the same message in the same color is only styled once. The styled messages are immutable,
+ * so they can be shown in several chats at the same time.</p>
+ *
+ * <p>Spans that are the same for every message are reused, instead of creating new ones for each message.
+ * Smiley spans can not be reused, since a span can only be used once in the same message.</p>
+ *
+ * @author Christian Ihle
+ */
+public class CachingMessageStyler {
+
+    /** The maximum number of styled messages to cache. */
+    static final int MAX_CACHED_MESSAGES = 500;
+
+    private final SmileyLocator smileyLocator;
+    private final SmileyMap smileyMap;
+
+    /** The styled messages, least recently used first. */
+    private final Map<CacheKey, CharSequence> styledMessageCache;
+
+    /** One color span per color used. */
+    private final Map<Integer, ForegroundColorSpan> colorSpans;
+
+    private final DefaultLineHeightSpan lineHeightSpan;
+
+    public CachingMessageStyler(final Context context) {
+        Validate.notNull(context, "Context can not be null");
+
+        smileyMap = new SmileyMap(context);
+        smileyLocator = new SmileyLocator(smileyMap.getSmileyCodes());
+        styledMessageCache = createStyledMessageCache();
+        colorSpans = new HashMap<Integer, ForegroundColorSpan>();
+        lineHeightSpan = new DefaultLineHeightSpan();
+    }
+
+    /**
+     * Adds styling to the message, or returns the styled message from the cache if
+     * the same message has been styled with the same color before.
+     *
+     * @param message The message to style.
+     * @param color The color to style the message with.
+     * @return The styled message.
+     */
+    public synchronized CharSequence style(final String message, final int color) {
+        Validate.notNull(message, "Message can not be null");
+
+        final CacheKey cacheKey = new CacheKey(message, color);
+        CharSequence styledMessage = styledMessageCache.get(cacheKey);
+
+        if (styledMessage == null) {
+            styledMessage = createStyledMessage(message, color);
+            styledMessageCache.put(cacheKey, styledMessage);
+        }
+
+        return styledMessage;
+    }
+
+    private CharSequence createStyledMessage(final String message, final int color) {
+        final SpannableStringBuilder messageBuilder = new SpannableStringBuilder(message);
+
+        addColor(message, color, messageBuilder);
+        addSmileys(message, messageBuilder);
+        addLinks(message, messageBuilder);
+        fixLineHeight(message, messageBuilder);
+
+        return new SpannedString(messageBuilder);
+    }
+
+    private void addColor(final String message, final int color, final SpannableStringBuilder messageBuilder) {
+        ForegroundColorSpan colorSpan = colorSpans.get(color);
+
+        if (colorSpan == null) {
+            colorSpan = new ForegroundColorSpan(color);
+            colorSpans.put(color, colorSpan);
+        }
+
+        messageBuilder.setSpan(colorSpan, 0, message.length(), 0);
+    }
+
+    private void addLinks(final String message, final SpannableStringBuilder messageBuilder) {
+        if (mightContainLinks(message)) {
+            Linkify.addLinks(messageBuilder, Linkify.WEB_URLS);
+        }
+    }
+
+    private void addSmileys(final String message, final SpannableStringBuilder messageBuilder) {
+        final List<Smiley> smileys = smileyLocator.findSmileys(message);
+
+        for (final Smiley smiley : smileys) {
+            final Drawable drawableSmiley = smileyMap.getSmiley(smiley.getCode());
+            final ImageSpan smileySpan = new ImageSpan(drawableSmiley, smiley.getCode(), ImageSpan.ALIGN_BOTTOM);
+
+            messageBuilder.setSpan(smileySpan, smiley.getStartPosition(), smiley.getEndPosition(), 0);
+        }
+    }
+
+    private void fixLineHeight(final String message, final SpannableStringBuilder messageBuilder) {
+        messageBuilder.setSpan(lineHeightSpan, 0, message.length(), 0);
+    }
+
+    /**
+     * Checks if the message might contain a web link, to avoid searching for links with
+     * the expensive regular expression in {@link Linkify} when there are none.
+     *
+     * <p>Every web link recognized by {@link Linkify#WEB_URLS} has a domain name or an ip address,
+     * so it has at least one dot between two letters or digits.</p>
+     *
+     * @param message The message to check.
+     * @return If the message might contain a link.
+     */
+    static boolean mightContainLinks(final String message) {
+        for (int i = 1; i < message.length() - 1; i++) {
+            if (message.charAt(i) == '.' &&
+                    Character.isLetterOrDigit(message.charAt(i - 1)) &&
+                    Character.isLetterOrDigit(message.charAt(i + 1))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Map<CacheKey, CharSequence> createStyledMessageCache() {
+        return new LinkedHashMap<CacheKey, CharSequence>(MAX_CACHED_MESSAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<CacheKey, CharSequence> eldest) {
+                return size() > MAX_CACHED_MESSAGES;
+            }
+        };
+    }
+
+    /**
+     * The key to a styled message in the cache.
+     */
+    private static final class CacheKey {
+
+        private final String message;
+        private final int color;
+
+        CacheKey(final String message, final int color) {
+            this.message = message;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+
+            if (!(object instanceof CacheKey)) {
+                return false;
+            }
+
+            final CacheKey other = (CacheKey) object;
+
+            return color == other.color && message.equals(other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * message.hashCode() + color;
+        }
+    }
+}
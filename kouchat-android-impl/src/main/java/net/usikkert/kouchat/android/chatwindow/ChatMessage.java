@@ -0,0 +1,95 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A message shown in a chat, with the color to show it in.
+ *
+ * <p>The message is styled with smileys, links and color the first time it's shown,
+ * and the styled message is kept for later.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ChatMessage {
+
+    private final String message;
+    private final int color;
+    private final long time;
+    private final MessageStylerWithHistory messageStyler;
+
+    private CharSequence styledMessage;
+
+    ChatMessage(final String message, final int color, final long time, final MessageStylerWithHistory messageStyler) {
+        Validate.notNull(message, "Message can not be null");
+        Validate.notNull(messageStyler, "Message styler can not be null");
+
+        this.message = message;
+        this.color = color;
+        this.time = time;
+        this.messageStyler = messageStyler;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Gets the time the message was added to the chat.
+     *
+     * @return The time, in milliseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the message with styling. The message is styled the first time this is called.
+     *
+     * <p>Should only be called from the UI thread.</p>
+     *
+     * @return The styled message.
+     */
+    public CharSequence getStyledMessage() {
+        if (styledMessage == null) {
+            styledMessage = messageStyler.style(this);
+        }
+
+        return styledMessage;
+    }
+
+    /**
+     * Returns the message without styling.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,197 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.android.R;
+import net.usikkert.kouchat.android.component.LinkMovementMethodWithSelectSupport;
+import net.usikkert.kouchat.util.Validate;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Adapter for showing the messages in a chat as rows in a list view.
+ *
+ * <p>Only the rows that are visible are created, and the messages are styled
+ * when they are shown for the first time.</p>
+ *
+ * <p>Keeps its own list of messages, so the list view only sees changes made from the UI thread.
+ * The newest {@link MessageStylerWithHistory#MAX_MESSAGES} messages are kept, in addition to any
+ * older messages added with {@link #addOlderMessages(List)}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ChatMessageAdapter extends BaseAdapter {
+
+    private final LayoutInflater layoutInflater;
+    private final ArrayList<ChatMessage> messages;
+
+    /** The number of older messages added, allowed in addition to the maximum number of messages. */
+    private int olderMessages;
+
+    public ChatMessageAdapter(final Context context) {
+        Validate.notNull(context, "Context can not be null");
+
+        layoutInflater = LayoutInflater.from(context);
+        messages = new ArrayList<ChatMessage>();
+    }
+
+    /**
+     * Replaces all the messages.
+     *
+     * @param newMessages The messages to show, oldest first.
+     */
+    public void setMessages(final List<ChatMessage> newMessages) {
+        Validate.notNull(newMessages, "Messages can not be null");
+
+        messages.clear();
+        messages.addAll(newMessages);
+        olderMessages = 0;
+
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Adds a new message at the bottom. The oldest message is removed if there are too many messages.
+     *
+     * @param message The message to add.
+     */
+    public void add(final ChatMessage message) {
+        Validate.notNull(message, "Message can not be null");
+
+        messages.add(message);
+        removeOldestMessages();
+
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Adds new messages at the bottom, and notifies the list view once for all of them.
+     * The oldest messages are removed if there are too many messages.
+     *
+     * @param newMessages The messages to add, oldest first.
+     */
+    public void addAll(final List<ChatMessage> newMessages) {
+        Validate.notNull(newMessages, "Messages can not be null");
+
+        messages.addAll(newMessages);
+        removeOldestMessages();
+
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Adds messages older than the messages already in the list, at the top.
+     *
+     * @param olderMessagesToAdd The older messages to add, oldest first.
+     */
+    public void addOlderMessages(final List<ChatMessage> olderMessagesToAdd) {
+        Validate.notNull(olderMessagesToAdd, "Messages can not be null");
+
+        messages.addAll(0, olderMessagesToAdd);
+        olderMessages += olderMessagesToAdd.size();
+
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Gets the time of the oldest message in the list.
+     *
+     * @return The time of the oldest message, or the current time if there are no messages.
+     */
+    public long getOldestTime() {
+        if (messages.isEmpty()) {
+            return System.currentTimeMillis();
+        }
+
+        return messages.get(0).getTime();
+    }
+
+    @Override
+    public int getCount() {
+        return messages.size();
+    }
+
+    @Override
+    public ChatMessage getItem(final int position) {
+        return messages.get(position);
+    }
+
+    @Override
+    public long getItemId(final int position) {
+        return position;
+    }
+
+    /**
+     * Messages are only for reading, so the rows can not be clicked. Links and text selection
+     * are handled by the text view in the row.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled(final int position) {
+        return false;
+    }
+
+    /**
+     * Shows the message at the position in a row, styled.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public View getView(final int position, final View convertView, final ViewGroup parent) {
+        TextView row = (TextView) convertView;
+
+        if (row == null) {
+            row = (TextView) layoutInflater.inflate(R.layout.chat_message_row, parent, false);
+            row.setMovementMethod(LinkMovementMethodWithSelectSupport.getInstance());
+        }
+
+        row.setText(getItem(position).getStyledMessage());
+
+        return row;
+    }
+
+    private void removeOldestMessages() {
+        final int messagesToRemove = messages.size() - MessageStylerWithHistory.MAX_MESSAGES - olderMessages;
+
+        if (messagesToRemove > 0) {
+            messages.subList(0, messagesToRemove).clear();
+        }
+    }
+
+    /**
+     * Cleanup to do when the activity using this is destroyed.
+     */
+    public void onDestroy() {
+        messages.clear();
+        olderMessages = 0;
+    }
+}
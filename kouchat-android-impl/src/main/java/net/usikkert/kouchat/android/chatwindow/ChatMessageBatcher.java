@@ -0,0 +1,146 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.util.Validate;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Collects messages added from any thread, and gives them to the UI thread in batches.
+ *
+ * <p>The messages are given to the listener at most once per display frame. During bursts of messages,
+ * like when someone pastes many lines, the chat is then updated and laid out once for all the messages
+ * arriving during a frame, instead of once for each message.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ChatMessageBatcher {
+
+    /** Milliseconds between each frame on the display, at 60 frames per second. */
+    static final long FRAME_TIME = 16;
+
+    private final Listener listener;
+    private final Handler handler;
+    private final Runnable flushTask;
+
+    /** Messages waiting to be given to the listener. */
+    private final List<ChatMessage> pendingMessages;
+
+    /** If the flush task has been posted to the UI thread, and not run yet. */
+    private boolean flushScheduled;
+
+    /** The last time the pending messages were given to the listener, in uptime milliseconds. */
+    private long lastFlushTime;
+
+    /**
+     * Constructor.
+     *
+     * @param listener The listener to give the messages to, on the UI thread.
+     */
+    public ChatMessageBatcher(final Listener listener) {
+        Validate.notNull(listener, "Listener can not be null");
+
+        this.listener = listener;
+
+        handler = new Handler(Looper.getMainLooper());
+        pendingMessages = new ArrayList<ChatMessage>();
+
+        flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Adds a message to the next batch. The batch is given to the listener in the next frame
+     * on the UI thread, or right away if the UI thread has not been given a batch in the last frame.
+     *
+     * @param message The message to add.
+     */
+    public void add(final ChatMessage message) {
+        Validate.notNull(message, "Message can not be null");
+
+        final long delay;
+
+        synchronized (this) {
+            pendingMessages.add(message);
+
+            if (flushScheduled) {
+                return;
+            }
+
+            flushScheduled = true;
+            delay = Math.max(0, lastFlushTime + FRAME_TIME - SystemClock.uptimeMillis());
+        }
+
+        handler.postDelayed(flushTask, delay);
+    }
+
+    /**
+     * Removes all the messages that are waiting to be given to the listener.
+     */
+    public void cancel() {
+        handler.removeCallbacks(flushTask);
+
+        synchronized (this) {
+            pendingMessages.clear();
+            flushScheduled = false;
+        }
+    }
+
+    private void flush() {
+        final List<ChatMessage> messages;
+
+        synchronized (this) {
+            messages = new ArrayList<ChatMessage>(pendingMessages);
+            pendingMessages.clear();
+            flushScheduled = false;
+            lastFlushTime = SystemClock.uptimeMillis();
+        }
+
+        if (!messages.isEmpty()) {
+            listener.appendMessages(messages);
+        }
+    }
+
+    /**
+     * Listener for batches of messages.
+     */
+    public interface Listener {
+
+        /**
+         * Appends the messages to the chat. Called on the UI thread.
+         *
+         * @param messages The messages to append, oldest first. Never empty.
+         */
+        void appendMessages(List<ChatMessage> messages);
+    }
+}
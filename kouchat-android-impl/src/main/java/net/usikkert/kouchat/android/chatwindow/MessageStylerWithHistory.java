@@ -22,93 +22,91 @@
 
 package net.usikkert.kouchat.android.chatwindow;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
-import net.usikkert.kouchat.android.component.DefaultLineHeightSpan;
-import net.usikkert.kouchat.android.smiley.Smiley;
-import net.usikkert.kouchat.android.smiley.SmileyLocator;
-import net.usikkert.kouchat.android.smiley.SmileyMap;
 import net.usikkert.kouchat.util.Validate;
 
-import android.content.Context;
-import android.graphics.drawable.Drawable;
-import android.text.SpannableStringBuilder;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.ImageSpan;
-import android.text.util.Linkify;
-
 /**
  * Builds the messages that are shown in the chat, with support for smileys, links and colors.
- * All the messages are stored for later use.
+ *
+ * <p>The latest {@link #MAX_MESSAGES} messages are stored for later use. Older messages are
+ * forgotten, but messages in the main chat can be found again in the history, if logging is enabled.</p>
+ *
+ * <p>Messages are not styled until they are shown, using {@link ChatMessage#getStyledMessage()}.
+ * Messages that are never scrolled to are never styled. The styling is done by a {@link CachingMessageStyler}
+ * shared with the other chats.</p>
  *
  * @author Christian Ihle
  */
 public class MessageStylerWithHistory {
 
-    private final SmileyLocator smileyLocator;
-    private final SmileyMap smileyMap;
-    private final SpannableStringBuilder history;
+    /** The maximum number of messages to remember. */
+    public static final int MAX_MESSAGES = 1000;
 
-    public MessageStylerWithHistory(final Context context) {
-        Validate.notNull(context, "Context can not be null");
+    private final CachingMessageStyler cachingMessageStyler;
+    private final LinkedList<ChatMessage> history;
 
-        smileyMap = new SmileyMap(context);
-        smileyLocator = new SmileyLocator(smileyMap.getSmileyCodes());
-        history = new SpannableStringBuilder();
+    public MessageStylerWithHistory(final CachingMessageStyler cachingMessageStyler) {
+        Validate.notNull(cachingMessageStyler, "Caching message styler can not be null");
+
+        this.cachingMessageStyler = cachingMessageStyler;
+        history = new LinkedList<ChatMessage>();
     }
 
     /**
-     * Adds styling to the message, and appends it to the history.
+     * Appends the message to the history. The oldest message is removed if the history is full.
      *
      * <p>Trims the message first, to avoid blank lines.</p>
      *
-     * @param message The message to style and add to the history.
+     * @param message The message to add to the history.
      * @param color The color to style the message with.
-     * @return The styled message.
+     * @return The message, ready to be styled.
      */
-    public CharSequence styleAndAppend(final String message, final int color) {
-        final String trimmedMessage = message.trim();
-        final SpannableStringBuilder messageBuilder = new SpannableStringBuilder(trimmedMessage + "\n");
+    public synchronized ChatMessage append(final String message, final int color) {
+        final ChatMessage chatMessage = createMessage(message, color, System.currentTimeMillis());
 
-        addColor(trimmedMessage, color, messageBuilder);
-        addSmileys(trimmedMessage, messageBuilder);
-        addLinks(messageBuilder);
-        fixLineHeight(trimmedMessage, messageBuilder);
+        history.add(chatMessage);
 
-        history.append(messageBuilder);
+        if (history.size() > MAX_MESSAGES) {
+            history.removeFirst();
+        }
 
-        return messageBuilder;
+        return chatMessage;
     }
 
     /**
-     * Returns all the styled messages added to the history.
+     * Creates a message that can be styled, without adding it to the history.
+     * Used for showing older messages.
      *
-     * @return All messages.
+     * <p>Trims the message first, to avoid blank lines.</p>
+     *
+     * @param message The message.
+     * @param color The color to style the message with.
+     * @param time The time the message was written.
+     * @return The message, ready to be styled.
      */
-    public CharSequence getHistory() {
-        return history;
+    public ChatMessage createMessage(final String message, final int color, final long time) {
+        return new ChatMessage(message.trim(), color, time, this);
     }
 
-    private void addColor(final String message, final int color, final SpannableStringBuilder messageBuilder) {
-        messageBuilder.setSpan(new ForegroundColorSpan(color), 0, message.length(), 0);
-    }
-
-    private void addLinks(final SpannableStringBuilder messageBuilder) {
-        Linkify.addLinks(messageBuilder, Linkify.WEB_URLS);
-    }
-
-    private void addSmileys(final String message, final SpannableStringBuilder messageBuilder) {
-        final List<Smiley> smileys = smileyLocator.findSmileys(message);
-
-        for (final Smiley smiley : smileys) {
-            final Drawable drawableSmiley = smileyMap.getSmiley(smiley.getCode());
-            final ImageSpan smileySpan = new ImageSpan(drawableSmiley, smiley.getCode(), ImageSpan.ALIGN_BOTTOM);
-
-            messageBuilder.setSpan(smileySpan, smiley.getStartPosition(), smiley.getEndPosition(), 0);
-        }
+    /**
+     * Returns all the messages in the history, oldest first.
+     *
+     * @return A copy of the messages in the history.
+     */
+    public synchronized List<ChatMessage> getHistory() {
+        return new ArrayList<ChatMessage>(history);
     }
 
-    private void fixLineHeight(final String message, final SpannableStringBuilder messageBuilder) {
-        messageBuilder.setSpan(new DefaultLineHeightSpan(), 0, message.length(), 0);
+    /**
+     * Adds styling to the message.
+     *
+     * @param chatMessage The message to style.
+     * @return The styled message.
+     */
+    CharSequence style(final ChatMessage chatMessage) {
+        return cachingMessageStyler.style(chatMessage.getMessage(), chatMessage.getColor());
     }
 }
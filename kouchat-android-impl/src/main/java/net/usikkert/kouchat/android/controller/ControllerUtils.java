@@ -26,7 +26,8 @@ import net.usikkert.kouchat.android.component.LinkMovementMethodWithSelectSuppor
 
 import android.text.NoCopySpan;
 import android.text.Spannable;
-import android.widget.ScrollView;
+import android.view.View;
+import android.widget.ListView;
 import android.widget.TextView;
 
 /**
@@ -36,20 +37,16 @@ import android.widget.TextView;
  */
 public class ControllerUtils {
 
-    /** Number of milliseconds in a second. */
-    public static final int ONE_SECOND = 1000;
-
     /**
-     * Scrolls to the last line of text in a text view.
+     * Scrolls to the last row in a list view.
      *
-     * @param textView The text view to scroll.
-     * @param scrollView The surrounding scroll view.
+     * @param listView The list view to scroll.
      */
-    public void scrollTextViewToBottom(final TextView textView, final ScrollView scrollView) {
-        scrollView.post(new Runnable() {
+    public void scrollListViewToBottom(final ListView listView) {
+        listView.post(new Runnable() {
             @Override
             public void run() {
-                scrollView.smoothScrollTo(0, scrollView.getBottom() + textView.getHeight());
+                listView.setSelection(listView.getCount() - 1);
             }
         });
     }
@@ -93,4 +90,21 @@ public class ControllerUtils {
             text.removeSpan(noCopySpan);
         }
     }
+
+    /**
+     * Removes spans with references to the text views in the rows of the list view.
+     *
+     * <p>See {@link #removeReferencesToTextViewFromText(TextView)}.</p>
+     *
+     * @param listView The list view with rows of text views.
+     */
+    public void removeReferencesToTextViewsFromText(final ListView listView) {
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            final View row = listView.getChildAt(i);
+
+            if (row instanceof TextView) {
+                removeReferencesToTextViewFromText((TextView) row);
+            }
+        }
+    }
 }
@@ -22,8 +22,13 @@
 
 package net.usikkert.kouchat.android.controller;
 
+import java.util.List;
+
 import net.usikkert.kouchat.android.R;
 import net.usikkert.kouchat.android.chatwindow.AndroidUserInterface;
+import net.usikkert.kouchat.android.chatwindow.ChatMessage;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageAdapter;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageBatcher;
 import net.usikkert.kouchat.android.component.AboutDialog;
 import net.usikkert.kouchat.android.service.ChatService;
 import net.usikkert.kouchat.android.service.ChatServiceBinder;
@@ -43,17 +48,15 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.KeyEvent;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.ScrollView;
-import android.widget.TextView;
 
 /**
  * Controller for the main chat.
@@ -76,9 +79,12 @@ import android.widget.TextView;
  *   </li>
  * </ul>
  *
+ * <p>The messages are shown in a list view, where only the visible rows are created. When scrolling to the top,
+ * older messages are loaded from the history. New messages are added in batches, once per display frame.</p>
+ *
  * @author Christian Ihle
  */
-public class MainChatController extends SherlockActivity implements UserListListener {
+public class MainChatController extends SherlockActivity implements UserListListener, ChatMessageBatcher.Listener {
 
     private ControllerUtils controllerUtils = new ControllerUtils();
 
@@ -86,8 +92,9 @@ public class MainChatController extends SherlockActivity implements UserListList
     private ServiceConnection serviceConnection;
     private EditText mainChatInput;
     private ListView mainChatUserList;
-    private TextView mainChatView;
-    private ScrollView mainChatScroll;
+    private ListView mainChatView;
+    private ChatMessageAdapter chatMessageAdapter;
+    private ChatMessageBatcher chatMessageBatcher;
     private UserListAdapter userListAdapter;
     private TextWatcher textWatcher;
 
@@ -100,6 +107,15 @@ public class MainChatController extends SherlockActivity implements UserListList
     /** If the main chat has been destroyed. */
     private boolean destroyed;
 
+    /** If the user is scrolling the main chat. */
+    private boolean scrolling;
+
+    /** If older messages are being loaded from the history. */
+    private boolean loadingOlderMessages;
+
+    /** If there are no more older messages in the history. */
+    private boolean noMoreOlderMessages;
+
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -108,13 +124,12 @@ public class MainChatController extends SherlockActivity implements UserListList
 
         mainChatInput = (EditText) findViewById(R.id.mainChatInput);
         mainChatUserList = (ListView) findViewById(R.id.mainChatUserList);
-        mainChatView = (TextView) findViewById(R.id.mainChatView);
-        mainChatScroll = (ScrollView) findViewById(R.id.mainChatScroll);
+        mainChatView = (ListView) findViewById(R.id.mainChatView);
 
         registerMainChatInputListener();
         registerMainChatTextListener();
         registerUserListClickListener();
-        controllerUtils.makeLinksClickable(mainChatView);
+        setupMainChatView();
         setupMainChatUserList();
         openKeyboard();
 
@@ -200,6 +215,41 @@ public class MainChatController extends SherlockActivity implements UserListList
         });
     }
 
+    private void setupMainChatView() {
+        chatMessageAdapter = new ChatMessageAdapter(this);
+        chatMessageBatcher = new ChatMessageBatcher(this);
+        mainChatView.setAdapter(chatMessageAdapter);
+
+        mainChatView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+                scrolling = scrollState != SCROLL_STATE_IDLE;
+
+                if (scrolling && view.getFirstVisiblePosition() == 0) {
+                    loadOlderMessages();
+                }
+            }
+
+            @Override
+            public void onScroll(final AbsListView view, final int firstVisibleItem,
+                                 final int visibleItemCount, final int totalItemCount) {
+                // Only when the user scrolls to the top, not when the list is shorter than the screen
+                if (scrolling && firstVisibleItem == 0) {
+                    loadOlderMessages();
+                }
+            }
+        });
+    }
+
+    private void loadOlderMessages() {
+        if (androidUserInterface == null || loadingOlderMessages || noMoreOlderMessages) {
+            return;
+        }
+
+        loadingOlderMessages = true;
+        androidUserInterface.loadOlderMessages(chatMessageAdapter.getOldestTime());
+    }
+
     private void setupMainChatUserList() {
         userListAdapter = new UserListAdapterWithChatState(this);
         mainChatUserList.setAdapter(userListAdapter);
@@ -236,11 +286,15 @@ public class MainChatController extends SherlockActivity implements UserListList
         }
 
         userListAdapter.onDestroy();
+        chatMessageBatcher.cancel();
+        chatMessageAdapter.onDestroy();
         mainChatInput.removeTextChangedListener(textWatcher);
         mainChatInput.setOnKeyListener(null);
         mainChatUserList.setOnItemClickListener(null);
         mainChatUserList.setAdapter(null);
-        controllerUtils.removeReferencesToTextViewFromText(mainChatView);
+        mainChatView.setOnScrollListener(null);
+        controllerUtils.removeReferencesToTextViewsFromText(mainChatView);
+        mainChatView.setAdapter(null);
         controllerUtils.removeReferencesToTextViewFromText(mainChatInput);
 
         androidUserInterface = null;
@@ -252,7 +306,8 @@ public class MainChatController extends SherlockActivity implements UserListList
         mainChatInput = null;
         mainChatUserList = null;
         mainChatView = null;
-        mainChatScroll = null;
+        chatMessageAdapter = null;
+        chatMessageBatcher = null;
         userListAdapter = null;
         textWatcher = null;
 
@@ -334,23 +389,71 @@ public class MainChatController extends SherlockActivity implements UserListList
         return new Intent(this, ChatService.class);
     }
 
-    public void appendToChat(final CharSequence message) {
-        runOnUiThread(new Runnable() {
-            public void run() {
-                if (destroyed) {
-                    return; // If rotating fast, this activity could already be destroyed before this runs
-                }
+    /**
+     * Adds a message to the chat in the next display frame. Can be called from any thread.
+     *
+     * @param message The message to add.
+     */
+    public void appendToChat(final ChatMessage message) {
+        final ChatMessageBatcher batcher = chatMessageBatcher;
 
-                mainChatView.append(message);
+        // Could be called from another thread while this activity is being destroyed
+        if (batcher != null) {
+            batcher.add(message);
+        }
+    }
 
-                // Allow a way to avoid automatic scrolling to the bottom.
-                // Just scroll somewhere and click on the text to remove focus from the input field.
-                // Also fixes the annoying jumping scroll that happens sometimes.
-                if (mainChatInput.hasFocus()) {
-                    controllerUtils.scrollTextViewToBottom(mainChatView, mainChatScroll);
-                }
-            }
-        });
+    /**
+     * Adds all the messages received during the last display frame to the chat,
+     * with a single update of the chat view.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void appendMessages(final List<ChatMessage> messages) {
+        if (destroyed) {
+            return; // If rotating fast, this activity could already be destroyed before this runs
+        }
+
+        chatMessageAdapter.addAll(messages);
+
+        // Allow a way to avoid automatic scrolling to the bottom.
+        // Just scroll somewhere and click on the text to remove focus from the input field.
+        // Also fixes the annoying jumping scroll that happens sometimes.
+        if (mainChatInput.hasFocus()) {
+            controllerUtils.scrollListViewToBottom(mainChatView);
+        }
+    }
+
+    /**
+     * Adds older messages from the history at the top of the chat, without moving the messages currently visible.
+     *
+     * <p>Must be called from the UI thread.</p>
+     *
+     * @param olderMessages The older messages, oldest first. Empty if there are no more older messages.
+     */
+    public void addOlderMessages(final List<ChatMessage> olderMessages) {
+        if (destroyed) {
+            return;
+        }
+
+        loadingOlderMessages = false;
+
+        if (olderMessages.isEmpty()) {
+            noMoreOlderMessages = true;
+            return;
+        }
+
+        final int firstVisiblePosition = mainChatView.getFirstVisiblePosition();
+        final View firstVisibleRow = mainChatView.getChildAt(0);
+        int firstVisibleRowTop = 0;
+
+        if (firstVisibleRow != null) {
+            firstVisibleRowTop = firstVisibleRow.getTop();
+        }
+
+        chatMessageAdapter.addOlderMessages(olderMessages);
+        mainChatView.setSelectionFromTop(firstVisiblePosition + olderMessages.size(), firstVisibleRowTop);
     }
 
     public void sendMessage(final String message) {
@@ -359,20 +462,12 @@ public class MainChatController extends SherlockActivity implements UserListList
         }
     }
 
-    public void updateChat(final CharSequence savedChat) {
-        mainChatView.setText(savedChat);
-
-        // Run this after 1 second, because right after a rotate the layout is null and it's not possible to scroll yet
-        new Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                // If rotating fast, this activity could already be destroyed before this runs
-                if (!destroyed) {
-                    controllerUtils.scrollTextViewToBottom(mainChatView, mainChatScroll);
-                }
-            }
-        }, ControllerUtils.ONE_SECOND);
+    public void updateChat(final List<ChatMessage> savedChat) {
+        chatMessageAdapter.setMessages(savedChat);
+        loadingOlderMessages = false;
+        noMoreOlderMessages = false;
 
+        controllerUtils.scrollListViewToBottom(mainChatView);
     }
 
     public void updateTopic(final String topic) {
@@ -22,10 +22,15 @@
 
 package net.usikkert.kouchat.android.controller;
 
+import java.util.List;
+
 import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.android.R;
 import net.usikkert.kouchat.android.chatwindow.AndroidPrivateChatWindow;
 import net.usikkert.kouchat.android.chatwindow.AndroidUserInterface;
+import net.usikkert.kouchat.android.chatwindow.ChatMessage;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageAdapter;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageBatcher;
 import net.usikkert.kouchat.android.service.ChatService;
 import net.usikkert.kouchat.android.service.ChatServiceBinder;
 import net.usikkert.kouchat.misc.User;
@@ -39,26 +44,25 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.view.KeyEvent;
 import android.view.View;
 import android.widget.EditText;
-import android.widget.ScrollView;
-import android.widget.TextView;
+import android.widget.ListView;
 
 /**
  * Controller for private chat with another user.
  *
  * @author Christian Ihle
  */
-public class PrivateChatController extends SherlockActivity {
+public class PrivateChatController extends SherlockActivity implements ChatMessageBatcher.Listener {
 
     private ControllerUtils controllerUtils = new ControllerUtils();
 
-    private TextView privateChatView;
+    private ListView privateChatView;
+    private ChatMessageAdapter chatMessageAdapter;
+    private ChatMessageBatcher chatMessageBatcher;
     private EditText privateChatInput;
-    private ScrollView privateChatScroll;
     private ServiceConnection serviceConnection;
 
     private AndroidUserInterface androidUserInterface;
@@ -78,8 +82,10 @@ public class PrivateChatController extends SherlockActivity {
         setContentView(R.layout.private_chat);
 
         privateChatInput = (EditText) findViewById(R.id.privateChatInput);
-        privateChatView = (TextView) findViewById(R.id.privateChatView);
-        privateChatScroll = (ScrollView) findViewById(R.id.privateChatScroll);
+        privateChatView = (ListView) findViewById(R.id.privateChatView);
+        chatMessageAdapter = new ChatMessageAdapter(this);
+        chatMessageBatcher = new ChatMessageBatcher(this);
+        privateChatView.setAdapter(chatMessageAdapter);
 
         final Intent chatServiceIntent = createChatServiceIntent();
         serviceConnection = createServiceConnection();
@@ -88,7 +94,6 @@ public class PrivateChatController extends SherlockActivity {
         final ActionBar actionBar = getSupportActionBar();
         actionBar.setDisplayHomeAsUpEnabled(true);
 
-        controllerUtils.makeLinksClickable(privateChatView);
         privateChatInput.requestFocus();
     }
 
@@ -101,8 +106,11 @@ public class PrivateChatController extends SherlockActivity {
             unbindService(serviceConnection);
         }
 
+        chatMessageBatcher.cancel();
+        chatMessageAdapter.onDestroy();
         privateChatInput.setOnKeyListener(null);
-        controllerUtils.removeReferencesToTextViewFromText(privateChatView);
+        controllerUtils.removeReferencesToTextViewsFromText(privateChatView);
+        privateChatView.setAdapter(null);
         controllerUtils.removeReferencesToTextViewFromText(privateChatInput);
 
         androidUserInterface = null;
@@ -111,8 +119,9 @@ public class PrivateChatController extends SherlockActivity {
 
         controllerUtils = null;
         privateChatView = null;
+        chatMessageAdapter = null;
+        chatMessageBatcher = null;
         privateChatInput = null;
-        privateChatScroll = null;
         serviceConnection = null;
 
         super.onDestroy();
@@ -263,38 +272,45 @@ public class PrivateChatController extends SherlockActivity {
         androidUserInterface.activatedPrivChat(user);
     }
 
-    public void updatePrivateChat(final CharSequence savedChat) {
-        privateChatView.setText(savedChat);
+    public void updatePrivateChat(final List<ChatMessage> savedChat) {
+        chatMessageAdapter.setMessages(savedChat);
+        controllerUtils.scrollListViewToBottom(privateChatView);
+    }
 
-        // Run this after 1 second, because right after a rotate the layout is null and it's not possible to scroll yet
-        new Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                // If rotating fast, this activity could already be destroyed before this runs
-                if (!destroyed) {
-                    controllerUtils.scrollTextViewToBottom(privateChatView, privateChatScroll);
-                }
-            }
-        }, ControllerUtils.ONE_SECOND);
+    /**
+     * Adds a message to the private chat in the next display frame. Can be called from any thread.
+     *
+     * @param privateMessage The message to add.
+     */
+    public void appendToPrivateChat(final ChatMessage privateMessage) {
+        final ChatMessageBatcher batcher = chatMessageBatcher;
+
+        // Could be called from another thread while this activity is being destroyed
+        if (batcher != null) {
+            batcher.add(privateMessage);
+        }
     }
 
-    public void appendToPrivateChat(final CharSequence privateMessage) {
-        runOnUiThread(new Runnable() {
-            public void run() {
-                if (destroyed) {
-                    return; // If rotating fast, this activity could already be destroyed before this runs
-                }
+    /**
+     * Adds all the messages received during the last display frame to the private chat,
+     * with a single update of the chat view.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void appendMessages(final List<ChatMessage> messages) {
+        if (destroyed) {
+            return; // If rotating fast, this activity could already be destroyed before this runs
+        }
 
-                privateChatView.append(privateMessage);
+        chatMessageAdapter.addAll(messages);
 
-                // Allow a way to avoid automatic scrolling to the bottom.
-                // Just scroll somewhere and click on the text to remove focus from the input field.
-                // Also fixes the annoying jumping scroll that happens sometimes.
-                if (privateChatInput.hasFocus()) {
-                    controllerUtils.scrollTextViewToBottom(privateChatView, privateChatScroll);
-                }
-            }
-        });
+        // Allow a way to avoid automatic scrolling to the bottom.
+        // Just scroll somewhere and click on the text to remove focus from the input field.
+        // Also fixes the annoying jumping scroll that happens sometimes.
+        if (privateChatInput.hasFocus()) {
+            controllerUtils.scrollListViewToBottom(privateChatView);
+        }
     }
 
     /**
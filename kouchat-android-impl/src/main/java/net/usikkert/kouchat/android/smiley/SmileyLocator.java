@@ -23,22 +23,41 @@
 package net.usikkert.kouchat.android.smiley;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import net.usikkert.kouchat.util.Validate;
 
 /**
  * Class for extracting smileys from lines of text.
  *
+ * <p>All the smiley codes are combined in a single Aho-Corasick automaton, so each line of text
+ * is only read once, no matter how many smileys are supported. A smiley is only found when it has
+ * whitespace, or the beginning or end of the line, on both sides.
+ * See http://en.wikipedia.org/wiki/Aho%E2%80%93Corasick_string_matching_algorithm.</p>
+ *
  * @author Christian Ihle
  */
 public class SmileyLocator {
 
-    private final Set<Pattern> smileyPatterns;
+    private static final Comparator<Smiley> POSITION_COMPARATOR = new Comparator<Smiley>() {
+        @Override
+        public int compare(final Smiley smiley1, final Smiley smiley2) {
+            if (smiley1.getStartPosition() != smiley2.getStartPosition()) {
+                return smiley1.getStartPosition() - smiley2.getStartPosition();
+            }
+
+            return smiley1.getEndPosition() - smiley2.getEndPosition();
+        }
+    };
+
+    private final Node root;
+    private final int numberOfSmileyCodes;
 
     /**
      * Constructor.
@@ -48,57 +67,283 @@ public class SmileyLocator {
     public SmileyLocator(final Set<String> smileyCodes) {
         Validate.notNull(smileyCodes, "Smiley codes can not be null");
 
-        smileyPatterns = new HashSet<Pattern>();
-        addSmileyPatterns(smileyCodes);
+        root = new Node();
+        numberOfSmileyCodes = smileyCodes.size();
+
+        addSmileyCodes(smileyCodes);
+        addFailureLinks();
     }
 
     /**
      * Finds all the smileys in the given text, based on the registered smiley codes.
      *
      * @param text The text to find smileys in.
-     * @return List of the detected smileys, with their position in the text.
+     * @return List of the detected smileys, with their position in the text, sorted by position.
      */
     public List<Smiley> findSmileys(final String text) {
         Validate.notNull(text, "Text can not be null");
 
         final ArrayList<Smiley> detectedSmileys = new ArrayList<Smiley>();
 
-        for (final Pattern smileyPattern : smileyPatterns) {
-            final Matcher matcher = smileyPattern.matcher(text);
+        // Smileys of the same code never overlap, like when searching for one code at a time
+        final int[] lastEndPositions = new int[numberOfSmileyCodes];
+        boolean sorted = true;
+        Node node = root;
+
+        for (int i = 0; i < text.length(); i++) {
+            node = node.next(text.charAt(i));
 
-            while (matcher.find()) {
-                detectedSmileys.add(createSmileyFromMatch(matcher));
+            for (Node match = node.getMatch(); match != null; match = match.getFailure().getMatch()) {
+                final int endPosition = i + 1;
+                final int startPosition = endPosition - match.getDepth();
+
+                if (startPosition >= lastEndPositions[match.getCodeIndex()] && isSeparated(text, startPosition, endPosition)) {
+                    lastEndPositions[match.getCodeIndex()] = endPosition;
+                    sorted &= isAfterLast(detectedSmileys, startPosition);
+                    detectedSmileys.add(new Smiley(match.getCode(), startPosition, endPosition));
+                }
             }
         }
 
+        // Only smiley codes with whitespace in them can make the smileys come out of order
+        if (!sorted) {
+            Collections.sort(detectedSmileys, POSITION_COMPARATOR);
+        }
+
         return detectedSmileys;
     }
 
-    private Smiley createSmileyFromMatch(final Matcher matcher) {
-        return new Smiley(matcher.group(), matcher.start(), matcher.end());
+    private boolean isAfterLast(final List<Smiley> detectedSmileys, final int startPosition) {
+        return detectedSmileys.isEmpty() || detectedSmileys.get(detectedSmileys.size() - 1).getStartPosition() < startPosition;
     }
 
     /**
-     * Creates regex patterns required to locate each of the smileys in the set of smiley codes.
-     *
-     * <pre>
-     *   Group 1: beginning of line or whitespace (not consumed)
-     *   Group 2: smiley
-     *   Group 3: whitespace or end of line (not consumed)
-     * </pre>
-     *
-     * <p>Uses lookahead (<code>?<=</code>) and lookbehind (<code>?=</code>).
-     * See http://www.regular-expressions.info/lookaround.html.</p>
-     *
-     * <p>This makes it possible to require a space between smileys, without the space being seen as part of the
-     * match. If the space became part of the match, then it would require 2 spaces to match 2 smileys
-     * next to each other.</p>
+     * Checks if the match has whitespace or the beginning of the text before it,
+     * and whitespace or the end of the text after it.
      *
-     * @param smileyCodes The smileys to create patterns for.
+     * <p>The whitespace is not part of the match. That makes it possible to require a space between smileys,
+     * without requiring 2 spaces to match 2 smileys next to each other.</p>
      */
-    private void addSmileyPatterns(final Set<String> smileyCodes) {
+    private boolean isSeparated(final String text, final int startPosition, final int endPosition) {
+        return (startPosition == 0 || isWhitespace(text.charAt(startPosition - 1))) &&
+                (endPosition == text.length() || isWhitespace(text.charAt(endPosition)));
+    }
+
+    /**
+     * Same as <code>\s</code> in regular expressions.
+     */
+    private boolean isWhitespace(final char character) {
+        return character == ' ' || character == '\t' || character == '\n' || character == '\u000B' ||
+                character == '\f' || character == '\r';
+    }
+
+    /**
+     * Adds each of the smiley codes as a path from the root node, like in a trie.
+     */
+    private void addSmileyCodes(final Set<String> smileyCodes) {
+        int codeIndex = 0;
+
         for (final String smileyCode : smileyCodes) {
-            smileyPatterns.add(Pattern.compile("(?<=^|\\s)(" + Pattern.quote(smileyCode) + ")(?=\\s|$)"));
+            Validate.notEmpty(smileyCode, "Smiley code can not be empty");
+
+            Node node = root;
+
+            for (int i = 0; i < smileyCode.length(); i++) {
+                node = node.addChild(smileyCode.charAt(i));
+            }
+
+            node.setCode(smileyCode, codeIndex);
+            codeIndex++;
+        }
+    }
+
+    /**
+     * Links each node to the node of the longest proper suffix of its path, and to the closest
+     * node on that chain with a complete smiley code. Done breadth first, so the nodes closer
+     * to the root are linked first, and all the matches at a position can be found
+     * without searching.
+     */
+    private void addFailureLinks() {
+        final Queue<Node> queue = new LinkedList<Node>();
+
+        root.setFailure(root);
+
+        for (final Node child : root.getChildren()) {
+            child.setFailure(root);
+            child.setMatch();
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            final Node node = queue.remove();
+
+            for (int i = 0; i < node.getChildren().length; i++) {
+                final Node child = node.getChildren()[i];
+                final char character = node.getCharacters()[i];
+
+                Node failure = node.getFailure();
+
+                while (failure != root && failure.getChild(character) == null) {
+                    failure = failure.getFailure();
+                }
+
+                final Node failureChild = failure.getChild(character);
+
+                if (failureChild != null) {
+                    child.setFailure(failureChild);
+                }
+
+                else {
+                    child.setFailure(root);
+                }
+
+                child.setMatch();
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * A node in the automaton. The path from the root to the node is a prefix of one or more smiley codes.
+     */
+    private static final class Node {
+
+        private char[] characters;
+        private Node[] children;
+        private Node failure;
+
+        /** This node if it completes a smiley code, or else the closest node on the failure chain that does. */
+        private Node match;
+
+        /** The number of characters in the path from the root. */
+        private int depth;
+
+        /** The complete smiley code ending at this node, if any. */
+        private String code;
+        private int codeIndex;
+
+        Node() {
+            characters = new char[0];
+            children = new Node[0];
+        }
+
+        /**
+         * Gets the child for the character, or <code>null</code>.
+         */
+        Node getChild(final char character) {
+            final int index = Arrays.binarySearch(characters, character);
+
+            if (index < 0) {
+                return null;
+            }
+
+            return children[index];
+        }
+
+        /**
+         * Gets the child for the character, or adds it if missing. Keeps the children sorted.
+         */
+        Node addChild(final char character) {
+            final int index = Arrays.binarySearch(characters, character);
+
+            if (index >= 0) {
+                return children[index];
+            }
+
+            final int insertAt = -index - 1;
+            final Node child = new Node();
+            child.depth = depth + 1;
+
+            final char[] newCharacters = new char[characters.length + 1];
+            System.arraycopy(characters, 0, newCharacters, 0, insertAt);
+            System.arraycopy(characters, insertAt, newCharacters, insertAt + 1, characters.length - insertAt);
+            newCharacters[insertAt] = character;
+
+            final Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            newChildren[insertAt] = child;
+
+            characters = newCharacters;
+            children = newChildren;
+
+            return child;
+        }
+
+        /**
+         * Follows the failure links until a node with a child for the character is found,
+         * and returns that child. Returns the root if no such node exists.
+         */
+        Node next(final char character) {
+            Node node = this;
+
+            while (true) {
+                final Node child = node.getChild(character);
+
+                if (child != null) {
+                    return child;
+                }
+
+                if (node.failure == node) {
+                    return node;
+                }
+
+                node = node.failure;
+            }
+        }
+
+        /**
+         * Gets this node if it completes a smiley code, or else the closest node on the failure chain that does.
+         * Returns <code>null</code> if there is no such node.
+         */
+        Node getMatch() {
+            return match;
+        }
+
+        /**
+         * Sets the match of this node, after the failure link is set, and the match of the failure node.
+         */
+        void setMatch() {
+            if (code != null) {
+                match = this;
+            }
+
+            else {
+                match = failure.match;
+            }
+        }
+
+        char[] getCharacters() {
+            return characters;
+        }
+
+        Node[] getChildren() {
+            return children;
+        }
+
+        Node getFailure() {
+            return failure;
+        }
+
+        void setFailure(final Node failure) {
+            this.failure = failure;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        String getCode() {
+            return code;
+        }
+
+        int getCodeIndex() {
+            return codeIndex;
+        }
+
+        void setCode(final String code, final int codeIndex) {
+            this.code = code;
+            this.codeIndex = codeIndex;
         }
     }
 }
@@ -0,0 +1,41 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.event;
+
+/**
+ * This interface is used to be notified when a message queued for sending
+ * with {@link net.usikkert.kouchat.net.MessageSender} is done.
+ *
+ * @author Christian Ihle
+ */
+public interface MessageSentListener {
+
+    /**
+     * Called by the sender thread when the message is done.
+     *
+     * @param message The message that was queued for sending.
+     * @param sent If the message was sent. Messages that failed, or were replaced by a newer message
+     *             before they could be sent, are not sent.
+     */
+    void messageSent(String message, boolean sent);
+}
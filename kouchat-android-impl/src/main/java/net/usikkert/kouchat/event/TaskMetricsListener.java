@@ -0,0 +1,50 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.event;
+
+/**
+ * This interface can be used to monitor the tasks run by a
+ * {@link net.usikkert.kouchat.util.BoundedExecutor}.
+ *
+ * @author Christian Ihle
+ */
+public interface TaskMetricsListener {
+
+    /**
+     * Called after a task has finished running.
+     *
+     * @param executorName The name of the executor that ran the task.
+     * @param queueDepth The number of tasks still waiting in the queue.
+     * @param waitTime Number of milliseconds the task waited in the queue before it started.
+     * @param runTime Number of milliseconds the task used to run.
+     */
+    void taskCompleted(String executorName, int queueDepth, long waitTime, long runTime);
+
+    /**
+     * Called when a task was rejected because the queue was full.
+     *
+     * @param executorName The name of the executor that rejected the task.
+     * @param queueDepth The number of tasks waiting in the queue.
+     */
+    void taskRejected(String executorName, int queueDepth);
+}
@@ -0,0 +1,245 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The records found by a {@link HistoryQuery}, in time order.
+ *
+ * <p>The blocks that might have matching records are read one at a time, while iterating,
+ * so only a single block of records is in memory at the same time. Records in the blocks
+ * that don't match the query are skipped.</p>
+ *
+ * <p>A record that could not be read ends the iteration, and the error is available
+ * from {@link #getError()}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class HistoryCursor implements Iterator<HistoryRecord>, Closeable {
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(HistoryCursor.class.getName());
+
+    /** The query. */
+    private final HistoryQuery query;
+
+    /** The blocks to read, in order. */
+    private final List<BlockRange> blockRanges;
+
+    /** The matching records in the current block. */
+    private final List<HistoryRecord> records;
+
+    /** The next block to read. */
+    private int nextBlock;
+
+    /** The next record to return from the current block. */
+    private int nextRecord;
+
+    /** The data file currently open, or <code>null</code>. */
+    private RandomAccessFile openFile;
+
+    /** The name of the data file currently open, or <code>null</code>. */
+    private File openFileName;
+
+    /** The error that ended the iteration, or <code>null</code>. */
+    private IOException error;
+
+    /**
+     * Constructor.
+     *
+     * @param query The query.
+     * @param blockRanges The blocks to read, in order.
+     */
+    HistoryCursor(final HistoryQuery query, final List<BlockRange> blockRanges) {
+        this.query = query;
+        this.blockRanges = blockRanges;
+
+        records = new ArrayList<HistoryRecord>(HistorySegment.RECORDS_PER_BLOCK);
+    }
+
+    /**
+     * Checks if there are more matching records. Reads blocks until a matching record is found.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (nextRecord >= records.size()) {
+            if (nextBlock >= blockRanges.size() || error != null) {
+                close();
+                return false;
+            }
+
+            readBlock(blockRanges.get(nextBlock));
+            nextBlock++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the next matching record.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public HistoryRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final HistoryRecord record = records.get(nextRecord);
+        nextRecord++;
+
+        return record;
+    }
+
+    /**
+     * Not supported, as the history is append-only.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("History can not be changed");
+    }
+
+    /**
+     * Closes the data file currently open. Done automatically when the last record has been returned.
+     */
+    @Override
+    public void close() {
+        if (openFile != null) {
+            try {
+                openFile.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+
+            finally {
+                openFile = null;
+                openFileName = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the error that ended the iteration, if any.
+     *
+     * @return The error, or <code>null</code>.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Reads the records in a block, and keeps the ones matching the query.
+     *
+     * @param blockRange The block to read.
+     */
+    private void readBlock(final BlockRange blockRange) {
+        records.clear();
+        nextRecord = 0;
+
+        try {
+            final byte[] bytes = new byte[(int) (blockRange.end - blockRange.start)];
+            final RandomAccessFile file = getFile(blockRange.dataFile);
+            file.seek(blockRange.start);
+            file.readFully(bytes);
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+            while (in.available() > 0) {
+                final HistoryRecord record = HistorySegment.readRecord(in);
+
+                if (query.matches(record)) {
+                    records.add(record);
+                }
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Could not read history from " + blockRange.dataFile + ": " + e.toString(), e);
+            error = e;
+        }
+    }
+
+    /**
+     * Gets the data file, and opens it if it's not the one already open.
+     *
+     * @param dataFile The data file.
+     * @return The open data file.
+     * @throws IOException If the file could not be opened.
+     */
+    private RandomAccessFile getFile(final File dataFile) throws IOException {
+        if (!dataFile.equals(openFileName)) {
+            close();
+            openFile = new RandomAccessFile(dataFile, "r");
+            openFileName = dataFile;
+        }
+
+        return openFile;
+    }
+
+    /**
+     * A block of records in a data file.
+     */
+    static class BlockRange {
+
+        /** The data file. */
+        private final File dataFile;
+
+        /** The position of the first record in the block. */
+        private final long start;
+
+        /** The position after the last record in the block. */
+        private final long end;
+
+        /**
+         * Constructor.
+         *
+         * @param dataFile The data file.
+         * @param start The position of the first record in the block.
+         * @param end The position after the last record in the block.
+         */
+        BlockRange(final File dataFile, final long start, final long end) {
+            this.dataFile = dataFile;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import java.util.Set;
+
+/**
+ * The criteria for finding messages in the {@link HistoryStore}.
+ *
+ * <p>All the criteria that are set must match. By default, all messages match.</p>
+ *
+ * @author Christian Ihle
+ */
+public class HistoryQuery {
+
+    /** Find messages written at this time or later. */
+    private long fromTime;
+
+    /** Find messages written at this time or earlier. */
+    private long toTime;
+
+    /** Find messages from the user with this code, or <code>null</code> for all users. */
+    private Integer userCode;
+
+    /** Find messages from users with this nick name, or <code>null</code> for all nick names. */
+    private String nick;
+
+    /** Find messages containing all the words in this text, or <code>null</code> for all messages. */
+    private String keyword;
+
+    /**
+     * Constructor. Matches all messages.
+     */
+    public HistoryQuery() {
+        fromTime = 0;
+        toTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the earliest time of the messages to find.
+     *
+     * @return The earliest time.
+     */
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    /**
+     * Sets the earliest time of the messages to find.
+     *
+     * @param fromTime The earliest time, inclusive.
+     */
+    public void setFromTime(final long fromTime) {
+        this.fromTime = fromTime;
+    }
+
+    /**
+     * Gets the latest time of the messages to find.
+     *
+     * @return The latest time.
+     */
+    public long getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Sets the latest time of the messages to find.
+     *
+     * @param toTime The latest time, inclusive.
+     */
+    public void setToTime(final long toTime) {
+        this.toTime = toTime;
+    }
+
+    /**
+     * Gets the user code of the user to find messages from.
+     *
+     * @return The user code, or <code>null</code> for all users.
+     */
+    public Integer getUserCode() {
+        return userCode;
+    }
+
+    /**
+     * Sets the user code of the user to find messages from.
+     *
+     * @param userCode The user code, or <code>null</code> for all users.
+     */
+    public void setUserCode(final Integer userCode) {
+        this.userCode = userCode;
+    }
+
+    /**
+     * Gets the nick name of the users to find messages from.
+     *
+     * @return The nick name, or <code>null</code> for all nick names.
+     */
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * Sets the nick name of the users to find messages from. Not case sensitive.
+     *
+     * @param nick The nick name, or <code>null</code> for all nick names.
+     */
+    public void setNick(final String nick) {
+        this.nick = nick;
+    }
+
+    /**
+     * Gets the text with the words the messages to find must contain.
+     *
+     * @return The keyword, or <code>null</code> for all messages.
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Sets the text with the words the messages to find must contain.
+     * Only whole words match, and case is ignored.
+     *
+     * @param keyword The keyword, or <code>null</code> for all messages.
+     */
+    public void setKeyword(final String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Checks if the record matches all the criteria of this query.
+     *
+     * @param record The record to check.
+     * @return If the record matches.
+     */
+    boolean matches(final HistoryRecord record) {
+        if (record.getTime() < fromTime || record.getTime() > toTime) {
+            return false;
+        }
+
+        if (userCode != null && userCode != record.getUserCode()) {
+            return false;
+        }
+
+        if (nick != null && !nick.equalsIgnoreCase(record.getNick())) {
+            return false;
+        }
+
+        if (keyword != null) {
+            final Set<String> words = HistorySegment.getWords(record.getMessage());
+
+            if (!words.containsAll(HistorySegment.getWords(keyword))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
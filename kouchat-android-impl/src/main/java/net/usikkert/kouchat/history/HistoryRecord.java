@@ -0,0 +1,112 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A single message in the chat history.
+ *
+ * @author Christian Ihle
+ */
+public class HistoryRecord {
+
+    /** User code used for messages from the system, and not from a user. */
+    public static final int SYSTEM_USER_CODE = 0;
+
+    /** The time of the message. */
+    private final long time;
+
+    /** The unique code of the user who wrote the message. */
+    private final int userCode;
+
+    /** The nick name of the user when the message was written. */
+    private final String nick;
+
+    /** The message. */
+    private final String message;
+
+    /**
+     * Constructor.
+     *
+     * @param time The time of the message.
+     * @param userCode The unique code of the user who wrote the message, or {@link #SYSTEM_USER_CODE}.
+     * @param nick The nick name of the user when the message was written. Empty for system messages.
+     * @param message The message.
+     */
+    public HistoryRecord(final long time, final int userCode, final String nick, final String message) {
+        Validate.notNull(nick, "Nick can not be null");
+        Validate.notNull(message, "Message can not be null");
+
+        this.time = time;
+        this.userCode = userCode;
+        this.nick = nick;
+        this.message = message;
+    }
+
+    /**
+     * Gets the time of the message.
+     *
+     * @return The time of the message.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the unique code of the user who wrote the message.
+     *
+     * @return The user code, or {@link #SYSTEM_USER_CODE}.
+     */
+    public int getUserCode() {
+        return userCode;
+    }
+
+    /**
+     * Gets the nick name of the user when the message was written.
+     *
+     * @return The nick name. Empty for system messages.
+     */
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * Gets the message.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Shows the time, user code, nick name and message.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "[" + time + "] " + userCode + " <" + nick + ">: " + message;
+    }
+}
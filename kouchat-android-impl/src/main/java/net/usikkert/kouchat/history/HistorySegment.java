@@ -0,0 +1,863 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One segment of the {@link HistoryStore}, with the index of the records in the segment.
+ *
+ * <p>The records in the data file are split into blocks of {@link #RECORDS_PER_BLOCK} records.
+ * The time index has the position and the time of the first record of each block, and is
+ * always in memory. The term index has the blocks where each word, nick name and user code
+ * is found. It's kept in memory for the active segment, and read from the index file when
+ * needed for the full segments.</p>
+ *
+ * <p>Each record in the data file is written as the length of the rest of the record,
+ * the time, the user code, the nick name and the message.</p>
+ *
+ * @author Christian Ihle
+ */
+final class HistorySegment {
+
+    /** Number of records in each block. */
+    static final int RECORDS_PER_BLOCK = 64;
+
+    /** File name extension of the data files. */
+    static final String DATA_EXTENSION = ".seg";
+
+    /** File name extension of the index files. */
+    static final String INDEX_EXTENSION = ".idx";
+
+    /** Version of the index file format. */
+    private static final int INDEX_VERSION = 1;
+
+    /** The number of the segment. Newer segments have higher numbers. */
+    private final int number;
+
+    /** The file with the records. */
+    private final File dataFile;
+
+    /** The file with the index of the records, when the segment is full. */
+    private final File indexFile;
+
+    /** The position of the first record in each block. */
+    private long[] blockPositions;
+
+    /** The time of the first record in each block. */
+    private long[] blockTimes;
+
+    /** The number of blocks. */
+    private int blockCount;
+
+    /** The number of records. */
+    private int recordCount;
+
+    /** The size of the valid records in the data file. */
+    private long size;
+
+    /** The time of the newest record. */
+    private long lastTime;
+
+    /** The term index, if kept in memory. */
+    private TermIndex termIndex;
+
+    /**
+     * Constructor for an empty segment.
+     *
+     * @param directory The directory with the history files.
+     * @param number The number of the segment.
+     */
+    HistorySegment(final File directory, final int number) {
+        this.number = number;
+
+        final String name = getName(number);
+        dataFile = new File(directory, name + DATA_EXTENSION);
+        indexFile = new File(directory, name + INDEX_EXTENSION);
+
+        blockPositions = new long[16];
+        blockTimes = new long[16];
+        termIndex = new TermIndex();
+    }
+
+    /**
+     * Loads an existing segment. Reads the time index from the index file,
+     * or from the data file if the index file is missing or outdated.
+     * A missing or outdated index file is written again, unless the segment is active.
+     *
+     * @param directory The directory with the history files.
+     * @param number The number of the segment.
+     * @param active If this is the segment new records are added to.
+     * @return The loaded segment.
+     * @throws IOException If reading failed.
+     */
+    static HistorySegment load(final File directory, final int number, final boolean active) throws IOException {
+        final HistorySegment segment = new HistorySegment(directory, number);
+
+        if (active) {
+            segment.scan();
+        }
+
+        else if (segment.readTimeIndex()) {
+            segment.termIndex = null;
+        }
+
+        else {
+            segment.scan();
+            segment.writeIndex();
+        }
+
+        return segment;
+    }
+
+    /**
+     * Gets the file name of a segment, without extension.
+     *
+     * @param number The number of the segment.
+     * @return The file name.
+     */
+    static String getName(final int number) {
+        final String digits = String.valueOf(number);
+        final char[] zeros = new char[Math.max(0, 8 - digits.length())];
+        Arrays.fill(zeros, '0');
+
+        return new String(zeros) + digits;
+    }
+
+    /**
+     * Splits the text into lower case words, for the term index.
+     *
+     * @param text The text to split.
+     * @return The words.
+     */
+    static Set<String> getWords(final String text) {
+        final Set<String> words = new HashSet<String>();
+        final StringBuilder word = new StringBuilder();
+
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                word.append(Character.toLowerCase(text.charAt(i)));
+            }
+
+            else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Converts a nick name to lower case, for the term index.
+     *
+     * @param nick The nick name.
+     * @return The nick name in lower case.
+     */
+    static String toNickKey(final String nick) {
+        final StringBuilder key = new StringBuilder(nick.length());
+
+        for (int i = 0; i < nick.length(); i++) {
+            key.append(Character.toLowerCase(nick.charAt(i)));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Writes a record, with the length first.
+     *
+     * @param out Where to write the record.
+     * @param record The record to write.
+     * @param buffer Reusable buffer for the contents of the record.
+     * @param bufferOut Writes to the buffer.
+     * @return The number of bytes written.
+     * @throws IOException If writing failed.
+     */
+    static int writeRecord(final DataOutputStream out, final HistoryRecord record,
+                           final ByteArrayOutputStream buffer, final DataOutputStream bufferOut) throws IOException {
+        buffer.reset();
+        bufferOut.writeLong(record.getTime());
+        bufferOut.writeInt(record.getUserCode());
+        bufferOut.writeUTF(record.getNick());
+        bufferOut.writeUTF(record.getMessage());
+        bufferOut.flush();
+
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+
+        return 4 + buffer.size();
+    }
+
+    /**
+     * Reads a record, with the length first.
+     *
+     * @param in Where to read the record from.
+     * @return The record.
+     * @throws IOException If reading failed.
+     */
+    static HistoryRecord readRecord(final DataInputStream in) throws IOException {
+        in.readInt();
+
+        final long time = in.readLong();
+        final int userCode = in.readInt();
+        final String nick = in.readUTF();
+        final String message = in.readUTF();
+
+        return new HistoryRecord(time, userCode, nick, message);
+    }
+
+    /**
+     * Adds a record written to the data file to the index.
+     *
+     * @param record The record.
+     * @param recordSize The number of bytes used by the record.
+     */
+    void addRecord(final HistoryRecord record, final int recordSize) {
+        if (recordCount % RECORDS_PER_BLOCK == 0) {
+            if (blockCount == blockPositions.length) {
+                blockPositions = Arrays.copyOf(blockPositions, blockCount * 2);
+                blockTimes = Arrays.copyOf(blockTimes, blockCount * 2);
+            }
+
+            blockPositions[blockCount] = size;
+            blockTimes[blockCount] = record.getTime();
+            blockCount++;
+        }
+
+        final int block = blockCount - 1;
+
+        for (final String word : getWords(record.getMessage())) {
+            termIndex.addWord(word, block);
+        }
+
+        termIndex.addNick(toNickKey(record.getNick()), block);
+        termIndex.addUser(record.getUserCode(), block);
+
+        recordCount++;
+        size += recordSize;
+        lastTime = Math.max(lastTime, record.getTime());
+    }
+
+    /**
+     * Finds the blocks that might have records matching the query.
+     *
+     * @param query The query.
+     * @return The numbers of the blocks, in order.
+     * @throws IOException If the term index could not be read.
+     */
+    int[] findBlocks(final HistoryQuery query) throws IOException {
+        if (blockCount == 0 || query.getFromTime() > lastTime || query.getToTime() < blockTimes[0]) {
+            return new int[0];
+        }
+
+        final int firstBlock = findBlock(query.getFromTime());
+        final int lastBlock = findBlock(query.getToTime());
+
+        if (query.getUserCode() == null && query.getNick() == null && query.getKeyword() == null) {
+            final int[] blocks = new int[lastBlock - firstBlock + 1];
+
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = firstBlock + i;
+            }
+
+            return blocks;
+        }
+
+        return getTermIndex().findBlocks(query, firstBlock, lastBlock);
+    }
+
+    /**
+     * Finds the block a record with the given time would be in.
+     *
+     * @param time The time to find.
+     * @return The last block starting at or before the time, or the first block.
+     */
+    private int findBlock(final long time) {
+        int low = 0;
+        int high = blockCount - 1;
+
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+
+            if (blockTimes[middle] <= time) {
+                low = middle;
+            }
+
+            else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Gets the position of the first record in a block.
+     *
+     * @param block The number of the block.
+     * @return The position in the data file.
+     */
+    long getBlockStart(final int block) {
+        return blockPositions[block];
+    }
+
+    /**
+     * Gets the position after the last record in a block.
+     *
+     * @param block The number of the block.
+     * @return The position in the data file.
+     */
+    long getBlockEnd(final int block) {
+        if (block + 1 < blockCount) {
+            return blockPositions[block + 1];
+        }
+
+        return size;
+    }
+
+    /**
+     * Gets the number of the segment.
+     *
+     * @return The number of the segment.
+     */
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * Gets the file with the records.
+     *
+     * @return The data file.
+     */
+    File getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * Gets the file with the index, when the segment is full.
+     *
+     * @return The index file.
+     */
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Gets the size of the valid records in the data file.
+     *
+     * @return The size in bytes.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of records in the segment.
+     *
+     * @return The number of records.
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Gets the time of the newest record in the segment.
+     *
+     * @return The time of the newest record, or 0 if empty.
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Writes the index file, and removes the term index from memory.
+     * Done when the segment is full, and no more records will be added.
+     *
+     * @throws IOException If writing failed.
+     */
+    void writeIndex() throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+
+        try {
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(size);
+            out.writeInt(recordCount);
+            out.writeLong(lastTime);
+            out.writeInt(blockCount);
+
+            for (int i = 0; i < blockCount; i++) {
+                out.writeLong(blockPositions[i]);
+                out.writeLong(blockTimes[i]);
+            }
+
+            termIndex.write(out);
+        }
+
+        finally {
+            out.close();
+        }
+
+        termIndex = null;
+    }
+
+    /**
+     * Reads the time index from the index file.
+     *
+     * @return If the index file exists, and matches the data file.
+     * @throws IOException If reading failed.
+     */
+    private boolean readTimeIndex() throws IOException {
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+        try {
+            return readTimeIndex(in);
+        }
+
+        catch (final EOFException e) {
+            return false;
+        }
+
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the time index from the start of the index file.
+     *
+     * @param in The index file.
+     * @return If the index file matches the data file.
+     * @throws IOException If reading failed.
+     */
+    private boolean readTimeIndex(final DataInputStream in) throws IOException {
+        if (in.readInt() != INDEX_VERSION || in.readLong() != dataFile.length()) {
+            return false;
+        }
+
+        size = dataFile.length();
+        recordCount = in.readInt();
+        lastTime = in.readLong();
+        blockCount = in.readInt();
+        blockPositions = new long[Math.max(1, blockCount)];
+        blockTimes = new long[Math.max(1, blockCount)];
+
+        for (int i = 0; i < blockCount; i++) {
+            blockPositions[i] = in.readLong();
+            blockTimes[i] = in.readLong();
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the term index, from memory or from the index file.
+     *
+     * @return The term index.
+     * @throws IOException If reading failed.
+     */
+    private TermIndex getTermIndex() throws IOException {
+        if (termIndex != null) {
+            return termIndex;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+        try {
+            if (!readTimeIndex(in)) {
+                throw new IOException("Outdated index file: " + indexFile);
+            }
+
+            return TermIndex.read(in);
+        }
+
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds the index from the records in the data file. Stops at the first incomplete record,
+     * which happens if the application stopped while writing.
+     *
+     * @throws IOException If reading failed.
+     */
+    private void scan() throws IOException {
+        if (!dataFile.exists()) {
+            return;
+        }
+
+        final long fileLength = dataFile.length();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+
+        try {
+            while (size + 4 <= fileLength) {
+                final int length = in.readInt();
+
+                if (length < 0 || size + 4 + length > fileLength) {
+                    break;
+                }
+
+                final long time = in.readLong();
+                final int userCode = in.readInt();
+                final String nick = in.readUTF();
+                final String message = in.readUTF();
+
+                addRecord(new HistoryRecord(time, userCode, nick, message), 4 + length);
+            }
+        }
+
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A growing list of block numbers, in order, without duplicates.
+     */
+    private static final class BlockList {
+
+        /** The block numbers. */
+        private int[] blocks;
+
+        /** The number of block numbers in use. */
+        private int count;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity The initial capacity.
+         */
+        BlockList(final int capacity) {
+            blocks = new int[Math.max(1, capacity)];
+        }
+
+        /**
+         * Adds the block, unless it's already the last one.
+         *
+         * @param block The block number.
+         */
+        void add(final int block) {
+            if (count > 0 && blocks[count - 1] == block) {
+                return;
+            }
+
+            if (count == blocks.length) {
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+
+            blocks[count] = block;
+            count++;
+        }
+
+        /**
+         * Checks if the block is in the list.
+         *
+         * @param block The block number.
+         * @return If the block is in the list.
+         */
+        boolean contains(final int block) {
+            return Arrays.binarySearch(blocks, 0, count, block) >= 0;
+        }
+
+        /**
+         * Writes the block numbers.
+         *
+         * @param out Where to write.
+         * @throws IOException If writing failed.
+         */
+        void write(final DataOutputStream out) throws IOException {
+            out.writeInt(count);
+
+            for (int i = 0; i < count; i++) {
+                out.writeInt(blocks[i]);
+            }
+        }
+
+        /**
+         * Reads block numbers written with {@link #write(DataOutputStream)}.
+         *
+         * @param in Where to read from.
+         * @return The block numbers.
+         * @throws IOException If reading failed.
+         */
+        static BlockList read(final DataInputStream in) throws IOException {
+            final int count = in.readInt();
+            final BlockList blockList = new BlockList(count);
+
+            for (int i = 0; i < count; i++) {
+                blockList.add(in.readInt());
+            }
+
+            return blockList;
+        }
+    }
+
+    /**
+     * The blocks where each word, nick name and user code is found.
+     */
+    private static final class TermIndex {
+
+        /** The blocks with each word, in lower case. */
+        private final Map<String, BlockList> words;
+
+        /** The blocks with each nick name, in lower case. */
+        private final Map<String, BlockList> nicks;
+
+        /** The blocks with each user code. */
+        private final Map<Integer, BlockList> users;
+
+        /**
+         * Constructor.
+         */
+        TermIndex() {
+            words = new HashMap<String, BlockList>();
+            nicks = new HashMap<String, BlockList>();
+            users = new HashMap<Integer, BlockList>();
+        }
+
+        /**
+         * Adds a word found in a block.
+         *
+         * @param word The word, in lower case.
+         * @param block The block number.
+         */
+        void addWord(final String word, final int block) {
+            getBlockList(words, word).add(block);
+        }
+
+        /**
+         * Adds a nick name found in a block.
+         *
+         * @param nick The nick name, in lower case.
+         * @param block The block number.
+         */
+        void addNick(final String nick, final int block) {
+            getBlockList(nicks, nick).add(block);
+        }
+
+        /**
+         * Adds a user code found in a block.
+         *
+         * @param userCode The user code.
+         * @param block The block number.
+         */
+        void addUser(final int userCode, final int block) {
+            getBlockList(users, userCode).add(block);
+        }
+
+        /**
+         * Finds the blocks between the first and last block, with all the terms in the query.
+         *
+         * @param query The query.
+         * @param firstBlock The first block to include.
+         * @param lastBlock The last block to include.
+         * @return The numbers of the blocks, in order.
+         */
+        int[] findBlocks(final HistoryQuery query, final int firstBlock, final int lastBlock) {
+            final Set<String> queryWords = getQueryWords(query);
+            final BlockList[] lists = new BlockList[2 + queryWords.size()];
+            int listCount = 0;
+
+            if (query.getUserCode() != null) {
+                lists[listCount++] = users.get(query.getUserCode());
+            }
+
+            if (query.getNick() != null) {
+                lists[listCount++] = nicks.get(toNickKey(query.getNick()));
+            }
+
+            for (final String word : queryWords) {
+                lists[listCount++] = words.get(word);
+            }
+
+            BlockList smallest = null;
+
+            for (int i = 0; i < listCount; i++) {
+                if (lists[i] == null) {
+                    return new int[0];
+                }
+
+                if (smallest == null || lists[i].count < smallest.count) {
+                    smallest = lists[i];
+                }
+            }
+
+            if (smallest == null) {
+                return new int[0];
+            }
+
+            final BlockList found = new BlockList(smallest.count);
+
+            for (int i = 0; i < smallest.count; i++) {
+                final int block = smallest.blocks[i];
+
+                if (block >= firstBlock && block <= lastBlock && isInAll(block, lists, listCount)) {
+                    found.add(block);
+                }
+            }
+
+            return Arrays.copyOf(found.blocks, found.count);
+        }
+
+        /**
+         * Gets the words of the keyword in the query.
+         *
+         * @param query The query.
+         * @return The words, or an empty set if no keyword.
+         */
+        private Set<String> getQueryWords(final HistoryQuery query) {
+            if (query.getKeyword() == null) {
+                return new HashSet<String>();
+            }
+
+            return getWords(query.getKeyword());
+        }
+
+        /**
+         * Checks if the block is in all the lists.
+         *
+         * @param block The block number.
+         * @param lists The lists to check.
+         * @param listCount The number of lists to check.
+         * @return If the block is in all the lists.
+         */
+        private boolean isInAll(final int block, final BlockList[] lists, final int listCount) {
+            for (int i = 0; i < listCount; i++) {
+                if (!lists[i].contains(block)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Writes the term index.
+         *
+         * @param out Where to write.
+         * @throws IOException If writing failed.
+         */
+        void write(final DataOutputStream out) throws IOException {
+            writeStringTerms(out, words);
+            writeStringTerms(out, nicks);
+            out.writeInt(users.size());
+
+            for (final Map.Entry<Integer, BlockList> entry : users.entrySet()) {
+                out.writeInt(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+
+        /**
+         * Reads a term index written with {@link #write(DataOutputStream)}.
+         *
+         * @param in Where to read from.
+         * @return The term index.
+         * @throws IOException If reading failed.
+         */
+        static TermIndex read(final DataInputStream in) throws IOException {
+            final TermIndex termIndex = new TermIndex();
+            readStringTerms(in, termIndex.words);
+            readStringTerms(in, termIndex.nicks);
+
+            final int userCount = in.readInt();
+
+            for (int i = 0; i < userCount; i++) {
+                final int userCode = in.readInt();
+                termIndex.users.put(userCode, BlockList.read(in));
+            }
+
+            return termIndex;
+        }
+
+        /**
+         * Writes terms with text as key.
+         *
+         * @param out Where to write.
+         * @param terms The terms to write.
+         * @throws IOException If writing failed.
+         */
+        private static void writeStringTerms(final DataOutputStream out, final Map<String, BlockList> terms) throws IOException {
+            out.writeInt(terms.size());
+
+            for (final Map.Entry<String, BlockList> entry : terms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+
+        /**
+         * Reads terms with text as key.
+         *
+         * @param in Where to read from.
+         * @param terms Where to put the terms.
+         * @throws IOException If reading failed.
+         */
+        private static void readStringTerms(final DataInputStream in, final Map<String, BlockList> terms) throws IOException {
+            final int termCount = in.readInt();
+
+            for (int i = 0; i < termCount; i++) {
+                final String term = in.readUTF();
+                terms.put(term, BlockList.read(in));
+            }
+        }
+
+        /**
+         * Gets the block list for a term, and adds a new one if missing.
+         *
+         * @param terms The terms.
+         * @param term The term to get.
+         * @param <K> The type of the term.
+         * @return The block list.
+         */
+        private static <K> BlockList getBlockList(final Map<K, BlockList> terms, final K term) {
+            BlockList blockList = terms.get(term);
+
+            if (blockList == null) {
+                blockList = new BlockList(1);
+                terms.put(term, blockList);
+            }
+
+            return blockList;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * An append-only store for the chat history, that can be searched without reading all of it.
+ *
+ * <p>The history is split into segments of about {@link #MAX_SEGMENT_SIZE} bytes. New records are
+ * always added to the newest segment, and a new segment is started when it's full. Each segment
+ * has an index of the time of the records, and of the words, nick names and user codes found in them,
+ * so a query only reads the parts of the segments that might have matching records.
+ * See {@link HistorySegment} for details.</p>
+ *
+ * <p>Records must be added in time order.</p>
+ *
+ * @author Christian Ihle
+ */
+public class HistoryStore {
+
+    /** The size of a segment before a new segment is started. */
+    static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(HistoryStore.class.getName());
+
+    /** The directory with the history files. */
+    private final File directory;
+
+    /** The size of a segment before a new segment is started. */
+    private final long maxSegmentSize;
+
+    /** All the segments, with the oldest first. The last one is the active segment. */
+    private final List<HistorySegment> segments;
+
+    /** Reusable buffer for the contents of a record. */
+    private final ByteArrayOutputStream recordBuffer;
+
+    /** Writes to the record buffer. */
+    private final DataOutputStream recordBufferOut;
+
+    /** Writes records to the data file of the active segment, or <code>null</code> if not open. */
+    private DataOutputStream out;
+
+    /**
+     * Constructor.
+     *
+     * @param directory The directory to keep the history files in.
+     */
+    public HistoryStore(final File directory) {
+        this(directory, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory The directory to keep the history files in.
+     * @param maxSegmentSize The size of a segment before a new segment is started.
+     */
+    HistoryStore(final File directory, final long maxSegmentSize) {
+        Validate.notNull(directory, "Directory can not be null");
+
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+
+        segments = new ArrayList<HistorySegment>();
+        recordBuffer = new ByteArrayOutputStream();
+        recordBufferOut = new DataOutputStream(recordBuffer);
+    }
+
+    /**
+     * Opens the store, and loads the index of the existing segments.
+     * The directory is created if missing.
+     *
+     * @throws IOException If the store could not be opened.
+     */
+    public synchronized void open() throws IOException {
+        if (out != null) {
+            return;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create path for history: " + directory);
+        }
+
+        final List<Integer> numbers = findSegmentNumbers();
+
+        for (int i = 0; i < numbers.size(); i++) {
+            segments.add(HistorySegment.load(directory, numbers.get(i), i == numbers.size() - 1));
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new HistorySegment(directory, 1));
+        }
+
+        openActiveSegment();
+        LOG.fine("Opened history in " + directory + " with " + segments.size() + " segments");
+    }
+
+    /**
+     * Closes the store.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.SEVERE, e.toString(), e);
+            }
+
+            finally {
+                out = null;
+                segments.clear();
+            }
+        }
+    }
+
+    /**
+     * Checks if the store is open.
+     *
+     * @return If the store is open.
+     */
+    public synchronized boolean isOpen() {
+        return out != null;
+    }
+
+    /**
+     * Adds a record to the newest segment. The record is buffered, and written to the file
+     * when the buffer is full, or before a query.
+     *
+     * @param record The record to add.
+     * @throws IOException If writing failed.
+     */
+    public synchronized void append(final HistoryRecord record) throws IOException {
+        Validate.notNull(record, "Record can not be null");
+        checkOpen();
+
+        final HistorySegment activeSegment = getActiveSegment();
+
+        if (activeSegment.getSize() >= maxSegmentSize) {
+            startNewSegment();
+        }
+
+        final int recordSize = HistorySegment.writeRecord(out, record, recordBuffer, recordBufferOut);
+        getActiveSegment().addRecord(record, recordSize);
+    }
+
+    /**
+     * Finds the records matching the query, in time order.
+     *
+     * <p>Only the blocks of records that might match are read, and they are read
+     * while iterating. Records added after the query are not included.
+     * Remember to close the cursor.</p>
+     *
+     * @param query The query.
+     * @return A cursor with the matching records.
+     * @throws IOException If the index could not be read.
+     */
+    public synchronized HistoryCursor query(final HistoryQuery query) throws IOException {
+        Validate.notNull(query, "Query can not be null");
+
+        return new HistoryCursor(query, findBlockRanges(query));
+    }
+
+    /**
+     * Finds the newest records matching the query, in time order.
+     *
+     * <p>The blocks are read backwards from the newest, so only the blocks needed
+     * to find the records are read. Useful for showing older messages a page at a time.</p>
+     *
+     * @param query The query.
+     * @param maxRecords The maximum number of records to find.
+     * @return The newest matching records, oldest first.
+     * @throws IOException If the index or the records could not be read.
+     */
+    public List<HistoryRecord> findLatest(final HistoryQuery query, final int maxRecords) throws IOException {
+        Validate.notNull(query, "Query can not be null");
+
+        final List<HistoryCursor.BlockRange> blockRanges = findBlockRanges(query);
+        final LinkedList<HistoryRecord> latestRecords = new LinkedList<HistoryRecord>();
+
+        for (int i = blockRanges.size() - 1; i >= 0 && latestRecords.size() < maxRecords; i--) {
+            final HistoryCursor cursor = new HistoryCursor(query, Collections.singletonList(blockRanges.get(i)));
+            final List<HistoryRecord> blockRecords = new ArrayList<HistoryRecord>();
+
+            try {
+                while (cursor.hasNext()) {
+                    blockRecords.add(cursor.next());
+                }
+            }
+
+            finally {
+                cursor.close();
+            }
+
+            if (cursor.getError() != null) {
+                throw cursor.getError();
+            }
+
+            latestRecords.addAll(0, blockRecords);
+        }
+
+        while (latestRecords.size() > maxRecords) {
+            latestRecords.removeFirst();
+        }
+
+        return latestRecords;
+    }
+
+    /**
+     * Writes any buffered records to the file.
+     *
+     * @throws IOException If writing failed.
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Finds the blocks of records that might match the query, in all the segments.
+     *
+     * @param query The query.
+     * @return The blocks, in time order.
+     * @throws IOException If the index could not be read.
+     */
+    private synchronized List<HistoryCursor.BlockRange> findBlockRanges(final HistoryQuery query) throws IOException {
+        checkOpen();
+
+        out.flush();
+
+        final List<HistoryCursor.BlockRange> blockRanges = new ArrayList<HistoryCursor.BlockRange>();
+
+        for (final HistorySegment segment : segments) {
+            for (final int block : segment.findBlocks(query)) {
+                blockRanges.add(new HistoryCursor.BlockRange(
+                        segment.getDataFile(), segment.getBlockStart(block), segment.getBlockEnd(block)));
+            }
+        }
+
+        return blockRanges;
+    }
+
+    /**
+     * Gets the number of segments.
+     *
+     * @return The number of segments.
+     */
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Seals the active segment by writing the index file, and starts a new segment.
+     *
+     * @throws IOException If writing failed.
+     */
+    private void startNewSegment() throws IOException {
+        final HistorySegment fullSegment = getActiveSegment();
+        out.close();
+        out = null;
+
+        fullSegment.writeIndex();
+        segments.add(new HistorySegment(directory, fullSegment.getNumber() + 1));
+        openActiveSegment();
+
+        LOG.fine("Started history segment " + getActiveSegment().getNumber());
+    }
+
+    /**
+     * Opens the data file of the active segment for appending. Any incomplete record
+     * at the end of the file is removed first.
+     *
+     * @throws IOException If the file could not be opened.
+     */
+    private void openActiveSegment() throws IOException {
+        final HistorySegment activeSegment = getActiveSegment();
+        final File dataFile = activeSegment.getDataFile();
+
+        if (dataFile.length() > activeSegment.getSize()) {
+            LOG.warning("Removing incomplete record at the end of " + dataFile);
+            final RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+
+            try {
+                file.setLength(activeSegment.getSize());
+            }
+
+            finally {
+                file.close();
+            }
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile, true)));
+    }
+
+    /**
+     * Finds the numbers of the existing segments, from the names of the data files.
+     *
+     * @return The numbers of the segments, in order.
+     */
+    private List<Integer> findSegmentNumbers() {
+        final List<Integer> numbers = new ArrayList<Integer>();
+        final String[] fileNames = directory.list();
+
+        if (fileNames != null) {
+            for (final String fileName : fileNames) {
+                if (fileName.endsWith(HistorySegment.DATA_EXTENSION)) {
+                    try {
+                        numbers.add(Integer.parseInt(
+                                fileName.substring(0, fileName.length() - HistorySegment.DATA_EXTENSION.length())));
+                    }
+
+                    catch (final NumberFormatException e) {
+                        LOG.log(Level.WARNING, "Ignoring unknown file in history: " + fileName);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Gets the segment new records are added to.
+     *
+     * @return The active segment.
+     */
+    private HistorySegment getActiveSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Makes sure the store is open.
+     */
+    private void checkOpen() {
+        if (out == null) {
+            throw new IllegalStateException("History store is not open");
+        }
+    }
+}
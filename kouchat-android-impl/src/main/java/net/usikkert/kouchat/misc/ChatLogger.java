@@ -22,9 +22,7 @@
 
 package net.usikkert.kouchat.misc;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +35,10 @@ import net.usikkert.kouchat.util.Validate;
  * This is a simple logger. Creates a new unique log file for each time
  * KouChat is started.
  *
+ * <p>Lines are not written to the log file by the thread appending them. They are given to
+ * a {@link LogWriterPool}, shared by all the chat loggers, which writes them in the background.
+ * A slow file system will then not slow down the thread receiving messages.</p>
+ *
  * @author Christian Ihle
  */
 public class ChatLogger implements SettingsListener {
@@ -54,8 +56,10 @@ public class ChatLogger implements SettingsListener {
     private final ErrorHandler errorHandler;
     private final String logFilePrefix;
 
-    private BufferedWriter writer;
-    private boolean open;
+    /** Writes the lines to the log file in the background. */
+    private final LogWriterPool logWriterPool;
+
+    private volatile boolean open;
     private String logFileName;
 
     /**
@@ -70,17 +74,28 @@ public class ChatLogger implements SettingsListener {
     /**
      * Constructor for setting a custom log file prefix.
      *
-     * Adds a shutdown hook to make sure the log file is closed on shutdown.
-     *
      * @param logFilePrefix The prefix for the log file name.
      * @param settings The settings to use.
      */
     public ChatLogger(final String logFilePrefix, final Settings settings) {
+        this(logFilePrefix, settings, LogWriterPool.getLogWriterPool());
+    }
+
+    /**
+     * Constructor for setting a custom log file prefix, and a custom pool for writing to the log file.
+     *
+     * @param logFilePrefix The prefix for the log file name.
+     * @param settings The settings to use.
+     * @param logWriterPool Writes the lines to the log file in the background.
+     */
+    ChatLogger(final String logFilePrefix, final Settings settings, final LogWriterPool logWriterPool) {
         Validate.notEmpty(logFilePrefix, "Log file prefix can not be empty");
         Validate.notNull(settings, "Settings can not be null");
+        Validate.notNull(logWriterPool, "Log writer pool can not be null");
 
         this.logFilePrefix = logFilePrefix;
         this.settings = settings;
+        this.logWriterPool = logWriterPool;
 
         settings.addSettingsListener(this);
 
@@ -94,8 +109,11 @@ public class ChatLogger implements SettingsListener {
     /**
      * Opens the log file for writing.
      * Will append if the log file already exists.
+     *
+     * <p>The log file is created right away, to find out if logging works.
+     * The {@link LogWriterPool} opens the file when there is something to write.</p>
      */
-    public void open() {
+    public synchronized void open() {
         close();
 
         try {
@@ -111,7 +129,12 @@ public class ChatLogger implements SettingsListener {
             }
 
             logFileName = logLocation + logFilePrefix + LOG_FILE_POSTFIX;
-            writer = new BufferedWriter(new FileWriter(logFileName, true));
+            final File logFile = new File(logFileName);
+
+            if (!logFile.createNewFile() && !logFile.canWrite()) {
+                throw new IOException("Unable to write to log file: " + logFile);
+            }
+
             open = true;
 
             LOG.fine("Started logging to " + logFileName);
@@ -125,44 +148,27 @@ public class ChatLogger implements SettingsListener {
     }
 
     /**
-     * Flushed and closes the current open log file.
+     * Closes the current open log file, after the lines already appended are written.
+     * Does not wait for the lines to be written.
      */
-    public void close() {
+    public synchronized void close() {
         if (open) {
-            try {
-                writer.flush();
-                writer.close();
-
-                LOG.fine("Stopped logging to " + logFileName);
-            }
-
-            catch (final IOException e) {
-                LOG.log(Level.SEVERE, e.toString(), e);
-            }
+            open = false;
+            logWriterPool.close(logFileName);
 
-            finally {
-                open = false;
-            }
+            LOG.fine("Stopped logging to " + logFileName);
         }
     }
 
     /**
      * Adds a new line of text to the current open log file, if any.
+     * The line is written in the background.
      *
      * @param line The line of text to add to the log.
      */
     public void append(final String line) {
         if (open) {
-            try {
-                writer.append(line);
-                writer.newLine();
-                writer.flush();
-            }
-
-            catch (final IOException e) {
-                LOG.log(Level.SEVERE, e.toString(), e);
-                close();
-            }
+            logWriterPool.append(logFileName, line);
         }
     }
 
@@ -33,12 +33,15 @@ import net.usikkert.kouchat.Constants;
 import net.usikkert.kouchat.autocomplete.AutoCompleter;
 import net.usikkert.kouchat.autocomplete.CommandAutoCompleteList;
 import net.usikkert.kouchat.autocomplete.UserAutoCompleteList;
+import net.usikkert.kouchat.event.MessageSentListener;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
 import net.usikkert.kouchat.jmx.JMXBeanLoader;
 import net.usikkert.kouchat.net.DefaultMessageResponder;
 import net.usikkert.kouchat.net.DefaultPrivateMessageResponder;
 import net.usikkert.kouchat.net.FileReceiver;
+import net.usikkert.kouchat.net.FileResumeInfo;
 import net.usikkert.kouchat.net.FileSender;
+import net.usikkert.kouchat.net.FileTransferServer;
 import net.usikkert.kouchat.net.MessageParser;
 import net.usikkert.kouchat.net.MessageResponder;
 import net.usikkert.kouchat.net.Messages;
@@ -73,6 +76,8 @@ public class Controller implements NetworkConnectionListener {
     private final IdleThread idleThread;
     private final TransferList tList;
     private final WaitingList wList;
+    private final ExposeScheduler exposeScheduler;
+    private final FileTransferServer fileTransferServer;
     private final User me;
     private final UserInterface ui;
     private final MessageController msgController;
@@ -109,6 +114,19 @@ public class Controller implements NetworkConnectionListener {
         chatState = new ChatState();
         tList = new TransferList();
         wList = new WaitingList();
+        exposeScheduler = new ExposeScheduler() {
+            @Override
+            protected void sendExposeReply() {
+                sendExposingAndClientInfo();
+            }
+
+            @Override
+            protected void sendExposeRequest() {
+                sendExposeMessage();
+                sendGetTopicMessage();
+            }
+        };
+        fileTransferServer = new FileTransferServer();
         idleThread = new IdleThread(this, ui, settings);
         dayTimer = new DayTimer(ui);
         networkService = new NetworkService(settings);
@@ -250,6 +268,16 @@ public class Controller implements NetworkConnectionListener {
         return userListController.isNewUser(code);
     }
 
+    /**
+     * Checks if all the other users send their idle interval, and count any message as a sign of life.
+     *
+     * @return If the idle interval can be adjusted freely.
+     * @see UserListController#isIdleIntervalSupported()
+     */
+    public boolean isIdleIntervalSupported() {
+        return userListController.isIdleIntervalSupported();
+    }
+
     /**
      * Changes the nick for the application user, sends a message over the
      * network to notify the other clients of the change, and saves the changes.
@@ -302,10 +330,7 @@ public class Controller implements NetworkConnectionListener {
      * and query for the users and state.
      */
     private void sendLogOn() {
-        messages.sendLogonMessage();
-        messages.sendClient();
-        messages.sendExposeMessage();
-        messages.sendGetTopicMessage();
+        messages.sendLogonMessages(userListController.isMessageBatchSupported());
     }
 
     /**
@@ -442,6 +467,9 @@ public class Controller implements NetworkConnectionListener {
     private void doShutdown() {
         idleThread.stopThread();
         dayTimer.stopTimer();
+        wList.stop();
+        exposeScheduler.stop();
+        fileTransferServer.stop();
         msgController.shutdown();
     }
 
@@ -470,16 +498,30 @@ public class Controller implements NetworkConnectionListener {
     /**
      * Sends a message over the network to notify other clients that this
      * client is still alive.
+     *
+     * @param idleInterval Number of milliseconds until the next idle message.
      */
-    public void sendIdleMessage() {
+    public void sendIdleMessage(final long idleInterval) {
         if (isConnected()) {
-            messages.sendIdleMessage();
+            messages.sendIdleMessage(idleInterval);
         }
     }
 
+    /**
+     * Gets the time when the last message was sent to all the other users.
+     *
+     * @return The time of the last message, or 0 if nothing has been sent.
+     */
+    public long getLastMulticastSendTime() {
+        return networkService.getLastMulticastSendTime();
+    }
+
     /**
      * Sends a chat message over the network, to all the other users.
      *
+     * <p>The message is queued without waiting for it to be sent. The user is notified
+     * with a system message if the message could not be sent.</p>
+     *
      * @param msg The message to send.
      * @throws CommandException If there is no connection to the network,
      *         or the application user is away,
@@ -496,7 +538,14 @@ public class Controller implements NetworkConnectionListener {
         } else if (Tools.getBytes(msg) > Constants.MESSAGE_MAX_BYTES) {
             throw new CommandException("You can not send a chat message with more than " + Constants.MESSAGE_MAX_BYTES + " bytes");
         } else {
-            messages.sendChatMessage(msg);
+            messages.sendChatMessage(msg, new MessageSentListener() {
+                @Override
+                public void messageSent(final String message, final boolean sent) {
+                    if (!sent) {
+                        msgController.showSystemMessage("Failed to send message: " + msg);
+                    }
+                }
+            });
         }
     }
 
@@ -569,6 +618,24 @@ public class Controller implements NetworkConnectionListener {
         messages.sendFileAccept(user, port, fileHash, fileName);
     }
 
+    /**
+     * Sends a message over the network to notify the file sender that you
+     * accepted the file transfer, and want to resume from where a failed transfer stopped,
+     * or receive the file over several connections.
+     *
+     * @param user The user sending a file.
+     * @param port The port the file sender can connect to on this client
+     *             to start the file transfer.
+     * @param fileHash The unique hash code of the file.
+     * @param fileName The name of the file.
+     * @param resumeInfo Where to resume from, and how many connections to receive the file over.
+     * @throws CommandException If the message was not sent successfully.
+     */
+    public void sendFileResume(final User user, final int port, final int fileHash, final String fileName,
+                               final FileResumeInfo resumeInfo) throws CommandException {
+        messages.sendFileResume(user, port, fileHash, fileName, resumeInfo);
+    }
+
     /**
      * Sends a message over the network to notify another user that the
      * application user wants to send a file.
@@ -618,6 +685,24 @@ public class Controller implements NetworkConnectionListener {
         return wList;
     }
 
+    /**
+     * Gets the scheduler for answering and sending expose requests.
+     *
+     * @return The expose scheduler.
+     */
+    public ExposeScheduler getExposeScheduler() {
+        return exposeScheduler;
+    }
+
+    /**
+     * Gets the shared server socket for receiving files.
+     *
+     * @return The file transfer server.
+     */
+    public FileTransferServer getFileTransferServer() {
+        return fileTransferServer;
+    }
+
     /**
      * If any users have timed out because of missed idle messages, then
      * send a message over the network to ask all clients to identify
@@ -636,6 +721,14 @@ public class Controller implements NetworkConnectionListener {
         messages.sendClient();
     }
 
+    /**
+     * Sends information about this client and the application user over the network,
+     * as an answer to a request to expose.
+     */
+    public void sendExposingAndClientInfo() {
+        messages.sendExposingAndClientMessages(userListController.isMessageBatchSupported());
+    }
+
     /**
      * Sends a private chat message over the network, to the specified user.
      *
@@ -776,11 +869,8 @@ public class Controller implements NetworkConnectionListener {
                 msgController.showSystemMessage("You are connected to the network again");
             }
 
-            messages.sendTopicRequestedMessage(getTopic());
-            messages.sendExposingMessage();
-            messages.sendGetTopicMessage();
-            messages.sendExposeMessage();
-            messages.sendIdleMessage();
+            final long idleInterval = IdleThread.getIdleInterval(getUserList().size(), isIdleIntervalSupported());
+            messages.sendReconnectMessages(getTopic(), idleInterval, userListController.isMessageBatchSupported());
         }
     }
 
@@ -0,0 +1,237 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Decides when to answer expose requests from other clients, and when to send expose requests
+ * to find unknown users, to avoid flooding the network when many clients do the same at once.
+ *
+ * <p>Every client answers every expose request, and every client that sees a message from an
+ * unknown user sends an expose request. Without any coordination, many clients logging on or
+ * returning at the same time cause traffic that grows with the square of the number of clients.
+ * This is avoided by:</p>
+ *
+ * <ul>
+ *   <li>Answering after a random delay, to spread the answers from all the clients.</li>
+ *   <li>Answering only once for all the requests that arrive while an answer is waiting.</li>
+ *   <li>Not answering again while the last answer is fresh, if the user asking was logged on
+ *       when that answer was sent, and must have received it. Users asking after connecting to the
+ *       network again are always answered, as they might have been unreachable when it was sent.</li>
+ *   <li>Waiting a random delay before sending expose requests, and not sending at all if another
+ *       client has sent one recently. All clients receive the answers to any request.</li>
+ * </ul>
+ *
+ * <p>Subclasses decide how the messages are sent.</p>
+ *
+ * @author Christian Ihle
+ */
+public abstract class ExposeScheduler {
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(ExposeScheduler.class.getName());
+
+    /** Max number of milliseconds to wait before answering an expose request. */
+    static final int MAX_REPLY_DELAY = 500;
+
+    /** Max number of milliseconds to wait before sending an expose request. */
+    static final int MAX_REQUEST_DELAY = 250;
+
+    /** Number of milliseconds an answer is fresh, and does not need to be sent again. */
+    static final long REPLY_FRESHNESS = 2000;
+
+    /** Number of milliseconds after an expose request where there is no need to send another. */
+    static final long REQUEST_FRESHNESS = 1000;
+
+    /** The timer sending the delayed messages. */
+    private final Timer timer;
+
+    /** Used for the random delays. */
+    private final Random random;
+
+    /** If an answer to an expose request is waiting to be sent. */
+    private boolean replyPending;
+
+    /** When the last answer to an expose request was sent. */
+    private long lastReplyTime;
+
+    /** If an expose request is waiting to be sent. */
+    private boolean requestPending;
+
+    /** When the last expose request was sent by this client, or received from another client. */
+    private long lastRequestTime;
+
+    /**
+     * Constructor.
+     */
+    public ExposeScheduler() {
+        this(new Timer("ExposeSchedulerTimer", true), new Random());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timer The timer to send the delayed messages.
+     * @param random Used for the random delays.
+     */
+    protected ExposeScheduler(final Timer timer, final Random random) {
+        Validate.notNull(timer, "Timer can not be null");
+        Validate.notNull(random, "Random can not be null");
+
+        this.timer = timer;
+        this.random = random;
+    }
+
+    /**
+     * Another client has asked all clients to expose themselves. Schedules an answer,
+     * unless an answer is already waiting, or the last answer is still fresh.
+     *
+     * <p>The last answer is never fresh for a user asking after connecting to the network again,
+     * since that user keeps the old logon time, but might not have received the last answer.</p>
+     *
+     * @param requester The user asking, or <code>null</code> if unknown.
+     * @param reconnect If the user asked after connecting to the network again.
+     */
+    public synchronized void exposeRequested(final User requester, final boolean reconnect) {
+        final long now = System.currentTimeMillis();
+        lastRequestTime = now;
+
+        if (replyPending) {
+            LOG.log(Level.FINE, "Answer already waiting to be sent");
+        }
+
+        else if (!reconnect && requester != null && requester.getLogonTime() < lastReplyTime &&
+                now - lastReplyTime < REPLY_FRESHNESS) {
+            LOG.log(Level.FINE, "Last answer is still fresh for " + requester.getNick());
+        }
+
+        else {
+            replyPending = true;
+            schedule(new ReplyTask(), MAX_REPLY_DELAY);
+        }
+    }
+
+    /**
+     * Schedules an expose request, to identify unknown users. Nothing is sent if an expose request
+     * is already waiting, or if any client has sent an expose request recently.
+     */
+    public synchronized void requestExpose() {
+        if (requestPending) {
+            LOG.log(Level.FINE, "Request already waiting to be sent");
+        }
+
+        else if (System.currentTimeMillis() - lastRequestTime < REQUEST_FRESHNESS) {
+            LOG.log(Level.FINE, "An expose request was sent recently");
+        }
+
+        else {
+            requestPending = true;
+            schedule(new RequestTask(), MAX_REQUEST_DELAY);
+        }
+    }
+
+    /**
+     * Stops the timer. Waiting messages are not sent.
+     */
+    public void stop() {
+        timer.cancel();
+    }
+
+    /**
+     * Sends the messages that identify this client, as an answer to expose requests.
+     */
+    protected abstract void sendExposeReply();
+
+    /**
+     * Sends the messages asking all clients to identify themselves.
+     */
+    protected abstract void sendExposeRequest();
+
+    /**
+     * Schedules the task to run after a random delay.
+     *
+     * @param task The task to schedule.
+     * @param maxDelay The max delay in milliseconds.
+     */
+    private void schedule(final TimerTask task, final int maxDelay) {
+        try {
+            timer.schedule(task, random.nextInt(maxDelay + 1));
+        }
+
+        // The timer is stopped, so the message should not be sent anyway
+        catch (final IllegalStateException e) {
+            LOG.log(Level.FINE, e.toString());
+        }
+    }
+
+    /**
+     * Answers the expose requests received since it was scheduled.
+     */
+    private class ReplyTask extends TimerTask {
+
+        /**
+         * Sends the answer, and remembers when it was sent.
+         */
+        @Override
+        public void run() {
+            synchronized (ExposeScheduler.this) {
+                replyPending = false;
+                lastReplyTime = System.currentTimeMillis();
+            }
+
+            sendExposeReply();
+        }
+    }
+
+    /**
+     * Sends an expose request, unless another client sent one while waiting.
+     */
+    private class RequestTask extends TimerTask {
+
+        /**
+         * Sends the request if still needed, and remembers when it was sent.
+         */
+        @Override
+        public void run() {
+            synchronized (ExposeScheduler.this) {
+                requestPending = false;
+
+                if (System.currentTimeMillis() - lastRequestTime < REQUEST_FRESHNESS) {
+                    LOG.log(Level.FINE, "Another client sent an expose request while waiting");
+                    return;
+                }
+
+                lastRequestTime = System.currentTimeMillis();
+            }
+
+            sendExposeRequest();
+        }
+    }
+}
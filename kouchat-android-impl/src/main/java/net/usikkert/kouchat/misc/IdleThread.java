@@ -22,9 +22,11 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.usikkert.kouchat.event.UserListListener;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.Validate;
 
@@ -36,6 +38,18 @@ import net.usikkert.kouchat.util.Validate;
  * and if that is the case, remove them and show a message
  * in the user interface.
  *
+ * <p>The interval between idle messages grows with the number of users,
+ * to keep the total number of idle messages on the network down. The interval is
+ * included in the idle message, so other clients can adjust their timeout.
+ * Older clients always time out after {@link #TIMEOUT} milliseconds, and only
+ * count idle messages, so with older clients on the network the interval is kept
+ * well below that. If all the other clients send their interval, any message sent
+ * counts as a sign of life, and replaces the next idle message.</p>
+ *
+ * <p>The other clients are kept in a {@link UserTimeoutQueue}, so the
+ * thread wakes up when the first of them times out, instead of checking
+ * every client each time an idle message is sent.</p>
+ *
  * @author Christian Ihle
  */
 public class IdleThread extends Thread {
@@ -45,9 +59,18 @@ public class IdleThread extends Thread {
 
     /**
      * Number of milliseconds to wait before the next
-     * idle message will be sent.
+     * idle message will be sent, with few users.
      */
-    private static final int IDLE_TIME = 15000;
+    static final int IDLE_TIME = 15000;
+
+    /** Number of milliseconds added to the idle interval for each user. */
+    static final int IDLE_TIME_PER_USER = 1500;
+
+    /** The longest idle interval, when all the other users send their idle interval. */
+    static final int MAX_IDLE_TIME = 60000;
+
+    /** The longest idle interval, when some of the other users are older clients with a fixed timeout. */
+    static final int MAX_IDLE_TIME_WITH_OLDER_CLIENTS = 30000;
 
     /**
      * If an idle message has not been received from another
@@ -57,10 +80,12 @@ public class IdleThread extends Thread {
     private static final int TIMEOUT = 120000;
 
     private final Controller controller;
-    private final UserList userList;
     private final User me;
     private final MessageController msgController;
 
+    /** Keeps track of when the other users time out. */
+    private final UserTimeoutQueue timeoutQueue;
+
     /** The thread runs while this is true. */
     private boolean run;
 
@@ -78,9 +103,11 @@ public class IdleThread extends Thread {
 
         this.controller = controller;
 
-        userList = controller.getUserList();
         me = settings.getMe();
         msgController = ui.getMessageController();
+        timeoutQueue = new UserTimeoutQueue(TIMEOUT);
+
+        controller.getUserList().addUserListListener(new TimeoutQueueUpdater());
 
         run = true;
         setName("IdleThread");
@@ -98,35 +125,67 @@ public class IdleThread extends Thread {
         // In case of any error messages during startup
         me.setLastIdle(System.currentTimeMillis());
 
+        long lastIdleMessage = 0;
+
         while (run) {
-            controller.sendIdleMessage();
-            boolean timeout = false;
+            final boolean idleIntervalSupported = controller.isIdleIntervalSupported();
+            final long idleInterval = getIdleInterval(controller.getUserList().size(), idleIntervalSupported);
+            long nextIdleMessage = lastIdleMessage + idleInterval;
+
+            // Any message sent is a sign of life, but older clients only care about idle messages
+            if (idleIntervalSupported) {
+                nextIdleMessage = Math.max(nextIdleMessage, controller.getLastMulticastSendTime() + idleInterval);
+            }
 
-            for (int i = 0; i < userList.size(); i++) {
-                final User temp = userList.get(i);
+            if (System.currentTimeMillis() >= nextIdleMessage) {
+                controller.sendIdleMessage(idleInterval);
+                lastIdleMessage = System.currentTimeMillis();
+                nextIdleMessage = lastIdleMessage + idleInterval;
+            }
 
-                if (temp.getCode() != me.getCode() && temp.getLastIdle() < System.currentTimeMillis() - TIMEOUT) {
-                    userTimedOut(temp);
-                    timeout = true;
-                    i--;
-                }
+            final List<User> timedOutUsers = timeoutQueue.removeTimedOutUsers(System.currentTimeMillis());
+
+            for (final User user : timedOutUsers) {
+                userTimedOut(user);
             }
 
-            if (timeout) {
+            if (!timedOutUsers.isEmpty()) {
                 controller.updateAfterTimeout();
             }
 
-            try {
-                sleep(IDLE_TIME);
-            }
+            // New users never time out before the next idle message, so there is no need to wake up when they are added
+            final long sleepTime = Math.min(nextIdleMessage, timeoutQueue.getNextCheckTime()) - System.currentTimeMillis();
 
-            // Sleep interrupted - probably from stopThread()
-            catch (final InterruptedException e) {
-                LOG.log(Level.FINE, e.toString());
+            if (sleepTime > 0) {
+                try {
+                    sleep(sleepTime);
+                }
+
+                // Sleep interrupted - probably from stopThread()
+                catch (final InterruptedException e) {
+                    LOG.log(Level.FINE, e.toString());
+                }
             }
         }
     }
 
+    /**
+     * Gets the number of milliseconds between idle messages, based on the number of users.
+     *
+     * @param users The number of users in the chat, including the application user.
+     * @param idleIntervalSupported If all the other users send their idle interval.
+     * @return The idle interval.
+     */
+    static long getIdleInterval(final int users, final boolean idleIntervalSupported) {
+        long maxIdleTime = MAX_IDLE_TIME_WITH_OLDER_CLIENTS;
+
+        if (idleIntervalSupported) {
+            maxIdleTime = MAX_IDLE_TIME;
+        }
+
+        return Math.min(maxIdleTime, Math.max(IDLE_TIME, (long) users * IDLE_TIME_PER_USER));
+    }
+
     /**
      * When a user times out, all current file transfers must
      * be canceled, and messages must be shown in the normal
@@ -148,4 +207,42 @@ public class IdleThread extends Thread {
         run = false;
         interrupt();
     }
+
+    /**
+     * Adds and removes users in the timeout queue when they are added to and removed from the user list.
+     */
+    private class TimeoutQueueUpdater implements UserListListener {
+
+        /**
+         * Starts keeping track of when the user times out, unless it's me.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userAdded(final int pos, final User user) {
+            if (user.getCode() != me.getCode()) {
+                timeoutQueue.addUser(user);
+            }
+        }
+
+        /**
+         * Nothing to do, changes to a user does not affect when it times out.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userChanged(final int pos, final User user) {
+            // Nothing to do
+        }
+
+        /**
+         * Stops keeping track of when the user times out.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userRemoved(final int pos, final User user) {
+            timeoutQueue.removeUser(user);
+        }
+    }
 }
@@ -0,0 +1,368 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import net.usikkert.kouchat.util.BoundedExecutor;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Decides when log files are rotated, and takes care of the rotated files.
+ *
+ * <p>A log file is rotated when it's larger than the maximum size, or when the day changes.
+ * The log file is renamed with a number, like <code>kouchat-2014.01.01-12.00.00-000.1.log</code>,
+ * and writing continues in a new file with the original name. The renamed file is compressed
+ * with gzip by a low priority background thread, which also deletes rotated files older
+ * than the maximum age.</p>
+ *
+ * <p>Only the renaming happens on the thread asking for the rotation, which should
+ * be the background thread writing the log files.</p>
+ *
+ * @author Christian Ihle
+ */
+public class LogRotator {
+
+    /** The default maximum size of a log file before it's rotated, in bytes. */
+    static final long MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+    /** The default number of days to keep rotated log files. */
+    static final int MAX_AGE_DAYS = 90;
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(LogRotator.class.getName());
+
+    /** The file name extension of log files. */
+    private static final String LOG_EXTENSION = ".log";
+
+    /** The file name extension added to compressed files. */
+    private static final String GZIP_EXTENSION = ".gz";
+
+    /** The time of startup {@link ChatLogger} adds to the log file names, like <code>-2014.01.01-12.00.00-000</code>. */
+    private static final Pattern RUN_TIMESTAMP = Pattern.compile("-\\d{4}\\.\\d{2}\\.\\d{2}-\\d{2}\\.\\d{2}\\.\\d{2}-\\d{3}");
+
+    /** Number of milliseconds in a day. */
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /** Size of the buffer used for compressing. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Maximum number of compressions waiting to run. */
+    private static final int MAX_QUEUED_COMPRESSIONS = 100;
+
+    /** The maximum size of a log file before it's rotated, in bytes. */
+    private final long maxFileSize;
+
+    /** The maximum age of rotated log files before they are deleted, in milliseconds. */
+    private final long maxAge;
+
+    /** Compresses rotated files in the background. */
+    private final BoundedExecutor compressionExecutor;
+
+    /**
+     * Constructor. Uses the default maximum file size and age.
+     */
+    public LogRotator() {
+        this(MAX_FILE_SIZE, MAX_AGE_DAYS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxFileSize The maximum size of a log file before it's rotated, in bytes.
+     * @param maxAgeDays The number of days to keep rotated log files.
+     */
+    LogRotator(final long maxFileSize, final int maxAgeDays) {
+        this.maxFileSize = maxFileSize;
+        maxAge = maxAgeDays * MILLIS_PER_DAY;
+
+        compressionExecutor = new BoundedExecutor("LogRotatorCompression", 1, MAX_QUEUED_COMPRESSIONS, Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Checks if a log file must be rotated before writing more to it.
+     *
+     * @param size The current size of the log file.
+     * @param rotationTime The time when the log file must be rotated because the day changed.
+     * @param now The current time.
+     * @return If the log file must be rotated.
+     */
+    public boolean isRotationNeeded(final long size, final long rotationTime, final long now) {
+        return size > 0 && (size >= maxFileSize || now >= rotationTime);
+    }
+
+    /**
+     * Gets the time when a log file started at the given time must be rotated, which is at midnight.
+     *
+     * @param startTime When the log file was started.
+     * @return The time of the next midnight after the start time.
+     */
+    public long getRotationTime(final long startTime) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startTime);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Rotates a closed log file. Renames it, and compresses it in the background.
+     *
+     * @param fileName The full path to the log file.
+     * @return If the log file was renamed.
+     */
+    public boolean rotate(final String fileName) {
+        Validate.notEmpty(fileName, "File name can not be empty");
+
+        final File logFile = new File(fileName);
+        final File rotatedFile = getRotatedFile(logFile);
+
+        if (!logFile.renameTo(rotatedFile)) {
+            LOG.log(Level.WARNING, "Could not rotate " + logFile + " to " + rotatedFile);
+            return false;
+        }
+
+        LOG.fine("Rotated " + logFile + " to " + rotatedFile);
+
+        compressionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compress(rotatedFile);
+                deleteOldRotatedFiles(logFile);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Finds the first unused rotated name for a log file.
+     *
+     * @param logFile The log file.
+     * @return The rotated file.
+     */
+    File getRotatedFile(final File logFile) {
+        final String baseName = getBaseName(logFile);
+        int number = 1;
+
+        while (true) {
+            final File rotatedFile = new File(logFile.getParentFile(), baseName + "." + number + LOG_EXTENSION);
+            final File compressedFile = new File(rotatedFile.getPath() + GZIP_EXTENSION);
+
+            if (!rotatedFile.exists() && !compressedFile.exists()) {
+                return rotatedFile;
+            }
+
+            number++;
+        }
+    }
+
+    /**
+     * Compresses a rotated file with gzip, and deletes the uncompressed file.
+     * The uncompressed file is kept if compressing fails.
+     *
+     * @param rotatedFile The rotated file.
+     */
+    void compress(final File rotatedFile) {
+        final File compressedFile = new File(rotatedFile.getPath() + GZIP_EXTENSION);
+
+        try {
+            final InputStream in = new BufferedInputStream(new FileInputStream(rotatedFile));
+
+            try {
+                final OutputStream out = new GZIPOutputStream(new FileOutputStream(compressedFile), BUFFER_SIZE);
+
+                try {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read = in.read(buffer);
+
+                    while (read != -1) {
+                        out.write(buffer, 0, read);
+                        read = in.read(buffer);
+                    }
+                }
+
+                finally {
+                    out.close();
+                }
+            }
+
+            finally {
+                in.close();
+            }
+
+            compressedFile.setLastModified(rotatedFile.lastModified());
+
+            if (!rotatedFile.delete()) {
+                LOG.log(Level.WARNING, "Could not delete " + rotatedFile + " after compressing");
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Could not compress " + rotatedFile + ": " + e.toString(), e);
+
+            if (compressedFile.exists() && !compressedFile.delete()) {
+                LOG.log(Level.WARNING, "Could not delete " + compressedFile);
+            }
+        }
+    }
+
+    /**
+     * Deletes rotated files of the log file that are older than the maximum age.
+     * Other log files are never deleted.
+     *
+     * <p>The name of the log file includes the time the application started, so rotated files
+     * with the same name, but another time, are from earlier runs and are deleted as well.</p>
+     *
+     * @param logFile The log file.
+     */
+    void deleteOldRotatedFiles(final File logFile) {
+        final String fixedName = removeRunTimestamp(getBaseName(logFile));
+        final File[] files = logFile.getParentFile().listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        final long oldestAllowed = System.currentTimeMillis() - maxAge;
+
+        for (final File file : files) {
+            final String name = file.getName();
+
+            if (isRotatedFileOf(name, fixedName) && file.lastModified() < oldestAllowed) {
+                if (file.delete()) {
+                    LOG.fine("Deleted old rotated log file " + file);
+                }
+
+                else {
+                    LOG.log(Level.WARNING, "Could not delete old rotated log file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a file name is the name of a rotated file of a log file from any run,
+     * like <code>kouchat-2014.01.01-12.00.00-000.1.log.gz</code> for <code>kouchat</code>.
+     *
+     * @param name The file name to check.
+     * @param fixedName The name of the log file, without extension and time of startup.
+     * @return If it's a rotated file of the log file.
+     */
+    private boolean isRotatedFileOf(final String name, final String fixedName) {
+        if (!name.startsWith(fixedName)) {
+            return false;
+        }
+
+        String nameEnd = name.substring(fixedName.length());
+        final Matcher timestamp = RUN_TIMESTAMP.matcher(nameEnd);
+
+        if (timestamp.lookingAt()) {
+            nameEnd = nameEnd.substring(timestamp.end());
+        }
+
+        return nameEnd.startsWith(".") && isRotatedName(nameEnd.substring(1));
+    }
+
+    /**
+     * Removes the time of startup from the end of the name of a log file, if it's there.
+     *
+     * @param baseName The name of the log file without the extension.
+     * @return The name without the time of startup.
+     */
+    private String removeRunTimestamp(final String baseName) {
+        final Matcher timestamp = RUN_TIMESTAMP.matcher(baseName);
+
+        while (timestamp.find()) {
+            if (timestamp.end() == baseName.length()) {
+                return baseName.substring(0, timestamp.start());
+            }
+        }
+
+        return baseName;
+    }
+
+    /**
+     * Checks if the end of a file name looks like the end of a rotated file, like <code>1.log</code> or <code>1.log.gz</code>.
+     *
+     * @param nameEnd The end of the file name, after the base name and the dot.
+     * @return If it's a rotated file.
+     */
+    private boolean isRotatedName(final String nameEnd) {
+        String number = nameEnd;
+
+        if (number.endsWith(GZIP_EXTENSION)) {
+            number = number.substring(0, number.length() - GZIP_EXTENSION.length());
+        }
+
+        if (!number.endsWith(LOG_EXTENSION)) {
+            return false;
+        }
+
+        number = number.substring(0, number.length() - LOG_EXTENSION.length());
+
+        if (number.length() == 0) {
+            return false;
+        }
+
+        for (int i = 0; i < number.length(); i++) {
+            if (!Character.isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the name of the log file without the extension.
+     *
+     * @param logFile The log file.
+     * @return The name without extension.
+     */
+    private String getBaseName(final File logFile) {
+        final String name = logFile.getName();
+
+        if (name.endsWith(LOG_EXTENSION)) {
+            return name.substring(0, name.length() - LOG_EXTENSION.length());
+        }
+
+        return name;
+    }
+}
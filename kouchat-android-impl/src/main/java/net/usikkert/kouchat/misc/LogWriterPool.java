@@ -0,0 +1,593 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Writes lines to log files in the background, for all the {@link ChatLogger}s.
+ *
+ * <p>Lines for all the log files go into a single queue. One background thread waits for lines,
+ * collecting more lines for a short while, or until there are enough of them, and writes them all
+ * before flushing each of the files once. A slow file system will then not slow down the thread
+ * receiving messages.</p>
+ *
+ * <p>Only a few log files are kept open at the same time. When another file is needed, the least
+ * recently used file is closed, and opened again later if more lines arrive for it.</p>
+ *
+ * <p>Log files are rotated by the writer thread when they get too big, or when the day changes,
+ * using a {@link LogRotator}. Compressing the rotated files happens on another thread.</p>
+ *
+ * <p>A shutdown hook makes sure all the queued lines are written when the application exits.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class LogWriterPool {
+
+    /** Maximum number of log files to keep open at the same time. */
+    static final int MAX_OPEN_FILES = 8;
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(LogWriterPool.class.getName());
+
+    /** The single instance shared by all the chat loggers. */
+    private static final LogWriterPool INSTANCE = new LogWriterPool(MAX_OPEN_FILES, new LogRotator());
+
+    /** Maximum number of lines waiting to be written. New lines are dropped when the queue is full. */
+    private static final int MAX_QUEUED_LINES = 10000;
+
+    /** Maximum number of lines to write before flushing. */
+    private static final int MAX_LINES_PER_FLUSH = 500;
+
+    /** Maximum number of milliseconds to wait for more lines before flushing. */
+    private static final long MAX_FLUSH_DELAY = 100;
+
+    /** Maximum number of milliseconds the shutdown hook waits for the queued lines to be written. */
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    /** Lines and commands waiting for the writer thread. */
+    private final BlockingQueue<QueuedLine> queuedLines;
+
+    /** The open log files, with the least recently used first. Only used by the writer thread. */
+    private final Map<String, OpenLogFile> openFiles;
+
+    /** Maximum number of log files to keep open at the same time. */
+    private final int maxOpenFiles;
+
+    /** Decides when to rotate the log files, and rotates them. */
+    private final LogRotator logRotator;
+
+    /** The thread writing the queued lines, or <code>null</code> if not started yet. */
+    private Thread writerThread;
+
+    /**
+     * Constructor.
+     *
+     * @param maxOpenFiles Maximum number of log files to keep open at the same time.
+     * @param logRotator Decides when to rotate the log files, and rotates them.
+     */
+    LogWriterPool(final int maxOpenFiles, final LogRotator logRotator) {
+        Validate.notNull(logRotator, "Log rotator can not be null");
+
+        this.maxOpenFiles = maxOpenFiles;
+        this.logRotator = logRotator;
+
+        queuedLines = new LinkedBlockingQueue<QueuedLine>(MAX_QUEUED_LINES);
+        openFiles = new LinkedHashMap<String, OpenLogFile>(maxOpenFiles, 0.75f, true);
+    }
+
+    /**
+     * Will return the instance shared by all the chat loggers.
+     *
+     * @return The shared LogWriterPool.
+     */
+    public static LogWriterPool getLogWriterPool() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a line to a log file in the background. The log file is created if missing.
+     *
+     * @param fileName The full path to the log file.
+     * @param line The line of text to add.
+     * @return If the line was queued. Lines are dropped if too many lines are waiting to be written.
+     */
+    public boolean append(final String fileName, final String line) {
+        Validate.notEmpty(fileName, "File name can not be empty");
+        Validate.notNull(line, "Line can not be null");
+
+        startWriterThread();
+
+        if (!queuedLines.offer(new QueuedLine(fileName, line, null))) {
+            LOG.log(Level.WARNING, "Too many lines waiting to be written to " + fileName + ". Dropped: " + line);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Closes a log file, after the lines already queued for it are written. Does not wait for it to happen.
+     *
+     * <p>If the queue is full, the file is left open until it's the least recently used file.</p>
+     *
+     * @param fileName The full path to the log file.
+     */
+    public void close(final String fileName) {
+        Validate.notEmpty(fileName, "File name can not be empty");
+
+        offerCommand(new QueuedLine(fileName, null, null), 0);
+    }
+
+    /**
+     * Writes all the lines queued so far, and waits until they are written.
+     *
+     * @param timeout Maximum number of milliseconds to wait.
+     * @return If everything was written before the timeout.
+     */
+    public boolean flush(final long timeout) {
+        final long deadline = System.currentTimeMillis() + timeout;
+        final CountDownLatch written = new CountDownLatch(1);
+
+        if (!offerCommand(new QueuedLine(null, null, written), timeout)) {
+            return false;
+        }
+
+        try {
+            return written.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+
+        catch (final InterruptedException e) {
+            LOG.log(Level.FINE, e.toString());
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Adds a command to the queue. If the queue is full, waits for room for a while before the command is dropped,
+     * so the calling thread never hangs if the writer thread can't keep up.
+     *
+     * @param command The command to add.
+     * @param timeout Maximum number of milliseconds to wait for room in the queue.
+     * @return If the command was queued.
+     */
+    private boolean offerCommand(final QueuedLine command, final long timeout) {
+        startWriterThread();
+
+        try {
+            if (queuedLines.offer(command, timeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+
+            LOG.log(Level.WARNING, "Too many lines waiting to be written. Dropped command for " + command.getFileName());
+        }
+
+        catch (final InterruptedException e) {
+            LOG.log(Level.WARNING, e.toString());
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    /**
+     * Starts the writer thread and adds the shutdown hook, the first time something is queued.
+     */
+    private synchronized void startWriterThread() {
+        if (writerThread != null) {
+            return;
+        }
+
+        // Daemon, so the shutdown hook can run and write the rest of the lines
+        writerThread = new Thread(new LogWriter(), "LogWriterPoolWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread("LogWriterPoolShutdownHook") {
+            @Override
+            public void run() {
+                if (!flush(SHUTDOWN_TIMEOUT)) {
+                    LOG.log(Level.WARNING, "Timed out writing log files on shutdown");
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the open log file with the given name, and opens it if necessary.
+     * The least recently used log file is closed if too many files are open.
+     *
+     * @param fileName The full path to the log file.
+     * @return The open log file.
+     * @throws IOException If the log file could not be opened.
+     */
+    private OpenLogFile getLogFile(final String fileName) throws IOException {
+        final OpenLogFile openLogFile = openFiles.get(fileName);
+
+        if (openLogFile != null) {
+            return openLogFile;
+        }
+
+        if (openFiles.size() >= maxOpenFiles) {
+            final Iterator<Map.Entry<String, OpenLogFile>> leastRecentlyUsed = openFiles.entrySet().iterator();
+            final Map.Entry<String, OpenLogFile> eldest = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            closeWriter(eldest.getKey(), eldest.getValue().getWriter());
+        }
+
+        final File file = new File(fileName);
+        final long size = file.length();
+        long startTime = System.currentTimeMillis();
+
+        // The day of an existing log file is the day it was last written to
+        if (size > 0) {
+            startTime = file.lastModified();
+        }
+
+        final BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+        final OpenLogFile logFile = new OpenLogFile(writer, size, logRotator.getRotationTime(startTime));
+        openFiles.put(fileName, logFile);
+
+        return logFile;
+    }
+
+    /**
+     * Flushes and closes a log file.
+     *
+     * @param fileName The full path to the log file.
+     * @param writer The open log file.
+     */
+    private void closeWriter(final String fileName, final BufferedWriter writer) {
+        try {
+            writer.close();
+            LOG.fine("Closed " + fileName);
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, e.toString(), e);
+        }
+    }
+
+    /**
+     * Gets the number of log files currently open.
+     *
+     * @return The number of open files.
+     */
+    int getOpenFileCount() {
+        return openFiles.size();
+    }
+
+    /**
+     * Writes the queued lines.
+     */
+    private class LogWriter implements Runnable {
+
+        /** The lines and commands to handle before the next flush. */
+        private final List<QueuedLine> lines;
+
+        /** The log files written to since the last flush. */
+        private final Set<String> unflushedFiles;
+
+        /**
+         * Constructor.
+         */
+        LogWriter() {
+            lines = new ArrayList<QueuedLine>(MAX_LINES_PER_FLUSH);
+            unflushedFiles = new LinkedHashSet<String>();
+        }
+
+        /**
+         * Writes lines as long as the application runs.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    waitForLines();
+                }
+
+                catch (final InterruptedException e) {
+                    LOG.log(Level.FINE, e.toString());
+                }
+
+                for (final QueuedLine line : lines) {
+                    try {
+                        handleLine(line);
+                    }
+
+                    // This is the only writer thread, so it must survive anything that goes wrong with a single line
+                    catch (final RuntimeException e) {
+                        LOG.log(Level.SEVERE, "Could not handle line for " + line.getFileName() + ": " + e.toString(), e);
+                    }
+                }
+
+                lines.clear();
+
+                try {
+                    flushFiles();
+                }
+
+                catch (final RuntimeException e) {
+                    LOG.log(Level.SEVERE, "Could not flush log files: " + e.toString(), e);
+                }
+            }
+        }
+
+        /**
+         * Waits for the first line, and then for more lines until there are enough lines,
+         * or the first line has waited long enough.
+         *
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        private void waitForLines() throws InterruptedException {
+            lines.add(queuedLines.take());
+            final long flushTime = System.currentTimeMillis() + MAX_FLUSH_DELAY;
+            long timeLeft = MAX_FLUSH_DELAY;
+
+            while (lines.size() < MAX_LINES_PER_FLUSH && timeLeft > 0) {
+                final QueuedLine line = queuedLines.poll(timeLeft, TimeUnit.MILLISECONDS);
+
+                if (line == null) {
+                    return;
+                }
+
+                lines.add(line);
+                queuedLines.drainTo(lines, MAX_LINES_PER_FLUSH - lines.size());
+                timeLeft = flushTime - System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Writes the line, or does what the command asks for.
+         *
+         * @param line The line or command.
+         */
+        private void handleLine(final QueuedLine line) {
+            if (line.getLine() != null) {
+                writeLine(line.getFileName(), line.getLine());
+            }
+
+            else if (line.getFileName() != null) {
+                closeFile(line.getFileName());
+            }
+
+            else {
+                try {
+                    flushFiles();
+                }
+
+                finally {
+                    line.getWritten().countDown();
+                }
+            }
+        }
+
+        /**
+         * Writes a line to a log file, without flushing.
+         *
+         * @param fileName The full path to the log file.
+         * @param line The line of text to write.
+         */
+        private void writeLine(final String fileName, final String line) {
+            try {
+                OpenLogFile logFile = getLogFile(fileName);
+
+                if (logRotator.isRotationNeeded(logFile.getSize(), logFile.getRotationTime(), System.currentTimeMillis())) {
+                    closeFile(fileName);
+                    logRotator.rotate(fileName);
+                    logFile = getLogFile(fileName);
+                }
+
+                logFile.write(line);
+                unflushedFiles.add(fileName);
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Could not write to " + fileName + ": " + e.toString(), e);
+                closeFile(fileName);
+            }
+        }
+
+        /**
+         * Flushes all the log files written to since the last flush.
+         */
+        private void flushFiles() {
+            for (final String fileName : unflushedFiles) {
+                final OpenLogFile logFile = openFiles.get(fileName);
+
+                if (logFile != null) {
+                    try {
+                        logFile.getWriter().flush();
+                    }
+
+                    catch (final IOException e) {
+                        LOG.log(Level.SEVERE, "Could not write to " + fileName + ": " + e.toString(), e);
+                    }
+                }
+            }
+
+            unflushedFiles.clear();
+        }
+
+        /**
+         * Closes a log file, if open. It's opened again if more lines arrive.
+         *
+         * @param fileName The full path to the log file.
+         */
+        private void closeFile(final String fileName) {
+            final OpenLogFile logFile = openFiles.remove(fileName);
+            unflushedFiles.remove(fileName);
+
+            if (logFile != null) {
+                closeWriter(fileName, logFile.getWriter());
+            }
+        }
+    }
+
+    /**
+     * An open log file, with what's needed to know when to rotate it.
+     */
+    private static class OpenLogFile {
+
+        /** Writes to the log file. */
+        private final BufferedWriter writer;
+
+        /** When the log file must be rotated because the day changed. */
+        private final long rotationTime;
+
+        /** The size of the log file. Counts characters, not bytes, so it's only an estimate. */
+        private long size;
+
+        /**
+         * Constructor.
+         *
+         * @param writer Writes to the log file.
+         * @param size The size of the log file when opened.
+         * @param rotationTime When the log file must be rotated because the day changed.
+         */
+        OpenLogFile(final BufferedWriter writer, final long size, final long rotationTime) {
+            this.writer = writer;
+            this.size = size;
+            this.rotationTime = rotationTime;
+        }
+
+        /**
+         * Writes a line to the log file, without flushing.
+         *
+         * @param line The line of text to write.
+         * @throws IOException If writing failed.
+         */
+        public void write(final String line) throws IOException {
+            writer.append(line);
+            writer.newLine();
+            size += line.length() + 1;
+        }
+
+        /**
+         * Gets the writer for the log file.
+         *
+         * @return The writer.
+         */
+        public BufferedWriter getWriter() {
+            return writer;
+        }
+
+        /**
+         * Gets the estimated size of the log file.
+         *
+         * @return The size.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets when the log file must be rotated because the day changed.
+         *
+         * @return The rotation time.
+         */
+        public long getRotationTime() {
+            return rotationTime;
+        }
+    }
+
+    /**
+     * A line to write to a log file, or a command for the writer thread.
+     *
+     * <ul>
+     *   <li>File name and line: write the line to the file.</li>
+     *   <li>File name only: close the file.</li>
+     *   <li>Latch only: flush all the files, and count down the latch.</li>
+     * </ul>
+     */
+    private static class QueuedLine {
+
+        /** The full path to the log file. */
+        private final String fileName;
+
+        /** The line to write. */
+        private final String line;
+
+        /** Counted down when everything before this is written. */
+        private final CountDownLatch written;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName The full path to the log file.
+         * @param line The line to write.
+         * @param written Counted down when everything before this is written.
+         */
+        QueuedLine(final String fileName, final String line, final CountDownLatch written) {
+            this.fileName = fileName;
+            this.line = line;
+            this.written = written;
+        }
+
+        /**
+         * Gets the full path to the log file.
+         *
+         * @return The file name.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Gets the line to write.
+         *
+         * @return The line.
+         */
+        public String getLine() {
+            return line;
+        }
+
+        /**
+         * Gets the latch counted down when everything before this is written.
+         *
+         * @return The latch.
+         */
+        public CountDownLatch getWritten() {
+            return written;
+        }
+    }
+}
@@ -22,8 +22,16 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.history.HistoryRecord;
+import net.usikkert.kouchat.history.HistoryStore;
 import net.usikkert.kouchat.ui.ChatWindow;
 import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.BoundedExecutor;
 import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
@@ -31,16 +39,39 @@ import net.usikkert.kouchat.util.Validate;
  * Formats different kind of messages for display in a chat window,
  * and logs them to file.
  *
+ * <p>When logging is enabled, the messages in the main chat are also
+ * added to a {@link HistoryStore}, where they can be searched. Opening the history
+ * and adding to it happens on a background thread, so a large history does not
+ * slow down the thread receiving messages.</p>
+ *
  * @author Christian Ihle
  */
 public class MessageController {
 
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(MessageController.class.getName());
+
+    /** Name of the directory with the history, in the log directory. */
+    private static final String HISTORY_DIRECTORY = "history";
+
+    /** Maximum number of messages waiting to be added to the history. */
+    private static final int MAX_QUEUED_HISTORY_RECORDS = 1000;
+
     private final Settings settings;
     private final User me;
     private final ChatWindow chat;
     private final ChatLogger cLog;
     private final UserInterface ui;
 
+    /** Opens the history and adds messages to it in the background, one at a time. */
+    private final BoundedExecutor historyExecutor;
+
+    /** The history of the main chat. Opened the first time it's needed, by the history thread. */
+    private volatile HistoryStore historyStore;
+
+    /** If the history could not be opened, or written to. Only used by the history thread. */
+    private boolean historyFailed;
+
     /**
      * Initializes the logger and loads settings.
      *
@@ -59,6 +90,7 @@ public class MessageController {
 
         me = settings.getMe();
         cLog = new ChatLogger(settings);
+        historyExecutor = new BoundedExecutor("MessageControllerHistory", 1, MAX_QUEUED_HISTORY_RECORDS);
     }
 
     /**
@@ -71,10 +103,11 @@ public class MessageController {
      * @param message The message the user wrote.
      * @param color The color the user chose for the message.
      */
-    public void showUserMessage(final String user, final String message, final int color) {
-        final String msg = Tools.getTime() + " <" + user + ">: " + message;
+    public void showUserMessage(final User user, final String message, final int color) {
+        final String msg = Tools.getTime() + " <" + user.getNick() + ">: " + message;
         chat.appendToChat(msg, color);
         cLog.append(msg);
+        addToHistory(user.getCode(), user.getNick(), message);
     }
 
     /**
@@ -89,6 +122,7 @@ public class MessageController {
         final String msg = Tools.getTime() + " *** " + message;
         chat.appendToChat(msg, settings.getSysColor());
         cLog.append(msg);
+        addToHistory(HistoryRecord.SYSTEM_USER_CODE, "", message);
     }
 
     /**
@@ -103,6 +137,7 @@ public class MessageController {
         final String msg = Tools.getTime() + " <" + me.getNick() + ">: " + message;
         chat.appendToChat(msg, settings.getOwnColor());
         cLog.append(msg);
+        addToHistory(me.getCode(), me.getNick(), message);
     }
 
     /**
@@ -160,9 +195,98 @@ public class MessageController {
     }
 
     /**
-     * Cleanup that must be done when shutting down. Closes the chat logger.
+     * Gets the history of the main chat, for searching.
+     *
+     * @return The history, or <code>null</code> if nothing has been logged to the history yet.
+     */
+    public HistoryStore getHistoryStore() {
+        return historyStore;
+    }
+
+    /**
+     * Adds a message in the main chat to the history in the background, if logging is enabled.
+     * The message is dropped if too many messages are waiting.
+     *
+     * @param userCode The unique code of the user who wrote the message.
+     * @param nick The nick name of the user who wrote the message.
+     * @param message The message.
+     */
+    private void addToHistory(final int userCode, final String nick, final String message) {
+        if (!settings.isLogging()) {
+            return;
+        }
+
+        final HistoryRecord record = new HistoryRecord(System.currentTimeMillis(), userCode, nick, message);
+
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeToHistory(record);
+            }
+        });
+    }
+
+    /**
+     * Adds a record to the history. The history is opened the first time, in the log directory.
+     * Only called by the history thread.
+     *
+     * @param record The record to add.
+     */
+    private void writeToHistory(final HistoryRecord record) {
+        if (historyFailed) {
+            return;
+        }
+
+        HistoryStore store = historyStore;
+
+        try {
+            if (store == null) {
+                store = new HistoryStore(new File(settings.getLogLocation(), HISTORY_DIRECTORY));
+                store.open();
+                historyStore = store;
+            }
+
+            store.append(record);
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Could not add to history: " + e.toString(), e);
+            historyFailed = true;
+            store.close();
+            historyStore = null;
+        }
+    }
+
+    /**
+     * Cleanup that must be done when shutting down. Closes the chat logger, and closes the history
+     * after the messages waiting to be added.
      */
     public void shutdown() {
         cLog.close();
+
+        final boolean queued = historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeHistory();
+            }
+        });
+
+        // Too many messages waiting, so close it right away instead
+        if (!queued) {
+            closeHistory();
+        }
+
+        historyExecutor.shutdown();
+    }
+
+    /**
+     * Closes the history, if it's open.
+     */
+    private void closeHistory() {
+        final HistoryStore store = historyStore;
+
+        if (store != null) {
+            store.close();
+        }
     }
 }
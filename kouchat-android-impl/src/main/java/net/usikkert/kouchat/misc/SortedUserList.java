@@ -23,7 +23,6 @@
 package net.usikkert.kouchat.misc;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import net.usikkert.kouchat.event.UserListListener;
@@ -35,6 +34,11 @@ import net.usikkert.kouchat.util.Validate;
  * <p>The users in the list are sorted by nick name,
  * as specified in {@link User#compareTo(User)}.</p>
  *
+ * <p>New users are inserted directly into the correct position, found with a binary search.
+ * Users with the same nick name keep the order they were added in. Changed users are only
+ * moved if the change affects the sort order, so changes to the away or writing status
+ * never reorders the list.</p>
+ *
  * @author Christian Ihle
  */
 public class SortedUserList implements UserList {
@@ -54,7 +58,7 @@ public class SortedUserList implements UserList {
     }
 
     /**
-     * Adds the user, and then sorts the list.
+     * Adds the user at the correct position in the sorted list.
      *
      * {@inheritDoc}
      */
@@ -62,14 +66,11 @@ public class SortedUserList implements UserList {
     public boolean add(final User user) {
         Validate.notNull(user, "User can not be null");
 
-        final boolean success = userList.add(user);
-
-        if (success) {
-            Collections.sort(userList);
-            fireUserAdded(userList.indexOf(user), user);
-        }
+        final int pos = findInsertPosition(user, 0, userList.size());
+        userList.add(pos, user);
+        fireUserAdded(pos, user);
 
-        return success;
+        return true;
     }
 
     /**
@@ -91,6 +92,13 @@ public class SortedUserList implements UserList {
     public int indexOf(final User user) {
         Validate.notNull(user, "User can not be null");
 
+        final int pos = findInSortedPosition(user);
+
+        if (pos != -1) {
+            return pos;
+        }
+
+        // The nick name of the user may have been changed without telling the list
         return userList.indexOf(user);
     }
 
@@ -101,18 +109,21 @@ public class SortedUserList implements UserList {
     public boolean remove(final User user) {
         Validate.notNull(user, "User can not be null");
 
-        final int pos = userList.indexOf(user);
-        final boolean success = userList.remove(user);
+        final int pos = indexOf(user);
 
-        if (success) {
-            fireUserRemoved(pos, user);
+        if (pos == -1) {
+            return false;
         }
 
-        return success;
+        userList.remove(pos);
+        fireUserRemoved(pos, user);
+
+        return true;
     }
 
     /**
-     * Sets the user, and then sorts the list.
+     * Sets the user, and then moves the user to the correct position
+     * if the change affected the sort order.
      *
      * {@inheritDoc}
      */
@@ -121,8 +132,15 @@ public class SortedUserList implements UserList {
         Validate.notNull(user, "User can not be null");
 
         final User oldUser = userList.set(pos, user);
-        Collections.sort(userList);
-        fireUserChanged(userList.indexOf(user), user);
+        int newPos = pos;
+
+        if (!isInSortedPosition(pos)) {
+            userList.remove(pos);
+            newPos = findInsertPosition(user, 0, userList.size());
+            userList.add(newPos, user);
+        }
+
+        fireUserChanged(newPos, user);
 
         return oldUser;
     }
@@ -155,6 +173,78 @@ public class SortedUserList implements UserList {
         listeners.remove(listener);
     }
 
+    /**
+     * Checks if the user at the specified position is still sorted correctly
+     * compared to the users before and after.
+     *
+     * @param pos The position of the user to check.
+     * @return If the user is in the correct position.
+     */
+    private boolean isInSortedPosition(final int pos) {
+        final User user = userList.get(pos);
+
+        if (pos > 0 && userList.get(pos - 1).compareTo(user) > 0) {
+            return false;
+        }
+
+        if (pos < userList.size() - 1 && user.compareTo(userList.get(pos + 1)) > 0) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the position to insert the user to keep the list sorted.
+     * The position is after any users that sorts equal to the user.
+     *
+     * @param user The user to find the position for.
+     * @param fromPos The first position to search, inclusive.
+     * @param toPos The last position to search, exclusive.
+     * @return The position to insert the user.
+     */
+    private int findInsertPosition(final User user, final int fromPos, final int toPos) {
+        int low = fromPos;
+        int high = toPos;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (userList.get(mid).compareTo(user) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the position of the user with a binary search on the nick name, followed by
+     * a search through the users with the same nick name.
+     *
+     * @param user The user to find.
+     * @return The position of the user, or -1 if not found where the nick name says it should be.
+     */
+    private int findInSortedPosition(final User user) {
+        final int endPos = findInsertPosition(user, 0, userList.size());
+
+        for (int pos = endPos - 1; pos >= 0; pos--) {
+            final User temp = userList.get(pos);
+
+            if (temp.equals(user)) {
+                return pos;
+            }
+
+            if (temp.compareTo(user) != 0) {
+                break;
+            }
+        }
+
+        return -1;
+    }
+
     /**
      * Notifies the listeners that a user was added.
      *
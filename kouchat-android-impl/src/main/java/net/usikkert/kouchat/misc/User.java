@@ -22,6 +22,9 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.Collections;
+import java.util.Set;
+
 import net.usikkert.kouchat.ui.PrivateChatWindow;
 
 /**
@@ -55,8 +58,11 @@ public class User implements Comparable<User> {
     /** The port to use when connecting to this user's private chat. */
     private int privateChatPort;
 
-    /** The time when the last idle message came from this user. */
-    private long lastIdle;
+    /**
+     * The time when the last idle message came from this user.
+     * Volatile, as it's read by the idle thread to find out when the user times out.
+     */
+    private volatile long lastIdle;
 
     /** The time when this user logged on the chat. */
     private long logonTime;
@@ -79,6 +85,15 @@ public class User implements Comparable<User> {
     /** If a new unread message has arrived to the main chat. */
     private boolean newMsg;
 
+    /** The capabilities of the user's client, like support for message batches. */
+    private Set<String> capabilities;
+
+    /**
+     * Number of milliseconds between idle messages from this user, or 0 if the user's client
+     * always sends them every 15 seconds. Volatile, as it's read by the idle thread.
+     */
+    private volatile long idleInterval;
+
     /** The private chat window where the chat session with this user happens. */
     private PrivateChatWindow privchat;
 
@@ -110,6 +125,8 @@ public class User implements Comparable<User> {
         privchat = null;
         online = true;
         newPrivMsg = false;
+        capabilities = Collections.emptySet();
+        idleInterval = 0;
     }
 
     /**
@@ -125,6 +142,8 @@ public class User implements Comparable<User> {
         privateChatPort = 0;
         privchat = null;
         newPrivMsg = false;
+        capabilities = Collections.emptySet();
+        idleInterval = 0;
     }
 
     /**
@@ -370,6 +389,47 @@ public class User implements Comparable<User> {
         this.privateChatPort = privateChatPort;
     }
 
+    /**
+     * Checks if the user's client has the given capability.
+     *
+     * @param capability The capability to check, like {@link net.usikkert.kouchat.net.MessageBatch#CAPABILITY}.
+     * @return If the user's client supports the capability.
+     */
+    public boolean isCapabilitySupported(final String capability) {
+        return capabilities.contains(capability);
+    }
+
+    /**
+     * Sets the capabilities of the user's client, as sent with the client information.
+     * Older clients don't send any capabilities.
+     *
+     * @param capabilities The capabilities supported by the user's client.
+     */
+    public void setCapabilities(final Set<String> capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * Gets the number of milliseconds between idle messages from this user.
+     *
+     * <p>Clients that send the interval also count any message as a sign of life, and may skip
+     * idle messages when they have sent other messages recently.</p>
+     *
+     * @return The idle interval, or 0 if the user's client doesn't send it.
+     */
+    public long getIdleInterval() {
+        return idleInterval;
+    }
+
+    /**
+     * Sets the number of milliseconds between idle messages from this user.
+     *
+     * @param idleInterval The idle interval, or 0 if the user's client doesn't send it.
+     */
+    public void setIdleInterval(final long idleInterval) {
+        this.idleInterval = idleInterval;
+    }
+
     /**
      * Checks if this user is logged on to the chat.
      *
@@ -22,6 +22,11 @@
 
 package net.usikkert.kouchat.misc;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.usikkert.kouchat.event.UserListListener;
+import net.usikkert.kouchat.net.MessageBatch;
 import net.usikkert.kouchat.util.Validate;
 
 /**
@@ -30,6 +35,11 @@ import net.usikkert.kouchat.util.Validate;
  * It contains methods for getting information about users,
  * and updating the state of users.
  *
+ * <p>Users are indexed by user code and by nick name, so lookups don't have to
+ * search through the user list. The indexes are kept up to date by listening
+ * for changes to the user list, so users can be added to and removed from the
+ * user list directly. Nick names must be changed using {@link #changeNickName(int, String)}.</p>
+ *
  * @author Christian Ihle
  */
 public class UserListController {
@@ -37,6 +47,18 @@ public class UserListController {
     /** The user list. */
     private final UserList userList;
 
+    /** The application user. */
+    private final User me;
+
+    /** All the users in the user list, with the user code as key. */
+    private final Map<Integer, User> usersByCode;
+
+    /**
+     * All the users in the user list, except the application user, with the nick name as key.
+     * See {@link #toNickKey(String)} for details about the key.
+     */
+    private final Map<String, User> usersByNick;
+
     /**
      * Constructor.
      *
@@ -47,8 +69,13 @@ public class UserListController {
     public UserListController(final Settings settings) {
         Validate.notNull(settings, "Settings can not be null");
 
+        me = settings.getMe();
+        usersByCode = new ConcurrentHashMap<Integer, User>();
+        usersByNick = new ConcurrentHashMap<String, User>();
+
         userList = new SortedUserList();
-        userList.add(settings.getMe());
+        userList.addUserListListener(new UserIndexUpdater());
+        userList.add(me);
     }
 
     /**
@@ -58,18 +85,7 @@ public class UserListController {
      * @return The user, or <code>null</code> if the user was not found.
      */
     public User getUser(final int code) {
-        User user = null;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                user = temp;
-                break;
-            }
-        }
-
-        return user;
+        return usersByCode.get(code);
     }
 
     /**
@@ -79,18 +95,16 @@ public class UserListController {
      * @return The user, or <code>null</code> if the user was not found.
      */
     public User getUser(final String nickname) {
-        User user = null;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        if (nickname == null) {
+            return null;
+        }
 
-            if (temp.getNick().equalsIgnoreCase(nickname)) {
-                user = temp;
-                break;
-            }
+        // The nick name of the application user can change without going through the controller
+        if (me.getNick().equalsIgnoreCase(nickname)) {
+            return me;
         }
 
-        return user;
+        return usersByNick.get(toNickKey(nickname));
     }
 
     /**
@@ -100,13 +114,18 @@ public class UserListController {
      * @param nickname The new nick name of the user.
      */
     public void changeNickName(final int code, final String nickname) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        final User user = getUser(code);
+
+        if (user != null) {
+            // Find the position before the sort order changes
+            final int pos = userList.indexOf(user);
 
-            if (temp.getCode() == code) {
-                temp.setNick(nickname);
-                userList.set(i, temp);
-                break;
+            removeFromNickIndex(user);
+            user.setNick(nickname);
+            addToNickIndex(user);
+
+            if (pos != -1) {
+                userList.set(pos, user);
             }
         }
     }
@@ -119,15 +138,12 @@ public class UserListController {
      * @param awaymsg The new away message.
      */
     public void changeAwayStatus(final int code, final boolean away, final String awaymsg) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        final User user = getUser(code);
 
-            if (temp.getCode() == code) {
-                temp.setAway(away);
-                temp.setAwayMsg(awaymsg);
-                userList.set(i, temp);
-                break;
-            }
+        if (user != null) {
+            user.setAway(away);
+            user.setAwayMsg(awaymsg);
+            updateUser(user);
         }
     }
 
@@ -138,14 +154,11 @@ public class UserListController {
      * @param writing If the user is writing.
      */
     public void changeWriting(final int code, final boolean writing) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        final User user = getUser(code);
 
-            if (temp.getCode() == code) {
-                temp.setWriting(writing);
-                userList.set(i, temp);
-                break;
-            }
+        if (user != null) {
+            user.setWriting(writing);
+            updateUser(user);
         }
     }
 
@@ -156,14 +169,11 @@ public class UserListController {
      * @param newMsg If the user has new private messages.
      */
     public void changeNewMessage(final int code, final boolean newMsg) {
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
+        final User user = getUser(code);
 
-            if (temp.getCode() == code) {
-                temp.setNewPrivMsg(newMsg);
-                userList.set(i, temp);
-                break;
-            }
+        if (user != null) {
+            user.setNewPrivMsg(newMsg);
+            updateUser(user);
         }
     }
 
@@ -174,18 +184,11 @@ public class UserListController {
      * @return If the nick name is in use.
      */
     public boolean isNickNameInUse(final String nickname) {
-        boolean inUse = false;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getNick().equalsIgnoreCase(nickname) && !temp.isMe()) {
-                inUse = true;
-                break;
-            }
+        if (nickname == null) {
+            return false;
         }
 
-        return inUse;
+        return usersByNick.containsKey(toNickKey(nickname));
     }
 
     /**
@@ -195,18 +198,7 @@ public class UserListController {
      * @return If the user is new, which means it is not in the user list.
      */
     public boolean isNewUser(final int code) {
-        boolean newUser = true;
-
-        for (int i = 0; i < userList.size(); i++) {
-            final User temp = userList.get(i);
-
-            if (temp.getCode() == code) {
-                newUser = false;
-                break;
-            }
-        }
-
-        return newUser;
+        return !usersByCode.containsKey(code);
     }
 
     /**
@@ -231,6 +223,58 @@ public class UserListController {
         return false;
     }
 
+    /**
+     * Checks if several messages can be sent in a single datagram, which requires that all the
+     * other users in the user list support it. The first time logging on there are no other users,
+     * and nothing is known about the users on the network, so then it's not supported either.
+     *
+     * @return If message batches can be sent.
+     * @see MessageBatch
+     */
+    public boolean isMessageBatchSupported() {
+        boolean otherUsers = false;
+
+        for (int i = 0; i < userList.size(); i++) {
+            final User temp = userList.get(i);
+
+            if (!temp.isMe()) {
+                if (!temp.isCapabilitySupported(MessageBatch.CAPABILITY)) {
+                    return false;
+                }
+
+                otherUsers = true;
+            }
+        }
+
+        return otherUsers;
+    }
+
+    /**
+     * Checks if all the other users in the user list send their idle interval. Those clients
+     * count any message as a sign of life, and adjust their timeout to the interval.
+     * If there are no other users, it's not known what the users on the network support.
+     *
+     * @return If the idle interval can be adjusted freely, and other messages can replace idle messages.
+     * @see User#getIdleInterval()
+     */
+    public boolean isIdleIntervalSupported() {
+        boolean otherUsers = false;
+
+        for (int i = 0; i < userList.size(); i++) {
+            final User temp = userList.get(i);
+
+            if (!temp.isMe()) {
+                if (temp.getIdleInterval() <= 0) {
+                    return false;
+                }
+
+                otherUsers = true;
+            }
+        }
+
+        return otherUsers;
+    }
+
     /**
      * Gets the user list.
      *
@@ -239,4 +283,116 @@ public class UserListController {
     public UserList getUserList() {
         return userList;
     }
+
+    /**
+     * Notifies the user list that the user has changed.
+     *
+     * @param user The user that changed.
+     */
+    private void updateUser(final User user) {
+        final int pos = userList.indexOf(user);
+
+        if (pos != -1) {
+            userList.set(pos, user);
+        }
+    }
+
+    /**
+     * Adds the user to the nick name index, unless it's the application user,
+     * or another user already has the same nick name.
+     *
+     * @param user The user to add.
+     */
+    private void addToNickIndex(final User user) {
+        if (!user.isMe()) {
+            final String nickKey = toNickKey(user.getNick());
+
+            if (!usersByNick.containsKey(nickKey)) {
+                usersByNick.put(nickKey, user);
+            }
+        }
+    }
+
+    /**
+     * Removes the user from the nick name index.
+     *
+     * <p>If another user in the user list has the same nick name,
+     * that user is indexed instead.</p>
+     *
+     * @param user The user to remove.
+     */
+    private void removeFromNickIndex(final User user) {
+        final String nickKey = toNickKey(user.getNick());
+
+        if (usersByNick.get(nickKey) == user) {
+            usersByNick.remove(nickKey);
+
+            // Should not normally happen, but the user list does not stop users with identical nick names
+            for (int i = 0; i < userList.size(); i++) {
+                final User temp = userList.get(i);
+
+                if (temp != user && usersByCode.containsKey(temp.getCode())) {
+                    if (nickKey.equals(toNickKey(temp.getNick()))) {
+                        addToNickIndex(temp);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the key used for indexing a nick name. Nick names that are equal when ignoring case
+     * get the same key, the same way as {@link String#equalsIgnoreCase(String)} compares them.
+     *
+     * @param nickname The nick name to create a key for.
+     * @return The key.
+     */
+    static String toNickKey(final String nickname) {
+        final char[] key = new char[nickname.length()];
+
+        for (int i = 0; i < key.length; i++) {
+            key[i] = Character.toLowerCase(Character.toUpperCase(nickname.charAt(i)));
+        }
+
+        return new String(key);
+    }
+
+    /**
+     * Keeps the indexes up to date when users are added to or removed from the user list.
+     */
+    private class UserIndexUpdater implements UserListListener {
+
+        /**
+         * Indexes the added user.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userAdded(final int pos, final User user) {
+            usersByCode.put(user.getCode(), user);
+            addToNickIndex(user);
+        }
+
+        /**
+         * Nothing to do, nick name changes are indexed by {@link #changeNickName(int, String)}.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userChanged(final int pos, final User user) {
+            // Nothing to do
+        }
+
+        /**
+         * Removes the user from the indexes.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void userRemoved(final int pos, final User user) {
+            usersByCode.remove(user.getCode());
+            removeFromNickIndex(user);
+        }
+    }
 }
@@ -0,0 +1,242 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Keeps track of when users time out, because they have stopped sending idle messages.
+ *
+ * <p>A user times out when {@link User#getLastIdle()} is more than the timeout ago.
+ * Users that send their idle interval get a timeout of {@link #IDLE_INTERVALS_BEFORE_TIMEOUT}
+ * idle intervals instead, if that is longer.
+ * The users are kept in a priority queue ordered by when they need to be checked next, so
+ * finding the users that have timed out only looks at the users that might have. When an
+ * idle message arrives, only the last idle time of the user is updated. Checking the user
+ * at the old time finds the new deadline, and moves the user back in the queue.
+ * This means the queue is updated at most once per user per timeout period,
+ * no matter how often idle messages arrive.</p>
+ *
+ * @author Christian Ihle
+ */
+public class UserTimeoutQueue {
+
+    /** Number of idle intervals without any messages from a user before the user times out. */
+    static final int IDLE_INTERVALS_BEFORE_TIMEOUT = 8;
+
+    /** Number of milliseconds without idle messages before a user times out. */
+    private final long timeout;
+
+    /** The users in the queue, with the user code as key. */
+    private final Map<Integer, QueuedUser> queuedUsers;
+
+    /** The users in the queue, ordered by when they need to be checked. */
+    private final PriorityQueue<QueuedUser> checkQueue;
+
+    /**
+     * Constructor.
+     *
+     * @param timeout Number of milliseconds without idle messages before a user times out.
+     */
+    public UserTimeoutQueue(final long timeout) {
+        this.timeout = timeout;
+
+        queuedUsers = new HashMap<Integer, QueuedUser>();
+        checkQueue = new PriorityQueue<QueuedUser>();
+    }
+
+    /**
+     * Starts keeping track of when the user times out. Does nothing if the user is already in the queue.
+     *
+     * @param user The user to add.
+     */
+    public synchronized void addUser(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        if (!queuedUsers.containsKey(user.getCode())) {
+            final QueuedUser queuedUser = new QueuedUser(user, getDeadline(user));
+            queuedUsers.put(user.getCode(), queuedUser);
+            checkQueue.add(queuedUser);
+        }
+    }
+
+    /**
+     * Stops keeping track of when the user times out.
+     *
+     * <p>The user is only removed from the map here. It's left in the priority queue,
+     * and skipped when reaching the front, as removing from the middle of the queue is slow.</p>
+     *
+     * @param user The user to remove.
+     */
+    public synchronized void removeUser(final User user) {
+        Validate.notNull(user, "User can not be null");
+
+        queuedUsers.remove(user.getCode());
+    }
+
+    /**
+     * Gets the time of the next check, when the first user in the queue might time out.
+     *
+     * @return The time of the next check, or {@link Long#MAX_VALUE} if the queue is empty.
+     */
+    public synchronized long getNextCheckTime() {
+        final QueuedUser first = checkQueue.peek();
+
+        if (first == null) {
+            return Long.MAX_VALUE;
+        }
+
+        return first.getCheckTime();
+    }
+
+    /**
+     * Finds the users that have timed out at the specified time, and removes them from the queue.
+     * Users that have sent idle messages since they were last checked are moved back in the queue.
+     *
+     * @param now The current time.
+     * @return The users that timed out.
+     */
+    public synchronized List<User> removeTimedOutUsers(final long now) {
+        final List<User> timedOutUsers = new ArrayList<User>();
+
+        while (!checkQueue.isEmpty() && checkQueue.peek().getCheckTime() <= now) {
+            final QueuedUser queuedUser = checkQueue.poll();
+            final User user = queuedUser.getUser();
+
+            // Removed, and maybe added again later
+            if (queuedUsers.get(user.getCode()) != queuedUser) {
+                continue;
+            }
+
+            final long deadline = getDeadline(user);
+
+            if (deadline <= now) {
+                queuedUsers.remove(user.getCode());
+                timedOutUsers.add(user);
+            }
+
+            else {
+                queuedUser.setCheckTime(deadline);
+                checkQueue.add(queuedUser);
+            }
+        }
+
+        return timedOutUsers;
+    }
+
+    /**
+     * Gets the number of users in the queue.
+     *
+     * @return The number of users.
+     */
+    public synchronized int size() {
+        return queuedUsers.size();
+    }
+
+    /**
+     * Gets the time when the user will time out, if no more idle messages arrive.
+     *
+     * <p>If the idle interval of the user goes down, the user is not checked before the
+     * old deadline, so the user might time out a bit later than the new deadline.</p>
+     *
+     * @param user The user.
+     * @return The deadline.
+     */
+    private long getDeadline(final User user) {
+        return user.getLastIdle() + Math.max(timeout, user.getIdleInterval() * IDLE_INTERVALS_BEFORE_TIMEOUT);
+    }
+
+    /**
+     * A user in the queue, with the time when the user needs to be checked.
+     */
+    private static class QueuedUser implements Comparable<QueuedUser> {
+
+        /** The user. */
+        private final User user;
+
+        /** When the user needs to be checked. */
+        private long checkTime;
+
+        /**
+         * Constructor.
+         *
+         * @param user The user.
+         * @param checkTime When the user needs to be checked.
+         */
+        QueuedUser(final User user, final long checkTime) {
+            this.user = user;
+            this.checkTime = checkTime;
+        }
+
+        /**
+         * Gets the user.
+         *
+         * @return The user.
+         */
+        public User getUser() {
+            return user;
+        }
+
+        /**
+         * Gets when the user needs to be checked.
+         *
+         * @return The check time.
+         */
+        public long getCheckTime() {
+            return checkTime;
+        }
+
+        /**
+         * Sets when the user needs to be checked. Only change this while the user is not in the priority queue.
+         *
+         * @param checkTime The check time.
+         */
+        public void setCheckTime(final long checkTime) {
+            this.checkTime = checkTime;
+        }
+
+        /**
+         * Sorts by check time, with the earliest first.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(final QueuedUser other) {
+            if (checkTime < other.checkTime) {
+                return -1;
+            }
+
+            else if (checkTime > other.checkTime) {
+                return 1;
+            }
+
+            return 0;
+        }
+    }
+}
@@ -24,6 +24,14 @@ package net.usikkert.kouchat.misc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This waiting list is used to store unknown users while asking them to
@@ -31,26 +39,54 @@ import java.util.List;
  * By doing this, messages from unknown users can be held back until they
  * have identified themselves.
  *
+ * <p>Tasks can be queued for a waiting user with {@link #runWhenIdentified(int, Runnable)}.
+ * They are run in the order they were queued, as soon as the user is removed from the list.
+ * If the user does not identify itself within 2 seconds, the user is removed from the list
+ * by a timer, and the tasks are run anyway.</p>
+ *
  * @author Christian Ihle
  */
 public class WaitingList {
 
-    private final List<Integer> users;
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(WaitingList.class.getName());
+
+    /** Number of milliseconds to wait for a user to identify itself. */
+    private static final long TIMEOUT = 2000;
+
+    /** The waiting users, with the user code as key. */
+    private final ConcurrentMap<Integer, WaitingUser> users;
+
+    /** The timer removing users that don't identify themselves in time. */
+    private final Timer timer;
 
     /**
      * Constructor.
      */
     public WaitingList() {
-        users = new ArrayList<Integer>();
+        users = new ConcurrentHashMap<Integer, WaitingUser>();
+        timer = new Timer("WaitingListTimer", true);
     }
 
     /**
-     * Adds a user to the waiting list.
+     * Adds a user to the waiting list, if not already waiting.
      *
      * @param userCode The unique code of the user to add.
      */
     public void addWaitingUser(final int userCode) {
-        users.add(userCode);
+        final WaitingUser waitingUser = new WaitingUser(userCode);
+
+        if (users.putIfAbsent(userCode, waitingUser) == null) {
+            try {
+                timer.schedule(waitingUser, TIMEOUT);
+            }
+
+            // The timer is stopped, so don't wait at all
+            catch (final IllegalStateException e) {
+                LOG.log(Level.FINE, e.toString());
+                removeWaitingUser(userCode);
+            }
+        }
     }
 
     /**
@@ -60,15 +96,120 @@ public class WaitingList {
      * @return If the user is on the waiting list.
      */
     public boolean isWaitingUser(final int userCode) {
-        return users.contains(userCode);
+        return users.containsKey(userCode);
     }
 
     /**
-     * Removes a user from the waiting list.
+     * Removes a user from the waiting list, and runs the tasks queued for that user.
      *
      * @param userCode The unique code of the user to remove.
      */
     public void removeWaitingUser(final int userCode) {
-        users.remove(new Integer(userCode));
+        final WaitingUser waitingUser = users.remove(userCode);
+
+        if (waitingUser != null) {
+            waitingUser.cancel();
+            waitingUser.runTasks();
+        }
+    }
+
+    /**
+     * Runs the task when the user is no longer on the waiting list.
+     *
+     * <p>If the user is not waiting, the task is run right away on the calling thread.
+     * If not, the task is run by the thread removing the user from the list,
+     * or by the timer if the user never identifies itself.</p>
+     *
+     * @param userCode The unique code of the user to wait for.
+     * @param task The task to run.
+     */
+    public void runWhenIdentified(final int userCode, final Runnable task) {
+        Validate.notNull(task, "Task can not be null");
+
+        final WaitingUser waitingUser = users.get(userCode);
+
+        if (waitingUser == null || !waitingUser.addTask(task)) {
+            task.run();
+        }
+    }
+
+    /**
+     * Stops the timer. Users still waiting will not time out after this.
+     */
+    public void stop() {
+        timer.cancel();
+    }
+
+    /**
+     * A user on the waiting list, with the tasks to run when the user is removed from the list.
+     *
+     * <p>Also the timer task removing the user if it takes too long.</p>
+     */
+    private class WaitingUser extends TimerTask {
+
+        /** The unique code of the waiting user. */
+        private final int userCode;
+
+        /** The tasks to run when the user is removed from the list, in order. */
+        private final List<Runnable> tasks;
+
+        /** If the tasks have been run. */
+        private boolean done;
+
+        /**
+         * Constructor.
+         *
+         * @param userCode The unique code of the waiting user.
+         */
+        WaitingUser(final int userCode) {
+            this.userCode = userCode;
+            tasks = new ArrayList<Runnable>();
+        }
+
+        /**
+         * Queues a task, unless the tasks have already been run.
+         *
+         * @param task The task to queue.
+         * @return If the task was queued.
+         */
+        synchronized boolean addTask(final Runnable task) {
+            if (done) {
+                return false;
+            }
+
+            tasks.add(task);
+            return true;
+        }
+
+        /**
+         * Runs all the queued tasks, in order. Tasks added while running are
+         * held back until the queued tasks are done, to keep the order.
+         */
+        synchronized void runTasks() {
+            done = true;
+
+            for (final Runnable task : tasks) {
+                try {
+                    task.run();
+                }
+
+                catch (final RuntimeException e) {
+                    LOG.log(Level.SEVERE, e.toString(), e);
+                }
+            }
+
+            tasks.clear();
+        }
+
+        /**
+         * Removes the user from the list when it has waited too long, and runs the tasks.
+         */
+        @Override
+        public void run() {
+            if (users.remove(userCode, this)) {
+                LOG.log(Level.FINE, "Gave up waiting for user: " + userCode);
+                runTasks();
+            }
+        }
     }
 }
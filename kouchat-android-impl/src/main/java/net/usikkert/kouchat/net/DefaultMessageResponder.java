@@ -24,18 +24,22 @@ package net.usikkert.kouchat.net;
 
 import java.io.File;
 import java.util.Date;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.usikkert.kouchat.event.TaskMetricsListener;
 import net.usikkert.kouchat.misc.ChatState;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Controller;
+import net.usikkert.kouchat.misc.ExposeScheduler;
 import net.usikkert.kouchat.misc.MessageController;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.misc.WaitingList;
 import net.usikkert.kouchat.ui.UserInterface;
+import net.usikkert.kouchat.util.BoundedExecutor;
 import net.usikkert.kouchat.util.Tools;
 import net.usikkert.kouchat.util.Validate;
 
@@ -48,6 +52,18 @@ public class DefaultMessageResponder implements MessageResponder {
 
     private static final Logger LOG = Logger.getLogger(DefaultMessageResponder.class.getName());
 
+    /** Max number of threads handling file transfers. */
+    private static final int MAX_FILE_TRANSFER_THREADS = 10;
+
+    /** Max number of file transfer requests waiting for a thread. */
+    private static final int MAX_QUEUED_FILE_TRANSFERS = 50;
+
+    /** Max number of threads waiting for the application user to accept or decline a file. */
+    private static final int MAX_FILE_OFFER_THREADS = 20;
+
+    /** Max number of file offers waiting for a thread. */
+    private static final int MAX_QUEUED_FILE_OFFERS = 50;
+
     private final Controller controller;
     private final User me;
     private final TransferList tList;
@@ -55,6 +71,14 @@ public class DefaultMessageResponder implements MessageResponder {
     private final UserInterface ui;
     private final MessageController msgController;
     private final ChatState chatState;
+    private final ExposeScheduler exposeScheduler;
+    private final FileTransferServer fileTransferServer;
+
+    /** Runs the file transfers, which might take a long time. */
+    private final BoundedExecutor fileTransferExecutor;
+
+    /** Asks the application user to accept or decline files, without using the threads for file transfers. */
+    private final BoundedExecutor fileOfferExecutor;
 
     /**
      * Constructor.
@@ -76,6 +100,24 @@ public class DefaultMessageResponder implements MessageResponder {
         tList = controller.getTransferList();
         wList = controller.getWaitingList();
         chatState = controller.getChatState();
+        exposeScheduler = controller.getExposeScheduler();
+        fileTransferServer = controller.getFileTransferServer();
+
+        fileTransferExecutor = new BoundedExecutor("DefaultMessageResponderFileTransfer",
+                MAX_FILE_TRANSFER_THREADS, MAX_QUEUED_FILE_TRANSFERS);
+        fileOfferExecutor = new BoundedExecutor("DefaultMessageResponderFileOffer",
+                MAX_FILE_OFFER_THREADS, MAX_QUEUED_FILE_OFFERS);
+    }
+
+    /**
+     * Registers a listener to monitor the queue depth and latency of the tasks
+     * this responder runs in the background.
+     *
+     * @param listener The listener to register.
+     */
+    public void registerTaskMetricsListener(final TaskMetricsListener listener) {
+        fileTransferExecutor.registerTaskMetricsListener(listener);
+        fileOfferExecutor.registerTaskMetricsListener(listener);
     }
 
     /**
@@ -89,56 +131,56 @@ public class DefaultMessageResponder implements MessageResponder {
      */
     @Override
     public void messageArrived(final int userCode, final String msg, final int color) {
-        // A little hack to stop messages from showing before the user is logged on
-        final Thread t = new Thread("DefaultMessageResponderMessageArrived") {
-            @Override
-            public void run() {
-                if (isAlive()) {
-                    int counter = 0;
+        if (controller.isNewUser(userCode)) {
+            wList.addWaitingUser(userCode);
+            exposeScheduler.requestExpose();
 
-                    while (wList.isWaitingUser(userCode) && counter < 40) {
-                        counter++;
-                        Tools.sleep(50);
-                    }
+            // Stops messages from showing before the user is logged on
+            wList.runWhenIdentified(userCode, new Runnable() {
+                @Override
+                public void run() {
+                    showUserMessage(userCode, msg, color);
                 }
+            });
+        }
 
-                if (!controller.isNewUser(userCode)) {
-                    final User user = controller.getUser(userCode);
+        else {
+            showUserMessage(userCode, msg, color);
+        }
+    }
 
-                    if (!user.isAway()) {
-                        msgController.showUserMessage(user.getNick(), msg, color);
+    /**
+     * Shows a message from a user in the user interface, if the user is known and not away.
+     *
+     * @param userCode The unique code of the user who sent the message.
+     * @param msg The message.
+     * @param color The color the message has.
+     */
+    private void showUserMessage(final int userCode, final String msg, final int color) {
+        if (!controller.isNewUser(userCode)) {
+            final User user = controller.getUser(userCode);
 
-                        // Visible but not in front
-                        if (ui.isVisible() && !ui.isFocused()) {
-                            me.setNewMsg(true);
-                        }
+            if (!user.isAway()) {
+                msgController.showUserMessage(user, msg, color);
 
-                        ui.notifyMessageArrived(user);
-                    }
+                // Visible but not in front
+                if (ui.isVisible() && !ui.isFocused()) {
+                    me.setNewMsg(true);
                 }
 
-                else {
-                    LOG.log(Level.SEVERE, "Could not find user: " + userCode);
-                }
+                ui.notifyMessageArrived(user);
             }
-        };
-
-        if (controller.isNewUser(userCode)) {
-            wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
-
-            t.start();
         }
 
         else {
-            t.run();
+            LOG.log(Level.SEVERE, "Could not find user: " + userCode);
         }
     }
 
     /**
      * When a user logs off it is removed from the user list, and
-     * any open private chat window is notified.
+     * any open private chat window is notified. Failed file transfers from
+     * the user are forgotten, as they can not be resumed after logging off.
      *
      * @param userCode The unique code of the user who logged off.
      */
@@ -150,6 +192,7 @@ public class DefaultMessageResponder implements MessageResponder {
             final String logOffMessage = user.getNick() + " logged off";
 
             controller.removeUser(user, logOffMessage);
+            tList.removePartialFileReceivers(user);
             msgController.showSystemMessage(logOffMessage);
         }
     }
@@ -217,8 +260,7 @@ public class DefaultMessageResponder implements MessageResponder {
     public void topicChanged(final int userCode, final String newTopic, final String nick, final long time) {
         if (controller.isNewUser(userCode)) {
             wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
+            exposeScheduler.requestExpose();
         }
 
         else {
@@ -264,10 +306,6 @@ public class DefaultMessageResponder implements MessageResponder {
         if (controller.isNewUser(user.getCode())) {
             // Usually this happens when someone returns from a timeout
             if (chatState.isLogonCompleted()) {
-                if (wList.isWaitingUser(user.getCode())) {
-                    wList.removeWaitingUser(user.getCode());
-                }
-
                 userShowedUp(user);
             }
 
@@ -275,6 +313,9 @@ public class DefaultMessageResponder implements MessageResponder {
             else {
                 controller.getUserList().add(user);
             }
+
+            // Releases anything waiting for the user, now that the user is in the user list
+            wList.removeWaitingUser(user.getCode());
         }
 
         else {
@@ -344,8 +385,7 @@ public class DefaultMessageResponder implements MessageResponder {
     public void awayChanged(final int userCode, final boolean away, final String awayMsg) {
         if (controller.isNewUser(userCode)) {
             wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
+            exposeScheduler.requestExpose();
         }
 
         else {
@@ -396,20 +436,25 @@ public class DefaultMessageResponder implements MessageResponder {
      * Updates the idle time of the user,
      * and checks if the user's ip address has changed.
      *
+     * <p>Updating the idle time is all that is needed to postpone the timeout of the user,
+     * as {@link net.usikkert.kouchat.misc.UserTimeoutQueue} uses the idle time when the user is checked.</p>
+     *
      * @param userCode The unique code of the user who sent the idle message.
      * @param ipAddress The IP address of that user.
+     * @param idleInterval Number of milliseconds until the next idle message from the user,
+     *                     or 0 if the user's client doesn't send it.
      */
     @Override
-    public void userIdle(final int userCode, final String ipAddress) {
+    public void userIdle(final int userCode, final String ipAddress, final long idleInterval) {
         if (controller.isNewUser(userCode)) {
             wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
+            exposeScheduler.requestExpose();
         }
 
         else {
             final User user = controller.getUser(userCode);
             user.setLastIdle(System.currentTimeMillis());
+            user.setIdleInterval(idleInterval);
 
             if (!user.getIpAddress().equals(ipAddress)) {
                 msgController.showSystemMessage(user.getNick() + " changed ip from " + user.getIpAddress() + " to " + ipAddress);
@@ -418,6 +463,21 @@ public class DefaultMessageResponder implements MessageResponder {
         }
     }
 
+    /**
+     * Updates the idle time of the user, as any message shows that the user is still there.
+     * Unknown users are ignored, as they are handled by the message itself.
+     *
+     * @param userCode The unique code of the user who sent the message.
+     */
+    @Override
+    public void userActive(final int userCode) {
+        final User user = controller.getUser(userCode);
+
+        if (user != null) {
+            user.setLastIdle(System.currentTimeMillis());
+        }
+    }
+
     /**
      * Sends the current topic.
      */
@@ -438,12 +498,14 @@ public class DefaultMessageResponder implements MessageResponder {
     }
 
     /**
-     * Sends information about this client to the other clients.
+     * Sends information about this client to the other clients, unless already sent recently.
+     *
+     * @param userCode The unique code of the user who requested the information.
+     * @param reconnect If the user requested the information after connecting to the network again.
      */
     @Override
-    public void exposeRequested() {
-        controller.sendExposingMessage();
-        controller.sendClientInfo();
+    public void exposeRequested(final int userCode, final boolean reconnect) {
+        exposeScheduler.exposeRequested(controller.getUser(userCode), reconnect);
     }
 
     /**
@@ -456,8 +518,7 @@ public class DefaultMessageResponder implements MessageResponder {
     public void nickChanged(final int userCode, final String newNick) {
         if (controller.isNewUser(userCode)) {
             wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
+            exposeScheduler.requestExpose();
         }
 
         else {
@@ -497,26 +558,19 @@ public class DefaultMessageResponder implements MessageResponder {
     public void fileSend(final int userCode, final long byteSize, final String fileName, final String user, final int fileHash) {
         if (controller.isNewUser(userCode)) {
             wList.addWaitingUser(userCode);
-            controller.sendExposeMessage();
-            controller.sendGetTopicMessage();
+            exposeScheduler.requestExpose();
         }
 
-        new Thread("DefaultMessageResponderFileSend") {
+        final Runnable fileOfferTask = new Runnable() {
             @Override
             public void run() {
-                int counter = 0;
-
-                while (wList.isWaitingUser(userCode) && counter < 40) {
-                    counter++;
-                    Tools.sleep(50);
-                }
-
                 if (!controller.isNewUser(userCode)) {
                     final String size = Tools.byteToString(byteSize);
                     final User tmpUser = controller.getUser(userCode);
                     final File defaultFile = new File(
                             System.getProperty("user.home") + System.getProperty("file.separator") + fileName);
                     final FileReceiver fileRes = tList.addFileReceiver(tmpUser, defaultFile, byteSize);
+                    final FileReceiver partialFileRes = tList.removePartialFileReceiver(tmpUser, fileName, byteSize);
 
                     msgController.showSystemMessage(
                             user + " is trying to send the file " + fileName + " (#" + fileRes.getId() + ") [" + size + "]");
@@ -527,34 +581,32 @@ public class DefaultMessageResponder implements MessageResponder {
                         if (fileRes.isAccepted() && !fileRes.isCanceled()) {
                             ui.showTransfer(fileRes);
 
-                            try {
-                                final int port = fileRes.startServer();
-                                controller.sendFileAccept(tmpUser, port, fileHash, fileName);
+                            if (partialFileRes != null && tmpUser.isCapabilitySupported(FileResume.CAPABILITY)) {
+                                fileRes.resumeFrom(partialFileRes.getFile());
+                            }
 
-                                if (fileRes.transfer()) {
-                                    msgController.showSystemMessage("Successfully received " + fileName +
-                                            " from " + user + ", and saved as " + fileRes.getFile().getName());
-                                }
+                            if (tmpUser.isCapabilitySupported(FileResume.CAPABILITY) &&
+                                    tmpUser.isCapabilitySupported(ParallelStreams.CAPABILITY)) {
+                                fileRes.setStreams(ParallelStreams.getStreams(byteSize - fileRes.getResumeOffset()));
+                            }
 
-                                else {
-                                    msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
-                                    fileRes.cancel();
+                            final boolean queued = fileTransferExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    receiveFile(tmpUser, fileRes, user, fileName, fileHash);
+                                    tList.removeFileReceiver(fileRes);
                                 }
-                            }
+                            });
 
-                            // Failed to start the server
-                            catch (final ServerException e) {
-                                LOG.log(Level.SEVERE, e.toString(), e);
-                                msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+                            if (!queued) {
+                                msgController.showSystemMessage("Failed to receive " + fileName + " from " + user +
+                                        ", too many file transfers");
                                 controller.sendFileAbort(tmpUser, fileHash, fileName);
                                 fileRes.cancel();
+                                tList.removeFileReceiver(fileRes);
                             }
 
-                            // Failed to send the accept message
-                            catch (final CommandException e) {
-                                msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
-                                fileRes.cancel();
-                            }
+                            return;
                         }
 
                         else if (!fileRes.isCanceled()) {
@@ -576,7 +628,90 @@ public class DefaultMessageResponder implements MessageResponder {
                     LOG.log(Level.SEVERE, "Could not find user: " + user);
                 }
             }
-        } .start();
+        };
+
+        // Waiting for the application user to answer can take a long time, so it's never done on the calling thread
+        wList.runWhenIdentified(userCode, new Runnable() {
+            @Override
+            public void run() {
+                if (!fileOfferExecutor.execute(fileOfferTask)) {
+                    final User tmpUser = controller.getUser(userCode);
+
+                    if (tmpUser != null) {
+                        msgController.showSystemMessage("Failed to receive " + fileName + " from " + user +
+                                ", too many file transfers");
+                        controller.sendFileAbort(tmpUser, fileHash, fileName);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a server for the file, asks the other user to send it, and receives the file.
+     *
+     * @param tmpUser The user sending the file.
+     * @param fileRes The accepted file to receive.
+     * @param user The nick name of the user.
+     * @param fileName The name of the file.
+     * @param fileHash The hash code of the file.
+     */
+    private void receiveFile(final User tmpUser, final FileReceiver fileRes, final String user,
+                             final String fileName, final int fileHash) {
+        try {
+            final boolean tokenSupported = tmpUser.isCapabilitySupported(FileResume.CAPABILITY) &&
+                    tmpUser.isCapabilitySupported(FileTransferServer.CAPABILITY);
+            final int port;
+
+            // The token is sent in the resume message, so older clients need their own server socket
+            if (tokenSupported) {
+                port = fileRes.startServer(fileTransferServer);
+            }
+
+            else {
+                port = fileRes.startServer();
+            }
+
+            if (fileRes.isResumeMessageNeeded()) {
+                final FileResumeInfo resumeInfo = new FileResumeInfo(fileRes.getResumeOffset(), fileRes.getResumeChecksum(),
+                                                                     fileRes.getStreams(), fileRes.getToken());
+                controller.sendFileResume(tmpUser, port, fileHash, fileName, resumeInfo);
+            }
+
+            else {
+                controller.sendFileAccept(tmpUser, port, fileHash, fileName);
+            }
+
+            if (fileRes.transfer()) {
+                msgController.showSystemMessage("Successfully received " + fileName +
+                        " from " + user + ", and saved as " + fileRes.getFile().getName());
+            }
+
+            else {
+                msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+
+                // Not canceled by any of the users, so try to resume next time
+                if (!fileRes.isCanceled() && fileRes.getTransferred() > 0 && tmpUser.isCapabilitySupported(FileResume.CAPABILITY)) {
+                    tList.addPartialFileReceiver(fileRes);
+                }
+
+                fileRes.cancel();
+            }
+        }
+
+        // Failed to start the server
+        catch (final ServerException e) {
+            LOG.log(Level.SEVERE, e.toString(), e);
+            msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+            controller.sendFileAbort(tmpUser, fileHash, fileName);
+            fileRes.cancel();
+        }
+
+        // Failed to send the accept message
+        catch (final CommandException e) {
+            msgController.showSystemMessage("Failed to receive " + fileName + " from " + user);
+            fileRes.cancel();
+        }
     }
 
     /**
@@ -618,7 +753,7 @@ public class DefaultMessageResponder implements MessageResponder {
      */
     @Override
     public void fileSendAccepted(final int userCode, final String fileName, final int fileHash, final int port) {
-        new Thread("DefaultMessageResponderFileSendAccepted") {
+        final boolean queued = fileTransferExecutor.execute(new Runnable() {
             @Override
             public void run() {
                 final User user = controller.getUser(userCode);
@@ -641,7 +776,45 @@ public class DefaultMessageResponder implements MessageResponder {
                     tList.removeFileSender(fileSend);
                 }
             }
-        } .start();
+        });
+
+        if (!queued) {
+            final User user = controller.getUser(userCode);
+            final FileSender fileSend = tList.getFileSender(user, fileName, fileHash);
+
+            if (fileSend != null) {
+                msgController.showSystemMessage("Failed to send " + fileName + " to " + user.getNick() +
+                        ", too many file transfers");
+                controller.sendFileAbort(user, fileHash, fileName);
+                fileSend.cancel();
+                tList.removeFileSender(fileSend);
+            }
+        }
+    }
+
+    /**
+     * The other user has accepted a file transfer, and already has the first part of the file
+     * from a failed transfer, or wants the file over several connections. Will try to connect
+     * to the user to send the rest of the file.
+     *
+     * @param userCode The unique code of the user who accepted a file transfer.
+     * @param fileName The name of the file.
+     * @param fileHash The hash code of the file.
+     * @param port The port to use for connecting to the other user.
+     * @param resumeInfo Where to resume from, and how many connections to send the file over.
+     */
+    @Override
+    public void fileSendResumed(final int userCode, final String fileName, final int fileHash, final int port,
+                                final FileResumeInfo resumeInfo) {
+        final User user = controller.getUser(userCode);
+        final FileSender fileSend = tList.getFileSender(user, fileName, fileHash);
+
+        if (fileSend != null) {
+            fileSend.resumeFrom(resumeInfo.getOffset(), resumeInfo.getChecksum());
+            fileSend.setStreams(resumeInfo.getStreams());
+            fileSend.setToken(resumeInfo.getToken());
+            fileSendAccepted(userCode, fileName, fileHash, port);
+        }
     }
 
     /**
@@ -652,9 +825,11 @@ public class DefaultMessageResponder implements MessageResponder {
      * @param timeSinceLogon Number of milliseconds since the user logged on.
      * @param operatingSystem The user's operating system.
      * @param privateChatPort The port to use for sending private chat messages to this user.
+     * @param capabilities The capabilities of the user's client.
      */
     @Override
-    public void clientInfo(final int userCode, final String client, final long timeSinceLogon, final String operatingSystem, final int privateChatPort) {
+    public void clientInfo(final int userCode, final String client, final long timeSinceLogon, final String operatingSystem,
+                           final int privateChatPort, final Set<String> capabilities) {
         final User user = controller.getUser(userCode);
 
         if (user != null) {
@@ -662,6 +837,7 @@ public class DefaultMessageResponder implements MessageResponder {
             user.setLogonTime(System.currentTimeMillis() - timeSinceLogon);
             user.setOperatingSystem(operatingSystem);
             user.setPrivateChatPort(privateChatPort);
+            user.setCapabilities(capabilities);
         }
 
         else {
@@ -23,11 +23,20 @@
 package net.usikkert.kouchat.net;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +49,21 @@ import net.usikkert.kouchat.util.ByteCounter;
  * This is a class for receiving files from other users.
  *
  * <p>To receive a file, a server socket has to be opened,
- * to wait for incoming transfers.</p>
+ * to wait for incoming transfers. Clients that send a token on each connection share
+ * the single server socket of the {@link FileTransferServer}. Older clients connect to a
+ * server socket opened for this file only.</p>
+ *
+ * <p>The file is set to the full size before receiving, so it does not need to grow while writing.
+ * The data from the other user is collected in a large direct buffer, and written to the file
+ * with a {@link FileChannel} when the buffer is full. The file is synced to the disk once,
+ * when the whole file is received.</p>
+ *
+ * <p>If the first part of the file is already saved from a failed transfer, the transfer can be
+ * resumed from there, as described in {@link FileResume}.</p>
+ *
+ * <p>Large files can be received over several connections at the same time, as described in
+ * {@link ParallelStreams}. All the connections are then handled by a single {@link Selector},
+ * and each range of the file is written at its own position in the file.</p>
  *
  * @author Christian Ihle
  */
@@ -49,6 +72,18 @@ public class FileReceiver implements FileTransfer {
     /** The logger. */
     private static final Logger LOG = Logger.getLogger(FileReceiver.class.getName());
 
+    /** The number of bytes to collect from the other user before writing to the file. */
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    /** Milliseconds between progress updates, when the percent transferred does not change. */
+    private static final long PROGRESS_UPDATE_INTERVAL = 1000;
+
+    /** Milliseconds to wait for the other user to connect to a server socket opened for this file only. */
+    private static final long SERVER_TIMEOUT = 15000;
+
+    /** Closes the server sockets opened for a single file, when the other user does not connect in time. */
+    private static final Timer SERVER_TIMEOUT_TIMER = new Timer("FileReceiverTimeoutTimer", true);
+
     /** The user sending the file. */
     private final User user;
 
@@ -89,16 +124,28 @@ public class FileReceiver implements FileTransfer {
     private FileTransferListener listener;
 
     /** The server socket waiting for an incoming connection. */
-    private ServerSocket sSock;
+    private ServerSocketChannel sSock;
+
+    /** Gets the connections from the shared server socket, or <code>null</code> if using a server socket for this file. */
+    private FileTransferServer.PendingTransfer pendingTransfer;
 
     /** The socket connection to the other user. */
-    private Socket sock;
+    private SocketChannel sock;
+
+    /** The extra socket connections to the other user, when receiving over several connections. */
+    private final List<SocketChannel> extraSocks;
+
+    /** The file being written to. */
+    private RandomAccessFile raf;
+
+    /** The number of connections to receive the file over. */
+    private int streams;
 
-    /** The output stream to the file. */
-    private FileOutputStream fos;
+    /** The number of bytes already received in a failed transfer, or 0 to receive the whole file. */
+    private long resumeOffset;
 
-    /** The input stream from the other user. */
-    private InputStream is;
+    /** The checksum of the bytes already received. */
+    private long resumeChecksum;
 
     /**
      * Constructor. Creates a new file receiver.
@@ -116,6 +163,8 @@ public class FileReceiver implements FileTransfer {
         this.originalFileName = file.getName();
 
         bCounter = new ByteCounter();
+        extraSocks = new ArrayList<SocketChannel>();
+        streams = 1;
     }
 
     /**
@@ -132,9 +181,8 @@ public class FileReceiver implements FileTransfer {
 
         while (!done && counter < 50) {
             try {
-                sSock = new ServerSocket(port);
-                final TimeoutThread tt = new TimeoutThread();
-                tt.start();
+                sSock = openServerSocket(port);
+                SERVER_TIMEOUT_TIMER.schedule(new ServerTimeoutTask(), SERVER_TIMEOUT);
                 done = true;
             }
 
@@ -155,6 +203,37 @@ public class FileReceiver implements FileTransfer {
         return port;
     }
 
+    /**
+     * Waits for the connections from the sender on the shared server socket,
+     * and returns the port of the server socket.
+     *
+     * <p>The sender must send the token from {@link #getToken()} on each connection.
+     * All the connections must arrive within 15 seconds.</p>
+     *
+     * @param server The shared server socket for receiving files.
+     * @return The port which the sender can connect to.
+     * @throws ServerException If the server could not be started.
+     */
+    public int startServer(final FileTransferServer server) throws ServerException {
+        final int port = server.start();
+        pendingTransfer = server.register(streams);
+
+        return port;
+    }
+
+    /**
+     * Gets the token the sender must send on each connection to the shared server socket.
+     *
+     * @return The token, or 0 if using a server socket for this file only.
+     */
+    public long getToken() {
+        if (pendingTransfer == null) {
+            return 0;
+        }
+
+        return pendingTransfer.getToken();
+    }
+
     /**
      * Waits for an incoming connection, then receives the
      * file from the other user.
@@ -167,36 +246,30 @@ public class FileReceiver implements FileTransfer {
         received = false;
         cancel = false;
 
+        // Keep what is already received if the transfer fails before receiving anything new
+        transferred = resumeOffset;
+
         try {
-            if (sSock != null) {
-                sock = sSock.accept();
+            if (sSock != null || pendingTransfer != null) {
+                sock = acceptConnection();
+                acceptExtraStreams();
                 listener.statusTransferring();
-                fos = new FileOutputStream(file);
-                is = sock.getInputStream();
-
-                final byte[] b = new byte[1024];
-                transferred = 0;
-                percent = 0;
-                int tmpTransferred = 0;
-                int tmpPercent = 0;
-                int transCounter = 0;
-                bCounter.prepare();
-
-                while (!cancel && (tmpTransferred = is.read(b)) != -1) {
-                    fos.write(b, 0, tmpTransferred);
-                    transferred += tmpTransferred;
-                    percent = (int) ((transferred * 100) / size);
-                    bCounter.addBytes(tmpTransferred);
-                    transCounter++;
 
-                    if (percent > tmpPercent || transCounter >= 250) {
-                        transCounter = 0;
-                        tmpPercent = percent;
-                        listener.transferUpdate();
-                    }
+                if (extraSocks.isEmpty()) {
+                    final long startOffset = getStartOffset();
+                    raf = new RandomAccessFile(file, "rw");
+                    raf.setLength(size);
+                    receiveFile(raf.getChannel(), startOffset);
+                }
+
+                else {
+                    raf = new RandomAccessFile(file, "rw");
+                    raf.setLength(size);
+                    receiveFileInParallel(raf.getChannel());
                 }
 
                 if (!cancel && transferred == size) {
+                    raf.getChannel().force(false);
                     received = true;
                     listener.statusCompleted();
                 }
@@ -213,6 +286,7 @@ public class FileReceiver implements FileTransfer {
         }
 
         finally {
+            removeUnreceivedPartOfFile();
             stopReceiver();
             cleanupConnections();
         }
@@ -221,42 +295,282 @@ public class FileReceiver implements FileTransfer {
     }
 
     /**
-     * Sets all connections to null.
+     * Receives the file from the other user, until the other user closes the connection
+     * or the transfer is canceled.
+     *
+     * <p>The listener is updated when the percent transferred changes, and at least every second,
+     * to show the current speed.</p>
+     *
+     * @param fileChannel The channel to the file to write to.
+     * @param startOffset The position in the file to start writing to.
+     * @throws IOException If receiving or writing fails.
      */
-    private void cleanupConnections() {
-        is = null;
-        fos = null;
-        sock = null;
-        sSock = null;
+    private void receiveFile(final FileChannel fileChannel, final long startOffset) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        transferred = startOffset;
+        percent = 0;
+        int tmpPercent = 0;
+        long lastUpdate = System.currentTimeMillis();
+        bCounter.prepare();
+
+        boolean endOfStream = false;
+
+        while (!cancel && !endOfStream) {
+            endOfStream = sock.read(buffer) < 0;
+
+            if (buffer.hasRemaining() && !endOfStream) {
+                continue;
+            }
+
+            final long written = writeToFile(buffer, fileChannel, transferred);
+            transferred += written;
+            bCounter.addBytes(written);
+
+            if (size > 0) {
+                percent = (int) ((transferred * 100) / size);
+            }
+
+            if (percent > tmpPercent || System.currentTimeMillis() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                tmpPercent = percent;
+                lastUpdate = System.currentTimeMillis();
+                listener.transferUpdate();
+            }
+        }
     }
 
     /**
-     * Closes the connection to the user.
+     * Waits for the rest of the connections from the other user, when receiving over several connections.
+     *
+     * @throws IOException If the connections failed, or did not arrive in time.
      */
-    private void stopReceiver() {
+    private void acceptExtraStreams() throws IOException {
+        for (int i = 1; i < streams; i++) {
+            extraSocks.add(acceptConnection());
+        }
+    }
+
+    /**
+     * Waits for the next connection from the other user, on the shared server socket
+     * or the server socket for this file.
+     *
+     * @return The connection, in blocking mode.
+     * @throws IOException If the connection failed, or did not arrive in time.
+     */
+    private SocketChannel acceptConnection() throws IOException {
+        if (pendingTransfer != null) {
+            return pendingTransfer.takeConnection();
+        }
+
+        return sSock.accept();
+    }
+
+    /**
+     * Receives the file from the other user over several connections at the same time, until the other user
+     * has closed all the connections or the transfer is canceled.
+     *
+     * <p>Each connection starts with the position of its range of the file. The connections are then
+     * switched to non-blocking, and a selector is used to read from every connection that has data.
+     * Each connection has its own buffer, that is written to the file at the position of the connection
+     * when the buffer is full.</p>
+     *
+     * <p>If the transfer fails, only the part of the file received before the first unfinished range is kept.</p>
+     *
+     * @param fileChannel The channel to the file to write to.
+     * @throws IOException If receiving or writing fails, or the sender sent an unexpected position.
+     */
+    private void receiveFileInParallel(final FileChannel fileChannel) throws IOException {
+        final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+        channels.add(sock);
+        channels.addAll(extraSocks);
+
+        final Selector selector = Selector.open();
+        StreamPosition firstStream = null;
+
         try {
-            if (is != null) {
-                is.close();
+            StreamPosition lowestStream = null;
+
+            for (final SocketChannel channel : channels) {
+                final StreamPosition stream = new StreamPosition(FileResume.readStartOffset(channel));
+
+                if (stream.position < 0 || stream.position > size) {
+                    throw new IOException("Unexpected start offset from sender: " + stream.position);
+                }
+
+                if (lowestStream == null || stream.position < lowestStream.position) {
+                    lowestStream = stream;
+                }
+
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, stream);
+            }
+
+            if (lowestStream.position != 0 && lowestStream.position != resumeOffset) {
+                throw new IOException("Unexpected start offset from sender: " + lowestStream.position);
+            }
+
+            firstStream = lowestStream;
+
+            transferred = firstStream.position;
+            percent = 0;
+            int tmpPercent = 0;
+            long lastUpdate = System.currentTimeMillis();
+            bCounter.prepare();
+
+            int unfinished = channels.size();
+
+            while (!cancel && unfinished > 0) {
+                // With a timeout, to notice when the transfer is canceled
+                selector.select(PROGRESS_UPDATE_INTERVAL);
+
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    final StreamPosition stream = (StreamPosition) key.attachment();
+                    final boolean endOfStream = ((SocketChannel) key.channel()).read(stream.buffer) < 0;
+
+                    if (stream.buffer.hasRemaining() && !endOfStream) {
+                        continue;
+                    }
+
+                    final long written = writeToFile(stream.buffer, fileChannel, stream.position);
+                    stream.position += written;
+                    transferred += written;
+                    bCounter.addBytes(written);
+
+                    if (endOfStream) {
+                        key.channel().close();
+                        unfinished--;
+                    }
+                }
+
+                if (size > 0) {
+                    percent = (int) ((transferred * 100) / size);
+                }
+
+                if (percent > tmpPercent || System.currentTimeMillis() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                    tmpPercent = percent;
+                    lastUpdate = System.currentTimeMillis();
+                    listener.transferUpdate();
+                }
             }
         }
 
+        finally {
+            selector.close();
+
+            // The ranges after the first one can not be resumed, as there might be holes before them
+            if (firstStream != null && transferred != size) {
+                transferred = firstStream.position;
+            }
+        }
+    }
+
+    /**
+     * Gets the position in the file the sender starts sending from. When the sender was asked with
+     * <code>SENDFILERESUME</code>, that is the first thing the sender sends. Otherwise the whole file is sent.
+     *
+     * @return The position to start writing to.
+     * @throws IOException If receiving failed, or the sender wants to start from an unexpected position.
+     */
+    private long getStartOffset() throws IOException {
+        if (!isResumeMessageNeeded()) {
+            return 0;
+        }
+
+        final long startOffset = FileResume.readStartOffset(sock);
+
+        if (startOffset != 0 && startOffset != resumeOffset) {
+            throw new IOException("Unexpected start offset from sender: " + startOffset);
+        }
+
+        return startOffset;
+    }
+
+    /**
+     * Writes the data in the buffer to the file at the position, and empties the buffer.
+     *
+     * @param buffer The buffer with the data to write.
+     * @param fileChannel The channel to the file to write to.
+     * @param position The position in the file to write to.
+     * @return The number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    private long writeToFile(final ByteBuffer buffer, final FileChannel fileChannel, final long position)
+            throws IOException {
+        long written = 0;
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            written += fileChannel.write(buffer, position + written);
+        }
+
+        buffer.clear();
+
+        return written;
+    }
+
+    /**
+     * The file was set to the full size before receiving. If the transfer failed,
+     * the file is cut back to the size actually received.
+     */
+    private void removeUnreceivedPartOfFile() {
+        if (received || raf == null) {
+            return;
+        }
+
+        try {
+            raf.setLength(transferred);
+        }
+
+        // Happens if the transfer was canceled, and the file is already closed
         catch (final IOException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+            LOG.log(Level.FINE, e.toString());
         }
+    }
+
+    /**
+     * Opens a server socket on the port.
+     *
+     * @param port The port to open.
+     * @return The opened server socket.
+     * @throws IOException If the port could not be opened.
+     */
+    private ServerSocketChannel openServerSocket(final int port) throws IOException {
+        final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
 
         try {
-            if (fos != null) {
-                fos.flush();
-            }
+            serverSocketChannel.socket().bind(new InetSocketAddress(port));
         }
 
         catch (final IOException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+            serverSocketChannel.close();
+            throw e;
         }
 
+        return serverSocketChannel;
+    }
+
+    /**
+     * Sets all connections to null.
+     */
+    private void cleanupConnections() {
+        raf = null;
+        sock = null;
+        sSock = null;
+        pendingTransfer = null;
+        extraSocks.clear();
+    }
+
+    /**
+     * Closes the connection to the user.
+     */
+    private void stopReceiver() {
         try {
-            if (fos != null) {
-                fos.close();
+            if (raf != null) {
+                raf.close();
             }
         }
 
@@ -283,6 +597,95 @@ public class FileReceiver implements FileTransfer {
         catch (final IOException e) {
             LOG.log(Level.SEVERE, e.toString(), e);
         }
+
+        if (pendingTransfer != null) {
+            pendingTransfer.close();
+        }
+
+        for (final SocketChannel extraSock : extraSocks) {
+            try {
+                extraSock.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.SEVERE, e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Resumes receiving the file into the first part of the file saved from a failed transfer.
+     *
+     * <p>Reads the saved part of the file to calculate the checksum the sender uses to verify it.
+     * If the saved part can't be read, the whole file is received again.</p>
+     *
+     * @param partialFile The file with the first part of the file.
+     */
+    public void resumeFrom(final File partialFile) {
+        file = partialFile;
+        resumeOffset = 0;
+        resumeChecksum = 0;
+
+        final long partialSize = Math.min(partialFile.length(), size);
+
+        try {
+            resumeChecksum = FileResume.calculateChecksum(partialFile, partialSize);
+            resumeOffset = partialSize;
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to resume " + partialFile.getName() + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Gets the number of bytes of the file already received in a failed transfer.
+     *
+     * @return The number of bytes already received, or 0 if receiving the whole file.
+     */
+    public long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * Gets the checksum of the bytes already received in a failed transfer.
+     *
+     * @return The checksum of the bytes already received.
+     */
+    public long getResumeChecksum() {
+        return resumeChecksum;
+    }
+
+    /**
+     * Sets the number of connections to receive the file over. Must be set before the other user
+     * is asked to send the file, and only if the other user supports it.
+     *
+     * @param streams The number of connections, from 1 to {@link ParallelStreams#MAX_STREAMS}.
+     *                Numbers outside the range are adjusted to the closest number inside it.
+     */
+    public void setStreams(final int streams) {
+        this.streams = Math.max(1, Math.min(ParallelStreams.MAX_STREAMS, streams));
+    }
+
+    /**
+     * Checks if the sender must be asked to send the file with <code>SENDFILERESUME</code> instead of
+     * <code>SENDFILEACCEPT</code>. That is when resuming, receiving over several connections, or receiving
+     * on the shared server socket. The sender then starts every connection with the start offset,
+     * so this must be the same when sending the message and when receiving the file.
+     *
+     * @return If the sender must be asked with <code>SENDFILERESUME</code>.
+     */
+    public boolean isResumeMessageNeeded() {
+        return resumeOffset > 0 || streams > 1 || pendingTransfer != null;
+    }
+
+    /**
+     * Gets the number of connections to receive the file over.
+     *
+     * @return The number of connections.
+     */
+    public int getStreams() {
+        return streams;
     }
 
     /**
@@ -471,7 +874,7 @@ public class FileReceiver implements FileTransfer {
     }
 
     /**
-     * A thread for closing the server connection if no client
+     * A timer task for closing the server connection if no client
      * has connected within 15 seconds.
      *
      * <p>This does not mean that the user only has 15 seconds to decide
@@ -479,28 +882,13 @@ public class FileReceiver implements FileTransfer {
      * decided, and waits for an automated response from the sender.
      * If nothing has happened to the sender, the response should be very quick.</p>
      */
-    private class TimeoutThread extends Thread {
-        /**
-         * Constructor. Sets the name of the thread.
-         */
-        public TimeoutThread() {
-            setName("TimeoutThread");
-        }
+    private class ServerTimeoutTask extends TimerTask {
 
         /**
-         * The thread. Sleeps for 15 seconds, and then closes the
-         * server connection if it is not already closed.
+         * Closes the server connection if it is not already closed.
          */
         @Override
         public void run() {
-            try {
-                sleep(15000);
-            }
-
-            catch (final InterruptedException e) {
-                LOG.log(Level.SEVERE, e.toString(), e);
-            }
-
             try {
                 if (sSock != null) {
                     sSock.close();
@@ -513,4 +901,26 @@ public class FileReceiver implements FileTransfer {
             }
         }
     }
+
+    /**
+     * The position to write to in the file, for one of the connections.
+     */
+    private static class StreamPosition {
+
+        /** Collects the data from the connection before writing to the file. */
+        private final ByteBuffer buffer;
+
+        /** The position in the file of the next byte from the connection. */
+        private long position;
+
+        /**
+         * Constructor.
+         *
+         * @param start The position in the file of the first byte from the connection.
+         */
+        StreamPosition(final long start) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            position = start;
+        }
+    }
 }
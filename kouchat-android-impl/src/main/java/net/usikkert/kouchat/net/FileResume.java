@@ -0,0 +1,155 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Adler32;
+
+/**
+ * Support for resuming a file transfer that failed, without sending the whole file again.
+ *
+ * <p>When the receiver still has the first part of a file from a failed transfer, it asks the sender to
+ * resume with the message <code>SENDFILERESUME</code> instead of <code>SENDFILEACCEPT</code>. The message
+ * includes the number of bytes the receiver already has, and the Adler-32 checksum of those bytes.</p>
+ *
+ * <p>The sender calculates the checksum of the same bytes in its own file. After connecting,
+ * the sender writes the offset it starts sending from as the first 8 bytes on the connection, followed by
+ * the rest of the file. The offset is the one from the receiver if the checksums are equal,
+ * or <code>0</code> to send the whole file again.</p>
+ *
+ * <p>Clients that support resuming say so in the capabilities of the client message, using
+ * {@link #CAPABILITY}. The receiver only asks clients with this capability to resume.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class FileResume {
+
+    /** The name of the capability in the client message. */
+    public static final String CAPABILITY = "RESUME";
+
+    /** The number of bytes used for the start offset at the beginning of a resumed transfer. */
+    static final int START_OFFSET_SIZE = 8;
+
+    /** The number of bytes to read from the file at a time when calculating the checksum. */
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Private constructor. Only static methods here.
+     */
+    private FileResume() {
+
+    }
+
+    /**
+     * Calculates the Adler-32 checksum of the first bytes of the file.
+     *
+     * @param file The file to calculate the checksum of.
+     * @param length The number of bytes from the start of the file to include.
+     * @return The checksum.
+     * @throws IOException If reading the file failed, or the file is shorter than the length.
+     */
+    public static long calculateChecksum(final File file, final long length) throws IOException {
+        final Adler32 checksum = new Adler32();
+        final byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+        final InputStream inputStream = new FileInputStream(file);
+
+        try {
+            long remaining = length;
+
+            while (remaining > 0) {
+                final int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (bytesRead < 0) {
+                    throw new EOFException("File is shorter than " + length + " bytes: " + file.getName());
+                }
+
+                checksum.update(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        }
+
+        finally {
+            inputStream.close();
+        }
+
+        return checksum.getValue();
+    }
+
+    /**
+     * Writes the offset the sender starts sending the file from.
+     *
+     * @param channel The channel to the receiver.
+     * @param startOffset The offset to write.
+     * @throws IOException If writing failed.
+     */
+    static void writeStartOffset(final WritableByteChannel channel, final long startOffset) throws IOException {
+        final ByteBuffer buffer = createStartOffset(startOffset);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Creates a buffer with the offset the sender starts sending the file from, ready to be written.
+     * Used with channels in non-blocking mode, where all of it might not be written at once.
+     *
+     * @param startOffset The offset to write.
+     * @return The buffer with the offset.
+     */
+    static ByteBuffer createStartOffset(final long startOffset) {
+        final ByteBuffer buffer = ByteBuffer.allocate(START_OFFSET_SIZE);
+        buffer.putLong(startOffset);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Reads the offset the sender starts sending the file from.
+     *
+     * @param channel The channel from the sender.
+     * @return The offset.
+     * @throws IOException If reading failed, or the sender closed the connection first.
+     */
+    static long readStartOffset(final ReadableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(START_OFFSET_SIZE);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed before the start offset was received");
+            }
+        }
+
+        buffer.flip();
+
+        return buffer.getLong();
+    }
+}
@@ -0,0 +1,179 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.Arrays;
+
+/**
+ * The values sent with <code>SENDFILERESUME</code>, when the receiver of a file wants to resume
+ * from where a failed transfer stopped, or receive the file over several connections.
+ *
+ * <p>In the message the values are written as <code>&lt;offset,checksum,streams,token&gt;</code>.
+ * Older clients only send the offset and the checksum, and then one connection without a token is used.</p>
+ *
+ * @author Christian Ihle
+ * @see FileResume
+ * @see ParallelStreams
+ * @see FileTransferServer
+ */
+public final class FileResumeInfo {
+
+    /** The position of the offset in the values. */
+    private static final int OFFSET_INDEX = 0;
+
+    /** The position of the checksum in the values. */
+    private static final int CHECKSUM_INDEX = 1;
+
+    /** The position of the number of streams in the values. Not sent by older clients. */
+    private static final int STREAMS_INDEX = 2;
+
+    /** The position of the token in the values. Not sent by older clients. */
+    private static final int TOKEN_INDEX = 3;
+
+    /** The number of bytes of the file the receiver already has. */
+    private final long offset;
+
+    /** The checksum of the bytes the receiver already has. */
+    private final long checksum;
+
+    /** The number of connections to send the file over. */
+    private final int streams;
+
+    /** The token to send on each connection, or 0 to not send a token. */
+    private final long token;
+
+    /**
+     * Constructor.
+     *
+     * @param offset The number of bytes of the file the receiver already has.
+     * @param checksum The checksum of the bytes the receiver already has.
+     * @param streams The number of connections to send the file over.
+     * @param token The token to send on each connection, or 0 to not send a token.
+     */
+    public FileResumeInfo(final long offset, final long checksum, final int streams, final long token) {
+        this.offset = offset;
+        this.checksum = checksum;
+        this.streams = streams;
+        this.token = token;
+    }
+
+    /**
+     * Parses the values from the part of the message between <code>&lt;</code> and <code>&gt;</code>.
+     *
+     * @param values The comma separated values.
+     * @return The parsed values.
+     * @throws NumberFormatException If a value is not a number, or the offset or the checksum is missing.
+     */
+    public static FileResumeInfo parse(final String values) {
+        final String[] resumeInfo = values.split(",");
+
+        if (resumeInfo.length <= CHECKSUM_INDEX) {
+            throw new NumberFormatException("Missing resume offset or checksum: " + values);
+        }
+
+        final long offset = Long.parseLong(resumeInfo[OFFSET_INDEX]);
+        final long checksum = Long.parseLong(resumeInfo[CHECKSUM_INDEX]);
+        int streams = 1;
+        long token = 0;
+
+        if (resumeInfo.length > STREAMS_INDEX) {
+            streams = Integer.parseInt(resumeInfo[STREAMS_INDEX]);
+        }
+
+        if (resumeInfo.length > TOKEN_INDEX) {
+            token = Long.parseLong(resumeInfo[TOKEN_INDEX]);
+        }
+
+        return new FileResumeInfo(offset, checksum, streams, token);
+    }
+
+    /**
+     * Gets the number of bytes of the file the receiver already has.
+     *
+     * @return The offset to resume from.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the checksum of the bytes the receiver already has.
+     *
+     * @return The checksum.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Gets the number of connections to send the file over.
+     *
+     * @return The number of connections.
+     */
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * Gets the token to send on each connection.
+     *
+     * @return The token, or 0 to not send a token.
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Formats the values for the message, in the format {@link #parse(String)} understands.
+     *
+     * @return The comma separated values.
+     */
+    public String format() {
+        return offset + "," + checksum + "," + streams + "," + token;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof FileResumeInfo)) {
+            return false;
+        }
+
+        final FileResumeInfo other = (FileResumeInfo) obj;
+
+        return offset == other.offset && checksum == other.checksum && streams == other.streams && token == other.token;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new long[] {offset, checksum, streams, token});
+    }
+
+    @Override
+    public String toString() {
+        return "FileResumeInfo[" + format() + "]";
+    }
+}
@@ -25,10 +25,17 @@ package net.usikkert.kouchat.net;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,6 +49,20 @@ import net.usikkert.kouchat.util.ByteCounter;
  * <p>To send a file, the user at the other end needs to
  * open a server socket so this client can connect.</p>
  *
+ * <p>The file is sent with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * in large chunks, so the operating system can copy the file straight to the socket
+ * without going through a buffer in the application.</p>
+ *
+ * <p>If the other user already has the first part of the file from a failed transfer, only the rest
+ * of the file is sent, as described in {@link FileResume}.</p>
+ *
+ * <p>The other user can also ask for the file to be sent over several connections at the same time,
+ * as described in {@link ParallelStreams}. All the connections are then handled by a single
+ * {@link Selector}.</p>
+ *
+ * <p>When the other user receives on the shared server socket of a {@link FileTransferServer},
+ * each connection starts with the token of the file, so the other user knows which file it is for.</p>
+ *
  * @author Christian Ihle
  */
 public class FileSender implements FileTransfer {
@@ -49,6 +70,12 @@ public class FileSender implements FileTransfer {
     /** The logger. */
     private static final Logger LOG = Logger.getLogger(FileSender.class.getName());
 
+    /** The default number of bytes to send in one chunk. */
+    static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    /** Milliseconds between progress updates, when the percent transferred does not change. */
+    private static final long PROGRESS_UPDATE_INTERVAL = 1000;
+
     /** The user to send a file to. */
     private final User user;
 
@@ -61,6 +88,9 @@ public class FileSender implements FileTransfer {
     /** Keeps count of the transfer speed. */
     private final ByteCounter bCounter;
 
+    /** The number of bytes to send in one chunk. */
+    private final int chunkSize;
+
     /** Percent of the file transferred. */
     private int percent;
 
@@ -82,11 +112,26 @@ public class FileSender implements FileTransfer {
     /** The input stream from the file. */
     private FileInputStream fis;
 
-    /** The output stream to the other user. */
-    private OutputStream os;
+    /** The channel to the other user. */
+    private SocketChannel socketChannel;
+
+    /** The extra channels to the other user, when sending over several connections. */
+    private final List<SocketChannel> extraSocketChannels;
+
+    /** The number of connections to send the file over. */
+    private int streams;
 
-    /** The socket connection to the other user. */
-    private Socket sock;
+    /** If the other user asked to resume a failed transfer. */
+    private boolean resume;
+
+    /** The number of bytes the other user already has. */
+    private long resumeOffset;
+
+    /** The checksum of the bytes the other user already has. */
+    private long resumeChecksum;
+
+    /** The token to send on each connection, or 0 to not send a token. */
+    private long token;
 
     /**
      * Constructor. Creates a new file sender.
@@ -96,11 +141,30 @@ public class FileSender implements FileTransfer {
      * @param id The unique ID of this file transfer.
      */
     public FileSender(final User user, final File file, final int id) {
+        this(user, file, id, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor. Creates a new file sender, with a custom chunk size.
+     *
+     * @param user The user to send the file to.
+     * @param file The file to send.
+     * @param id The unique ID of this file transfer.
+     * @param chunkSize The number of bytes to send in one chunk.
+     */
+    FileSender(final User user, final File file, final int id, final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
         this.user = user;
         this.file = file;
         this.id = id;
+        this.chunkSize = chunkSize;
 
         bCounter = new ByteCounter();
+        extraSocketChannels = new ArrayList<SocketChannel>();
+        streams = 1;
         waiting = true;
     }
 
@@ -121,11 +185,12 @@ public class FileSender implements FileTransfer {
             try {
                 int counter = 0;
 
-                while (sock == null && counter < 10) {
+                while (socketChannel == null && counter < 10) {
                     counter++;
 
                     try {
-                        sock = new Socket(InetAddress.getByName(user.getIpAddress()), port);
+                        final InetAddress address = InetAddress.getByName(user.getIpAddress());
+                        socketChannel = SocketChannel.open(new InetSocketAddress(address, port));
                     }
 
                     catch (final UnknownHostException e) {
@@ -145,34 +210,33 @@ public class FileSender implements FileTransfer {
                     }
                 }
 
-                if (sock != null && !cancel) {
+                if (socketChannel != null && !cancel) {
+                    sendToken(socketChannel);
+                    connectExtraStreams();
                     listener.statusTransferring();
                     fis = new FileInputStream(file);
-                    os = sock.getOutputStream();
-
-                    final byte[] b = new byte[1024];
-                    transferred = 0;
-                    percent = 0;
-                    int tmpTransferred = 0;
-                    int tmpPercent = 0;
-                    int transCounter = 0;
-                    bCounter.prepare();
-
-                    while (!cancel && (tmpTransferred = fis.read(b)) != -1) {
-                        os.write(b, 0, tmpTransferred);
-                        transferred += tmpTransferred;
-                        percent = (int) ((transferred * 100) / file.length());
-                        bCounter.addBytes(tmpTransferred);
-                        transCounter++;
-
-                        if (percent > tmpPercent || transCounter >= 250) {
-                            transCounter = 0;
-                            tmpPercent = percent;
-                            listener.transferUpdate();
+
+                    // The size is only looked up once, and not for every chunk
+                    final long fileSize = fis.getChannel().size();
+                    long startOffset = 0;
+
+                    if (resume) {
+                        startOffset = getStartOffset(fileSize);
+                    }
+
+                    if (extraSocketChannels.isEmpty()) {
+                        if (resume) {
+                            FileResume.writeStartOffset(socketChannel, startOffset);
                         }
+
+                        sendFile(fis.getChannel(), startOffset, fileSize);
                     }
 
-                    if (!cancel && transferred == file.length()) {
+                    else {
+                        sendFileInParallel(fis.getChannel(), startOffset, fileSize);
+                    }
+
+                    if (!cancel && transferred == fileSize) {
                         sent = true;
                         listener.statusCompleted();
                     }
@@ -207,41 +271,221 @@ public class FileSender implements FileTransfer {
     }
 
     /**
-     * Sets all connections to null.
+     * Sends the file to the other user in chunks, until the whole file is sent or the transfer is canceled.
+     *
+     * <p>The listener is updated when the percent transferred changes, and at least every second,
+     * to show the current speed.</p>
+     *
+     * @param fileChannel The channel to the file to send.
+     * @param startOffset The position in the file to start sending from.
+     * @param fileSize The size of the file.
+     * @throws IOException If sending fails.
      */
-    private void cleanupConnections() {
-        fis = null;
-        os = null;
-        sock = null;
+    private void sendFile(final FileChannel fileChannel, final long startOffset, final long fileSize) throws IOException {
+        transferred = startOffset;
+        percent = 0;
+        int tmpPercent = 0;
+        long lastUpdate = System.currentTimeMillis();
+        bCounter.prepare();
+
+        while (!cancel && transferred < fileSize) {
+            final long bytesToSend = Math.min(chunkSize, fileSize - transferred);
+            final long bytesSent = fileChannel.transferTo(transferred, bytesToSend, socketChannel);
+
+            // The file got shorter while sending
+            if (bytesSent <= 0 && transferred >= fileChannel.size()) {
+                break;
+            }
+
+            transferred += bytesSent;
+            percent = (int) ((transferred * 100) / fileSize);
+            bCounter.addBytes(bytesSent);
+
+            if (percent > tmpPercent || System.currentTimeMillis() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                tmpPercent = percent;
+                lastUpdate = System.currentTimeMillis();
+                listener.transferUpdate();
+            }
+        }
     }
 
     /**
-     * Closes the connection to the user.
+     * Opens the rest of the connections to the other user, when sending over several connections.
+     * The other user is already waiting for them, so there is no need to retry.
+     *
+     * @throws IOException If connecting failed.
      */
-    private void stopSender() {
+    private void connectExtraStreams() throws IOException {
+        for (int i = 1; i < streams; i++) {
+            final SocketChannel extraSocketChannel = SocketChannel.open(socketChannel.socket().getRemoteSocketAddress());
+            extraSocketChannels.add(extraSocketChannel);
+            sendToken(extraSocketChannel);
+        }
+    }
+
+    /**
+     * Sends the token of the file first on a new connection, if the other user gave a token.
+     *
+     * @param channel The new connection to the other user.
+     * @throws IOException If sending failed.
+     */
+    private void sendToken(final SocketChannel channel) throws IOException {
+        if (token != 0) {
+            FileTransferServer.writeToken(channel, token);
+        }
+    }
+
+    /**
+     * Sends the file to the other user over several connections at the same time, one range of the file
+     * on each connection. Each connection starts with the offset of the range, as described in {@link FileResume}.
+     *
+     * <p>All the connections are non-blocking, and a selector is used to send the next chunk of the range
+     * on each connection that is ready for more. A connection is closed when the whole range is sent.</p>
+     *
+     * @param fileChannel The channel to the file to send.
+     * @param startOffset The position in the file to start sending from.
+     * @param fileSize The size of the file.
+     * @throws IOException If sending fails.
+     */
+    private void sendFileInParallel(final FileChannel fileChannel, final long startOffset, final long fileSize)
+            throws IOException {
+        final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+        channels.add(socketChannel);
+        channels.addAll(extraSocketChannels);
+
+        final long[] offsets = ParallelStreams.splitIntoRanges(startOffset, fileSize, channels.size());
+        final Selector selector = Selector.open();
+
         try {
-            if (fis != null) {
-                fis.close();
+            for (int i = 0; i < channels.size(); i++) {
+                final SocketChannel channel = channels.get(i);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_WRITE, new StreamRange(offsets[i], offsets[i + 1]));
+            }
+
+            transferred = startOffset;
+            percent = 0;
+            int tmpPercent = 0;
+            long lastUpdate = System.currentTimeMillis();
+            bCounter.prepare();
+
+            int unfinished = channels.size();
+
+            while (!cancel && unfinished > 0) {
+                // With a timeout, to notice when the transfer is canceled
+                selector.select(PROGRESS_UPDATE_INTERVAL);
+
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    final StreamRange range = (StreamRange) key.attachment();
+                    final long bytesSent = sendRange(range, (SocketChannel) key.channel(), fileChannel);
+
+                    if (range.isSent()) {
+                        key.channel().close();
+                        unfinished--;
+                    }
+
+                    transferred += bytesSent;
+                    bCounter.addBytes(bytesSent);
+                }
+
+                if (fileSize > 0) {
+                    percent = (int) ((transferred * 100) / fileSize);
+                }
+
+                if (percent > tmpPercent || System.currentTimeMillis() - lastUpdate >= PROGRESS_UPDATE_INTERVAL) {
+                    tmpPercent = percent;
+                    lastUpdate = System.currentTimeMillis();
+                    listener.transferUpdate();
+                }
             }
         }
 
-        catch (final IOException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+        finally {
+            selector.close();
+        }
+    }
+
+    /**
+     * Sends the next part of the range on the connection. The offset of the range is sent first.
+     *
+     * @param range The range to send.
+     * @param channel The connection to send the range on. Non-blocking.
+     * @param fileChannel The channel to the file to send.
+     * @return The number of bytes of the file sent.
+     * @throws IOException If sending fails, or the file got shorter while sending.
+     */
+    private long sendRange(final StreamRange range, final SocketChannel channel, final FileChannel fileChannel)
+            throws IOException {
+        if (range.startOffset.hasRemaining()) {
+            channel.write(range.startOffset);
+            return 0;
+        }
+
+        final long bytesToSend = Math.min(chunkSize, range.end - range.position);
+
+        if (bytesToSend == 0) {
+            return 0;
+        }
+
+        final long bytesSent = fileChannel.transferTo(range.position, bytesToSend, channel);
+
+        if (bytesSent <= 0 && range.position >= fileChannel.size()) {
+            throw new IOException("The file got shorter while sending: " + file.getName());
+        }
+
+        range.position += bytesSent;
+
+        return bytesSent;
+    }
+
+    /**
+     * Gets the position in the file to start sending from when resuming. The other user's part of the
+     * file is only used if it has the same checksum as the same part of the file here.
+     *
+     * @param fileSize The size of the file.
+     * @return The number of bytes the other user already has, or 0 to send the whole file again.
+     */
+    private long getStartOffset(final long fileSize) {
+        if (resumeOffset <= 0 || resumeOffset > fileSize) {
+            return 0;
         }
 
         try {
-            if (os != null) {
-                os.flush();
+            if (FileResume.calculateChecksum(file, resumeOffset) == resumeChecksum) {
+                return resumeOffset;
             }
+
+            LOG.log(Level.WARNING, "The other user has a different version of " + file.getName() + ", sending all of it");
         }
 
         catch (final IOException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+            LOG.log(Level.WARNING, e.toString());
         }
 
+        return 0;
+    }
+
+    /**
+     * Sets all connections to null.
+     */
+    private void cleanupConnections() {
+        fis = null;
+        socketChannel = null;
+        extraSocketChannels.clear();
+    }
+
+    /**
+     * Closes the connection to the user.
+     */
+    private void stopSender() {
         try {
-            if (os != null) {
-                os.close();
+            if (fis != null) {
+                fis.close();
             }
         }
 
@@ -250,14 +494,58 @@ public class FileSender implements FileTransfer {
         }
 
         try {
-            if (sock != null) {
-                sock.close();
+            if (socketChannel != null) {
+                socketChannel.close();
             }
         }
 
         catch (final IOException e) {
             LOG.log(Level.SEVERE, e.toString(), e);
         }
+
+        for (final SocketChannel extraSocketChannel : extraSocketChannels) {
+            try {
+                extraSocketChannel.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.SEVERE, e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Lets the other user resume a failed transfer, instead of sending the whole file again.
+     * Must be called before {@link #transfer(int)}.
+     *
+     * @param offset The number of bytes of the file the other user already has.
+     * @param checksum The checksum of the bytes the other user already has.
+     */
+    public void resumeFrom(final long offset, final long checksum) {
+        resume = true;
+        resumeOffset = offset;
+        resumeChecksum = checksum;
+    }
+
+    /**
+     * Sets the number of connections to send the file over. Must be called before {@link #transfer(int)},
+     * and only when the other user asked for it with {@link #resumeFrom(long, long)}.
+     *
+     * @param streams The number of connections, from 1 to {@link ParallelStreams#MAX_STREAMS}.
+     *                Numbers outside the range are adjusted to the closest number inside it.
+     */
+    public void setStreams(final int streams) {
+        this.streams = Math.max(1, Math.min(ParallelStreams.MAX_STREAMS, streams));
+    }
+
+    /**
+     * Sets the token to send first on each connection, so the other user can tell which file the
+     * connections are for. Must be called before {@link #transfer(int)}.
+     *
+     * @param token The token from the other user, or 0 to not send a token.
+     */
+    public void setToken(final long token) {
+        this.token = token;
     }
 
     /**
@@ -390,4 +678,40 @@ public class FileSender implements FileTransfer {
         this.listener = listener;
         listener.statusWaiting();
     }
+
+    /**
+     * A range of the file to send on one of the connections.
+     */
+    private static class StreamRange {
+
+        /** The offset of the range, to send before the range itself. */
+        private final ByteBuffer startOffset;
+
+        /** The position of the next byte to send. */
+        private long position;
+
+        /** The position after the last byte in the range. */
+        private final long end;
+
+        /**
+         * Constructor.
+         *
+         * @param start The position of the first byte in the range.
+         * @param end The position after the last byte in the range.
+         */
+        StreamRange(final long start, final long end) {
+            this.startOffset = FileResume.createStartOffset(start);
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Checks if the offset and the whole range are sent.
+         *
+         * @return If the range is sent.
+         */
+        boolean isSent() {
+            return !startOffset.hasRemaining() && position == end;
+        }
+    }
 }
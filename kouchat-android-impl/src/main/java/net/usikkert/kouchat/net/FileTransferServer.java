@@ -0,0 +1,601 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+
+/**
+ * A single server socket for receiving all files, instead of a new server socket for each file.
+ *
+ * <p>Each file to receive is registered with the server, and gets a unique token. The token is sent to
+ * the other user in the <code>SENDFILERESUME</code> message described in {@link FileResume}, together with
+ * the port of the server. The other user sends the token as the first 8 bytes on every connection
+ * for that file, and the server gives the connection to the {@link PendingTransfer} with that token.</p>
+ *
+ * <p>One background thread waits on a {@link Selector} for new connections and tokens. Connections that
+ * don't send a known token are closed. Files that don't get all their connections in time, and connections
+ * that don't send a token in time, time out using a single shared {@link Timer}. Receiving any number of files
+ * at the same time uses no extra threads or ports while waiting for the connections.</p>
+ *
+ * <p>Clients that can send the token say so in the capabilities of the client message, using
+ * {@link #CAPABILITY}. Older clients still connect to a server socket opened for that file only.</p>
+ *
+ * @author Christian Ihle
+ */
+public class FileTransferServer implements Runnable {
+
+    /** The name of the capability in the client message. */
+    public static final String CAPABILITY = "TOKEN";
+
+    /** The number of bytes used for the token at the beginning of each connection. */
+    static final int TOKEN_SIZE = 8;
+
+    /** Milliseconds to wait for connections before giving up. */
+    static final long TIMEOUT = 15000;
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(FileTransferServer.class.getName());
+
+    /** The number of ports to try before giving up starting the server. */
+    private static final int PORT_ATTEMPTS = 50;
+
+    /** The files waiting for connections, with the token as key. */
+    private final ConcurrentMap<Long, PendingTransfer> pendingTransfers;
+
+    /** The timer closing files and connections that take too long. */
+    private final Timer timer;
+
+    /** Creates tokens that are hard to guess. */
+    private final Random random;
+
+    /** The server socket for all the files. */
+    private ServerSocketChannel serverChannel;
+
+    /** The selector waiting for new connections and tokens. */
+    private Selector selector;
+
+    /** The background thread accepting connections. */
+    private Thread worker;
+
+    /** If the server is running or not. */
+    private volatile boolean running;
+
+    /** The port of the server socket. */
+    private int port;
+
+    /**
+     * Constructor.
+     */
+    public FileTransferServer() {
+        pendingTransfers = new ConcurrentHashMap<Long, PendingTransfer>();
+        timer = new Timer("FileTransferServerTimer", true);
+        random = new SecureRandom();
+    }
+
+    /**
+     * Opens the server socket, if not already open, and starts the thread that accepts connections.
+     *
+     * <p>The first available port from {@link Constants#NETWORK_FILE_TRANSFER_PORT} is used.</p>
+     *
+     * @return The port of the server socket.
+     * @throws ServerException If the server could not be started.
+     */
+    public synchronized int start() throws ServerException {
+        if (running) {
+            return port;
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = openServerSocket();
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        catch (final IOException e) {
+            closeServer();
+            throw new ServerException("Could not start server", e);
+        }
+
+        running = true;
+
+        worker = new Thread(this, "FileTransferServerWorker");
+        worker.start();
+
+        return port;
+    }
+
+    /**
+     * Stops the thread and closes the server socket. Waits for the thread to finish.
+     * Files still waiting for connections fail.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        selector.wakeup();
+
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join();
+            }
+
+            catch (final InterruptedException e) {
+                LOG.log(Level.FINE, e.toString());
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (final PendingTransfer pendingTransfer : pendingTransfers.values()) {
+            pendingTransfer.close();
+        }
+    }
+
+    /**
+     * Checks if the server is running.
+     *
+     * @return If the server is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Registers a file to receive, with a new unique token. The file fails if all the connections
+     * have not arrived within {@link #TIMEOUT} milliseconds.
+     *
+     * @param connections The number of connections the other user sends the file over.
+     * @return The pending file transfer, to get the connections from.
+     */
+    public PendingTransfer register(final int connections) {
+        PendingTransfer pendingTransfer = new PendingTransfer(nextToken(), connections);
+
+        while (pendingTransfers.putIfAbsent(pendingTransfer.getToken(), pendingTransfer) != null) {
+            pendingTransfer = new PendingTransfer(nextToken(), connections);
+        }
+
+        try {
+            timer.schedule(pendingTransfer, TIMEOUT);
+        }
+
+        // The timer is stopped, so the connections can't be waited for
+        catch (final IllegalStateException e) {
+            LOG.log(Level.FINE, e.toString());
+            pendingTransfer.close();
+        }
+
+        return pendingTransfer;
+    }
+
+    /**
+     * Writes the token as the first bytes on a connection to the server.
+     *
+     * @param channel The connection to the server.
+     * @param token The token of the file being sent.
+     * @throws IOException If writing failed.
+     */
+    static void writeToken(final WritableByteChannel channel, final long token) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(TOKEN_SIZE);
+        buffer.putLong(token);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Accepts new connections, and reads the tokens of the connections.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+
+                final List<Handshake> identified = new ArrayList<Handshake>();
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        acceptConnection();
+                    }
+
+                    else if (key.isReadable()) {
+                        readToken(key, identified);
+                    }
+                }
+
+                if (!identified.isEmpty()) {
+                    // The canceled keys must be removed from the selector before the connections can block again
+                    selector.selectNow();
+
+                    for (final Handshake handshake : identified) {
+                        giveConnectionToTransfer(handshake);
+                    }
+                }
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+        }
+
+        closeServer();
+    }
+
+    /**
+     * Accepts a new connection, and waits for the token of the connection.
+     *
+     * @throws IOException If the connection could not be accepted.
+     */
+    private void acceptConnection() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        final Handshake handshake = new Handshake(channel);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, handshake);
+
+        try {
+            timer.schedule(handshake, TIMEOUT);
+        }
+
+        catch (final IllegalStateException e) {
+            LOG.log(Level.FINE, e.toString());
+            handshake.run();
+        }
+    }
+
+    /**
+     * Reads the token from the connection of the key. When the whole token is read,
+     * the connection is removed from the selector, and added to the identified connections.
+     *
+     * @param key The key of the connection.
+     * @param identified The connections with a complete token.
+     */
+    private void readToken(final SelectionKey key, final List<Handshake> identified) {
+        final Handshake handshake = (Handshake) key.attachment();
+
+        try {
+            if (handshake.channel.read(handshake.token) < 0) {
+                throw new IOException("Connection closed before the token was received");
+            }
+
+            if (!handshake.token.hasRemaining()) {
+                handshake.cancel();
+                key.cancel();
+                identified.add(handshake);
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, e.toString());
+            handshake.run();
+        }
+    }
+
+    /**
+     * Gives the connection to the file transfer with the same token, or closes the connection
+     * if there is no such file transfer.
+     *
+     * @param handshake The connection with a complete token.
+     */
+    private void giveConnectionToTransfer(final Handshake handshake) {
+        handshake.token.flip();
+        final long token = handshake.token.getLong();
+        final PendingTransfer pendingTransfer = pendingTransfers.get(token);
+
+        try {
+            handshake.channel.configureBlocking(true);
+
+            if (pendingTransfer != null && pendingTransfer.addConnection(handshake.channel)) {
+                return;
+            }
+
+            LOG.log(Level.WARNING, "Closing connection with unknown token from " +
+                    handshake.channel.socket().getInetAddress());
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, e.toString());
+        }
+
+        handshake.run();
+    }
+
+    /**
+     * Creates a new token. Never 0, as that means no token.
+     *
+     * @return The new token.
+     */
+    private long nextToken() {
+        long token = random.nextLong();
+
+        while (token == 0) {
+            token = random.nextLong();
+        }
+
+        return token;
+    }
+
+    /**
+     * Opens the server socket on the first available port.
+     *
+     * @return The opened server socket.
+     * @throws IOException If none of the ports could be opened.
+     */
+    private ServerSocketChannel openServerSocket() throws IOException {
+        IOException lastException = null;
+
+        for (int i = 0; i < PORT_ATTEMPTS; i++) {
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+
+            try {
+                channel.socket().bind(new InetSocketAddress(Constants.NETWORK_FILE_TRANSFER_PORT + i));
+                port = Constants.NETWORK_FILE_TRANSFER_PORT + i;
+                return channel;
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, "Could not open " + (Constants.NETWORK_FILE_TRANSFER_PORT + i), e);
+                channel.close();
+                lastException = e;
+            }
+        }
+
+        throw lastException;
+    }
+
+    /**
+     * Closes the selector and the server socket. Connections still waiting for a token are closed as well.
+     */
+    private void closeServer() {
+        if (selector != null) {
+            for (final SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Handshake) {
+                    ((Handshake) key.attachment()).run();
+                }
+            }
+
+            try {
+                selector.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+        }
+
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, e.toString());
+        }
+
+        LOG.log(Level.FINE, "Stopped.");
+    }
+
+    /**
+     * A new connection waiting for its token.
+     *
+     * <p>Also the timer task closing the connection if the token takes too long.</p>
+     */
+    private static class Handshake extends TimerTask {
+
+        /** The new connection. */
+        private final SocketChannel channel;
+
+        /** The token received so far. */
+        private final ByteBuffer token;
+
+        /**
+         * Constructor.
+         *
+         * @param channel The new connection.
+         */
+        Handshake(final SocketChannel channel) {
+            this.channel = channel;
+            token = ByteBuffer.allocate(TOKEN_SIZE);
+        }
+
+        /**
+         * Closes the connection.
+         */
+        @Override
+        public void run() {
+            cancel();
+
+            try {
+                channel.close();
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+        }
+    }
+
+    /**
+     * A file waiting for connections from the other user.
+     *
+     * <p>Also the timer task closing the file transfer if the connections take too long.</p>
+     */
+    public class PendingTransfer extends TimerTask {
+
+        /** The unique token of the file. */
+        private final long token;
+
+        /** The number of connections to wait for. */
+        private final int connections;
+
+        /** Connections that have arrived, but have not been taken yet. */
+        private final Queue<SocketChannel> arrived;
+
+        /** The number of connections that have arrived. */
+        private int arrivedCount;
+
+        /** If the file transfer is closed, and takes no more connections. */
+        private boolean closed;
+
+        /**
+         * Constructor.
+         *
+         * @param token The unique token of the file.
+         * @param connections The number of connections to wait for.
+         */
+        PendingTransfer(final long token, final int connections) {
+            this.token = token;
+            this.connections = connections;
+            arrived = new LinkedList<SocketChannel>();
+        }
+
+        /**
+         * Gets the unique token of the file, for the other user to send on each connection.
+         *
+         * @return The token.
+         */
+        public long getToken() {
+            return token;
+        }
+
+        /**
+         * Waits for the next connection from the other user.
+         *
+         * @return The connection, in blocking mode.
+         * @throws IOException If the connections timed out, or the file transfer was closed.
+         */
+        public synchronized SocketChannel takeConnection() throws IOException {
+            while (arrived.isEmpty() && !closed) {
+                try {
+                    wait();
+                }
+
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.toString());
+                }
+            }
+
+            if (arrived.isEmpty()) {
+                throw new IOException("No connection from the other user");
+            }
+
+            return arrived.remove();
+        }
+
+        /**
+         * Closes the file transfer. No more connections are taken, and connections not taken yet are closed.
+         */
+        public synchronized void close() {
+            closed = true;
+            cancel();
+            pendingTransfers.remove(token);
+
+            for (final SocketChannel channel : arrived) {
+                try {
+                    channel.close();
+                }
+
+                catch (final IOException e) {
+                    LOG.log(Level.WARNING, e.toString());
+                }
+            }
+
+            arrived.clear();
+            notifyAll();
+        }
+
+        /**
+         * Closes the file transfer, as the connections took too long.
+         */
+        @Override
+        public void run() {
+            LOG.log(Level.WARNING, "Timed out waiting for connections to file transfer");
+            close();
+        }
+
+        /**
+         * Adds a connection from the other user. When all the connections have arrived,
+         * the token is no longer valid, and the file transfer will not time out.
+         *
+         * @param channel The connection to add.
+         * @return If the connection was added, and not closed.
+         */
+        synchronized boolean addConnection(final SocketChannel channel) {
+            if (closed) {
+                return false;
+            }
+
+            arrived.add(channel);
+            arrivedCount++;
+
+            if (arrivedCount == connections) {
+                cancel();
+                pendingTransfers.remove(token);
+            }
+
+            notifyAll();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Tools;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * Packs several messages into a single datagram, and unpacks them again.
+ *
+ * <p>A batch starts with {@link #BATCH_PREFIX}, followed by each message as
+ * <code>length:message</code>, where the length is the number of characters in the message.
+ * Example: <code>BATCH!25:12345678!EXPOSE#Christian:26:12345678!GETTOPIC#Christian:</code></p>
+ *
+ * <p>Clients that support batches say so in the capabilities of the client message, using
+ * {@link #CAPABILITY}. Older clients fail to parse the user code of a batch, and ignore it.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class MessageBatch {
+
+    /** The name of the capability in the client message. */
+    public static final String CAPABILITY = "BATCH";
+
+    /** The start of every batch. */
+    public static final String BATCH_PREFIX = "BATCH!";
+
+    /** Separates the length from the message. */
+    private static final char LENGTH_SEPARATOR = ':';
+
+    /** The radix of the length. */
+    private static final int RADIX = 10;
+
+    /**
+     * Private constructor. Only static methods here.
+     */
+    private MessageBatch() {
+
+    }
+
+    /**
+     * Checks if the received message is a batch of messages.
+     *
+     * @param message The received message.
+     * @return If the message is a batch.
+     */
+    public static boolean isBatch(final String message) {
+        return message.startsWith(BATCH_PREFIX);
+    }
+
+    /**
+     * Packs the messages into as few datagrams as possible, without going above
+     * {@link Constants#NETWORK_PACKET_SIZE}. The order of the messages is kept.
+     *
+     * <p>A message that would be alone in a batch is returned as it is, without the batch format.</p>
+     *
+     * @param messages The messages to pack.
+     * @return The datagrams to send.
+     */
+    public static List<String> pack(final List<String> messages) {
+        Validate.notNull(messages, "Messages can not be null");
+
+        final List<String> datagrams = new ArrayList<String>();
+        final List<String> currentBatch = new ArrayList<String>();
+        int currentSize = BATCH_PREFIX.length();
+
+        for (final String message : messages) {
+            final int size = getEncodedSize(message);
+
+            if (!currentBatch.isEmpty() && currentSize + size > Constants.NETWORK_PACKET_SIZE) {
+                datagrams.add(createDatagram(currentBatch));
+                currentBatch.clear();
+                currentSize = BATCH_PREFIX.length();
+            }
+
+            currentBatch.add(message);
+            currentSize += size;
+        }
+
+        if (!currentBatch.isEmpty()) {
+            datagrams.add(createDatagram(currentBatch));
+        }
+
+        return datagrams;
+    }
+
+    /**
+     * Unpacks the messages in a batch.
+     *
+     * <p>The receiver trims the datagram, so the last message may be shorter than its length says.
+     * The messages are trimmed the same way as single messages.</p>
+     *
+     * @param batch The batch to unpack.
+     * @return The messages in the batch.
+     * @throws IllegalArgumentException If the batch is not valid.
+     */
+    public static List<String> unpack(final String batch) {
+        Validate.notNull(batch, "Batch can not be null");
+
+        if (!isBatch(batch)) {
+            throw new IllegalArgumentException("Not a batch: " + batch);
+        }
+
+        final List<String> messages = new ArrayList<String>();
+        final int length = batch.length();
+        int index = BATCH_PREFIX.length();
+
+        while (index < length) {
+            final int separator = batch.indexOf(LENGTH_SEPARATOR, index);
+
+            if (separator <= index) {
+                throw new IllegalArgumentException("Missing message length in batch: " + batch);
+            }
+
+            final int messageLength = parseLength(batch, index, separator);
+            final int messageEnd = Math.min(separator + 1 + messageLength, length);
+
+            messages.add(batch.substring(separator + 1, messageEnd).trim());
+            index = messageEnd;
+        }
+
+        return messages;
+    }
+
+    /**
+     * Creates a datagram from the messages. Uses the batch format only if there are several messages.
+     *
+     * @param messages The messages to put in the datagram.
+     * @return The datagram.
+     */
+    private static String createDatagram(final List<String> messages) {
+        if (messages.size() == 1) {
+            return messages.get(0);
+        }
+
+        final StringBuilder datagram = new StringBuilder(BATCH_PREFIX);
+
+        for (final String message : messages) {
+            datagram.append(message.length()).append(LENGTH_SEPARATOR).append(message);
+        }
+
+        return datagram.toString();
+    }
+
+    /**
+     * Gets the number of bytes the message uses in a batch, including the length.
+     *
+     * @param message The message.
+     * @return The number of bytes.
+     */
+    private static int getEncodedSize(final String message) {
+        return String.valueOf(message.length()).length() + 1 + Tools.getBytes(message);
+    }
+
+    /**
+     * Parses the length of a message in the batch.
+     *
+     * @param batch The batch.
+     * @param start The position of the first digit.
+     * @param end The position after the last digit.
+     * @return The length.
+     */
+    private static int parseLength(final String batch, final int start, final int end) {
+        int messageLength = 0;
+
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(batch.charAt(i), RADIX);
+
+            if (digit < 0 || messageLength > Constants.NETWORK_PACKET_SIZE) {
+                throw new IllegalArgumentException("Invalid message length in batch: " + batch);
+            }
+
+            messageLength = messageLength * RADIX + digit;
+        }
+
+        return messageLength;
+    }
+}
@@ -22,6 +22,11 @@
 
 package net.usikkert.kouchat.net;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +39,10 @@ import net.usikkert.kouchat.util.Validate;
  * This class listens for multicast messages from the network,
  * and parses them into a format the {@link MessageResponder} can use.
  *
+ * <p>The header of the message, <code>code!TYPE#nick:</code>, is parsed in a single pass
+ * without creating any intermediate strings, and the type is looked up in a table
+ * of hash codes instead of comparing it with every known type.</p>
+ *
  * <p>The supported message types:</p>
  *
  * <ul>
@@ -52,11 +61,15 @@ import net.usikkert.kouchat.util.Validate;
  *   <li>NICK</li>
  *   <li>IDLE</li>
  *   <li>SENDFILEACCEPT</li>
+ *   <li>SENDFILERESUME</li>
  *   <li>SENDFILEABORT</li>
  *   <li>SENDFILE</li>
  *   <li>CLIENT</li>
  * </ul>
  *
+ * <p>Several messages can also arrive together in a single datagram, as described in
+ * {@link MessageBatch}. Each message in the batch is parsed the same way as single messages.</p>
+ *
  * @author Christian Ihle
  */
 public class MessageParser implements ReceiverListener {
@@ -64,6 +77,34 @@ public class MessageParser implements ReceiverListener {
     /** The logger. */
     private static final Logger LOG = Logger.getLogger(MessageParser.class.getName());
 
+    /** The radix of the user code. */
+    private static final int RADIX = 10;
+
+    /** The multiplier used for calculating hash codes. Same as {@link String#hashCode()}. */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /** The hash codes of the names of all the message types, sorted. */
+    private static final int[] TYPE_HASHES;
+
+    /** The message types, in the same order as their hash codes in {@link #TYPE_HASHES}. */
+    private static final MessageType[] TYPES_BY_HASH;
+
+    static {
+        final MessageType[] types = MessageType.values();
+        TYPE_HASHES = new int[types.length];
+        TYPES_BY_HASH = new MessageType[types.length];
+
+        for (int i = 0; i < types.length; i++) {
+            TYPE_HASHES[i] = types[i].name().hashCode();
+        }
+
+        Arrays.sort(TYPE_HASHES);
+
+        for (final MessageType type : types) {
+            TYPES_BY_HASH[Arrays.binarySearch(TYPE_HASHES, type.name().hashCode())] = type;
+        }
+    }
+
     /** To handle the different kind of messages parsed here. */
     private final MessageResponder responder;
 
@@ -97,207 +138,544 @@ public class MessageParser implements ReceiverListener {
      */
     @Override
     public void messageArrived(final String message, final String ipAddress) {
+        if (MessageBatch.isBatch(message)) {
+            batchArrived(message, ipAddress);
+            return;
+        }
+
         try {
-            final int exclamation = message.indexOf("!");
-            final int hash = message.indexOf("#");
-            final int colon = message.indexOf(":");
+            final int length = message.length();
+            int index = 0;
+            long code = 0;
+
+            // The user code, up to the exclamation mark
+            while (index < length && message.charAt(index) != '!') {
+                code = code * RADIX + toDigit(message, index);
+
+                if (code > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("User code too large in message: " + message);
+                }
+
+                index++;
+            }
+
+            final int exclamation = index;
+            int typeHash = 0;
+            index++;
+
+            // The type, up to the hash sign
+            while (index < length && message.charAt(index) != '#') {
+                typeHash = HASH_MULTIPLIER * typeHash + message.charAt(index);
+                index++;
+            }
 
-            final int msgCode = Integer.parseInt(message.substring(0, exclamation));
-            final String type = message.substring(exclamation + 1, hash);
-            final String msgNick = message.substring(hash + 1, colon);
-            final String msg = message.substring(colon + 1, message.length());
+            final int hash = index;
+            index++;
 
+            // The nick name, up to the colon
+            while (index < length && message.charAt(index) != ':') {
+                index++;
+            }
+
+            final int colon = index;
+
+            if (exclamation == 0 || colon >= length) {
+                LOG.log(Level.SEVERE, "Invalid message: " + message);
+                return;
+            }
+
+            final int msgCode = (int) code;
+            final MessageType type = findType(message, exclamation + 1, hash, typeHash);
             final User tempme = settings.getMe();
 
             if (msgCode != tempme.getCode() && loggedOn) {
-                if (type.equals("MSG")) {
-                    final int leftBracket = msg.indexOf("[");
-                    final int rightBracket = msg.indexOf("]");
-                    final int rgb = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
-
-                    responder.messageArrived(msgCode, msg.substring(rightBracket + 1, msg.length()), rgb);
+                if (type != null) {
+                    userMessageArrived(type, msgCode, message, hash, colon, ipAddress, tempme);
                 }
+            }
 
-                else if (type.equals("LOGON")) {
-                    final User newUser = new User(msgNick, msgCode);
-                    newUser.setIpAddress(ipAddress);
-                    newUser.setLastIdle(System.currentTimeMillis());
-                    newUser.setLogonTime(System.currentTimeMillis());
+            else if (msgCode == tempme.getCode() && type == MessageType.LOGON) {
+                responder.meLogOn(ipAddress);
+                loggedOn = true;
+            }
 
-                    responder.userLogOn(newUser);
-                }
+            else if (msgCode == tempme.getCode() && type == MessageType.IDLE && loggedOn) {
+                responder.meIdle(ipAddress);
+            }
+        }
 
-                else if (type.equals("EXPOSING")) {
-                    final User user = new User(msgNick, msgCode);
-                    user.setIpAddress(ipAddress);
-                    user.setAwayMsg(msg);
+        catch (final StringIndexOutOfBoundsException e) {
+            LOG.log(Level.SEVERE, e.toString(), e);
+        }
 
-                    if (msg.length() > 0) {
-                        user.setAway(true);
-                    }
+        catch (final NumberFormatException e) {
+            LOG.log(Level.SEVERE, e.toString(), e);
+        }
+    }
 
-                    user.setLastIdle(System.currentTimeMillis());
-                    user.setLogonTime(System.currentTimeMillis());
+    /**
+     * Parses each of the messages in a batch.
+     *
+     * @param batch The raw batch of messages.
+     * @param ipAddress The IP address of the user who sent the batch.
+     */
+    private void batchArrived(final String batch, final String ipAddress) {
+        final List<String> messages;
 
-                    responder.userExposing(user);
-                }
+        try {
+            messages = MessageBatch.unpack(batch);
+        }
 
-                else if (type.equals("LOGOFF")) {
-                    responder.userLogOff(msgCode);
-                }
+        catch (final IllegalArgumentException e) {
+            LOG.log(Level.SEVERE, "Invalid message: " + batch, e);
+            return;
+        }
 
-                else if (type.equals("AWAY")) {
-                    responder.awayChanged(msgCode, true, msg);
-                }
+        for (final String message : messages) {
+            messageArrived(message, ipAddress);
+        }
+    }
 
-                else if (type.equals("BACK")) {
-                    responder.awayChanged(msgCode, false, "");
+    /**
+     * Gives a message from another user to the correct method in the responder.
+     *
+     * <p>The nick name and the message part are only extracted for the types that use them.</p>
+     *
+     * @param type The type of message.
+     * @param msgCode The user code of the user who sent the message.
+     * @param message The raw message.
+     * @param hash The position of the hash sign in the raw message.
+     * @param colon The position of the colon in the raw message.
+     * @param ipAddress The IP address of the user who sent the message.
+     * @param tempme The application user.
+     */
+    private void userMessageArrived(final MessageType type, final int msgCode, final String message,
+                                    final int hash, final int colon, final String ipAddress, final User tempme) {
+        switch (type) {
+            case MSG:
+                chatMessageArrived(msgCode, message.substring(colon + 1));
+                break;
+
+            case LOGON:
+                userLogOnArrived(msgCode, message.substring(hash + 1, colon), ipAddress);
+                break;
+
+            case EXPOSING:
+                userExposingArrived(msgCode, message.substring(hash + 1, colon), message.substring(colon + 1), ipAddress);
+                break;
+
+            case LOGOFF:
+                responder.userLogOff(msgCode);
+                break;
+
+            case AWAY:
+                responder.awayChanged(msgCode, true, message.substring(colon + 1));
+                break;
+
+            case BACK:
+                responder.awayChanged(msgCode, false, "");
+                break;
+
+            case EXPOSE:
+                responder.exposeRequested(msgCode, isMessagePart(message, colon, Messages.RECONNECT_EXPOSE));
+                break;
+
+            case NICKCRASH:
+                if (isMessagePart(message, colon, tempme.getNick())) {
+                    responder.nickCrash();
                 }
 
-                else if (type.equals("EXPOSE")) {
-                    responder.exposeRequested();
-                }
+                break;
 
-                else if (type.equals("NICKCRASH")) {
-                    if (tempme.getNick().equals(msg)) {
-                        responder.nickCrash();
-                    }
-                }
+            case WRITING:
+                responder.writingChanged(msgCode, true);
+                break;
 
-                else if (type.equals("WRITING")) {
-                    responder.writingChanged(msgCode, true);
-                }
+            case STOPPEDWRITING:
+                responder.writingChanged(msgCode, false);
+                break;
 
-                else if (type.equals("STOPPEDWRITING")) {
-                    responder.writingChanged(msgCode, false);
-                }
+            case GETTOPIC:
+                responder.topicRequested();
+                break;
 
-                else if (type.equals("GETTOPIC")) {
-                    responder.topicRequested();
-                }
+            case TOPIC:
+                topicArrived(msgCode, message.substring(colon + 1));
+                break;
 
-                else if (type.equals("TOPIC")) {
-                    final int leftBracket = msg.indexOf("[");
-                    final int rightBracket = msg.indexOf("]");
-                    final int leftPara = msg.indexOf("(");
-                    final int rightPara = msg.indexOf(")");
+            case NICK:
+                responder.nickChanged(msgCode, message.substring(hash + 1, colon));
+                break;
 
-                    if (rightBracket != -1 && leftBracket != -1) {
-                        final String theNick = msg.substring(leftPara + 1, rightPara);
-                        final long theTime = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
-                        String theTopic = null;
+            case IDLE:
+                responder.userIdle(msgCode, ipAddress, getIdleInterval(message.substring(colon + 1)));
+                break;
 
-                        if (msg.length() > rightBracket + 1) {
-                            theTopic = msg.substring(rightBracket + 1, msg.length());
-                        }
+            case SENDFILEACCEPT:
+                fileSendAcceptArrived(msgCode, message.substring(colon + 1), tempme);
+                break;
 
-                        responder.topicChanged(msgCode, theTopic, theNick, theTime);
-                    }
-                }
+            case SENDFILERESUME:
+                fileSendResumeArrived(msgCode, message.substring(colon + 1), tempme);
+                break;
 
-                else if (type.equals("NICK")) {
-                    responder.nickChanged(msgCode, msgNick);
-                }
+            case SENDFILEABORT:
+                fileSendAbortArrived(msgCode, message.substring(colon + 1), tempme);
+                break;
 
-                else if (type.equals("IDLE")) {
-                    responder.userIdle(msgCode, ipAddress);
-                }
+            case SENDFILE:
+                fileSendArrived(msgCode, message.substring(hash + 1, colon), message.substring(colon + 1), tempme);
+                break;
 
-                else if (type.equals("SENDFILEACCEPT")) {
-                    final int leftPara = msg.indexOf("(");
-                    final int rightPara = msg.indexOf(")");
-                    final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
-
-                    if (fileCode == tempme.getCode()) {
-                        final int leftCurly = msg.indexOf("{");
-                        final int rightCurly = msg.indexOf("}");
-                        final int leftBracket = msg.indexOf("[");
-                        final int rightBracket = msg.indexOf("]");
-                        final int port = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
-                        final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
-                        final String fileName = msg.substring(rightCurly + 1, msg.length());
-
-                        responder.fileSendAccepted(msgCode, fileName, fileHash, port);
-                    }
-                }
+            case CLIENT:
+                clientArrived(msgCode, message.substring(colon + 1));
+                break;
 
-                else if (type.equals("SENDFILEABORT")) {
-                    final int leftPara = msg.indexOf("(");
-                    final int rightPara = msg.indexOf(")");
-                    final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+            default:
+                LOG.log(Level.WARNING, "Unhandled message type: " + type);
+        }
 
-                    if (fileCode == tempme.getCode()) {
-                        final int leftCurly = msg.indexOf("{");
-                        final int rightCurly = msg.indexOf("}");
-                        final String fileName = msg.substring(rightCurly + 1, msg.length());
-                        final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+        if (type != MessageType.IDLE) {
+            responder.userActive(msgCode);
+        }
+    }
 
-                        responder.fileSendAborted(msgCode, fileName, fileHash);
-                    }
-                }
+    /**
+     * Gets the idle interval from an idle message. Older clients don't send it.
+     *
+     * @param msg The message part of the idle message.
+     * @return The idle interval, or 0 if missing or invalid.
+     */
+    private long getIdleInterval(final String msg) {
+        if (msg.length() == 0) {
+            return 0;
+        }
 
-                else if (type.equals("SENDFILE")) {
-                    final int leftPara = msg.indexOf("(");
-                    final int rightPara = msg.indexOf(")");
-                    final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
-
-                    if (fileCode == tempme.getCode()) {
-                        final int leftCurly = msg.indexOf("{");
-                        final int rightCurly = msg.indexOf("}");
-                        final int leftBracket = msg.indexOf("[");
-                        final int rightBracket = msg.indexOf("]");
-                        final long byteSize = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
-                        final String fileName = msg.substring(rightCurly + 1, msg.length());
-                        final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
-
-                        responder.fileSend(msgCode, byteSize, fileName, msgNick, fileHash);
-                    }
-                }
+        try {
+            return Math.max(0, Long.parseLong(msg));
+        }
+
+        catch (final NumberFormatException e) {
+            LOG.log(Level.WARNING, "Invalid idle interval: " + msg);
+            return 0;
+        }
+    }
+
+    /**
+     * Creates a user that logged on.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msgNick The nick name of the user who sent the message.
+     * @param ipAddress The IP address of the user who sent the message.
+     */
+    private void userLogOnArrived(final int msgCode, final String msgNick, final String ipAddress) {
+        final User newUser = new User(msgNick, msgCode);
+        newUser.setIpAddress(ipAddress);
+        newUser.setLastIdle(System.currentTimeMillis());
+        newUser.setLogonTime(System.currentTimeMillis());
+
+        responder.userLogOn(newUser);
+    }
 
-                else if (type.equals("CLIENT")) {
-                    final int leftPara = msg.indexOf("(");
-                    final int rightPara = msg.indexOf(")");
-                    final int leftBracket = msg.indexOf("[");
-                    final int rightBracket = msg.indexOf("]");
-                    final int leftCurly = msg.indexOf("{");
-                    final int rightCurly = msg.indexOf("}");
-                    final int lessThan = msg.indexOf("<");
-                    final int greaterThan = msg.indexOf(">");
+    /**
+     * Creates a user that exposed itself.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msgNick The nick name of the user who sent the message.
+     * @param msg The message part of the raw message.
+     * @param ipAddress The IP address of the user who sent the message.
+     */
+    private void userExposingArrived(final int msgCode, final String msgNick, final String msg, final String ipAddress) {
+        final User user = new User(msgNick, msgCode);
+        user.setIpAddress(ipAddress);
+        user.setAwayMsg(msg);
 
-                    final String client = msg.substring(leftPara + 1, rightPara);
-                    final long timeSinceLogon = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
-                    final String operatingSystem = msg.substring(leftCurly + 1, rightCurly);
+        if (msg.length() > 0) {
+            user.setAway(true);
+        }
 
-                    int privateChatPort = 0;
+        user.setLastIdle(System.currentTimeMillis());
+        user.setLogonTime(System.currentTimeMillis());
 
-                    try {
-                        privateChatPort = Integer.parseInt(msg.substring(lessThan + 1, greaterThan));
-                    }
+        responder.userExposing(user);
+    }
 
-                    catch (final NumberFormatException e) {
-                        LOG.log(Level.WARNING, e.toString());
-                    }
+    /**
+     * Parses a chat message.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     */
+    private void chatMessageArrived(final int msgCode, final String msg) {
+        final int leftBracket = msg.indexOf("[");
+        final int rightBracket = msg.indexOf("]");
+        final int rgb = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
 
-                    responder.clientInfo(msgCode, client, timeSinceLogon, operatingSystem, privateChatPort);
-                }
-            }
+        responder.messageArrived(msgCode, msg.substring(rightBracket + 1, msg.length()), rgb);
+    }
 
-            else if (msgCode == tempme.getCode() && type.equals("LOGON")) {
-                responder.meLogOn(ipAddress);
-                loggedOn = true;
+    /**
+     * Parses a topic message.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     */
+    private void topicArrived(final int msgCode, final String msg) {
+        final int leftBracket = msg.indexOf("[");
+        final int rightBracket = msg.indexOf("]");
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+
+        if (rightBracket != -1 && leftBracket != -1) {
+            final String theNick = msg.substring(leftPara + 1, rightPara);
+            final long theTime = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
+            String theTopic = null;
+
+            if (msg.length() > rightBracket + 1) {
+                theTopic = msg.substring(rightBracket + 1, msg.length());
             }
 
-            else if (msgCode == tempme.getCode() && type.equals("IDLE") && loggedOn) {
-                responder.meIdle(ipAddress);
-            }
+            responder.topicChanged(msgCode, theTopic, theNick, theTime);
         }
+    }
 
-        catch (final StringIndexOutOfBoundsException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+    /**
+     * Parses a message about accepting a file transfer.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     * @param tempme The application user.
+     */
+    private void fileSendAcceptArrived(final int msgCode, final String msg, final User tempme) {
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+        final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+        if (fileCode == tempme.getCode()) {
+            final int leftCurly = msg.indexOf("{");
+            final int rightCurly = msg.indexOf("}");
+            final int leftBracket = msg.indexOf("[");
+            final int rightBracket = msg.indexOf("]");
+            final int port = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
+            final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+            final String fileName = msg.substring(rightCurly + 1, msg.length());
+
+            responder.fileSendAccepted(msgCode, fileName, fileHash, port);
+        }
+    }
+
+    /**
+     * Parses a message about accepting a file transfer, and resuming from where a failed transfer stopped,
+     * or sending over several connections. The number of connections is 1 if missing,
+     * and the token for the shared server socket is 0 if missing.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     * @param tempme The application user.
+     */
+    private void fileSendResumeArrived(final int msgCode, final String msg, final User tempme) {
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+        final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+        if (fileCode == tempme.getCode()) {
+            final int leftCurly = msg.indexOf("{");
+            final int rightCurly = msg.indexOf("}");
+            final int leftBracket = msg.indexOf("[");
+            final int rightBracket = msg.indexOf("]");
+            final int lessThan = msg.indexOf("<", rightCurly);
+            final int greaterThan = msg.indexOf(">", lessThan);
+            final int port = Integer.parseInt(msg.substring(leftBracket + 1, rightBracket));
+            final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+            final FileResumeInfo resumeInfo = FileResumeInfo.parse(msg.substring(lessThan + 1, greaterThan));
+            final String fileName = msg.substring(greaterThan + 1, msg.length());
+
+            responder.fileSendResumed(msgCode, fileName, fileHash, port, resumeInfo);
+        }
+    }
+
+    /**
+     * Parses a message about aborting a file transfer.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     * @param tempme The application user.
+     */
+    private void fileSendAbortArrived(final int msgCode, final String msg, final User tempme) {
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+        final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+        if (fileCode == tempme.getCode()) {
+            final int leftCurly = msg.indexOf("{");
+            final int rightCurly = msg.indexOf("}");
+            final String fileName = msg.substring(rightCurly + 1, msg.length());
+            final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+
+            responder.fileSendAborted(msgCode, fileName, fileHash);
+        }
+    }
+
+    /**
+     * Parses a message about sending a file.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msgNick The nick name of the user who sent the message.
+     * @param msg The message part of the raw message.
+     * @param tempme The application user.
+     */
+    private void fileSendArrived(final int msgCode, final String msgNick, final String msg, final User tempme) {
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+        final int fileCode = Integer.parseInt(msg.substring(leftPara + 1, rightPara));
+
+        if (fileCode == tempme.getCode()) {
+            final int leftCurly = msg.indexOf("{");
+            final int rightCurly = msg.indexOf("}");
+            final int leftBracket = msg.indexOf("[");
+            final int rightBracket = msg.indexOf("]");
+            final long byteSize = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
+            final String fileName = msg.substring(rightCurly + 1, msg.length());
+            final int fileHash = Integer.parseInt(msg.substring(leftCurly + 1, rightCurly));
+
+            responder.fileSend(msgCode, byteSize, fileName, msgNick, fileHash);
+        }
+    }
+
+    /**
+     * Parses a message with client information.
+     *
+     * @param msgCode The user code of the user who sent the message.
+     * @param msg The message part of the raw message.
+     */
+    private void clientArrived(final int msgCode, final String msg) {
+        final int leftPara = msg.indexOf("(");
+        final int rightPara = msg.indexOf(")");
+        final int leftBracket = msg.indexOf("[");
+        final int rightBracket = msg.indexOf("]");
+        final int leftCurly = msg.indexOf("{");
+        final int rightCurly = msg.indexOf("}");
+        final int lessThan = msg.indexOf("<");
+        final int greaterThan = msg.indexOf(">");
+
+        final String client = msg.substring(leftPara + 1, rightPara);
+        final long timeSinceLogon = Long.parseLong(msg.substring(leftBracket + 1, rightBracket));
+        final String operatingSystem = msg.substring(leftCurly + 1, rightCurly);
+
+        int privateChatPort = 0;
+
+        try {
+            privateChatPort = Integer.parseInt(msg.substring(lessThan + 1, greaterThan));
         }
 
         catch (final NumberFormatException e) {
-            LOG.log(Level.SEVERE, e.toString(), e);
+            LOG.log(Level.WARNING, e.toString());
         }
+
+        final Set<String> capabilities = getCapabilities(msg, greaterThan + 1);
+
+        responder.clientInfo(msgCode, client, timeSinceLogon, operatingSystem, privateChatPort, capabilities);
+    }
+
+    /**
+     * Gets the capabilities from a client message, like <code>|BATCH,RESUME,STREAMS,TOKEN|</code>.
+     * Older clients don't send any capabilities.
+     *
+     * @param msg The message part of the client message.
+     * @param fromIndex Where to start looking for the capabilities.
+     * @return The capabilities, or an empty set if none were found.
+     */
+    private Set<String> getCapabilities(final String msg, final int fromIndex) {
+        final int leftPipe = msg.indexOf('|', fromIndex);
+        final int rightPipe = msg.indexOf('|', leftPipe + 1);
+
+        if (leftPipe == -1 || rightPipe == -1) {
+            return Collections.emptySet();
+        }
+
+        final List<String> capabilities = Arrays.asList(msg.substring(leftPipe + 1, rightPipe).split(","));
+
+        return Collections.unmodifiableSet(new HashSet<String>(capabilities));
+    }
+
+    /**
+     * Converts the character at the given position in the message to a decimal digit.
+     *
+     * @param message The raw message.
+     * @param index The position of the character.
+     * @return The digit.
+     * @throws NumberFormatException If the character is not a decimal digit.
+     */
+    private static int toDigit(final String message, final int index) {
+        final int digit = Character.digit(message.charAt(index), RADIX);
+
+        if (digit < 0) {
+            throw new NumberFormatException("Invalid user code in message: " + message);
+        }
+
+        return digit;
+    }
+
+    /**
+     * Checks if the message part of the raw message, after the colon, is equal to the given text.
+     *
+     * @param message The raw message.
+     * @param colon The position of the colon in the raw message.
+     * @param text The text to compare with.
+     * @return If the message part is equal to the text.
+     */
+    private static boolean isMessagePart(final String message, final int colon, final String text) {
+        return message.length() - colon - 1 == text.length() && message.regionMatches(colon + 1, text, 0, text.length());
+    }
+
+    /**
+     * Finds the message type in the given part of the message.
+     *
+     * @param message The raw message.
+     * @param start The position of the first character of the type.
+     * @param end The position after the last character of the type.
+     * @param typeHash The hash code of the type, calculated like {@link String#hashCode()}.
+     * @return The message type, or <code>null</code> if the type is unknown.
+     */
+    private static MessageType findType(final String message, final int start, final int end, final int typeHash) {
+        final int position = Arrays.binarySearch(TYPE_HASHES, typeHash);
+
+        if (position < 0) {
+            return null;
+        }
+
+        final MessageType type = TYPES_BY_HASH[position];
+        final String name = type.name();
+
+        if (name.length() == end - start && message.regionMatches(start, name, 0, name.length())) {
+            return type;
+        }
+
+        return null;
+    }
+
+    /**
+     * The message types supported by the parser. The names are identical to the types in the messages.
+     */
+    private enum MessageType {
+        MSG,
+        LOGON,
+        EXPOSING,
+        LOGOFF,
+        AWAY,
+        BACK,
+        EXPOSE,
+        NICKCRASH,
+        WRITING,
+        STOPPEDWRITING,
+        GETTOPIC,
+        TOPIC,
+        NICK,
+        IDLE,
+        SENDFILEACCEPT,
+        SENDFILERESUME,
+        SENDFILEABORT,
+        SENDFILE,
+        CLIENT
     }
 }
@@ -108,15 +108,17 @@ public class MessageReceiver implements Runnable {
      * Waits for incoming packets, and notifies the listener when they arrive.
      */
     public void run() {
+        // Only used by this thread, and the message is decoded before the next receive
+        final byte[] buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
         while (connected) {
             try {
-                final DatagramPacket packet = new DatagramPacket(
-                        new byte[Constants.NETWORK_PACKET_SIZE], Constants.NETWORK_PACKET_SIZE);
-
                 if (connected) {
+                    packet.setLength(buffer.length);
                     mcSocket.receive(packet);
                     final String ip = packet.getAddress().getHostAddress();
-                    final String message = new String(packet.getData(), Constants.MESSAGE_CHARSET).trim();
+                    final String message = new String(buffer, 0, packet.getLength(), Constants.MESSAGE_CHARSET).trim();
                     LOG.log(Level.FINE, "Message arrived from " + ip + ": " + message);
 
                     if (listener != null) {
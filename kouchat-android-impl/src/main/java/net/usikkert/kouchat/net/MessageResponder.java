@@ -22,6 +22,8 @@
 
 package net.usikkert.kouchat.net;
 
+import java.util.Set;
+
 import net.usikkert.kouchat.misc.User;
 
 /**
@@ -111,8 +113,11 @@ public interface MessageResponder {
     /**
      * A user has requested information about the other clients that are logged
      * on to the chat.
+     *
+     * @param userCode The unique code of the user who requested the information.
+     * @param reconnect If the user requested the information after connecting to the network again.
      */
-    void exposeRequested();
+    void exposeRequested(int userCode, boolean reconnect);
 
     /**
      * A user has started or stopped writing.
@@ -136,8 +141,18 @@ public interface MessageResponder {
      *
      * @param userCode The unique code of the user who sent the idle message.
      * @param ipAddress The IP address of that user.
+     * @param idleInterval Number of milliseconds until the next idle message from the user,
+     *                     or 0 if the user's client doesn't send it.
+     */
+    void userIdle(int userCode, String ipAddress, long idleInterval);
+
+    /**
+     * A user sent a message other than an idle message, which is
+     * also a sign that the user is still logged on to the chat.
+     *
+     * @param userCode The unique code of the user who sent the message.
      */
-    void userIdle(int userCode, String ipAddress);
+    void userActive(int userCode);
 
     /**
      * A user is asking the application user to receive a file.
@@ -169,6 +184,18 @@ public interface MessageResponder {
      */
     void fileSendAccepted(int userCode, String fileName, int fileHash, int port);
 
+    /**
+     * A user has accepted a file transfer from the application user, and wants
+     * to resume from where a failed transfer stopped, or receive the file over several connections.
+     *
+     * @param userCode The unique code of the user who accepted a file transfer.
+     * @param fileName The name of the file.
+     * @param fileHash The hash code of the file.
+     * @param port The port to use for connecting to the other user.
+     * @param resumeInfo Where to resume from, and how many connections to send the file over.
+     */
+    void fileSendResumed(int userCode, String fileName, int fileHash, int port, FileResumeInfo resumeInfo);
+
     /**
      * A user has sent information about it's client.
      *
@@ -177,6 +204,9 @@ public interface MessageResponder {
      * @param timeSinceLogon Number of milliseconds since the user logged on.
      * @param operatingSystem The user's operating system.
      * @param privateChatPort The port to use for sending private chat messages to this user.
+     * @param capabilities The capabilities of the user's client, like {@link MessageBatch#CAPABILITY}.
+     *                     Empty for older clients.
      */
-    void clientInfo(int userCode, String client, long timeSinceLogon, String operatingSystem, int privateChatPort);
+    void clientInfo(int userCode, String client, long timeSinceLogon, String operatingSystem, int privateChatPort,
+                    Set<String> capabilities);
 }
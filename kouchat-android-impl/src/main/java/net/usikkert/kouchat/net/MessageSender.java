@@ -27,23 +27,67 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.MessageSentListener;
 import net.usikkert.kouchat.misc.ErrorHandler;
 import net.usikkert.kouchat.util.Tools;
+import net.usikkert.kouchat.util.Validate;
 
 /**
  * This is the class that sends multicast messages over the network.
  *
+ * <p>All messages are put in a queue, and sent by a single background thread, so threads
+ * sending messages never wait for each other or for the socket. The thread is started when
+ * messages are queued, and stops after a while without messages.</p>
+ *
+ * <p>Messages queued with a <em>replace key</em>, like the writing status, are held back
+ * for a short while if there is nothing else to send. If a newer message with the same
+ * key is queued before the old message is sent, the old message is dropped.
+ * A message that is identical to the last message sent with the same key is also dropped,
+ * as it would not change anything for the other clients.</p>
+ *
  * @author Christian Ihle
  */
-public class MessageSender {
+public class MessageSender implements Runnable {
 
     /** The logger. */
     private static final Logger LOG = Logger.getLogger(MessageSender.class.getName());
 
+    /** Number of milliseconds to hold back messages with a replace key, to give newer messages a chance to replace them. */
+    private static final long REPLACE_WINDOW = 250;
+
+    /** Number of milliseconds the sender thread waits for new messages before stopping. */
+    private static final long WORKER_KEEP_ALIVE = 30000;
+
+    /** Messages waiting to be sent. Any thread can add messages, but only the sender thread removes them. */
+    private final Queue<QueuedMessage> sendQueue;
+
+    /** The number of messages in the send queue. */
+    private final AtomicInteger queueSize;
+
+    /** The newest queued message for each replace key. */
+    private final ConcurrentMap<String, QueuedMessage> newestByReplaceKey;
+
+    /** The last message sent for each replace key. */
+    private final ConcurrentMap<String, String> lastSentByReplaceKey;
+
+    /** Lock for starting and stopping the sender thread. Never held while sending. */
+    private final Object workerLock;
+
+    /** The thread sending the queued messages, or <code>null</code> if not running. */
+    private volatile Thread worker;
+
     /** The multicast socket used for sending messages. */
     private MulticastSocket mcSocket;
 
@@ -51,7 +95,10 @@ public class MessageSender {
     private InetAddress address;
 
     /** If connected to the network or not. */
-    private boolean connected;
+    private volatile boolean connected;
+
+    /** The time when the last message was sent, or 0 if nothing has been sent. */
+    private volatile long lastSendTime;
 
     /** The port to send messages to. */
     private final int port;
@@ -81,6 +128,12 @@ public class MessageSender {
 
         this.port = port;
 
+        sendQueue = new ConcurrentLinkedQueue<QueuedMessage>();
+        queueSize = new AtomicInteger();
+        newestByReplaceKey = new ConcurrentHashMap<String, QueuedMessage>();
+        lastSentByReplaceKey = new ConcurrentHashMap<String, String>();
+        workerLock = new Object();
+
         try {
             address = InetAddress.getByName(ipAddress);
         }
@@ -99,12 +152,194 @@ public class MessageSender {
     /**
      * Sends a multicast packet to other clients over the network.
      *
+     * <p>The message is sent by the sender thread, after any messages already in the queue.
+     * This method waits until the message is sent, and is meant for callers that need the result,
+     * like logon and logoff. Use {@link #sendAsync(String, String, MessageSentListener)} for
+     * messages from the user interface.</p>
+     *
      * @param message The message to send in the packet.
      * @return If the message was sent or not.
      * @see Constants#MESSAGE_CHARSET
      * @see Constants#NETWORK_PACKET_SIZE
      */
-    public synchronized boolean send(final String message) {
+    public boolean send(final String message) {
+        if (!connected) {
+            return false;
+        }
+
+        // Waiting for the queue from a listener would never finish
+        if (Thread.currentThread() == worker) {
+            return sendMessage(message);
+        }
+
+        final SendResult sendResult = new SendResult();
+        enqueue(new QueuedMessage(message, null, sendResult));
+
+        return sendResult.waitForResult();
+    }
+
+    /**
+     * Queues a multicast packet to be sent to other clients over the network, and returns
+     * without waiting for the message to be sent.
+     *
+     * <p>If a replace key is used, the message replaces any message with the same key that is
+     * still waiting in the queue. The message is dropped if it's identical to the last
+     * message sent with the same key.</p>
+     *
+     * @param message The message to send in the packet.
+     * @param replaceKey Key identifying messages that replace each other, or <code>null</code>
+     *                   if the message should always be sent.
+     * @param listener Notified by the sender thread when the message is done, or <code>null</code>.
+     */
+    public void sendAsync(final String message, final String replaceKey, final MessageSentListener listener) {
+        Validate.notNull(message, "Message can not be null");
+
+        final QueuedMessage queuedMessage = new QueuedMessage(message, replaceKey, listener);
+
+        if (!connected) {
+            queuedMessage.done(false);
+            return;
+        }
+
+        if (replaceKey != null) {
+            final QueuedMessage replacedMessage = newestByReplaceKey.put(replaceKey, queuedMessage);
+
+            if (replacedMessage != null) {
+                replacedMessage.replace();
+            }
+        }
+
+        enqueue(queuedMessage);
+    }
+
+    /**
+     * Sends the queued messages, in the same order as they were queued.
+     * Stops when there have been no messages to send for a while.
+     */
+    @Override
+    public void run() {
+        long lastActivity = System.currentTimeMillis();
+
+        while (true) {
+            final QueuedMessage queuedMessage = sendQueue.peek();
+
+            if (queuedMessage == null) {
+                final long keepAlive = WORKER_KEEP_ALIVE - (System.currentTimeMillis() - lastActivity);
+
+                if (keepAlive > 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(keepAlive));
+                }
+
+                else if (stopWorkerIfIdle()) {
+                    return;
+                }
+            }
+
+            // Hold back the message as long as it's alone in the queue, so a newer message can replace it
+            else if (queuedMessage.getHoldTime() > 0 && queueSize.get() == 1) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(queuedMessage.getHoldTime()));
+            }
+
+            else {
+                sendQueue.poll();
+                queueSize.decrementAndGet();
+
+                try {
+                    sendQueuedMessage(queuedMessage);
+                }
+
+                catch (final RuntimeException e) {
+                    LOG.log(Level.SEVERE, e.toString(), e);
+                }
+
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Adds a message to the send queue, and makes sure the sender thread is running.
+     *
+     * @param queuedMessage The message to add.
+     */
+    private void enqueue(final QueuedMessage queuedMessage) {
+        sendQueue.add(queuedMessage);
+        queueSize.incrementAndGet();
+
+        synchronized (workerLock) {
+            if (worker == null) {
+                worker = new Thread(this, "MessageSenderWorker");
+                worker.setDaemon(true);
+                worker.start();
+            }
+
+            else {
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+    /**
+     * Stops the sender thread if no messages were queued while checking.
+     *
+     * @return If the sender thread should stop.
+     */
+    private boolean stopWorkerIfIdle() {
+        synchronized (workerLock) {
+            if (sendQueue.isEmpty()) {
+                worker = null;
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Sends a message taken from the queue, unless it has been replaced by a newer message,
+     * or is identical to the last message sent with the same replace key.
+     *
+     * @param queuedMessage The message to send.
+     */
+    private void sendQueuedMessage(final QueuedMessage queuedMessage) {
+        final String message = queuedMessage.getMessage();
+        final String replaceKey = queuedMessage.getReplaceKey();
+
+        if (replaceKey == null) {
+            queuedMessage.done(sendMessage(message));
+            return;
+        }
+
+        newestByReplaceKey.remove(replaceKey, queuedMessage);
+
+        if (queuedMessage.isReplaced()) {
+            LOG.log(Level.FINE, "Dropped replaced message: " + message);
+            queuedMessage.done(false);
+        }
+
+        else if (message.equals(lastSentByReplaceKey.get(replaceKey))) {
+            LOG.log(Level.FINE, "Dropped unchanged message: " + message);
+            queuedMessage.done(true);
+        }
+
+        else {
+            final boolean sent = sendMessage(message);
+
+            if (sent) {
+                lastSentByReplaceKey.put(replaceKey, message);
+            }
+
+            queuedMessage.done(sent);
+        }
+    }
+
+    /**
+     * Sends a multicast packet to other clients over the network, on the current thread.
+     *
+     * @param message The message to send in the packet.
+     * @return If the message was sent or not.
+     */
+    private synchronized boolean sendMessage(final String message) {
         if (connected) {
             try {
                 final byte[] encodedMsg = message.getBytes(Constants.MESSAGE_CHARSET);
@@ -117,6 +352,7 @@ public class MessageSender {
 
                 final DatagramPacket packet = new DatagramPacket(encodedMsg, size, address, port);
                 mcSocket.send(packet);
+                lastSendTime = System.currentTimeMillis();
                 LOG.log(Level.FINE, "Sent message: " + message);
 
                 return true;
@@ -130,6 +366,16 @@ public class MessageSender {
         return false;
     }
 
+    /**
+     * Gets the time when the last message was sent. Messages that were replaced or skipped
+     * before they were sent don't count.
+     *
+     * @return The time of the last message sent, or 0 if nothing has been sent.
+     */
+    public long getLastSendTime() {
+        return lastSendTime;
+    }
+
     /**
      * Connects to the network with the given network interface, or gives
      * the control to the operating system to choose if <code>null</code>
@@ -162,6 +408,8 @@ public class MessageSender {
                     LOG.log(Level.FINE, "Connected to " + mcSocket.getNetworkInterface());
                 }
 
+                // The other clients may have lost track of our state while disconnected
+                lastSentByReplaceKey.clear();
                 connected = true;
             }
         }
@@ -212,4 +460,139 @@ public class MessageSender {
             LOG.log(Level.FINE, "Disconnected from " + address.getHostAddress() + ":" + port);
         }
     }
+
+    /**
+     * A message waiting in the send queue.
+     */
+    private static class QueuedMessage {
+
+        /** The message to send. */
+        private final String message;
+
+        /** The replace key of the message, or <code>null</code>. */
+        private final String replaceKey;
+
+        /** Notified when the message is done, or <code>null</code>. */
+        private final MessageSentListener listener;
+
+        /** When the message was queued. */
+        private final long queuedTime;
+
+        /** If a newer message with the same replace key has been queued. */
+        private volatile boolean replaced;
+
+        /**
+         * Constructor.
+         *
+         * @param message The message to send.
+         * @param replaceKey The replace key of the message, or <code>null</code>.
+         * @param listener Notified when the message is done, or <code>null</code>.
+         */
+        QueuedMessage(final String message, final String replaceKey, final MessageSentListener listener) {
+            this.message = message;
+            this.replaceKey = replaceKey;
+            this.listener = listener;
+            queuedTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Gets the message to send.
+         *
+         * @return The message.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Gets the replace key of the message.
+         *
+         * @return The replace key, or <code>null</code>.
+         */
+        public String getReplaceKey() {
+            return replaceKey;
+        }
+
+        /**
+         * Gets the number of milliseconds left to hold back the message.
+         * Only messages with a replace key are held back.
+         *
+         * @return The number of milliseconds left, or 0 if the message can be sent now.
+         */
+        public long getHoldTime() {
+            if (replaceKey == null) {
+                return 0;
+            }
+
+            return Math.max(0, REPLACE_WINDOW - (System.currentTimeMillis() - queuedTime));
+        }
+
+        /**
+         * Marks the message as replaced by a newer message.
+         */
+        public void replace() {
+            replaced = true;
+        }
+
+        /**
+         * Checks if the message has been replaced by a newer message.
+         *
+         * @return If the message has been replaced.
+         */
+        public boolean isReplaced() {
+            return replaced;
+        }
+
+        /**
+         * Notifies the listener that the message is done.
+         *
+         * @param sent If the message was sent.
+         */
+        public void done(final boolean sent) {
+            if (listener != null) {
+                listener.messageSent(message, sent);
+            }
+        }
+    }
+
+    /**
+     * Listener used to wait for a message to be sent.
+     */
+    private static class SendResult implements MessageSentListener {
+
+        /** Released when the message is done. */
+        private final CountDownLatch doneLatch = new CountDownLatch(1);
+
+        /** If the message was sent. */
+        private volatile boolean sent;
+
+        /**
+         * Saves the result, and releases the waiting thread.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public void messageSent(final String message, final boolean messageSent) {
+            sent = messageSent;
+            doneLatch.countDown();
+        }
+
+        /**
+         * Waits until the message is done.
+         *
+         * @return If the message was sent.
+         */
+        public boolean waitForResult() {
+            try {
+                doneLatch.await();
+            }
+
+            catch (final InterruptedException e) {
+                LOG.log(Level.FINE, e.toString());
+                Thread.currentThread().interrupt();
+            }
+
+            return sent;
+        }
+    }
 }
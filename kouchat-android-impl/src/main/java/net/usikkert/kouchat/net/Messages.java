@@ -23,7 +23,10 @@
 package net.usikkert.kouchat.net;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import net.usikkert.kouchat.event.MessageSentListener;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.Topic;
@@ -38,6 +41,12 @@ import net.usikkert.kouchat.util.Validate;
  */
 public class Messages {
 
+    /** Replace key for the writing status messages, as only the newest writing status is interesting. */
+    static final String WRITING_REPLACE_KEY = "WRITING";
+
+    /** Message part of the expose request sent after connecting to the network again. Ignored by older clients. */
+    static final String RECONNECT_EXPOSE = "RECONNECT";
+
     /** The network service used for sending the actual messages. */
     private final NetworkService networkService;
 
@@ -65,10 +74,16 @@ public class Messages {
     /**
      * Sends a message notifying other clients that this client is still alive.
      *
+     * <p>The message includes the number of milliseconds until the next idle message, so
+     * other clients know how long to wait before timing out this client. Older clients
+     * ignore the interval, and time out after 2 minutes without idle messages.</p>
+     *
      * <p>Note: the network will be checked if this fails!</p>
+     *
+     * @param idleInterval Number of milliseconds until the next idle message.
      */
-    public void sendIdleMessage() {
-        final String msg = createMessage("IDLE");
+    public void sendIdleMessage(final long idleInterval) {
+        final String msg = createMessage("IDLE") + idleInterval;
         final boolean sent = networkService.sendMulticastMsg(msg);
 
         if (!sent) {
@@ -79,17 +94,14 @@ public class Messages {
     /**
      * Sends a message to change the topic.
      *
-     * <p>Note: the network will be checked if this fails!</p>
+     * <p>The message is queued without waiting for it to be sent.
+     * Note: the network will be checked if this fails!</p>
      *
      * @param topic The new topic to send.
      */
     public void sendTopicChangeMessage(final Topic topic) {
         final String msg = createTopicMessage(topic);
-        final boolean sent = networkService.sendMulticastMsg(msg);
-
-        if (!sent) {
-            checkNetwork();
-        }
+        sendAsyncAndCheckNetwork(msg, null);
     }
 
     /**
@@ -105,52 +117,42 @@ public class Messages {
     /**
      * Sends a message to set the user as away, including the away message.
      *
-     * <p>Note: the network will be checked if this fails!</p>
+     * <p>The message is queued without waiting for it to be sent.
+     * Note: the network will be checked if this fails!</p>
      *
      * @param awayMsg The away message to set.
      */
     public void sendAwayMessage(final String awayMsg) {
         final String msg = createMessage("AWAY") + awayMsg;
-        final boolean sent = networkService.sendMulticastMsg(msg);
-
-        if (!sent) {
-            checkNetwork();
-        }
+        sendAsyncAndCheckNetwork(msg, null);
     }
 
     /**
      * Sends a message to set the user as back from away.
      *
-     * <p>Note: the network will be checked if this fails!</p>
+     * <p>The message is queued without waiting for it to be sent.
+     * Note: the network will be checked if this fails!</p>
      */
     public void sendBackMessage() {
         final String msg = createMessage("BACK");
-        final boolean sent = networkService.sendMulticastMsg(msg);
-
-        if (!sent) {
-            checkNetwork();
-        }
+        sendAsyncAndCheckNetwork(msg, null);
     }
 
     /**
      * Sends a normal chat message, that is part of the main chat.
      *
-     * <p>Note: the network will be checked, and the user notified if this fails!</p>
+     * <p>The message is queued without waiting for it to be sent.
+     * Note: the network will be checked if this fails, before the listener is notified!</p>
      *
      * @param chatMsg The message for the main chat.
-     * @throws CommandException If the message was not sent successfully.
+     * @param listener Notified when the message is done, or <code>null</code>.
      */
-    public void sendChatMessage(final String chatMsg) throws CommandException {
+    public void sendChatMessage(final String chatMsg, final MessageSentListener listener) {
         final String msg = createMessage("MSG") +
                 "[" + settings.getOwnColor() + "]" +
                 chatMsg;
 
-        final boolean sent = networkService.sendMulticastMsg(msg);
-
-        if (!sent) {
-            checkNetwork();
-            notifyUser("Failed to send message: " + chatMsg);
-        }
+        sendAsyncAndCheckNetwork(msg, listener);
     }
 
     /**
@@ -195,34 +197,35 @@ public class Messages {
 
     /**
      * Sends a message to notify that the user is writing.
+     *
+     * <p>The message is sent in the background, and replaces any writing status not yet sent.</p>
      */
     public void sendWritingMessage() {
         final String msg = createMessage("WRITING");
-        networkService.sendMulticastMsg(msg);
+        networkService.sendMulticastMsgAsync(msg, WRITING_REPLACE_KEY, null);
     }
 
     /**
      * Sends a message to notify that the user has stopped writing.
+     *
+     * <p>The message is sent in the background, and replaces any writing status not yet sent.</p>
      */
     public void sendStoppedWritingMessage() {
         final String msg = createMessage("STOPPEDWRITING");
-        networkService.sendMulticastMsg(msg);
+        networkService.sendMulticastMsgAsync(msg, WRITING_REPLACE_KEY, null);
     }
 
     /**
      * Sends a message to change the nick name of the user.
      *
-     * <p>Note: the network will be checked if this fails!</p>
+     * <p>The message is queued without waiting for it to be sent.
+     * Note: the network will be checked if this fails!</p>
      *
      * @param newNick The new nick to send.
      */
     public void sendNickMessage(final String newNick) {
         final String msg = createMessage("NICK", newNick);
-        final boolean sent = networkService.sendMulticastMsg(msg);
-
-        if (!sent) {
-            checkNetwork();
-        }
+        sendAsyncAndCheckNetwork(msg, null);
     }
 
     /**
@@ -285,6 +288,41 @@ public class Messages {
         }
     }
 
+    /**
+     * Sends a message to notify the file sender that you accepted the file transfer,
+     * and already have the first part of the file from a failed transfer,
+     * or want to receive the file over several connections.
+     *
+     * <p>Note: the network will be checked, and the user notified if this fails!</p>
+     *
+     * @param user The user sending a file.
+     * @param port The port the file sender can connect to on this client
+     *             to start the file transfer.
+     * @param fileHash The unique hash code of the file.
+     * @param fileName The name of the file.
+     * @param resumeInfo Where to resume from, and how many connections to receive the file over.
+     * @throws CommandException If the message was not sent successfully.
+     * @see FileResume
+     * @see ParallelStreams
+     * @see FileTransferServer
+     */
+    public void sendFileResume(final User user, final int port, final int fileHash, final String fileName,
+                               final FileResumeInfo resumeInfo) throws CommandException {
+        final String msg = createMessage("SENDFILERESUME") +
+                "(" + user.getCode() + ")" +
+                "[" + port + "]" +
+                "{" + fileHash + "}" +
+                "<" + resumeInfo.format() + ">" +
+                fileName;
+
+        final boolean sent = networkService.sendMulticastMsg(msg);
+
+        if (!sent) {
+            checkNetwork();
+            notifyUser("Failed to accept file transfer from " + user.getNick() + ": " + fileName);
+        }
+    }
+
     /**
      * Sends a message to notify another user that you want to send a file.
      *
@@ -317,18 +355,70 @@ public class Messages {
      *   <li>Client uptime.</li>
      *   <li>Operating system.</li>
      *   <li>Port to connect to for private chat.</li>
+     *   <li>Capabilities of the client, like support for {@link MessageBatch}.</li>
      * </ul>
      */
     public void sendClient() {
-        final String msg = createMessage("CLIENT") +
-                "(" + me.getClient() + ")" +
-                "[" + (System.currentTimeMillis() - me.getLogonTime()) + "]" +
-                "{" + me.getOperatingSystem() + "}" +
-                "<" + me.getPrivateChatPort() + ">";
-
+        final String msg = createClientMessage();
         networkService.sendMulticastMsg(msg);
     }
 
+    /**
+     * Sends the messages to log this client on the network, and to ask for the other clients
+     * and the current topic. The messages are: LOGON, CLIENT, EXPOSE and GETTOPIC.
+     *
+     * @param batch If the messages can be sent together as a {@link MessageBatch}.
+     */
+    public void sendLogonMessages(final boolean batch) {
+        final List<String> msgs = new ArrayList<String>();
+        msgs.add(createMessage("LOGON"));
+        msgs.add(createClientMessage());
+        msgs.add(createMessage("EXPOSE"));
+        msgs.add(createMessage("GETTOPIC"));
+
+        sendMulticastMsgs(msgs, batch);
+    }
+
+    /**
+     * Sends the messages to update the state of this client and the other clients after
+     * connecting to the network again. The messages are: TOPIC, EXPOSING, GETTOPIC, EXPOSE and IDLE.
+     * The expose request is marked with {@link #RECONNECT_EXPOSE}, so it's always answered.
+     *
+     * <p>Note: the network will be checked if this fails!</p>
+     *
+     * @param topic The current topic to send.
+     * @param idleInterval Number of milliseconds until the next idle message, as in {@link #sendIdleMessage(long)}.
+     * @param batch If the messages can be sent together as a {@link MessageBatch}.
+     */
+    public void sendReconnectMessages(final Topic topic, final long idleInterval, final boolean batch) {
+        final List<String> msgs = new ArrayList<String>();
+        msgs.add(createTopicMessage(topic));
+        msgs.add(createMessage("EXPOSING") + me.getAwayMsg());
+        msgs.add(createMessage("GETTOPIC"));
+        msgs.add(createMessage("EXPOSE") + RECONNECT_EXPOSE);
+        msgs.add(createMessage("IDLE") + idleInterval);
+
+        final boolean sent = sendMulticastMsgs(msgs, batch);
+
+        if (!sent) {
+            checkNetwork();
+        }
+    }
+
+    /**
+     * Sends the messages to identify this client, as an answer to an expose message.
+     * The messages are: EXPOSING and CLIENT.
+     *
+     * @param batch If the messages can be sent together as a {@link MessageBatch}.
+     */
+    public void sendExposingAndClientMessages(final boolean batch) {
+        final List<String> msgs = new ArrayList<String>();
+        msgs.add(createMessage("EXPOSING") + me.getAwayMsg());
+        msgs.add(createClientMessage());
+
+        sendMulticastMsgs(msgs, batch);
+    }
+
     /**
      * Sends a private message to a user.
      *
@@ -352,6 +442,46 @@ public class Messages {
         }
     }
 
+    /**
+     * Creates the message with extra client information, including the capabilities of this client.
+     *
+     * @return The client message.
+     */
+    private String createClientMessage() {
+        return createMessage("CLIENT") +
+                "(" + me.getClient() + ")" +
+                "[" + (System.currentTimeMillis() - me.getLogonTime()) + "]" +
+                "{" + me.getOperatingSystem() + "}" +
+                "<" + me.getPrivateChatPort() + ">" +
+                "|" + MessageBatch.CAPABILITY + "," + FileResume.CAPABILITY + "," + ParallelStreams.CAPABILITY + "," +
+                FileTransferServer.CAPABILITY + "|";
+    }
+
+    /**
+     * Sends the messages with multicast, either one by one, or packed into as few datagrams as possible.
+     *
+     * @param msgs The messages to send.
+     * @param batch If the messages can be sent together as a {@link MessageBatch}.
+     * @return If all the messages were sent.
+     */
+    private boolean sendMulticastMsgs(final List<String> msgs, final boolean batch) {
+        List<String> datagrams = msgs;
+
+        if (batch) {
+            datagrams = MessageBatch.pack(msgs);
+        }
+
+        boolean allSent = true;
+
+        for (final String datagram : datagrams) {
+            if (!networkService.sendMulticastMsg(datagram)) {
+                allSent = false;
+            }
+        }
+
+        return allSent;
+    }
+
     /**
      * Creates the standard part of all messages, with the specified type
      * as the message type.
@@ -398,6 +528,28 @@ public class Messages {
         throw new CommandException(infoMsg);
     }
 
+    /**
+     * Queues a multicast message without waiting for it to be sent, and checks the network
+     * from the sender thread if the message could not be sent.
+     *
+     * @param msg The message to send.
+     * @param listener Notified after the network check when the message is done, or <code>null</code>.
+     */
+    private void sendAsyncAndCheckNetwork(final String msg, final MessageSentListener listener) {
+        networkService.sendMulticastMsgAsync(msg, null, new MessageSentListener() {
+            @Override
+            public void messageSent(final String message, final boolean sent) {
+                if (!sent) {
+                    checkNetwork();
+                }
+
+                if (listener != null) {
+                    listener.messageSent(message, sent);
+                }
+            }
+        });
+    }
+
     /**
      * Asks the network service to check the network status.
      */
@@ -25,6 +25,7 @@ package net.usikkert.kouchat.net;
 import java.net.NetworkInterface;
 import java.util.logging.Logger;
 
+import net.usikkert.kouchat.event.MessageSentListener;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
 import net.usikkert.kouchat.event.ReceiverListener;
 import net.usikkert.kouchat.misc.Settings;
@@ -55,6 +56,9 @@ public class NetworkService implements NetworkConnectionListener {
     /** The private message receiver. */
     private final UDPReceiver udpReceiver;
 
+    /** The engine receiving private messages for the private message receiver. */
+    private final ReceiverEngine receiverEngine;
+
     /** If private chat should be enabled. */
     private final boolean privateChatEnabled;
 
@@ -75,12 +79,14 @@ public class NetworkService implements NetworkConnectionListener {
         connectionWorker = new ConnectionWorker(settings);
 
         if (privateChatEnabled) {
-            udpReceiver = new UDPReceiver(settings);
+            receiverEngine = new ReceiverEngine();
+            udpReceiver = new UDPReceiver(settings, receiverEngine);
             udpSender = new UDPSender();
         }
 
         else {
             LOG.fine("Private chat is disabled");
+            receiverEngine = null;
             udpReceiver = null;
             udpSender = null;
         }
@@ -168,6 +174,27 @@ public class NetworkService implements NetworkConnectionListener {
         return messageSender.send(message);
     }
 
+    /**
+     * Queue a message to send with multicast, to all users, without waiting for it to be sent.
+     *
+     * @param message The message to send.
+     * @param replaceKey Key identifying messages that replace each other, or <code>null</code>.
+     * @param listener Notified when the message is done, or <code>null</code>.
+     * @see MessageSender#sendAsync(String, String, MessageSentListener)
+     */
+    public void sendMulticastMsgAsync(final String message, final String replaceKey, final MessageSentListener listener) {
+        messageSender.sendAsync(message, replaceKey, listener);
+    }
+
+    /**
+     * Gets the time when the last multicast message was sent.
+     *
+     * @return The time of the last multicast message, or 0 if nothing has been sent.
+     */
+    public long getLastMulticastSendTime() {
+        return messageSender.getLastSendTime();
+    }
+
     /**
      * Send a message with UDP, to a single user.
      *
@@ -204,6 +231,7 @@ public class NetworkService implements NetworkConnectionListener {
         if (privateChatEnabled) {
             udpSender.stopSender();
             udpReceiver.stopReceiver();
+            receiverEngine.stop();
         }
 
         messageSender.stopSender();
@@ -224,6 +252,7 @@ public class NetworkService implements NetworkConnectionListener {
     public void networkCameUp(final boolean silent) {
         if (privateChatEnabled) {
             udpSender.startSender();
+            receiverEngine.start();
             udpReceiver.startReceiver();
         }
 
@@ -0,0 +1,92 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+/**
+ * Support for sending a large file over several connections at the same time.
+ *
+ * <p>A single connection on a lossy wireless network is often limited by congestion control,
+ * well below the capacity of the network. Several connections in parallel get more of the capacity.</p>
+ *
+ * <p>The receiver decides the number of connections, and includes it in the <code>SENDFILERESUME</code>
+ * message described in {@link FileResume}. The sender splits the rest of the file into that many ranges
+ * of about the same size, and opens one connection for each range. Each connection starts with the
+ * offset of the range, like a resumed transfer, followed by the bytes in the range. The receiver writes
+ * each range at its own position in the file.</p>
+ *
+ * <p>Clients that support several connections say so in the capabilities of the client message, using
+ * {@link #CAPABILITY}. The receiver only asks clients with this capability to use more than one connection.</p>
+ *
+ * @author Christian Ihle
+ */
+public final class ParallelStreams {
+
+    /** The name of the capability in the client message. */
+    public static final String CAPABILITY = "STREAMS";
+
+    /** The highest number of connections to use for a single file. */
+    public static final int MAX_STREAMS = 4;
+
+    /** The smallest number of bytes worth opening another connection for. */
+    static final long MIN_BYTES_PER_STREAM = 8 * 1024 * 1024;
+
+    /**
+     * Private constructor. Only static methods here.
+     */
+    private ParallelStreams() {
+
+    }
+
+    /**
+     * Gets the number of connections to use for receiving the bytes.
+     * Small files are received with a single connection.
+     *
+     * @param bytes The number of bytes left to receive.
+     * @return The number of connections to use, from 1 to {@link #MAX_STREAMS}.
+     */
+    public static int getStreams(final long bytes) {
+        return (int) Math.max(1, Math.min(MAX_STREAMS, bytes / MIN_BYTES_PER_STREAM));
+    }
+
+    /**
+     * Splits the bytes from the start offset to the end of the file into ranges of about the same size.
+     *
+     * @param startOffset The offset of the first byte to send.
+     * @param fileSize The size of the file.
+     * @param streams The number of ranges to split into.
+     * @return The start offset of each range, followed by the size of the file. Range number <code>i</code>
+     *         is from <code>offsets[i]</code> until <code>offsets[i + 1]</code>.
+     */
+    static long[] splitIntoRanges(final long startOffset, final long fileSize, final int streams) {
+        final long[] offsets = new long[streams + 1];
+        final long bytes = fileSize - startOffset;
+
+        for (int i = 0; i < streams; i++) {
+            offsets[i] = startOffset + bytes * i / streams;
+        }
+
+        offsets[streams] = fileSize;
+
+        return offsets;
+    }
+}
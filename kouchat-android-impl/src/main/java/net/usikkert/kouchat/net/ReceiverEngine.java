@@ -0,0 +1,316 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.ReceiverListener;
+import net.usikkert.kouchat.util.Validate;
+
+/**
+ * A single thread receive engine for datagram channels.
+ *
+ * <p>Any number of non-blocking {@link DatagramChannel}s can be registered with the engine,
+ * each with its own {@link ReceiverListener}. One background thread waits on a {@link Selector}
+ * for all the registered channels, and drains every datagram that is ready before going back
+ * to waiting.</p>
+ *
+ * <p>A channel is unregistered by closing it.</p>
+ *
+ * <p>Note: joining a multicast group with a {@link DatagramChannel} is only supported from
+ * Java 7 and Android API level 24, so the multicast chat group is still received by
+ * {@link MessageReceiver} using a {@link java.net.MulticastSocket}.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ReceiverEngine implements Runnable {
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(ReceiverEngine.class.getName());
+
+    /** Channels waiting to be registered with the selector by the worker thread. */
+    private final Queue<Registration> pendingRegistrations;
+
+    /** Reused by the worker thread for every datagram received. */
+    private final ByteBuffer receiveBuffer;
+
+    /** The selector waiting for readable channels. */
+    private Selector selector;
+
+    /** The background thread watching for messages from the network. */
+    private Thread worker;
+
+    /** If the engine is running or not. */
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     */
+    public ReceiverEngine() {
+        pendingRegistrations = new ConcurrentLinkedQueue<Registration>();
+        receiveBuffer = ByteBuffer.allocate(Constants.NETWORK_PACKET_SIZE);
+    }
+
+    /**
+     * Opens the selector and starts the thread that receives messages.
+     *
+     * @return If the engine is running or not.
+     */
+    public synchronized boolean start() {
+        LOG.log(Level.FINE, "Starting.");
+
+        if (running) {
+            LOG.log(Level.FINE, "Already started.");
+            return true;
+        }
+
+        try {
+            selector = Selector.open();
+            running = true;
+
+            worker = new Thread(this, "ReceiverEngineWorker");
+            worker.start();
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Could not start receiver engine: " + e.toString(), e);
+        }
+
+        return running;
+    }
+
+    /**
+     * Stops the thread and closes the selector. Waits for the thread to finish.
+     *
+     * <p>Registered channels are not closed.</p>
+     */
+    public synchronized void stop() {
+        LOG.log(Level.FINE, "Stopping.");
+
+        if (!running) {
+            LOG.log(Level.FINE, "Not started.");
+        }
+
+        else {
+            running = false;
+            selector.wakeup();
+
+            // Make sure the selector is closed before the engine can be started again
+            if (Thread.currentThread() != worker) {
+                try {
+                    worker.join();
+                }
+
+                catch (final InterruptedException e) {
+                    LOG.log(Level.FINE, e.toString());
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the engine is running.
+     *
+     * @return If the engine is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Registers a channel to receive messages from. The channel is switched to non-blocking mode,
+     * and every message received on the channel is given to the listener, on the thread of the engine.
+     *
+     * @param channel The channel to receive messages from. Must be bound.
+     * @param listener The listener getting all the messages received on the channel.
+     * @throws IOException If the channel could not be switched to non-blocking mode.
+     */
+    public void registerChannel(final DatagramChannel channel, final ReceiverListener listener) throws IOException {
+        Validate.notNull(channel, "Channel can not be null");
+
+        channel.configureBlocking(false);
+        pendingRegistrations.add(new Registration(channel, listener));
+
+        final Selector currentSelector = selector;
+
+        if (currentSelector != null) {
+            currentSelector.wakeup();
+        }
+    }
+
+    /**
+     * Waits for readable channels, and notifies the listeners when messages arrive.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                registerPendingChannels();
+                selector.select();
+
+                final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    if (key.isValid() && key.isReadable()) {
+                        receiveAll(key);
+                    }
+                }
+            }
+
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+        }
+
+        closeSelector();
+    }
+
+    /**
+     * Registers all the channels added with {@link #registerChannel(DatagramChannel, ReceiverListener)}
+     * since the last time. Must be done by the worker thread, as registering blocks while the selector is selecting.
+     */
+    private void registerPendingChannels() {
+        Registration registration = pendingRegistrations.poll();
+
+        while (registration != null) {
+            try {
+                registration.channel.register(selector, SelectionKey.OP_READ, registration.listener);
+            }
+
+            // Channel was closed before it was registered
+            catch (final ClosedChannelException e) {
+                LOG.log(Level.FINE, e.toString());
+            }
+
+            registration = pendingRegistrations.poll();
+        }
+    }
+
+    /**
+     * Receives every datagram waiting on the channel of the key.
+     *
+     * @param key The selected key.
+     */
+    private void receiveAll(final SelectionKey key) {
+        final DatagramChannel channel = (DatagramChannel) key.channel();
+        final ReceiverListener listener = (ReceiverListener) key.attachment();
+
+        try {
+            SocketAddress sender = receive(channel);
+
+            while (sender != null) {
+                final String ip = ((InetSocketAddress) sender).getAddress().getHostAddress();
+                final String message = new String(receiveBuffer.array(), 0, receiveBuffer.position(),
+                        Constants.MESSAGE_CHARSET).trim();
+                LOG.log(Level.FINE, "Message arrived from " + ip + ": " + message);
+
+                if (listener != null) {
+                    listener.messageArrived(message, ip);
+                }
+
+                sender = receive(channel);
+            }
+        }
+
+        // Happens when channel is closed, or network is down
+        catch (final IOException e) {
+            if (channel.isOpen()) {
+                LOG.log(Level.WARNING, e.toString());
+            }
+
+            else {
+                LOG.log(Level.FINE, e.toString());
+            }
+
+            key.cancel();
+        }
+    }
+
+    /**
+     * Receives a single datagram into the receive buffer, if one is waiting.
+     *
+     * @param channel The channel to receive from.
+     * @return The address of the sender, or <code>null</code> if there was nothing to receive.
+     * @throws IOException If receiving failed.
+     */
+    private SocketAddress receive(final DatagramChannel channel) throws IOException {
+        receiveBuffer.clear();
+        return channel.receive(receiveBuffer);
+    }
+
+    /**
+     * Closes the selector. Registered channels are automatically deregistered.
+     */
+    private void closeSelector() {
+        try {
+            selector.close();
+        }
+
+        catch (final IOException e) {
+            LOG.log(Level.WARNING, e.toString());
+        }
+
+        pendingRegistrations.clear();
+        LOG.log(Level.FINE, "Stopped.");
+    }
+
+    /**
+     * A channel waiting to be registered with the selector, and the listener for that channel.
+     */
+    private static class Registration {
+
+        /** The channel to register. */
+        private final DatagramChannel channel;
+
+        /** The listener for the channel. */
+        private final ReceiverListener listener;
+
+        /**
+         * Constructor.
+         *
+         * @param channel The channel to register.
+         * @param listener The listener for the channel.
+         */
+        Registration(final DatagramChannel channel, final ReceiverListener listener) {
+            this.channel = channel;
+            this.listener = listener;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package net.usikkert.kouchat.net;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import net.usikkert.kouchat.misc.User;
@@ -35,12 +36,18 @@ import net.usikkert.kouchat.misc.User;
  */
 public class TransferList {
 
+    /** The maximum number of failed file receivers to remember. The oldest is forgotten first. */
+    static final int MAX_PARTIAL_RECEIVERS = 20;
+
     /** The list of all the file senders. */
     private final List<FileSender> senders;
 
     /** The list of all the file receivers. */
     private final List<FileReceiver> receivers;
 
+    /** The list of file receivers that failed, with the first part of the file still saved. */
+    private final List<FileReceiver> partialReceivers;
+
     /** Counter for unique file transfer id's. */
     private int fileTransferIdCounter;
 
@@ -50,6 +57,7 @@ public class TransferList {
     public TransferList() {
         senders = new ArrayList<FileSender>();
         receivers = new ArrayList<FileReceiver>();
+        partialReceivers = new ArrayList<FileReceiver>();
     }
 
     /**
@@ -190,6 +198,62 @@ public class TransferList {
         receivers.remove(fileReceiver);
     }
 
+    /**
+     * Remembers a file receiver that failed after receiving the first part of the file,
+     * so the transfer can be resumed if the same user sends the same file again.
+     *
+     * <p>Only the newest {@link #MAX_PARTIAL_RECEIVERS} file receivers are remembered.</p>
+     *
+     * @param fileReceiver The file receiver that failed.
+     */
+    public synchronized void addPartialFileReceiver(final FileReceiver fileReceiver) {
+        partialReceivers.add(fileReceiver);
+
+        if (partialReceivers.size() > MAX_PARTIAL_RECEIVERS) {
+            partialReceivers.remove(0);
+        }
+    }
+
+    /**
+     * Removes and returns a file receiver that failed to receive the file from the user earlier.
+     *
+     * <p>The user is compared using the user code, as the user might have timed out and logged on again.</p>
+     *
+     * @param user The user sending the file.
+     * @param fileName The original name of the file.
+     * @param size The size of the file, in bytes.
+     * @return The file receiver that failed, or <code>null</code> if none was found.
+     */
+    public synchronized FileReceiver removePartialFileReceiver(final User user, final String fileName, final long size) {
+        for (final FileReceiver fr : partialReceivers) {
+            if (fr.getUser().getCode() == user.getCode() && fr.getOriginalFileName().equals(fileName) &&
+                    fr.getFileSize() == size) {
+                partialReceivers.remove(fr);
+                return fr;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Forgets all the file receivers that failed to receive a file from the user.
+     *
+     * <p>Used when the user logs off, as the user gets a new user code when logging on again,
+     * and the transfers can never be resumed.</p>
+     *
+     * @param user The user to forget the failed file receivers for.
+     */
+    public synchronized void removePartialFileReceivers(final User user) {
+        final Iterator<FileReceiver> iterator = partialReceivers.iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().getUser().getCode() == user.getCode()) {
+                iterator.remove();
+            }
+        }
+    }
+
     /**
      * Gets all the file receiver objects for a given user.
      *
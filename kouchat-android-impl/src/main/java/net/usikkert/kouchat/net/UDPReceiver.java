@@ -23,8 +23,8 @@
 package net.usikkert.kouchat.net;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,15 +39,17 @@ import net.usikkert.kouchat.util.Validate;
  * Receives UDP packets sent directly to the IP address
  * of this machine.
  *
+ * <p>The packets are received by the thread in the {@link ReceiverEngine}.</p>
+ *
  * @author Christian Ihle
  */
-public class UDPReceiver implements Runnable {
+public class UDPReceiver {
 
     /** The logger. */
     private static final Logger LOG = Logger.getLogger(UDPReceiver.class.getName());
 
-    /** The datagram socket used for receiving messages. */
-    private DatagramSocket udpSocket;
+    /** The datagram channel used for receiving messages. */
+    private DatagramChannel udpChannel;
 
     /** The listener getting all the messages received here. */
     private ReceiverListener listener;
@@ -61,54 +63,28 @@ public class UDPReceiver implements Runnable {
     /** The application user. */
     private final User me;
 
+    /** The engine receiving the messages from the datagram channel. */
+    private final ReceiverEngine receiverEngine;
+
     /**
      * Default constructor.
      *
      * @param settings The settings to use.
+     * @param receiverEngine The engine to receive messages with.
      */
-    public UDPReceiver(final Settings settings) {
+    public UDPReceiver(final Settings settings, final ReceiverEngine receiverEngine) {
         Validate.notNull(settings, "Settings can not be null");
+        Validate.notNull(receiverEngine, "ReceiverEngine can not be null");
+
+        this.receiverEngine = receiverEngine;
 
         errorHandler = ErrorHandler.getErrorHandler();
         me = settings.getMe();
     }
 
     /**
-     * The run() method of this thread. Checks for new packets,
-     * extracts the message and IP address, and notifies the listener.
-     */
-    public void run() {
-        while (connected) {
-            try {
-                final DatagramPacket packet = new DatagramPacket(
-                        new byte[Constants.NETWORK_PACKET_SIZE], Constants.NETWORK_PACKET_SIZE);
-
-                udpSocket.receive(packet);
-                final String ip = packet.getAddress().getHostAddress();
-                final String message = new String(packet.getData(), Constants.MESSAGE_CHARSET).trim();
-                LOG.log(Level.FINE, "Message arrived from " + ip + ": " + message);
-
-                if (listener != null) {
-                    listener.messageArrived(message, ip);
-                }
-            }
-
-            // Happens when socket is closed, or network is down
-            catch (final IOException e) {
-                if (connected) {
-                    LOG.log(Level.WARNING, e.toString());
-                }
-
-                else {
-                    LOG.log(Level.FINE, e.toString());
-                }
-            }
-        }
-    }
-
-    /**
-     * Creates a new UDP socket, and starts a thread listening
-     * on the UDP port. If the UDP port is in use, a new port will be
+     * Creates a new UDP channel, and registers it with the receiver engine
+     * to listen on the UDP port. If the UDP port is in use, a new port will be
      * tried instead.
      */
     public void startReceiver() {
@@ -124,13 +100,11 @@ public class UDPReceiver implements Runnable {
 
             while (counter < 50 && !connected) {
                 try {
-                    udpSocket = new DatagramSocket(port);
+                    udpChannel = DatagramChannel.open();
+                    udpChannel.socket().bind(new InetSocketAddress(port));
+                    receiverEngine.registerChannel(udpChannel, listener);
                     connected = true;
 
-                    // The background thread watching for messages from the network.
-                    final Thread worker = new Thread(this, "UDPReceiverWorker");
-                    worker.start();
-
                     me.setPrivateChatPort(port);
                     LOG.log(Level.FINE, "Connected to port " + port);
                 }
@@ -138,6 +112,7 @@ public class UDPReceiver implements Runnable {
                 catch (final IOException e) {
                     LOG.log(Level.SEVERE, e.toString() + " " + port);
 
+                    closeChannel();
                     counter++;
                     port++;
                     me.setPrivateChatPort(0);
@@ -157,7 +132,7 @@ public class UDPReceiver implements Runnable {
     }
 
     /**
-     * Closes the UDP socket, and stops the thread.
+     * Closes the UDP channel, which also removes it from the receiver engine.
      */
     public void stopReceiver() {
         LOG.log(Level.FINE, "Disconnecting...");
@@ -168,12 +143,24 @@ public class UDPReceiver implements Runnable {
 
         else {
             connected = false;
+            closeChannel();
+
+            LOG.log(Level.FINE, "Disconnected.");
+        }
+    }
 
-            if (udpSocket != null && !udpSocket.isClosed()) {
-                udpSocket.close();
+    /**
+     * Closes the UDP channel, if open.
+     */
+    private void closeChannel() {
+        if (udpChannel != null && udpChannel.isOpen()) {
+            try {
+                udpChannel.close();
             }
 
-            LOG.log(Level.FINE, "Disconnected.");
+            catch (final IOException e) {
+                LOG.log(Level.WARNING, e.toString());
+            }
         }
     }
 
@@ -181,6 +168,8 @@ public class UDPReceiver implements Runnable {
      * Sets the listener who will receive all the messages
      * from the UDP packets.
      *
+     * <p>Must be set before the receiver is started.</p>
+     *
      * @param listener The object to register as a listener.
      */
     public void registerReceiverListener(final ReceiverListener listener) {
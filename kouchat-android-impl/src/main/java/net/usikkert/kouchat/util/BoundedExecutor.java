@@ -0,0 +1,246 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.usikkert.kouchat.event.TaskMetricsListener;
+
+/**
+ * Runs tasks in the background using a limited number of threads and a limited queue.
+ *
+ * <p>Use this instead of starting a new thread for every task, to avoid creating lots of threads
+ * when many tasks arrive at the same time. The threads are daemon threads, and they stop
+ * after being idle for a while, so an executor with nothing to do uses no threads.</p>
+ *
+ * <p>Register a {@link TaskMetricsListener} to monitor the queue depth and the latency of the tasks.</p>
+ *
+ * @author Christian Ihle
+ */
+public class BoundedExecutor {
+
+    /** The logger. */
+    private static final Logger LOG = Logger.getLogger(BoundedExecutor.class.getName());
+
+    /** Number of seconds an idle thread is kept alive. */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /** Number of nanoseconds in one millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The name of the executor, used for naming the threads. */
+    private final String name;
+
+    /** The executor running the tasks. */
+    private final ThreadPoolExecutor executor;
+
+    /** The listener getting metrics for the tasks, or <code>null</code>. */
+    private volatile TaskMetricsListener metricsListener;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the executor, used for naming the threads.
+     * @param maxThreads The maximum number of threads running tasks at the same time.
+     * @param maxQueueSize The maximum number of tasks waiting for a thread.
+     */
+    public BoundedExecutor(final String name, final int maxThreads, final int maxQueueSize) {
+        this(name, maxThreads, maxQueueSize, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Constructor for setting the priority of the threads.
+     *
+     * @param name The name of the executor, used for naming the threads.
+     * @param maxThreads The maximum number of threads running tasks at the same time.
+     * @param maxQueueSize The maximum number of tasks waiting for a thread.
+     * @param threadPriority The priority of the threads, like {@link Thread#MIN_PRIORITY} for background work.
+     */
+    public BoundedExecutor(final String name, final int maxThreads, final int maxQueueSize, final int threadPriority) {
+        Validate.notEmpty(name, "Name can not be empty");
+
+        this.name = name;
+
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(maxQueueSize), new NamedThreadFactory(name, threadPriority));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the task to be run by one of the threads.
+     *
+     * @param task The task to run.
+     * @return If the task was accepted, or <code>false</code> if the queue is full or the executor is shut down.
+     */
+    public boolean execute(final Runnable task) {
+        Validate.notNull(task, "Task can not be null");
+
+        try {
+            executor.execute(new MeasuredTask(task));
+            return true;
+        }
+
+        catch (final RejectedExecutionException e) {
+            final int queueDepth = getQueueDepth();
+            LOG.log(Level.WARNING, "Rejected task in " + name + " with " + queueDepth + " tasks in the queue");
+
+            final TaskMetricsListener listener = metricsListener;
+
+            if (listener != null) {
+                listener.taskRejected(name, queueDepth);
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of tasks waiting for a thread.
+     *
+     * @return The number of tasks in the queue.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Gets the approximate number of threads running tasks right now.
+     *
+     * @return The number of active threads.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks already queued will still be run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Sets the listener to notify with metrics for each task.
+     *
+     * @param metricsListener The listener, or <code>null</code> to remove the current listener.
+     */
+    public void registerTaskMetricsListener(final TaskMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Wraps a task to measure how long it waits in the queue, and how long it runs.
+     */
+    private class MeasuredTask implements Runnable {
+
+        /** The task to run. */
+        private final Runnable task;
+
+        /** When the task was queued, in nanoseconds. */
+        private final long queuedTime;
+
+        /**
+         * Constructor.
+         *
+         * @param task The task to run.
+         */
+        MeasuredTask(final Runnable task) {
+            this.task = task;
+            queuedTime = System.nanoTime();
+        }
+
+        /**
+         * Runs the task, and notifies the metrics listener afterwards.
+         */
+        @Override
+        public void run() {
+            final long startTime = System.nanoTime();
+
+            try {
+                task.run();
+            }
+
+            catch (final RuntimeException e) {
+                LOG.log(Level.SEVERE, "Task in " + name + " failed: " + e.toString(), e);
+            }
+
+            finally {
+                final TaskMetricsListener listener = metricsListener;
+
+                if (listener != null) {
+                    final long endTime = System.nanoTime();
+                    listener.taskCompleted(name, getQueueDepth(),
+                            (startTime - queuedTime) / NANOS_PER_MILLI, (endTime - startTime) / NANOS_PER_MILLI);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads named after the executor.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        /** The counter used for numbering the threads. */
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        /** The name of the executor. */
+        private final String name;
+
+        /** The priority of the threads. */
+        private final int threadPriority;
+
+        /**
+         * Constructor.
+         *
+         * @param name The name of the executor.
+         * @param threadPriority The priority of the threads.
+         */
+        NamedThreadFactory(final String name, final int threadPriority) {
+            this.name = name;
+            this.threadPriority = threadPriority;
+        }
+
+        /**
+         * Creates a new daemon thread for the task.
+         *
+         * @param runnable The task for the thread to run.
+         * @return The new thread.
+         */
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+
+            return thread;
+        }
+    }
+}
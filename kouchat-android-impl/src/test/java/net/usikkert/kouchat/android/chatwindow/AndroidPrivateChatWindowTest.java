@@ -25,6 +25,9 @@ package net.usikkert.kouchat.android.chatwindow;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.usikkert.kouchat.android.controller.PrivateChatController;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.util.TestUtils;
@@ -34,7 +37,6 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
-import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
 /**
@@ -57,7 +59,7 @@ public class AndroidPrivateChatWindowTest {
     @Before
     public void setUp() {
         user = new User("Test", 1234);
-        chatWindow = new AndroidPrivateChatWindow(Robolectric.application.getApplicationContext(), user);
+        chatWindow = new AndroidPrivateChatWindow(mock(CachingMessageStyler.class), user);
 
         messageStyler = mock(MessageStylerWithHistory.class);
         TestUtils.setFieldValue(chatWindow, "messageStyler", messageStyler);
@@ -66,9 +68,9 @@ public class AndroidPrivateChatWindowTest {
     }
 
     @Test
-    public void constructorShouldThrowExceptionIfContextIsNull() {
+    public void constructorShouldThrowExceptionIfCachingMessageStylerIsNull() {
         expectedException.expect(IllegalArgumentException.class);
-        expectedException.expectMessage("Context can not be null");
+        expectedException.expectMessage("Caching message styler can not be null");
 
         new AndroidPrivateChatWindow(null, user);
     }
@@ -78,7 +80,7 @@ public class AndroidPrivateChatWindowTest {
         expectedException.expect(IllegalArgumentException.class);
         expectedException.expectMessage("User can not be null");
 
-        new AndroidPrivateChatWindow(Robolectric.application.getApplicationContext(), null);
+        new AndroidPrivateChatWindow(mock(CachingMessageStyler.class), null);
     }
 
     @Test
@@ -105,11 +107,12 @@ public class AndroidPrivateChatWindowTest {
 
     @Test
     public void registerPrivateChatControllerShouldUpdateChatFromHistory() {
-        when(messageStyler.getHistory()).thenReturn("History");
+        final List<ChatMessage> history = new ArrayList<ChatMessage>();
+        when(messageStyler.getHistory()).thenReturn(history);
 
         chatWindow.registerPrivateChatController(controller);
 
-        verify(controller).updatePrivateChat("History");
+        verify(controller).updatePrivateChat(history);
         verify(messageStyler).getHistory();
     }
 
@@ -144,19 +147,20 @@ public class AndroidPrivateChatWindowTest {
 
         chatWindow.appendToPrivateChat("Message", 500);
 
-        verify(messageStyler).styleAndAppend("Message", 500);
+        verify(messageStyler).append("Message", 500);
         verifyZeroInteractions(controller);
     }
 
     @Test
     public void appendToPrivateChatShouldAppendToHistoryAndController() {
         TestUtils.setFieldValue(chatWindow, "privateChatController", controller);
-        when(messageStyler.styleAndAppend(anyString(), anyInt())).thenReturn("Styled message");
+        final ChatMessage chatMessage = mock(ChatMessage.class);
+        when(messageStyler.append(anyString(), anyInt())).thenReturn(chatMessage);
 
         chatWindow.appendToPrivateChat("Message", 500);
 
-        verify(messageStyler).styleAndAppend("Message", 500);
-        verify(controller).appendToPrivateChat("Styled message");
+        verify(messageStyler).append("Message", 500);
+        verify(controller).appendToPrivateChat(chatMessage);
     }
 
     @Test
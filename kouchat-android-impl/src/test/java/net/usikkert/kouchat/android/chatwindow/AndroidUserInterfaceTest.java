@@ -26,6 +26,12 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import net.usikkert.kouchat.android.controller.MainChatController;
 import net.usikkert.kouchat.android.filetransfer.AndroidFileTransferListener;
@@ -33,6 +39,9 @@ import net.usikkert.kouchat.android.filetransfer.AndroidFileUtils;
 import net.usikkert.kouchat.android.notification.NotificationService;
 import net.usikkert.kouchat.event.FileTransferListener;
 import net.usikkert.kouchat.event.NetworkConnectionListener;
+import net.usikkert.kouchat.history.HistoryQuery;
+import net.usikkert.kouchat.history.HistoryRecord;
+import net.usikkert.kouchat.history.HistoryStore;
 import net.usikkert.kouchat.misc.ChatLogger;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.CommandParser;
@@ -62,6 +71,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.shadows.ShadowToast;
 
 import android.content.Context;
+import android.graphics.Color;
 
 /**
  * Test of {@link AndroidUserInterface}.
@@ -279,11 +289,12 @@ public class AndroidUserInterfaceTest {
     public void registerMainChatControllerShouldUpdateChatFromHistory() {
         TestUtils.setFieldValue(androidUserInterface, "mainChatController", null);
 
-        when(messageStyler.getHistory()).thenReturn("History");
+        final List<ChatMessage> history = new ArrayList<ChatMessage>();
+        when(messageStyler.getHistory()).thenReturn(history);
 
         androidUserInterface.registerMainChatController(mainChatController);
 
-        verify(mainChatController).updateChat("History");
+        verify(mainChatController).updateChat(history);
         verify(messageStyler).getHistory();
     }
 
@@ -441,18 +452,67 @@ public class AndroidUserInterfaceTest {
 
         androidUserInterface.appendToChat("Message", 500);
 
-        verify(messageStyler).styleAndAppend("Message", 500);
+        verify(messageStyler).append("Message", 500);
         verifyZeroInteractions(mainChatController);
     }
 
     @Test
     public void appendToChatShouldAppendToHistoryAndController() {
-        when(messageStyler.styleAndAppend(anyString(), anyInt())).thenReturn("Styled message");
+        final ChatMessage chatMessage = mock(ChatMessage.class);
+        when(messageStyler.append(anyString(), anyInt())).thenReturn(chatMessage);
 
         androidUserInterface.appendToChat("Message", 500);
 
-        verify(messageStyler).styleAndAppend("Message", 500);
-        verify(mainChatController).appendToChat("Styled message");
+        verify(messageStyler).append("Message", 500);
+        verify(mainChatController).appendToChat(chatMessage);
+    }
+
+    @Test
+    public void loadOlderMessagesShouldGiveNoMessagesIfThereIsNoHistory() {
+        when(msgController.getHistoryStore()).thenReturn(null);
+
+        androidUserInterface.loadOlderMessages(1000);
+
+        verify(mainChatController).addOlderMessages(Collections.<ChatMessage>emptyList());
+    }
+
+    @Test
+    public void loadOlderMessagesShouldGiveNoMessagesIfHistoryFails() throws IOException {
+        final HistoryStore historyStore = mock(HistoryStore.class);
+        when(msgController.getHistoryStore()).thenReturn(historyStore);
+        when(historyStore.findLatest(any(HistoryQuery.class), anyInt())).thenThrow(new IOException("Failed"));
+
+        androidUserInterface.loadOlderMessages(1000);
+
+        verify(mainChatController).addOlderMessages(Collections.<ChatMessage>emptyList());
+    }
+
+    @Test
+    public void loadOlderMessagesShouldCreateMessagesFromTheHistoryBeforeTheTime() throws IOException {
+        final HistoryStore historyStore = mock(HistoryStore.class);
+        when(msgController.getHistoryStore()).thenReturn(historyStore);
+        when(settings.getSysColor()).thenReturn(100);
+        when(settings.getOwnColor()).thenReturn(200);
+
+        final List<HistoryRecord> records = Arrays.asList(
+                new HistoryRecord(500, HistoryRecord.SYSTEM_USER_CODE, "", "Something happened"),
+                new HistoryRecord(600, me.getCode(), "Me", "Hello"),
+                new HistoryRecord(700, testUser.getCode(), "TestUser", "Hi"));
+        when(historyStore.findLatest(any(HistoryQuery.class), anyInt())).thenReturn(records);
+
+        final ChatMessage chatMessage = mock(ChatMessage.class);
+        when(messageStyler.createMessage(anyString(), anyInt(), anyLong())).thenReturn(chatMessage);
+
+        androidUserInterface.loadOlderMessages(1000);
+
+        final ArgumentCaptor<HistoryQuery> queryCaptor = ArgumentCaptor.forClass(HistoryQuery.class);
+        verify(historyStore).findLatest(queryCaptor.capture(), eq(100));
+        assertEquals(999, queryCaptor.getValue().getToTime());
+
+        verify(messageStyler).createMessage(getTime(500) + " *** Something happened", 100, 500);
+        verify(messageStyler).createMessage(getTime(600) + " <Me>: Hello", 200, 600);
+        verify(messageStyler).createMessage(getTime(700) + " <TestUser>: Hi", Color.BLACK, 700);
+        verify(mainChatController).addOlderMessages(Arrays.asList(chatMessage, chatMessage, chatMessage));
     }
 
     @Test
@@ -820,6 +880,10 @@ public class AndroidUserInterfaceTest {
         assertSame(settings, androidUserInterface.getSettings());
     }
 
+    private String getTime(final long time) {
+        return Tools.dateToString(new Date(time), "[HH:mm:ss]");
+    }
+
     private Thread createShowFileSaveThread(final FileReceiver fileReceiver) {
         return new Thread() {
             @Override
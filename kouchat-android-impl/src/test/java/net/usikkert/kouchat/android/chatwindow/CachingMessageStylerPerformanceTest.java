@@ -0,0 +1,148 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Benchmark of styling throughput in {@link CachingMessageStyler}.
+ *
+ * <p>Ignored by default, as timings are machine specific. Run manually to compare changes.
+ * Each workload is run a few times first to let the JIT warm up. The timings are from Robolectric
+ * on the JVM, so they are only useful for comparing, not as numbers for a real device.</p>
+ *
+ * @author Christian Ihle
+ */
+@Ignore("Benchmark")
+@RunWith(RobolectricTestRunner.class)
+public class CachingMessageStylerPerformanceTest {
+
+    private static final int MESSAGES = 400;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final String[] TEMPLATES = {
+        "[12:34:56] <Nick>: Hello there, how are you doing today %d",
+        "[12:34:56] <Nick>: Smileys :) in :D the ;) message %d",
+        "[12:34:56] <Nick>: Look at http://www.kouchat.net/ for more %d",
+        "[12:34:56] *** Nick%d logged on from 192.168.1.10",
+    };
+
+    private CachingMessageStyler styler;
+    private int round;
+
+    @Before
+    public void setUp() {
+        styler = new CachingMessageStyler(Robolectric.application);
+    }
+
+    @Test
+    public void newMessages() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            styleAll(createMessages(TEMPLATES));
+        }
+
+        final List<List<String>> rounds = new ArrayList<List<String>>();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            rounds.add(createMessages(TEMPLATES));
+        }
+
+        final long start = System.nanoTime();
+
+        for (final List<String> messages : rounds) {
+            styleAll(messages);
+        }
+
+        report("Styling " + MESSAGES + " new messages", start);
+    }
+
+    @Test
+    public void cachedMessages() {
+        final List<String> messages = createMessages(TEMPLATES);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            styleAll(messages);
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            styleAll(messages);
+        }
+
+        report("Styling " + MESSAGES + " cached messages", start);
+    }
+
+    @Test
+    public void newMessagesWithoutLinks() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            styleAll(createMessages(TEMPLATES[0]));
+        }
+
+        final List<List<String>> rounds = new ArrayList<List<String>>();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            rounds.add(createMessages(TEMPLATES[0]));
+        }
+
+        final long start = System.nanoTime();
+
+        for (final List<String> messages : rounds) {
+            styleAll(messages);
+        }
+
+        report("Styling " + MESSAGES + " new messages without links", start);
+    }
+
+    private void styleAll(final List<String> messages) {
+        for (final String message : messages) {
+            styler.style(message, 0);
+        }
+    }
+
+    private List<String> createMessages(final String... templates) {
+        final List<String> messages = new ArrayList<String>();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(String.format(templates[i % templates.length], round * MESSAGES + i));
+        }
+
+        round++;
+
+        return messages;
+    }
+
+    private void report(final String workload, final long start) {
+        final long averageMicros = (System.nanoTime() - start) / MEASURED_ROUNDS / 1000;
+        System.out.println(workload + ": " + averageMicros + " microseconds per round");
+    }
+}
@@ -0,0 +1,198 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import static org.junit.Assert.*;
+
+import net.usikkert.kouchat.android.R;
+import net.usikkert.kouchat.android.component.DefaultLineHeightSpan;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import android.graphics.drawable.Drawable;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
+import android.text.style.LineHeightSpan;
+import android.text.style.URLSpan;
+
+/**
+ * Test of {@link CachingMessageStyler}.
+ *
+ * @author Christian Ihle
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CachingMessageStylerTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private CachingMessageStyler styler;
+
+    @Before
+    public void setUp() {
+        styler = new CachingMessageStyler(Robolectric.application);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfContextIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Context can not be null");
+
+        new CachingMessageStyler(null);
+    }
+
+    @Test
+    public void styleShouldThrowExceptionIfMessageIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Message can not be null");
+
+        styler.style(null, 0);
+    }
+
+    @Test
+    public void styleShouldKeepTheText() {
+        assertEquals("Hello, this is a test", styler.style("Hello, this is a test", 0).toString());
+    }
+
+    @Test
+    public void styleShouldAddColor() {
+        final Spanned styledMessage = (Spanned) styler.style("Color me!", 50);
+
+        final ForegroundColorSpan[] spans = styledMessage.getSpans(0, styledMessage.length(), ForegroundColorSpan.class);
+
+        assertEquals(1, spans.length);
+        assertEquals(50, spans[0].getForegroundColor());
+    }
+
+    @Test
+    public void styleShouldAddLinks() {
+        final Spanned styledMessage = (Spanned) styler.style("Go to http://kouchat.googlecode.com/ now", 0);
+
+        final URLSpan[] spans = styledMessage.getSpans(0, styledMessage.length(), URLSpan.class);
+
+        assertEquals(1, spans.length);
+        assertEquals("http://kouchat.googlecode.com/", spans[0].getURL());
+    }
+
+    @Test
+    public void styleShouldNotAddLinksWhenThereAreNone() {
+        final Spanned styledMessage = (Spanned) styler.style("No links here. Or here", 0);
+
+        assertEquals(0, styledMessage.getSpans(0, styledMessage.length(), URLSpan.class).length);
+    }
+
+    @Test
+    public void styleShouldAddSmileys() {
+        final Spanned styledMessage = (Spanned) styler.style(":) :)", 0);
+
+        final ImageSpan[] spans = styledMessage.getSpans(0, styledMessage.length(), ImageSpan.class);
+
+        assertEquals(2, spans.length);
+        assertNotSame(spans[0], spans[1]);
+
+        for (final ImageSpan span : spans) {
+            assertEquals(":)", span.getSource());
+            assertEquals(R.drawable.ic_smiley_smile, smileyId(span.getDrawable()));
+        }
+    }
+
+    @Test
+    public void styleShouldFixLineHeight() {
+        final Spanned styledMessage = (Spanned) styler.style(":)", 0);
+
+        final LineHeightSpan[] spans = styledMessage.getSpans(0, styledMessage.length(), LineHeightSpan.class);
+
+        assertEquals(1, spans.length);
+        assertEquals(DefaultLineHeightSpan.class, spans[0].getClass());
+    }
+
+    @Test
+    public void styleShouldReturnCachedMessageForSameMessageAndColor() {
+        final CharSequence styledMessage = styler.style("Cache me", 50);
+
+        assertSame(styledMessage, styler.style("Cache me", 50));
+    }
+
+    @Test
+    public void styleShouldNotReturnCachedMessageForDifferentColor() {
+        final Spanned styledMessage1 = (Spanned) styler.style("Cache me", 50);
+        final Spanned styledMessage2 = (Spanned) styler.style("Cache me", 60);
+
+        assertNotSame(styledMessage1, styledMessage2);
+        assertEquals(60, styledMessage2.getSpans(0, styledMessage2.length(), ForegroundColorSpan.class)[0].getForegroundColor());
+    }
+
+    @Test
+    public void styleShouldForgetTheLeastRecentlyUsedMessagesWhenTheCacheIsFull() {
+        final CharSequence firstMessage = styler.style("First message", 0);
+        final CharSequence secondMessage = styler.style("Second message", 0);
+
+        for (int i = 0; i < CachingMessageStyler.MAX_CACHED_MESSAGES - 1; i++) {
+            styler.style("Message " + i, 0);
+            styler.style("First message", 0); // Keep the first message recently used
+        }
+
+        assertSame(firstMessage, styler.style("First message", 0));
+        assertNotSame(secondMessage, styler.style("Second message", 0));
+    }
+
+    @Test
+    public void styleShouldReuseColorAndLineHeightSpans() {
+        final Spanned styledMessage1 = (Spanned) styler.style("Message 1", 50);
+        final Spanned styledMessage2 = (Spanned) styler.style("Message 2", 50);
+
+        assertSame(styledMessage1.getSpans(0, styledMessage1.length(), ForegroundColorSpan.class)[0],
+                styledMessage2.getSpans(0, styledMessage2.length(), ForegroundColorSpan.class)[0]);
+        assertSame(styledMessage1.getSpans(0, styledMessage1.length(), LineHeightSpan.class)[0],
+                styledMessage2.getSpans(0, styledMessage2.length(), LineHeightSpan.class)[0]);
+    }
+
+    @Test
+    public void mightContainLinksShouldBeTrueForDotBetweenLettersOrDigits() {
+        assertTrue(CachingMessageStyler.mightContainLinks("kouchat.net"));
+        assertTrue(CachingMessageStyler.mightContainLinks("Go to http://www.kouchat.net/ now"));
+        assertTrue(CachingMessageStyler.mightContainLinks("192.168.1.1"));
+        assertTrue(CachingMessageStyler.mightContainLinks("a.b"));
+    }
+
+    @Test
+    public void mightContainLinksShouldBeFalseWithoutDotBetweenLettersOrDigits() {
+        assertFalse(CachingMessageStyler.mightContainLinks(""));
+        assertFalse(CachingMessageStyler.mightContainLinks("."));
+        assertFalse(CachingMessageStyler.mightContainLinks("Hello there"));
+        assertFalse(CachingMessageStyler.mightContainLinks("The end. The beginning"));
+        assertFalse(CachingMessageStyler.mightContainLinks("Wait... what?"));
+        assertFalse(CachingMessageStyler.mightContainLinks(".net and com."));
+    }
+
+    private int smileyId(final Drawable drawable) {
+        return Robolectric.shadowOf(drawable).getCreatedFromResId();
+    }
+}
@@ -0,0 +1,236 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import android.database.DataSetObserver;
+
+/**
+ * Test of {@link ChatMessageAdapter}.
+ *
+ * @author Christian Ihle
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChatMessageAdapterTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private ChatMessageAdapter adapter;
+
+    private MessageStylerWithHistory messageStyler;
+    private DataSetObserver observer;
+
+    @Before
+    public void setUp() {
+        adapter = new ChatMessageAdapter(Robolectric.application.getApplicationContext());
+
+        messageStyler = mock(MessageStylerWithHistory.class);
+        observer = mock(DataSetObserver.class);
+        adapter.registerDataSetObserver(observer);
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfContextIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Context can not be null");
+
+        new ChatMessageAdapter(null);
+    }
+
+    @Test
+    public void addShouldThrowExceptionIfMessageIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Message can not be null");
+
+        adapter.add(null);
+    }
+
+    @Test
+    public void addShouldAddAtTheBottomAndNotify() {
+        final ChatMessage message1 = createMessage("Message 1", 100);
+        final ChatMessage message2 = createMessage("Message 2", 200);
+
+        adapter.add(message1);
+        adapter.add(message2);
+
+        assertEquals(2, adapter.getCount());
+        assertSame(message1, adapter.getItem(0));
+        assertSame(message2, adapter.getItem(1));
+        verify(observer, times(2)).onChanged();
+    }
+
+    @Test
+    public void addShouldRemoveTheOldestMessageWhenFull() {
+        for (int i = 0; i < MessageStylerWithHistory.MAX_MESSAGES; i++) {
+            adapter.add(createMessage("Message " + i, i));
+        }
+
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES, adapter.getCount());
+        assertEquals("Message 0", adapter.getItem(0).getMessage());
+
+        adapter.add(createMessage("Newest", 5000));
+
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES, adapter.getCount());
+        assertEquals("Message 1", adapter.getItem(0).getMessage());
+        assertEquals("Newest", adapter.getItem(MessageStylerWithHistory.MAX_MESSAGES - 1).getMessage());
+    }
+
+    @Test
+    public void addShouldNotCountOlderMessagesInTheMaximumButRemoveThemFirst() {
+        for (int i = 0; i < MessageStylerWithHistory.MAX_MESSAGES; i++) {
+            adapter.add(createMessage("Message " + i, 1000 + i));
+        }
+
+        adapter.addOlderMessages(Arrays.asList(createMessage("Older 1", 1), createMessage("Older 2", 2)));
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES + 2, adapter.getCount());
+
+        adapter.add(createMessage("Newest 1", 5000));
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES + 2, adapter.getCount());
+        assertEquals("Older 2", adapter.getItem(0).getMessage());
+
+        adapter.add(createMessage("Newest 2", 5001));
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES + 2, adapter.getCount());
+        assertEquals("Message 0", adapter.getItem(0).getMessage());
+
+        adapter.add(createMessage("Newest 3", 5002));
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES + 2, adapter.getCount());
+        assertEquals("Message 1", adapter.getItem(0).getMessage());
+    }
+
+    @Test
+    public void addAllShouldThrowExceptionIfMessagesIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Messages can not be null");
+
+        adapter.addAll(null);
+    }
+
+    @Test
+    public void addAllShouldAddAtTheBottomAndNotifyOnce() {
+        final ChatMessage message1 = createMessage("Message 1", 100);
+        final ChatMessage message2 = createMessage("Message 2", 200);
+        final ChatMessage message3 = createMessage("Message 3", 300);
+
+        adapter.add(message1);
+        adapter.addAll(Arrays.asList(message2, message3));
+
+        assertEquals(3, adapter.getCount());
+        assertSame(message1, adapter.getItem(0));
+        assertSame(message2, adapter.getItem(1));
+        assertSame(message3, adapter.getItem(2));
+        verify(observer, times(2)).onChanged();
+    }
+
+    @Test
+    public void addAllShouldRemoveTheOldestMessagesWhenFull() {
+        for (int i = 0; i < MessageStylerWithHistory.MAX_MESSAGES; i++) {
+            adapter.add(createMessage("Message " + i, i));
+        }
+
+        adapter.addAll(Arrays.asList(createMessage("Newest 1", 5000), createMessage("Newest 2", 5001)));
+
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES, adapter.getCount());
+        assertEquals("Message 2", adapter.getItem(0).getMessage());
+        assertEquals("Newest 2", adapter.getItem(MessageStylerWithHistory.MAX_MESSAGES - 1).getMessage());
+    }
+
+    @Test
+    public void setMessagesShouldReplaceAllMessages() {
+        adapter.add(createMessage("Old message", 100));
+
+        final ChatMessage message1 = createMessage("Message 1", 200);
+        final ChatMessage message2 = createMessage("Message 2", 300);
+        adapter.setMessages(Arrays.asList(message1, message2));
+
+        assertEquals(2, adapter.getCount());
+        assertSame(message1, adapter.getItem(0));
+        assertSame(message2, adapter.getItem(1));
+        verify(observer, times(2)).onChanged();
+    }
+
+    @Test
+    public void addOlderMessagesShouldAddAtTheTopInTheSameOrder() {
+        final ChatMessage message = createMessage("Message", 300);
+        adapter.add(message);
+
+        final ChatMessage older1 = createMessage("Older 1", 100);
+        final ChatMessage older2 = createMessage("Older 2", 200);
+        adapter.addOlderMessages(Arrays.asList(older1, older2));
+
+        assertEquals(3, adapter.getCount());
+        assertSame(older1, adapter.getItem(0));
+        assertSame(older2, adapter.getItem(1));
+        assertSame(message, adapter.getItem(2));
+        verify(observer, times(2)).onChanged();
+    }
+
+    @Test
+    public void getOldestTimeShouldReturnTimeOfFirstMessage() {
+        adapter.add(createMessage("Message", 300));
+        adapter.addOlderMessages(Arrays.asList(createMessage("Older", 100)));
+
+        assertEquals(100, adapter.getOldestTime());
+    }
+
+    @Test
+    public void getOldestTimeShouldReturnCurrentTimeIfEmpty() {
+        final long before = System.currentTimeMillis();
+        final long oldestTime = adapter.getOldestTime();
+
+        assertTrue(oldestTime >= before);
+        assertTrue(oldestTime <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void isEnabledShouldBeFalse() {
+        adapter.add(createMessage("Message", 100));
+
+        assertFalse(adapter.isEnabled(0));
+    }
+
+    @Test
+    public void onDestroyShouldRemoveAllMessages() {
+        adapter.add(createMessage("Message", 100));
+
+        adapter.onDestroy();
+
+        assertEquals(0, adapter.getCount());
+    }
+
+    private ChatMessage createMessage(final String message, final long time) {
+        return new ChatMessage(message, 1, time, messageStyler);
+    }
+}
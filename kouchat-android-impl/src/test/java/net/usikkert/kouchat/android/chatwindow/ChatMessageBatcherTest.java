@@ -0,0 +1,134 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.android.chatwindow;
+
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Test of {@link ChatMessageBatcher}.
+ *
+ * @author Christian Ihle
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChatMessageBatcherTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private ChatMessageBatcher batcher;
+
+    private ChatMessageBatcher.Listener listener;
+
+    private ChatMessage message1;
+    private ChatMessage message2;
+    private ChatMessage message3;
+
+    @Before
+    public void setUp() {
+        listener = mock(ChatMessageBatcher.Listener.class);
+        batcher = new ChatMessageBatcher(listener);
+
+        message1 = mock(ChatMessage.class);
+        message2 = mock(ChatMessage.class);
+        message3 = mock(ChatMessage.class);
+
+        Robolectric.pauseMainLooper();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfListenerIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Listener can not be null");
+
+        new ChatMessageBatcher(null);
+    }
+
+    @Test
+    public void addShouldThrowExceptionIfMessageIsNull() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Message can not be null");
+
+        batcher.add(null);
+    }
+
+    @Test
+    public void addShouldGiveAllMessagesToTheListenerInOneBatchOnTheUiThread() {
+        batcher.add(message1);
+        batcher.add(message2);
+        batcher.add(message3);
+
+        verifyZeroInteractions(listener);
+
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(listener).appendMessages(Arrays.asList(message1, message2, message3));
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void addShouldStartANewBatchAfterTheMessagesHaveBeenGivenToTheListener() {
+        batcher.add(message1);
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        batcher.add(message2);
+        batcher.add(message3);
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(listener).appendMessages(Arrays.asList(message1));
+        verify(listener).appendMessages(Arrays.asList(message2, message3));
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void cancelShouldRemoveMessagesWaitingForTheListener() {
+        batcher.add(message1);
+        batcher.add(message2);
+
+        batcher.cancel();
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void addShouldWorkAfterCancel() {
+        batcher.add(message1);
+        batcher.cancel();
+
+        batcher.add(message2);
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+
+        verify(listener).appendMessages(Arrays.asList(message2));
+        verifyNoMoreInteractions(listener);
+    }
+}
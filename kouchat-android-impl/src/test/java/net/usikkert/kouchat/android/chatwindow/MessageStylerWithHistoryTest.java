@@ -24,6 +24,8 @@ package net.usikkert.kouchat.android.chatwindow;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
+
 import net.usikkert.kouchat.android.R;
 import net.usikkert.kouchat.android.component.DefaultLineHeightSpan;
 
@@ -36,7 +38,7 @@ import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
 import android.graphics.drawable.Drawable;
-import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.ImageSpan;
 import android.text.style.LineHeightSpan;
@@ -57,111 +59,144 @@ public class MessageStylerWithHistoryTest {
 
     @Before
     public void setUp() {
-        messageStyler = new MessageStylerWithHistory(Robolectric.application);
+        messageStyler = new MessageStylerWithHistory(new CachingMessageStyler(Robolectric.application));
     }
 
     @Test
-    public void constructorShouldThrowExceptionIfContextIsNull() {
+    public void constructorShouldThrowExceptionIfCachingMessageStylerIsNull() {
         expectedException.expect(IllegalArgumentException.class);
-        expectedException.expectMessage("Context can not be null");
+        expectedException.expectMessage("Caching message styler can not be null");
 
         new MessageStylerWithHistory(null);
     }
 
     @Test
-    public void styleAndAppendShouldReturnMessage() {
-        final CharSequence message = messageStyler.styleAndAppend("Hello, this is a test", 0);
+    public void appendShouldReturnMessage() {
+        final ChatMessage message = messageStyler.append("Hello, this is a test", 0);
+
+        assertEquals("Hello, this is a test", message.getMessage());
+        assertEquals("Hello, this is a test", message.getStyledMessage().toString());
+    }
+
+    @Test
+    public void appendShouldTrimMessage() {
+        final ChatMessage message = messageStyler.append("      Trim me!       ", 0);
 
-        assertEquals("Hello, this is a test\n", message.toString());
+        assertEquals("Trim me!", message.getMessage());
     }
 
     @Test
-    public void styleAndAppendShouldTrimMessage() {
-        final CharSequence message = messageStyler.styleAndAppend("      Trim me!       ", 0);
+    public void appendShouldSetTimeAndColor() {
+        final long before = System.currentTimeMillis();
+        final ChatMessage message = messageStyler.append("Message", 50);
 
-        assertEquals("Trim me!\n", message.toString());
+        assertEquals(50, message.getColor());
+        assertTrue(message.getTime() >= before);
+        assertTrue(message.getTime() <= System.currentTimeMillis());
     }
 
     @Test
     public void getHistoryShouldRememberTrimmedMessage() {
-        messageStyler.styleAndAppend("      Trim me!       ", 0);
+        messageStyler.append("      Trim me!       ", 0);
 
-        assertEquals("Trim me!\n", messageStyler.getHistory().toString());
+        assertEquals("Trim me!", messageStyler.getHistory().get(0).getMessage());
     }
 
     @Test
     public void getHistoryShouldReturnAllAppendedMessages() {
-        messageStyler.styleAndAppend("Message 1", 0);
-        messageStyler.styleAndAppend("Message 2", 0);
-        messageStyler.styleAndAppend("Message 3", 0);
+        messageStyler.append("Message 1", 0);
+        messageStyler.append("Message 2", 0);
+        messageStyler.append("Message 3", 0);
+
+        final List<ChatMessage> history = messageStyler.getHistory();
 
-        assertEquals("Message 1\nMessage 2\nMessage 3\n", messageStyler.getHistory().toString());
+        assertEquals(3, history.size());
+        assertEquals("Message 1", history.get(0).getMessage());
+        assertEquals("Message 2", history.get(1).getMessage());
+        assertEquals("Message 3", history.get(2).getMessage());
     }
 
     @Test
-    public void styleAndAppendShouldAddColor() {
-        final CharSequence message = messageStyler.styleAndAppend("Color me!", 50);
+    public void getHistoryShouldReturnACopy() {
+        messageStyler.append("Message 1", 0);
+        messageStyler.getHistory().clear();
+
+        assertEquals(1, messageStyler.getHistory().size());
+    }
+
+    @Test
+    public void getHistoryShouldOnlyRememberTheNewestMessages() {
+        for (int i = 0; i < MessageStylerWithHistory.MAX_MESSAGES + 10; i++) {
+            messageStyler.append("Message " + i, 0);
+        }
+
+        final List<ChatMessage> history = messageStyler.getHistory();
 
-        checkColor((SpannableStringBuilder) message);
+        assertEquals(MessageStylerWithHistory.MAX_MESSAGES, history.size());
+        assertEquals("Message 10", history.get(0).getMessage());
+        assertEquals("Message " + (MessageStylerWithHistory.MAX_MESSAGES + 9), history.get(history.size() - 1).getMessage());
     }
 
     @Test
-    public void getHistoryShouldRememberColor() {
-        messageStyler.styleAndAppend("Color me!", 50);
+    public void createMessageShouldNotAddToHistory() {
+        final ChatMessage message = messageStyler.createMessage("  Old message ", 50, 1000);
 
-        checkColor((SpannableStringBuilder) messageStyler.getHistory());
+        assertEquals("Old message", message.getMessage());
+        assertEquals(50, message.getColor());
+        assertEquals(1000, message.getTime());
+        assertTrue(messageStyler.getHistory().isEmpty());
     }
 
     @Test
-    public void styleAndAppendShouldAddLinks() {
-        final CharSequence message = messageStyler.styleAndAppend("http://kouchat.googlecode.com/", 0);
+    public void getStyledMessageShouldReturnTheSameStyledMessageEachTime() {
+        final ChatMessage message = messageStyler.append("Style me once", 0);
 
-        checkLinks((SpannableStringBuilder) message);
+        assertSame(message.getStyledMessage(), message.getStyledMessage());
     }
 
     @Test
-    public void getHistoryShouldRememberLinks() {
-        messageStyler.styleAndAppend("http://kouchat.googlecode.com/", 0);
+    public void getStyledMessageShouldAddColor() {
+        final ChatMessage message = messageStyler.append("Color me!", 50);
 
-        checkLinks((SpannableStringBuilder) messageStyler.getHistory());
+        checkColor((Spanned) message.getStyledMessage());
     }
 
     @Test
-    public void styleAndAppendShouldAddSmileys() {
-        final CharSequence message = messageStyler.styleAndAppend(":)", 0);
+    public void getStyledMessageShouldAddLinks() {
+        final ChatMessage message = messageStyler.append("http://kouchat.googlecode.com/", 0);
 
-        checkSmileys((SpannableStringBuilder) message);
+        checkLinks((Spanned) message.getStyledMessage());
     }
 
     @Test
-    public void styleAndAppendShouldAddSmileysOnTrimmedMessage() {
-        final CharSequence message = messageStyler.styleAndAppend("   :)  ", 0);
+    public void getStyledMessageShouldAddSmileys() {
+        final ChatMessage message = messageStyler.append(":)", 0);
 
-        checkSmileys((SpannableStringBuilder) message);
+        checkSmileys((Spanned) message.getStyledMessage());
     }
 
     @Test
-    public void getHistoryShouldRememberSmileys() {
-        messageStyler.styleAndAppend(":)", 0);
+    public void getStyledMessageShouldAddSmileysOnTrimmedMessage() {
+        final ChatMessage message = messageStyler.append("   :)  ", 0);
 
-        checkSmileys((SpannableStringBuilder) messageStyler.getHistory());
+        checkSmileys((Spanned) message.getStyledMessage());
     }
 
     @Test
-    public void styleAndAppendShouldFixLineHeight() {
-        final CharSequence message = messageStyler.styleAndAppend(":)", 0);
+    public void getStyledMessageShouldFixLineHeight() {
+        final ChatMessage message = messageStyler.append(":)", 0);
 
-        checkLineHeight((SpannableStringBuilder) message);
+        checkLineHeight((Spanned) message.getStyledMessage());
     }
 
     @Test
-    public void getHistoryShouldRememberLineHeight() {
-        messageStyler.styleAndAppend(":)", 0);
+    public void getStyledMessageShouldStyleCreatedMessages() {
+        final ChatMessage message = messageStyler.createMessage("Color me!", 50, 1000);
 
-        checkLineHeight((SpannableStringBuilder) messageStyler.getHistory());
+        checkColor((Spanned) message.getStyledMessage());
     }
 
-    private void checkColor(final SpannableStringBuilder builder) {
+    private void checkColor(final Spanned builder) {
         final ForegroundColorSpan[] spans = builder.getSpans(0, builder.length(), ForegroundColorSpan.class);
 
         assertNotNull(spans);
@@ -169,7 +204,7 @@ public class MessageStylerWithHistoryTest {
         assertEquals(50, spans[0].getForegroundColor());
     }
 
-    private void checkLinks(final SpannableStringBuilder builder) {
+    private void checkLinks(final Spanned builder) {
         final URLSpan[] spans = builder.getSpans(0, builder.length(), URLSpan.class);
 
         assertNotNull(spans);
@@ -177,7 +212,7 @@ public class MessageStylerWithHistoryTest {
         assertEquals("http://kouchat.googlecode.com/", spans[0].getURL());
     }
 
-    private void checkSmileys(final SpannableStringBuilder builder) {
+    private void checkSmileys(final Spanned builder) {
         final ImageSpan[] spans = builder.getSpans(0, builder.length(), ImageSpan.class);
 
         assertNotNull(spans);
@@ -186,7 +221,7 @@ public class MessageStylerWithHistoryTest {
         assertEquals(R.drawable.ic_smiley_smile, smileyId(spans[0].getDrawable()));
     }
 
-    private void checkLineHeight(final SpannableStringBuilder builder) {
+    private void checkLineHeight(final Spanned builder) {
         final LineHeightSpan[] spans = builder.getSpans(0, builder.length(), LineHeightSpan.class);
 
         assertNotNull(spans);
@@ -44,7 +44,8 @@ import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.ImageSpan;
 import android.text.style.URLSpan;
-import android.widget.ScrollView;
+import android.view.View;
+import android.widget.ListView;
 import android.widget.TextView;
 
 /**
@@ -58,25 +59,24 @@ public class ControllerUtilsTest {
     private ControllerUtils controllerUtils;
 
     private TextView textView;
-    private ScrollView scrollView;
+    private ListView listView;
 
     @Before
     public void setUp() {
         controllerUtils = new ControllerUtils();
 
         textView = mock(TextView.class);
-        scrollView = mock(ScrollView.class);
+        listView = mock(ListView.class);
     }
 
     @Test
-    public void scrollTextViewToBottomShouldSmoothScroll() {
-        when(textView.getHeight()).thenReturn(10);
-        when(scrollView.getBottom()).thenReturn(25);
-        doAnswer(new RunRunnableAnswer()).when(scrollView).post(any(Runnable.class));
+    public void scrollListViewToBottomShouldSelectTheLastRow() {
+        when(listView.getCount()).thenReturn(25);
+        doAnswer(new RunRunnableAnswer()).when(listView).post(any(Runnable.class));
 
-        controllerUtils.scrollTextViewToBottom(textView, scrollView);
+        controllerUtils.scrollListViewToBottom(listView);
 
-        verify(scrollView).smoothScrollTo(0, 35);
+        verify(listView).setSelection(24);
     }
 
     @Test
@@ -133,6 +133,28 @@ public class ControllerUtilsTest {
         assertEquals("SpannableStringBuilder", spannableStringBuilder.toString()); // Text is still there
     }
 
+    @Test
+    public void removeReferencesToTextViewsFromTextShouldRemoveNoCopySpansFromEveryTextViewRow() {
+        final SpannableStringBuilder firstText = new SpannableStringBuilder("First");
+        firstText.setSpan(mock(SpanWatcher.class), 1, 2, 0); // NoCopySpan
+        when(textView.getText()).thenReturn(firstText);
+
+        final TextView secondTextView = mock(TextView.class);
+        final SpannableStringBuilder secondText = new SpannableStringBuilder("Second");
+        secondText.setSpan(mock(TextWatcher.class), 1, 2, 0); // NoCopySpan
+        when(secondTextView.getText()).thenReturn(secondText);
+
+        when(listView.getChildCount()).thenReturn(3);
+        when(listView.getChildAt(0)).thenReturn(textView);
+        when(listView.getChildAt(1)).thenReturn(mock(View.class));
+        when(listView.getChildAt(2)).thenReturn(secondTextView);
+
+        controllerUtils.removeReferencesToTextViewsFromText(listView);
+
+        assertEquals(0, firstText.getSpans(0, 5, NoCopySpan.class).length);
+        assertEquals(0, secondText.getSpans(0, 6, NoCopySpan.class).length);
+    }
+
     private boolean containsSpan(final Class<?> spanClass, final Object[] spans) {
         for (final Object span : spans) {
             if (spanClass.isInstance(span)) {
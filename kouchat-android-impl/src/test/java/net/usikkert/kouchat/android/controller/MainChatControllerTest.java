@@ -25,7 +25,14 @@ package net.usikkert.kouchat.android.controller;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import net.usikkert.kouchat.android.chatwindow.AndroidUserInterface;
+import net.usikkert.kouchat.android.chatwindow.ChatMessage;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageAdapter;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageBatcher;
 import net.usikkert.kouchat.android.service.ChatServiceBinder;
 import net.usikkert.kouchat.android.userlist.UserListAdapter;
 import net.usikkert.kouchat.misc.User;
@@ -38,16 +45,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
-import org.robolectric.shadows.ShadowHandler;
 import org.robolectric.util.ActivityController;
 
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.text.TextWatcher;
 import android.widget.EditText;
+import android.view.View;
 import android.widget.ListView;
-import android.widget.ScrollView;
-import android.widget.TextView;
 
 /**
  * Test of {@link MainChatController}.
@@ -63,9 +68,10 @@ public class MainChatControllerTest {
 
     private AndroidUserInterface ui;
     private UserList userList;
-    private TextView mainChatView;
+    private ListView mainChatView;
+    private ChatMessageAdapter chatMessageAdapter;
+    private ChatMessageBatcher chatMessageBatcher;
     private EditText mainChatInput;
-    private ScrollView mainChatScroll;
     private ControllerUtils controllerUtils;
     private ListView mainChatUserList;
     private TextWatcher textWatcher;
@@ -86,9 +92,10 @@ public class MainChatControllerTest {
         when(ui.getUserList()).thenReturn(userList);
 
         final ServiceConnection serviceConnection = mock(ServiceConnection.class);
-        mainChatView = mock(TextView.class);
+        mainChatView = mock(ListView.class);
+        chatMessageAdapter = mock(ChatMessageAdapter.class);
+        chatMessageBatcher = mock(ChatMessageBatcher.class);
         mainChatInput = mock(EditText.class);
-        mainChatScroll = mock(ScrollView.class);
         controllerUtils = mock(ControllerUtils.class);
         mainChatUserList = mock(ListView.class);
         textWatcher = mock(TextWatcher.class);
@@ -98,8 +105,9 @@ public class MainChatControllerTest {
         TestUtils.setFieldValue(controller, "androidUserInterface", ui);
         TestUtils.setFieldValue(controller, "serviceConnection", serviceConnection);
         TestUtils.setFieldValue(controller, "mainChatView", mainChatView);
+        TestUtils.setFieldValue(controller, "chatMessageAdapter", chatMessageAdapter);
+        TestUtils.setFieldValue(controller, "chatMessageBatcher", chatMessageBatcher);
         TestUtils.setFieldValue(controller, "mainChatInput", mainChatInput);
-        TestUtils.setFieldValue(controller, "mainChatScroll", mainChatScroll);
         TestUtils.setFieldValue(controller, "controllerUtils", controllerUtils);
         TestUtils.setFieldValue(controller, "chatServiceIntent", mock(Intent.class));
         TestUtils.setFieldValue(controller, "userListAdapter", userListAdapter);
@@ -150,7 +158,11 @@ public class MainChatControllerTest {
         verify(mainChatUserList).setOnItemClickListener(null);
         verify(mainChatUserList).setAdapter(null);
         verify(userListAdapter).onDestroy();
-        verify(controllerUtils).removeReferencesToTextViewFromText(mainChatView);
+        verify(chatMessageBatcher).cancel();
+        verify(chatMessageAdapter).onDestroy();
+        verify(mainChatView).setOnScrollListener(null);
+        verify(mainChatView).setAdapter(null);
+        verify(controllerUtils).removeReferencesToTextViewsFromText(mainChatView);
         verify(controllerUtils).removeReferencesToTextViewFromText(mainChatInput);
         assertEquals(1, Robolectric.getShadowApplication().getUnboundServiceConnections().size());
     }
@@ -185,54 +197,100 @@ public class MainChatControllerTest {
     }
 
     @Test
-    public void appendToChatShouldAppendAndScrollToBottomIfInputHasFocus() {
+    public void appendToChatShouldAddToBatcher() {
+        final ChatMessage message = mock(ChatMessage.class);
+
+        controller.appendToChat(message);
+
+        verify(chatMessageBatcher).add(message);
+        verifyZeroInteractions(chatMessageAdapter, controllerUtils);
+    }
+
+    @Test
+    public void appendToChatShouldDoNothingIfBatcherIsGone() {
+        TestUtils.setFieldValue(controller, "chatMessageBatcher", null);
+
+        controller.appendToChat(mock(ChatMessage.class));
+
+        verifyZeroInteractions(chatMessageAdapter, controllerUtils);
+    }
+
+    @Test
+    public void appendMessagesShouldAppendAllAndScrollToBottomIfInputHasFocus() {
         when(mainChatInput.hasFocus()).thenReturn(true);
+        final List<ChatMessage> messages = Arrays.asList(mock(ChatMessage.class), mock(ChatMessage.class));
 
-        controller.appendToChat("Some text");
+        controller.appendMessages(messages);
 
-        verify(mainChatView).append("Some text");
-        verify(controllerUtils).scrollTextViewToBottom(mainChatView, mainChatScroll);
+        verify(chatMessageAdapter).addAll(messages);
+        verify(controllerUtils).scrollListViewToBottom(mainChatView);
     }
 
     @Test
-    public void appendToChatShouldOnlyAppendIfInputLacksFocus() {
+    public void appendMessagesShouldOnlyAppendIfInputLacksFocus() {
         when(mainChatInput.hasFocus()).thenReturn(false);
+        final List<ChatMessage> messages = Arrays.asList(mock(ChatMessage.class), mock(ChatMessage.class));
 
-        controller.appendToChat("Some other text");
+        controller.appendMessages(messages);
 
-        verify(mainChatView).append("Some other text");
+        verify(chatMessageAdapter).addAll(messages);
         verifyZeroInteractions(controllerUtils);
     }
 
     @Test
-    public void appendToChatShouldDoNothingIfDestroyed() {
+    public void appendMessagesShouldDoNothingIfDestroyed() {
         TestUtils.setFieldValue(controller, "destroyed", true);
 
-        controller.appendToChat("Don't append");
+        controller.appendMessages(Arrays.asList(mock(ChatMessage.class)));
 
-        verifyZeroInteractions(controllerUtils, mainChatView);
+        verifyZeroInteractions(controllerUtils, chatMessageAdapter);
     }
 
     @Test
-    public void updateChatShouldSetTextAndScrollToBottomIfNotDestroyed() {
-        controller.updateChat("Set this text");
+    public void updateChatShouldSetMessagesAndScrollToBottom() {
+        final List<ChatMessage> messages = new ArrayList<ChatMessage>();
 
-        ShadowHandler.runMainLooperOneTask();
+        controller.updateChat(messages);
 
-        verify(mainChatView).setText("Set this text");
-        verify(controllerUtils).scrollTextViewToBottom(mainChatView, mainChatScroll);
+        verify(chatMessageAdapter).setMessages(messages);
+        verify(controllerUtils).scrollListViewToBottom(mainChatView);
     }
 
     @Test
-    public void updateChatShouldSetTextAndNotScrollToBottomIfDestroyed() {
-        TestUtils.setFieldValue(controller, "destroyed", true);
+    public void addOlderMessagesShouldAddMessagesAndKeepTheVisibleRowInPlace() {
+        final View firstVisibleRow = mock(View.class);
+        when(firstVisibleRow.getTop()).thenReturn(-15);
+        when(mainChatView.getFirstVisiblePosition()).thenReturn(2);
+        when(mainChatView.getChildAt(0)).thenReturn(firstVisibleRow);
+        final List<ChatMessage> olderMessages = Arrays.asList(mock(ChatMessage.class), mock(ChatMessage.class));
+        TestUtils.setFieldValue(controller, "loadingOlderMessages", true);
+
+        controller.addOlderMessages(olderMessages);
+
+        verify(chatMessageAdapter).addOlderMessages(olderMessages);
+        verify(mainChatView).setSelectionFromTop(4, -15);
+        assertFalse(TestUtils.getFieldValue(controller, Boolean.class, "loadingOlderMessages"));
+        assertFalse(TestUtils.getFieldValue(controller, Boolean.class, "noMoreOlderMessages"));
+    }
 
-        controller.updateChat("Set this text");
+    @Test
+    public void addOlderMessagesShouldStopLoadingWhenThereAreNoMoreMessages() {
+        TestUtils.setFieldValue(controller, "loadingOlderMessages", true);
 
-        ShadowHandler.runMainLooperOneTask();
+        controller.addOlderMessages(new ArrayList<ChatMessage>());
 
-        verify(mainChatView).setText("Set this text");
-        verifyZeroInteractions(controllerUtils);
+        verifyZeroInteractions(chatMessageAdapter);
+        assertFalse(TestUtils.getFieldValue(controller, Boolean.class, "loadingOlderMessages"));
+        assertTrue(TestUtils.getFieldValue(controller, Boolean.class, "noMoreOlderMessages"));
+    }
+
+    @Test
+    public void addOlderMessagesShouldDoNothingIfDestroyed() {
+        TestUtils.setFieldValue(controller, "destroyed", true);
+
+        controller.addOlderMessages(Arrays.asList(mock(ChatMessage.class)));
+
+        verifyZeroInteractions(chatMessageAdapter, mainChatView);
     }
 
     @Test
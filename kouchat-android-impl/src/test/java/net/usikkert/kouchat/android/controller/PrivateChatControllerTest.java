@@ -25,8 +25,15 @@ package net.usikkert.kouchat.android.controller;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import net.usikkert.kouchat.android.chatwindow.AndroidPrivateChatWindow;
 import net.usikkert.kouchat.android.chatwindow.AndroidUserInterface;
+import net.usikkert.kouchat.android.chatwindow.ChatMessage;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageAdapter;
+import net.usikkert.kouchat.android.chatwindow.ChatMessageBatcher;
 import net.usikkert.kouchat.android.service.ChatServiceBinder;
 import net.usikkert.kouchat.misc.User;
 import net.usikkert.kouchat.util.TestUtils;
@@ -38,7 +45,6 @@ import org.junit.runner.RunWith;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
-import org.robolectric.shadows.ShadowHandler;
 import org.robolectric.util.ActivityController;
 
 import com.actionbarsherlock.view.ActionMode;
@@ -49,8 +55,7 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.view.KeyEvent;
 import android.widget.EditText;
-import android.widget.ScrollView;
-import android.widget.TextView;
+import android.widget.ListView;
 
 /**
  * Test of {@link PrivateChatController}.
@@ -65,9 +70,10 @@ public class PrivateChatControllerTest {
     private PrivateChatController controller;
 
     private AndroidPrivateChatWindow privateChatWindow;
-    private TextView privateChatView;
+    private ListView privateChatView;
     private EditText privateChatInput;
-    private ScrollView privateChatScroll;
+    private ChatMessageAdapter chatMessageAdapter;
+    private ChatMessageBatcher chatMessageBatcher;
     private ControllerUtils controllerUtils;
     private User vivi;
     private AndroidUserInterface ui;
@@ -95,9 +101,10 @@ public class PrivateChatControllerTest {
         intent.putExtra("userCode", 1234);
         controller.setIntent(intent);
 
-        privateChatView = mock(TextView.class);
+        privateChatView = mock(ListView.class);
         privateChatInput = mock(EditText.class);
-        privateChatScroll = mock(ScrollView.class);
+        chatMessageAdapter = mock(ChatMessageAdapter.class);
+        chatMessageBatcher = mock(ChatMessageBatcher.class);
         controllerUtils = mock(ControllerUtils.class);
 
         setMocks();
@@ -110,7 +117,8 @@ public class PrivateChatControllerTest {
         TestUtils.setFieldValue(controller, "serviceConnection", serviceConnection);
         TestUtils.setFieldValue(controller, "privateChatView", privateChatView);
         TestUtils.setFieldValue(controller, "privateChatInput", privateChatInput);
-        TestUtils.setFieldValue(controller, "privateChatScroll", privateChatScroll);
+        TestUtils.setFieldValue(controller, "chatMessageAdapter", chatMessageAdapter);
+        TestUtils.setFieldValue(controller, "chatMessageBatcher", chatMessageBatcher);
         TestUtils.setFieldValue(controller, "controllerUtils", controllerUtils);
     }
 
@@ -139,7 +147,10 @@ public class PrivateChatControllerTest {
 
         verify(privateChatWindow).unregisterPrivateChatController();
         verify(privateChatInput).setOnKeyListener(null);
-        verify(controllerUtils).removeReferencesToTextViewFromText(privateChatView);
+        verify(chatMessageBatcher).cancel();
+        verify(chatMessageAdapter).onDestroy();
+        verify(privateChatView).setAdapter(null);
+        verify(controllerUtils).removeReferencesToTextViewsFromText(privateChatView);
         verify(controllerUtils).removeReferencesToTextViewFromText(privateChatInput);
         assertEquals(1, Robolectric.getShadowApplication().getUnboundServiceConnections().size());
     }
@@ -174,54 +185,63 @@ public class PrivateChatControllerTest {
     }
 
     @Test
-    public void appendToPrivateChatShouldAppendAndScrollToBottomIfInputHasFocus() {
-        when(privateChatInput.hasFocus()).thenReturn(true);
+    public void appendToPrivateChatShouldAddToBatcher() {
+        final ChatMessage message = mock(ChatMessage.class);
 
-        controller.appendToPrivateChat("Some text");
+        controller.appendToPrivateChat(message);
 
-        verify(privateChatView).append("Some text");
-        verify(controllerUtils).scrollTextViewToBottom(privateChatView, privateChatScroll);
+        verify(chatMessageBatcher).add(message);
+        verifyZeroInteractions(chatMessageAdapter, controllerUtils);
     }
 
     @Test
-    public void appendToPrivateChatShouldOnlyAppendIfInputLacksFocus() {
-        when(privateChatInput.hasFocus()).thenReturn(false);
+    public void appendToPrivateChatShouldDoNothingIfBatcherIsGone() {
+        TestUtils.setFieldValue(controller, "chatMessageBatcher", null);
 
-        controller.appendToPrivateChat("Some other text");
+        controller.appendToPrivateChat(mock(ChatMessage.class));
 
-        verify(privateChatView).append("Some other text");
-        verifyZeroInteractions(controllerUtils);
+        verifyZeroInteractions(chatMessageAdapter, controllerUtils);
     }
 
     @Test
-    public void appendToPrivateChatShouldDoNothingIfDestroyed() {
-        TestUtils.setFieldValue(controller, "destroyed", true);
+    public void appendMessagesShouldAppendAllAndScrollToBottomIfInputHasFocus() {
+        when(privateChatInput.hasFocus()).thenReturn(true);
+        final List<ChatMessage> messages = Arrays.asList(mock(ChatMessage.class), mock(ChatMessage.class));
 
-        controller.appendToPrivateChat("Don't append");
+        controller.appendMessages(messages);
 
-        verifyZeroInteractions(controllerUtils, privateChatView);
+        verify(chatMessageAdapter).addAll(messages);
+        verify(controllerUtils).scrollListViewToBottom(privateChatView);
     }
 
     @Test
-    public void updatePrivateChatShouldSetTextAndScrollToBottomIfNotDestroyed() {
-        controller.updatePrivateChat("Set this text");
+    public void appendMessagesShouldOnlyAppendIfInputLacksFocus() {
+        when(privateChatInput.hasFocus()).thenReturn(false);
+        final List<ChatMessage> messages = Arrays.asList(mock(ChatMessage.class), mock(ChatMessage.class));
 
-        ShadowHandler.runMainLooperOneTask();
+        controller.appendMessages(messages);
 
-        verify(privateChatView).setText("Set this text");
-        verify(controllerUtils).scrollTextViewToBottom(privateChatView, privateChatScroll);
+        verify(chatMessageAdapter).addAll(messages);
+        verifyZeroInteractions(controllerUtils);
     }
 
     @Test
-    public void updatePrivateChatShouldSetTextAndNotScrollToBottomIfDestroyed() {
+    public void appendMessagesShouldDoNothingIfDestroyed() {
         TestUtils.setFieldValue(controller, "destroyed", true);
 
-        controller.updatePrivateChat("Set this text");
+        controller.appendMessages(Arrays.asList(mock(ChatMessage.class)));
 
-        ShadowHandler.runMainLooperOneTask();
+        verifyZeroInteractions(controllerUtils, chatMessageAdapter);
+    }
 
-        verify(privateChatView).setText("Set this text");
-        verifyZeroInteractions(controllerUtils);
+    @Test
+    public void updatePrivateChatShouldSetMessagesAndScrollToBottom() {
+        final List<ChatMessage> messages = new ArrayList<ChatMessage>();
+
+        controller.updatePrivateChat(messages);
+
+        verify(chatMessageAdapter).setMessages(messages);
+        verify(controllerUtils).scrollListViewToBottom(privateChatView);
     }
 
     @Test
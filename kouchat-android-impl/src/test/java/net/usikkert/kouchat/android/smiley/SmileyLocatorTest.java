@@ -185,6 +185,55 @@ public class SmileyLocatorTest {
         assertTrue(smileys.isEmpty());
     }
 
+    @Test
+    public void findSmileysShouldReturnSmileysInPositionOrder() {
+        final List<Smiley> smileys = locator.findSmileys(":( :D :) :( :D");
+
+        assertEquals(5, smileys.size());
+
+        assertEquals(0, smileys.get(0).getStartPosition());
+        assertEquals(3, smileys.get(1).getStartPosition());
+        assertEquals(6, smileys.get(2).getStartPosition());
+        assertEquals(9, smileys.get(3).getStartPosition());
+        assertEquals(12, smileys.get(4).getStartPosition());
+    }
+
+    @Test
+    public void findSmileysShouldFindSmileysAtEndOfOtherLongerSmileys() {
+        final HashSet<String> smileyCodes = new HashSet<String>();
+        smileyCodes.add(":)");
+        smileyCodes.add(":))");
+        smileyCodes.add(")");
+        final SmileyLocator overlappingLocator = new SmileyLocator(smileyCodes);
+
+        final List<Smiley> smileys = overlappingLocator.findSmileys(":)) :) ) :)");
+
+        assertEquals(4, smileys.size());
+
+        verifySmiley(smileys, ":))", 0, 3);
+        verifySmiley(smileys, ":)", 4, 6);
+        verifySmiley(smileys, ")", 7, 8);
+        verifySmiley(smileys, ":)", 9, 11);
+    }
+
+    @Test
+    public void findSmileysShouldFindSmileysSeparatedByOtherWhitespace() {
+        final List<Smiley> smileys = locator.findSmileys(":)\t:D\n:(");
+
+        assertEquals(3, smileys.size());
+
+        verifySmiley(smileys, ":)", 0, 2);
+        verifySmiley(smileys, ":D", 3, 5);
+        verifySmiley(smileys, ":(", 6, 8);
+    }
+
+    @Test
+    public void findSmileysShouldFindNothingWithNoSmileyCodes() {
+        final SmileyLocator emptyLocator = new SmileyLocator(new HashSet<String>());
+
+        assertTrue(emptyLocator.findSmileys(":) :D").isEmpty());
+    }
+
     private void verifySmiley(final List<Smiley> smileys, final String code,
                               final int startPosition, final int endPosition) {
         boolean smileyFound = false;
@@ -0,0 +1,362 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.history;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link HistoryStore}.
+ *
+ * @author Christian Ihle
+ */
+public class HistoryStoreTest {
+
+    private static final int PETER = 11111111;
+    private static final int ANNA = 22222222;
+
+    private File directory;
+    private HistoryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(System.getProperty("java.io.tmpdir"), "kouchat-historystoretest-" + System.nanoTime());
+
+        store = new HistoryStore(directory, 2000);
+        store.open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+
+        final File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionIfDirectoryIsNull() {
+        new HistoryStore(null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendShouldThrowExceptionIfNotOpen() throws IOException {
+        store.close();
+        store.append(new HistoryRecord(1000, PETER, "Peter", "Hello"));
+    }
+
+    @Test
+    public void openShouldCreateDirectory() {
+        assertTrue(directory.isDirectory());
+        assertTrue(store.isOpen());
+    }
+
+    @Test
+    public void queryShouldReturnNothingWhenEmpty() throws IOException {
+        assertTrue(queryAll(new HistoryQuery()).isEmpty());
+    }
+
+    @Test
+    public void queryWithoutCriteriaShouldReturnAllRecordsInOrder() throws IOException {
+        addRecords(500);
+
+        final List<HistoryRecord> records = queryAll(new HistoryQuery());
+
+        assertEquals(500, records.size());
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, records.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void queryShouldFindRecordsInTimeRange() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setFromTime(100);
+        query.setToTime(299);
+
+        final List<HistoryRecord> records = queryAll(query);
+
+        assertEquals(200, records.size());
+        assertEquals(100, records.get(0).getTime());
+        assertEquals(299, records.get(199).getTime());
+    }
+
+    @Test
+    public void queryShouldFindRecordsFromUser() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setUserCode(ANNA);
+
+        final List<HistoryRecord> records = queryAll(query);
+
+        assertEquals(50, records.size());
+
+        for (final HistoryRecord record : records) {
+            assertEquals(ANNA, record.getUserCode());
+            assertEquals("Anna", record.getNick());
+        }
+    }
+
+    @Test
+    public void queryShouldFindRecordsFromNickIgnoringCase() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setNick("aNNa");
+
+        assertEquals(50, queryAll(query).size());
+    }
+
+    @Test
+    public void queryShouldFindRecordsWithAllWordsInKeyword() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setKeyword("NUMBER 42");
+
+        final List<HistoryRecord> records = queryAll(query);
+
+        assertEquals(1, records.size());
+        assertEquals("This is message number 42, from Peter", records.get(0).getMessage());
+    }
+
+    @Test
+    public void queryShouldOnlyMatchWholeWords() throws IOException {
+        store.append(new HistoryRecord(1, PETER, "Peter", "Say hello"));
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setKeyword("hell");
+
+        assertTrue(queryAll(query).isEmpty());
+    }
+
+    @Test
+    public void queryShouldCombineAllCriteria() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setFromTime(200);
+        query.setUserCode(ANNA);
+        query.setKeyword("anna");
+
+        final List<HistoryRecord> records = queryAll(query);
+
+        assertEquals(30, records.size());
+        assertEquals(209, records.get(0).getTime());
+    }
+
+    @Test
+    public void queryShouldReturnNothingForUnknownWord() throws IOException {
+        addRecords(500);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setKeyword("unknown");
+
+        assertTrue(queryAll(query).isEmpty());
+    }
+
+    @Test
+    public void fullSegmentsShouldBeSealedWithIndexFile() throws IOException {
+        addRecords(500);
+
+        assertTrue(store.getSegmentCount() > 1);
+        assertTrue(new File(directory, "00000001" + HistorySegment.INDEX_EXTENSION).exists());
+    }
+
+    @Test
+    public void reopenedStoreShouldFindTheSameRecords() throws IOException {
+        addRecords(500);
+        final int segmentCount = store.getSegmentCount();
+        store.close();
+
+        store = new HistoryStore(directory, 2000);
+        store.open();
+
+        assertEquals(segmentCount, store.getSegmentCount());
+        assertEquals(500, queryAll(new HistoryQuery()).size());
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setKeyword("number 42");
+        assertEquals(1, queryAll(query).size());
+
+        store.append(new HistoryRecord(500, PETER, "Peter", "After reopen"));
+        assertEquals(501, queryAll(new HistoryQuery()).size());
+    }
+
+    @Test
+    public void missingIndexFileShouldBeWrittenAgainOnOpen() throws IOException {
+        addRecords(500);
+        store.close();
+
+        final File indexFile = new File(directory, "00000001" + HistorySegment.INDEX_EXTENSION);
+        assertTrue(indexFile.delete());
+
+        store = new HistoryStore(directory, 2000);
+        store.open();
+
+        assertTrue(indexFile.exists());
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setUserCode(ANNA);
+        assertEquals(50, queryAll(query).size());
+    }
+
+    @Test
+    public void incompleteRecordAtTheEndShouldBeRemovedOnOpen() throws IOException {
+        store.append(new HistoryRecord(1, PETER, "Peter", "Complete"));
+        store.close();
+
+        final FileOutputStream out = new FileOutputStream(new File(directory, "00000001" + HistorySegment.DATA_EXTENSION), true);
+        out.write(new byte[] {0, 0, 0, 50, 1, 2, 3});
+        out.close();
+
+        store = new HistoryStore(directory, 2000);
+        store.open();
+        store.append(new HistoryRecord(2, PETER, "Peter", "After crash"));
+
+        final List<HistoryRecord> records = queryAll(new HistoryQuery());
+
+        assertEquals(2, records.size());
+        assertEquals("Complete", records.get(0).getMessage());
+        assertEquals("After crash", records.get(1).getMessage());
+    }
+
+    @Test
+    public void cursorShouldNotIncludeRecordsAddedAfterQuery() throws IOException {
+        store.append(new HistoryRecord(1, PETER, "Peter", "Before"));
+        final HistoryCursor cursor = store.query(new HistoryQuery());
+        store.append(new HistoryRecord(2, PETER, "Peter", "After"));
+
+        assertTrue(cursor.hasNext());
+        assertEquals("Before", cursor.next().getMessage());
+        assertFalse(cursor.hasNext());
+        assertNull(cursor.getError());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cursorShouldNotSupportRemove() throws IOException {
+        store.query(new HistoryQuery()).remove();
+    }
+
+    @Test
+    public void findLatestShouldReturnTheNewestRecordsInTimeOrder() throws IOException {
+        addRecords(1000);
+
+        final List<HistoryRecord> records = store.findLatest(new HistoryQuery(), 100);
+
+        assertEquals(100, records.size());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(900 + i, records.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void findLatestShouldUseTheQuery() throws IOException {
+        addRecords(1000);
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setToTime(499);
+        query.setUserCode(ANNA);
+
+        final List<HistoryRecord> records = store.findLatest(query, 3);
+
+        assertEquals(3, records.size());
+        assertEquals(479, records.get(0).getTime());
+        assertEquals(489, records.get(1).getTime());
+        assertEquals(499, records.get(2).getTime());
+    }
+
+    @Test
+    public void findLatestShouldReturnAllRecordsIfThereAreFewerThanMax() throws IOException {
+        addRecords(5);
+
+        assertEquals(5, store.findLatest(new HistoryQuery(), 100).size());
+    }
+
+    @Test
+    public void recordsShouldKeepSpecialCharacters() throws IOException {
+        store.append(new HistoryRecord(1, PETER, "P\u00e6ter", "\u00e6\u00f8\u00e5 \u4e2d\u6587"));
+
+        final HistoryQuery query = new HistoryQuery();
+        query.setKeyword("\u00c6\u00d8\u00c5");
+
+        final List<HistoryRecord> records = queryAll(query);
+        assertEquals(1, records.size());
+        assertEquals("P\u00e6ter", records.get(0).getNick());
+        assertEquals("\u00e6\u00f8\u00e5 \u4e2d\u6587", records.get(0).getMessage());
+    }
+
+    /**
+     * Adds records with time 0 to count - 1. Every 10th record is from Anna, the rest from Peter.
+     */
+    private void addRecords(final int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 9) {
+                store.append(new HistoryRecord(i, ANNA, "Anna", "This is message number " + i + ", from Anna"));
+            }
+
+            else {
+                store.append(new HistoryRecord(i, PETER, "Peter", "This is message number " + i + ", from Peter"));
+            }
+        }
+    }
+
+    private List<HistoryRecord> queryAll(final HistoryQuery query) throws IOException {
+        final List<HistoryRecord> records = new ArrayList<HistoryRecord>();
+        final HistoryCursor cursor = store.query(query);
+
+        try {
+            while (cursor.hasNext()) {
+                records.add(cursor.next());
+            }
+        }
+
+        finally {
+            cursor.close();
+        }
+
+        assertNull(cursor.getError());
+        return records;
+    }
+}
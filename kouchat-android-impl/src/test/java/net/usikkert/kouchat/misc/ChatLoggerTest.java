@@ -24,6 +24,14 @@ package net.usikkert.kouchat.misc;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -36,13 +44,34 @@ public class ChatLoggerTest {
 
     private ChatLogger chatLogger;
     private Settings settings;
+    private LogWriterPool logWriterPool;
+    private File logDir;
 
     @Before
     public void setUp() {
+        logDir = new File(System.getProperty("java.io.tmpdir"), "kouchat-chatloggertest-" + System.nanoTime());
+
         settings = new Settings();
-        settings.setLogLocation(System.getProperty("java.io.tmpdir"));
+        settings.setLogLocation(logDir.getAbsolutePath());
+
+        logWriterPool = new LogWriterPool(LogWriterPool.MAX_OPEN_FILES, new LogRotator());
+        chatLogger = new ChatLogger("kouchat", settings, logWriterPool);
+    }
+
+    @After
+    public void tearDown() {
+        chatLogger.close();
+        assertTrue(logWriterPool.flush(5000));
+
+        final File[] files = logDir.listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
 
-        chatLogger = new ChatLogger(settings);
+        logDir.delete();
     }
 
     @Test
@@ -55,4 +84,104 @@ public class ChatLoggerTest {
         settings.setLogging(false);
         assertFalse(chatLogger.isOpen());
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionIfLogWriterPoolIsNull() {
+        new ChatLogger("kouchat", settings, null);
+    }
+
+    @Test
+    public void openShouldCreateTheLogFile() throws IOException {
+        settings.setLogging(true);
+
+        assertTrue(readLogFile().isEmpty());
+    }
+
+    @Test
+    public void appendShouldDoNothingWhenNotOpen() {
+        chatLogger.append("Nobody will see this");
+        chatLogger.close();
+        assertTrue(logWriterPool.flush(5000));
+
+        assertFalse(logDir.exists());
+    }
+
+    @Test
+    public void closeShouldWriteAllAppendedLinesInOrder() throws IOException {
+        settings.setLogging(true);
+
+        for (int i = 0; i < 2000; i++) {
+            chatLogger.append("Line " + i);
+        }
+
+        chatLogger.close();
+        assertFalse(chatLogger.isOpen());
+        assertTrue(logWriterPool.flush(5000));
+        assertEquals(0, logWriterPool.getOpenFileCount());
+
+        final List<String> lines = readLogFile();
+        assertEquals(2000, lines.size());
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("Line " + i, lines.get(i));
+        }
+    }
+
+    @Test
+    public void appendedLinesShouldBeWrittenInTheBackgroundWithoutClosing() throws IOException, InterruptedException {
+        settings.setLogging(true);
+
+        chatLogger.append("First");
+        chatLogger.append("Second");
+
+        Thread.sleep(500);
+
+        final List<String> lines = readLogFile();
+        assertEquals(2, lines.size());
+        assertEquals("First", lines.get(0));
+        assertEquals("Second", lines.get(1));
+    }
+
+    @Test
+    public void reopeningShouldAppendToTheSameLogFile() throws IOException {
+        settings.setLogging(true);
+        chatLogger.append("Before");
+
+        settings.setLogging(false);
+        chatLogger.append("While closed");
+
+        settings.setLogging(true);
+        chatLogger.append("After");
+        chatLogger.close();
+        assertTrue(logWriterPool.flush(5000));
+
+        final List<String> lines = readLogFile();
+        assertEquals(2, lines.size());
+        assertEquals("Before", lines.get(0));
+        assertEquals("After", lines.get(1));
+    }
+
+    private List<String> readLogFile() throws IOException {
+        final File[] files = logDir.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(files[0]));
+
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        }
+
+        finally {
+            reader.close();
+        }
+
+        return lines;
+    }
 }
@@ -0,0 +1,312 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Simulation of several hundred clients using {@link ExposeScheduler} on the same network,
+ * comparing the number of messages sent with the number sent when every client answers every
+ * expose request right away.
+ *
+ * <p>All the clients share one timer, so the simulation runs on a single thread. Messages are
+ * delivered right away to every client that is online. Answers to expose requests consist of
+ * two messages, EXPOSING and CLIENT. Expose requests from unknown users consist of EXPOSE and GETTOPIC.</p>
+ *
+ * @author Christian Ihle
+ */
+public class ExposeSchedulerSimulationTest {
+
+    private Timer timer;
+    private Random random;
+
+    private List<SimulatedClient> onlineClients;
+    private int messageCount;
+
+    @Before
+    public void setUp() {
+        timer = new Timer("ExposeSchedulerSimulationTimer", true);
+        random = new Random(1234);
+        onlineClients = new ArrayList<SimulatedClient>();
+    }
+
+    @After
+    public void tearDown() {
+        timer.cancel();
+    }
+
+    /**
+     * 200 clients are online, and know each other, when 100 new clients log on during one second.
+     * Every client that logs on sends an expose request.
+     */
+    @Test
+    public void logonStorm() throws InterruptedException {
+        final int existingClients = 200;
+        final int newClients = 100;
+
+        for (int i = 0; i < existingClients; i++) {
+            onlineClients.add(new SimulatedClient(i, 0));
+        }
+
+        for (final SimulatedClient client : onlineClients) {
+            for (final SimulatedClient other : onlineClients) {
+                client.addKnownUser(other);
+            }
+        }
+
+        final CountDownLatch loggedOn = new CountDownLatch(newClients);
+
+        for (int i = 0; i < newClients; i++) {
+            final int code = existingClients + i;
+
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    logOn(new SimulatedClient(code, System.currentTimeMillis()));
+                    loggedOn.countDown();
+                }
+            }, random.nextInt(1000));
+        }
+
+        assertTrue(loggedOn.await(5, TimeUnit.SECONDS));
+        waitForTimer();
+
+        // Every client that was online when a client logged on answers with 2 messages
+        int messagesWithoutScheduler = 0;
+
+        for (int i = 0; i < newClients; i++) {
+            messagesWithoutScheduler += 2 + 2 * (existingClients + i);
+        }
+
+        report("Logon storm", messagesWithoutScheduler);
+
+        for (final SimulatedClient client : onlineClients) {
+            assertEquals("Client " + client.code + " does not know everyone",
+                    onlineClients.size(), client.knownUsers.size());
+        }
+
+        assertTrue(messageCount * 10 < messagesWithoutScheduler);
+    }
+
+    /**
+     * 300 clients are online, and know each other, except one client that has timed out
+     * and returns. All the other clients see an idle message from an unknown user at the same time.
+     */
+    @Test
+    public void unknownUserStorm() throws InterruptedException {
+        final int clients = 300;
+
+        for (int i = 0; i < clients; i++) {
+            onlineClients.add(new SimulatedClient(i, 0));
+        }
+
+        final SimulatedClient returningClient = onlineClients.get(0);
+
+        for (final SimulatedClient client : onlineClients) {
+            for (final SimulatedClient other : onlineClients) {
+                if (client == returningClient || other != returningClient) {
+                    client.addKnownUser(other);
+                }
+            }
+        }
+
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for (final SimulatedClient client : onlineClients) {
+                    if (!client.knowsUser(returningClient)) {
+                        client.requestExpose();
+                    }
+                }
+            }
+        }, 0);
+
+        waitForTimer();
+
+        // Every client sends an expose request, and every client answers every request
+        final int messagesWithoutScheduler = (clients - 1) * 2 + (clients - 1) * (clients - 1) * 2;
+
+        report("Unknown user storm", messagesWithoutScheduler);
+
+        for (final SimulatedClient client : onlineClients) {
+            assertTrue("Client " + client.code + " does not know the returning client", client.knowsUser(returningClient));
+        }
+
+        assertTrue(messageCount * 10 < messagesWithoutScheduler);
+    }
+
+    /**
+     * 300 clients are online, and know each other, when one client loses the network. While it's gone,
+     * a new client logs on and everyone answers. The client connects again before those answers
+     * are stale, and must still get answers, even though it logged on long before they were sent.
+     */
+    @Test
+    public void reconnectAfterMissedReply() throws InterruptedException {
+        final int clients = 300;
+
+        for (int i = 0; i < clients; i++) {
+            onlineClients.add(new SimulatedClient(i, 0));
+        }
+
+        for (final SimulatedClient client : onlineClients) {
+            for (final SimulatedClient other : onlineClients) {
+                client.addKnownUser(other);
+            }
+        }
+
+        final SimulatedClient returningClient = onlineClients.remove(0);
+        returningClient.knownUsers.clear();
+
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                logOn(new SimulatedClient(clients, System.currentTimeMillis()));
+            }
+        }, 0);
+
+        // After all the answers to the new client are sent, while they are still fresh
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                reconnect(returningClient);
+            }
+        }, ExposeScheduler.MAX_REPLY_DELAY + 100);
+
+        waitForTimer();
+
+        for (final SimulatedClient client : onlineClients) {
+            assertTrue("Returning client does not know client " + client.code, returningClient.knowsUser(client));
+        }
+    }
+
+    private void logOn(final SimulatedClient newClient) {
+        onlineClients.add(newClient);
+        messageCount += 2; // LOGON and EXPOSE, ignoring CLIENT and GETTOPIC which are sent either way
+
+        for (final SimulatedClient client : onlineClients) {
+            client.addKnownUser(newClient);
+        }
+
+        deliverExposeRequest(newClient, false);
+    }
+
+    private void reconnect(final SimulatedClient returningClient) {
+        onlineClients.add(returningClient);
+        returningClient.addKnownUser(returningClient);
+        messageCount += 2; // EXPOSING and EXPOSE, ignoring TOPIC, GETTOPIC and IDLE which are sent either way
+
+        deliverExposeRequest(returningClient, true);
+    }
+
+    private void deliverExposeRequest(final SimulatedClient sender, final boolean reconnect) {
+        for (final SimulatedClient client : onlineClients) {
+            if (client != sender) {
+                client.exposeRequested(client.getKnownUser(sender), reconnect);
+            }
+        }
+    }
+
+    private void deliverExposeReply(final SimulatedClient sender) {
+        for (final SimulatedClient client : onlineClients) {
+            client.addKnownUser(sender);
+        }
+    }
+
+    private void waitForTimer() throws InterruptedException {
+        // Enough for the delayed answers to requests sent at the very end
+        Thread.sleep(ExposeScheduler.MAX_REQUEST_DELAY + ExposeScheduler.MAX_REPLY_DELAY + 500);
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        }, 0);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private void report(final String scenario, final int messagesWithoutScheduler) {
+        System.out.println(scenario + ": " + messagesWithoutScheduler + " messages without scheduler, " +
+                messageCount + " messages with scheduler");
+    }
+
+    private class SimulatedClient extends ExposeScheduler {
+
+        private final int code;
+        private final long logonTime;
+        private final Map<Integer, User> knownUsers;
+
+        SimulatedClient(final int code, final long logonTime) {
+            super(timer, random);
+
+            this.code = code;
+            this.logonTime = logonTime;
+            knownUsers = new HashMap<Integer, User>();
+        }
+
+        @Override
+        protected void sendExposeReply() {
+            messageCount += 2;
+            deliverExposeReply(this);
+        }
+
+        @Override
+        protected void sendExposeRequest() {
+            messageCount += 2;
+            deliverExposeRequest(this, false);
+        }
+
+        void addKnownUser(final SimulatedClient client) {
+            if (!knownUsers.containsKey(client.code)) {
+                final User user = new User("User" + client.code, client.code);
+                user.setLogonTime(client.logonTime);
+                knownUsers.put(client.code, user);
+            }
+        }
+
+        boolean knowsUser(final SimulatedClient client) {
+            return knownUsers.containsKey(client.code);
+        }
+
+        User getKnownUser(final SimulatedClient client) {
+            return knownUsers.get(client.code);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link ExposeScheduler}.
+ *
+ * @author Christian Ihle
+ */
+public class ExposeSchedulerTest {
+
+    private static final long WAIT_FOR_REPLY = ExposeScheduler.MAX_REPLY_DELAY + 200;
+    private static final long WAIT_FOR_REQUEST = ExposeScheduler.MAX_REQUEST_DELAY + 200;
+
+    private CountingExposeScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new CountingExposeScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionIfTimerIsNull() {
+        new ExposeScheduler(null, new Random()) {
+            @Override
+            protected void sendExposeReply() { }
+
+            @Override
+            protected void sendExposeRequest() { }
+        };
+    }
+
+    @Test
+    public void exposeRequestedShouldSendReplyAfterDelay() throws InterruptedException {
+        scheduler.exposeRequested(createUser(0), false);
+
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(1, scheduler.replies.get());
+        assertEquals(0, scheduler.requests.get());
+    }
+
+    @Test
+    public void exposeRequestedShouldCollapseRequestsWhileReplyIsWaiting() throws InterruptedException {
+        scheduler.exposeRequested(createUser(0), false);
+        scheduler.exposeRequested(createUser(0), false);
+        scheduler.exposeRequested(null, false);
+
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(1, scheduler.replies.get());
+    }
+
+    @Test
+    public void exposeRequestedShouldNotReplyAgainToUserLoggedOnBeforeFreshReply() throws InterruptedException {
+        final User oldUser = createUser(System.currentTimeMillis() - 60000);
+
+        scheduler.exposeRequested(oldUser, false);
+        Thread.sleep(WAIT_FOR_REPLY);
+        scheduler.exposeRequested(oldUser, false);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(1, scheduler.replies.get());
+    }
+
+    @Test
+    public void exposeRequestedShouldReplyAgainToUserLoggedOnAfterFreshReply() throws InterruptedException {
+        scheduler.exposeRequested(createUser(0), false);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        scheduler.exposeRequested(createUser(System.currentTimeMillis()), false);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(2, scheduler.replies.get());
+    }
+
+    @Test
+    public void exposeRequestedShouldReplyAgainToUserLoggedOnBeforeFreshReplyAfterReconnect() throws InterruptedException {
+        final User oldUser = createUser(System.currentTimeMillis() - 60000);
+
+        scheduler.exposeRequested(oldUser, false);
+        Thread.sleep(WAIT_FOR_REPLY);
+        scheduler.exposeRequested(oldUser, true);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(2, scheduler.replies.get());
+    }
+
+    @Test
+    public void exposeRequestedShouldReplyAgainToUnknownUser() throws InterruptedException {
+        scheduler.exposeRequested(createUser(0), false);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        scheduler.exposeRequested(null, false);
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(2, scheduler.replies.get());
+    }
+
+    @Test
+    public void requestExposeShouldSendRequestAfterDelay() throws InterruptedException {
+        scheduler.requestExpose();
+
+        Thread.sleep(WAIT_FOR_REQUEST);
+
+        assertEquals(1, scheduler.requests.get());
+        assertEquals(0, scheduler.replies.get());
+    }
+
+    @Test
+    public void requestExposeShouldCollapseRepeatedRequests() throws InterruptedException {
+        scheduler.requestExpose();
+        scheduler.requestExpose();
+        Thread.sleep(WAIT_FOR_REQUEST);
+
+        // Still fresh
+        scheduler.requestExpose();
+        Thread.sleep(WAIT_FOR_REQUEST);
+
+        assertEquals(1, scheduler.requests.get());
+    }
+
+    @Test
+    public void requestExposeShouldNotSendIfAnotherClientAskedRecently() throws InterruptedException {
+        scheduler.exposeRequested(null, false);
+        scheduler.requestExpose();
+
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(0, scheduler.requests.get());
+    }
+
+    @Test
+    public void requestExposeShouldBeDroppedIfAnotherClientAsksWhileWaiting() throws InterruptedException {
+        scheduler.requestExpose();
+        scheduler.exposeRequested(null, false);
+
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(0, scheduler.requests.get());
+        assertEquals(1, scheduler.replies.get());
+    }
+
+    @Test
+    public void stopShouldCancelWaitingMessages() throws InterruptedException {
+        scheduler.exposeRequested(null, false);
+        scheduler.stop();
+        scheduler.exposeRequested(null, false);
+        scheduler.requestExpose();
+
+        Thread.sleep(WAIT_FOR_REPLY);
+
+        assertEquals(0, scheduler.replies.get());
+        assertEquals(0, scheduler.requests.get());
+    }
+
+    private User createUser(final long logonTime) {
+        final User user = new User("Peter", 1234);
+        user.setLogonTime(logonTime);
+
+        return user;
+    }
+
+    private static class CountingExposeScheduler extends ExposeScheduler {
+
+        private final AtomicInteger replies = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        protected void sendExposeReply() {
+            replies.incrementAndGet();
+        }
+
+        @Override
+        protected void sendExposeRequest() {
+            requests.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link IdleThread}.
+ *
+ * @author Christian Ihle
+ */
+public class IdleThreadTest {
+
+    @Test
+    public void getIdleIntervalShouldUseIdleTimeWithFewUsers() {
+        assertEquals(IdleThread.IDLE_TIME, IdleThread.getIdleInterval(1, true));
+        assertEquals(IdleThread.IDLE_TIME, IdleThread.getIdleInterval(10, true));
+        assertEquals(IdleThread.IDLE_TIME, IdleThread.getIdleInterval(10, false));
+    }
+
+    @Test
+    public void getIdleIntervalShouldGrowWithNumberOfUsers() {
+        assertEquals(16500, IdleThread.getIdleInterval(11, true));
+        assertEquals(30000, IdleThread.getIdleInterval(20, true));
+        assertEquals(IdleThread.MAX_IDLE_TIME, IdleThread.getIdleInterval(40, true));
+    }
+
+    @Test
+    public void getIdleIntervalShouldNeverBeLongerThanMaxIdleTime() {
+        assertEquals(IdleThread.MAX_IDLE_TIME, IdleThread.getIdleInterval(1000, true));
+    }
+
+    @Test
+    public void getIdleIntervalShouldStayWellBelowTimeoutOfOlderClients() {
+        assertEquals(IdleThread.MAX_IDLE_TIME_WITH_OLDER_CLIENTS, IdleThread.getIdleInterval(30, false));
+        assertEquals(IdleThread.MAX_IDLE_TIME_WITH_OLDER_CLIENTS, IdleThread.getIdleInterval(1000, false));
+        assertTrue(IdleThread.MAX_IDLE_TIME_WITH_OLDER_CLIENTS * 4 <= 120000);
+    }
+}
@@ -0,0 +1,244 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Calendar;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link LogRotator}.
+ *
+ * @author Christian Ihle
+ */
+public class LogRotatorTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private LogRotator logRotator;
+    private File logDir;
+
+    @Before
+    public void setUp() {
+        logDir = new File(System.getProperty("java.io.tmpdir"), "kouchat-logrotatortest-" + System.nanoTime());
+        assertTrue(logDir.mkdirs());
+
+        logRotator = new LogRotator(100, 10);
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = logDir.listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+
+        logDir.delete();
+    }
+
+    @Test
+    public void isRotationNeededShouldBeFalseForEmptyFile() {
+        assertFalse(logRotator.isRotationNeeded(0, 0, 1000));
+    }
+
+    @Test
+    public void isRotationNeededShouldBeTrueWhenTooBig() {
+        assertFalse(logRotator.isRotationNeeded(99, 2000, 1000));
+        assertTrue(logRotator.isRotationNeeded(100, 2000, 1000));
+    }
+
+    @Test
+    public void isRotationNeededShouldBeTrueWhenRotationTimeIsReached() {
+        assertFalse(logRotator.isRotationNeeded(10, 2000, 1999));
+        assertTrue(logRotator.isRotationNeeded(10, 2000, 2000));
+    }
+
+    @Test
+    public void getRotationTimeShouldReturnNextMidnight() {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(2014, Calendar.MARCH, 15, 13, 37, 12);
+
+        final Calendar rotationTime = Calendar.getInstance();
+        rotationTime.setTimeInMillis(logRotator.getRotationTime(calendar.getTimeInMillis()));
+
+        assertEquals(2014, rotationTime.get(Calendar.YEAR));
+        assertEquals(Calendar.MARCH, rotationTime.get(Calendar.MONTH));
+        assertEquals(16, rotationTime.get(Calendar.DAY_OF_MONTH));
+        assertEquals(0, rotationTime.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, rotationTime.get(Calendar.MINUTE));
+        assertEquals(0, rotationTime.get(Calendar.SECOND));
+        assertEquals(0, rotationTime.get(Calendar.MILLISECOND));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rotateShouldThrowExceptionIfFileNameIsEmpty() {
+        logRotator.rotate("");
+    }
+
+    @Test
+    public void rotateShouldReturnFalseIfFileIsMissing() {
+        assertFalse(logRotator.rotate(new File(logDir, "missing.log").getAbsolutePath()));
+    }
+
+    @Test
+    public void getRotatedFileShouldSkipUsedNumbers() throws IOException {
+        final File logFile = new File(logDir, "test.log");
+
+        assertEquals("test.1.log", logRotator.getRotatedFile(logFile).getName());
+
+        createFile("test.1.log", "Rotated");
+        assertEquals("test.2.log", logRotator.getRotatedFile(logFile).getName());
+
+        createFile("test.2.log.gz", "Compressed");
+        assertEquals("test.3.log", logRotator.getRotatedFile(logFile).getName());
+    }
+
+    @Test
+    public void rotateShouldRenameAndCompressTheFile() throws IOException, InterruptedException {
+        final File logFile = createFile("test.log", "Some text");
+
+        assertTrue(logRotator.rotate(logFile.getAbsolutePath()));
+        assertFalse(logFile.exists());
+
+        final File compressedFile = new File(logDir, "test.1.log.gz");
+        final File rotatedFile = new File(logDir, "test.1.log");
+
+        for (int i = 0; i < 100 && rotatedFile.exists(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertFalse(rotatedFile.exists());
+        assertTrue(compressedFile.exists());
+        assertEquals("Some text", readCompressedFile(compressedFile));
+    }
+
+    @Test
+    public void compressShouldKeepLastModified() throws IOException {
+        final File rotatedFile = createFile("test.1.log", "Some text");
+        final long lastModified = System.currentTimeMillis() - 5 * DAY;
+        assertTrue(rotatedFile.setLastModified(lastModified));
+
+        logRotator.compress(rotatedFile);
+
+        final File compressedFile = new File(logDir, "test.1.log.gz");
+        assertFalse(rotatedFile.exists());
+        assertEquals(lastModified / 1000, compressedFile.lastModified() / 1000);
+    }
+
+    @Test
+    public void deleteOldRotatedFilesShouldOnlyDeleteOldRotatedFilesOfTheLogFile() throws IOException {
+        final long old = System.currentTimeMillis() - 11 * DAY;
+
+        final File logFile = createFile("test.log", "Current");
+        final File oldRotated = createFile("test.1.log", "Old");
+        final File oldCompressed = createFile("test.2.log.gz", "Old");
+        final File newCompressed = createFile("test.3.log.gz", "New");
+        final File otherLog = createFile("other.1.log.gz", "Old");
+        final File similarName = createFile("test.old.log", "Old");
+
+        assertTrue(logFile.setLastModified(old));
+        assertTrue(oldRotated.setLastModified(old));
+        assertTrue(oldCompressed.setLastModified(old));
+        assertTrue(otherLog.setLastModified(old));
+        assertTrue(similarName.setLastModified(old));
+
+        logRotator.deleteOldRotatedFiles(logFile);
+
+        assertTrue(logFile.exists());
+        assertFalse(oldRotated.exists());
+        assertFalse(oldCompressed.exists());
+        assertTrue(newCompressed.exists());
+        assertTrue(otherLog.exists());
+        assertTrue(similarName.exists());
+    }
+
+    @Test
+    public void deleteOldRotatedFilesShouldDeleteOldRotatedFilesFromEarlierRuns() throws IOException {
+        final long old = System.currentTimeMillis() - 11 * DAY;
+
+        final File logFile = createFile("kouchat-2014.03.02-10.15.00-123.log", "Current");
+        final File earlierRun = createFile("kouchat-2014.01.01-12.00.00-000.1.log.gz", "Old");
+        final File earlierRunUncompressed = createFile("kouchat-2014.01.01-12.00.00-000.2.log", "Old");
+        final File earlierRunNew = createFile("kouchat-2014.01.01-12.00.00-000.3.log.gz", "New");
+        final File earlierRunLog = createFile("kouchat-2014.01.01-12.00.00-000.log", "Old");
+        final File otherPrefix = createFile("Peter-2014.01.01-12.00.00-000.1.log.gz", "Old");
+        final File longerPrefix = createFile("kouchat2-2014.01.01-12.00.00-000.1.log.gz", "Old");
+
+        assertTrue(earlierRun.setLastModified(old));
+        assertTrue(earlierRunUncompressed.setLastModified(old));
+        assertTrue(earlierRunLog.setLastModified(old));
+        assertTrue(otherPrefix.setLastModified(old));
+        assertTrue(longerPrefix.setLastModified(old));
+
+        logRotator.deleteOldRotatedFiles(logFile);
+
+        assertTrue(logFile.exists());
+        assertFalse(earlierRun.exists());
+        assertFalse(earlierRunUncompressed.exists());
+        assertTrue(earlierRunNew.exists());
+        assertTrue(earlierRunLog.exists());
+        assertTrue(otherPrefix.exists());
+        assertTrue(longerPrefix.exists());
+    }
+
+    private File createFile(final String name, final String content) throws IOException {
+        final File file = new File(logDir, name);
+        final FileWriter writer = new FileWriter(file);
+
+        try {
+            writer.write(content);
+        }
+
+        finally {
+            writer.close();
+        }
+
+        return file;
+    }
+
+    private String readCompressedFile(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))));
+
+        try {
+            return reader.readLine();
+        }
+
+        finally {
+            reader.close();
+        }
+    }
+}
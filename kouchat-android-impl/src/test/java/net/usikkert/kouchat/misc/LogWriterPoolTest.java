@@ -0,0 +1,289 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link LogWriterPool}.
+ *
+ * @author Christian Ihle
+ */
+public class LogWriterPoolTest {
+
+    private LogWriterPool logWriterPool;
+    private File logDir;
+
+    @Before
+    public void setUp() {
+        logDir = new File(System.getProperty("java.io.tmpdir"), "kouchat-logwriterpooltest-" + System.nanoTime());
+        assertTrue(logDir.mkdirs());
+
+        logWriterPool = new LogWriterPool(2, new LogRotator());
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = logDir.listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+
+        logDir.delete();
+    }
+
+    @Test
+    public void getLogWriterPoolShouldReturnSameInstance() {
+        assertSame(LogWriterPool.getLogWriterPool(), LogWriterPool.getLogWriterPool());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendShouldThrowExceptionIfFileNameIsEmpty() {
+        logWriterPool.append("", "Line");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendShouldThrowExceptionIfLineIsNull() {
+        logWriterPool.append(getFileName("log"), null);
+    }
+
+    @Test
+    public void flushShouldWaitUntilAllLinesAreWritten() throws IOException {
+        final String fileName = getFileName("log");
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(logWriterPool.append(fileName, "Line " + i));
+        }
+
+        assertTrue(logWriterPool.flush(5000));
+
+        final List<String> lines = readFile(fileName);
+        assertEquals(1000, lines.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("Line " + i, lines.get(i));
+        }
+
+        assertEquals(1, logWriterPool.getOpenFileCount());
+    }
+
+    @Test
+    public void closeShouldCloseTheFileAfterWritingTheLines() throws IOException {
+        final String fileName = getFileName("log");
+
+        logWriterPool.append(fileName, "Before close");
+        logWriterPool.close(fileName);
+        assertTrue(logWriterPool.flush(5000));
+
+        assertEquals(0, logWriterPool.getOpenFileCount());
+        assertEquals(1, readFile(fileName).size());
+    }
+
+    @Test
+    public void closedFileShouldBeOpenedAgainAndAppendedTo() throws IOException {
+        final String fileName = getFileName("log");
+
+        logWriterPool.append(fileName, "First");
+        logWriterPool.close(fileName);
+        logWriterPool.append(fileName, "Second");
+        assertTrue(logWriterPool.flush(5000));
+
+        final List<String> lines = readFile(fileName);
+        assertEquals(2, lines.size());
+        assertEquals("First", lines.get(0));
+        assertEquals("Second", lines.get(1));
+    }
+
+    @Test
+    public void shouldKeepTheMaximumNumberOfFilesOpenAndReopenTheLeastRecentlyUsed() throws IOException {
+        final String file1 = getFileName("log1");
+        final String file2 = getFileName("log2");
+        final String file3 = getFileName("log3");
+
+        for (int i = 0; i < 10; i++) {
+            logWriterPool.append(file1, "Line " + i);
+            logWriterPool.append(file2, "Line " + i);
+            logWriterPool.append(file3, "Line " + i);
+        }
+
+        assertTrue(logWriterPool.flush(5000));
+        assertEquals(2, logWriterPool.getOpenFileCount());
+
+        for (final String fileName : new String[] {file1, file2, file3}) {
+            final List<String> lines = readFile(fileName);
+            assertEquals(10, lines.size());
+
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Line " + i, lines.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRotateFileWhenTooBig() throws IOException {
+        final LogWriterPool rotatingPool = new LogWriterPool(2, new LogRotator(50, 90));
+        final String fileName = getFileName("test.log");
+
+        for (int i = 0; i < 10; i++) {
+            rotatingPool.append(fileName, "Line " + i);
+        }
+
+        assertTrue(rotatingPool.flush(5000));
+
+        final List<String> lines = readFile(fileName);
+        assertEquals(2, lines.size());
+        assertEquals("Line 8", lines.get(0));
+        assertTrue(rotatedFileExists("test.1.log"));
+    }
+
+    @Test
+    public void shouldRotateFileFromAnotherDay() throws IOException {
+        final String fileName = getFileName("test.log");
+        final File file = new File(fileName);
+
+        logWriterPool.append(fileName, "Yesterday");
+        logWriterPool.close(fileName);
+        assertTrue(logWriterPool.flush(5000));
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 24L * 60 * 60 * 1000));
+
+        logWriterPool.append(fileName, "Today");
+        assertTrue(logWriterPool.flush(5000));
+
+        final List<String> lines = readFile(fileName);
+        assertEquals(1, lines.size());
+        assertEquals("Today", lines.get(0));
+        assertTrue(rotatedFileExists("test.1.log"));
+    }
+
+    @Test
+    public void shouldNotRotateFileFromToday() throws IOException {
+        final String fileName = getFileName("test.log");
+
+        logWriterPool.append(fileName, "First");
+        logWriterPool.close(fileName);
+        logWriterPool.append(fileName, "Second");
+        assertTrue(logWriterPool.flush(5000));
+
+        assertEquals(2, readFile(fileName).size());
+        assertFalse(rotatedFileExists("test.1.log"));
+    }
+
+    private boolean rotatedFileExists(final String name) {
+        return new File(logDir, name).exists() || new File(logDir, name + ".gz").exists();
+    }
+
+    @Test
+    public void writerShouldKeepWritingAfterARuntimeExceptionFromTheRotator() throws IOException {
+        final String brokenFile = getFileName("broken");
+        final String fileName = getFileName("log");
+
+        logWriterPool = new LogWriterPool(2, new LogRotator() {
+            @Override
+            public boolean isRotationNeeded(final long size, final long rotationTime, final long now) {
+                if (size > 0) {
+                    throw new IllegalStateException("Broken rotator");
+                }
+
+                return false;
+            }
+        });
+
+        logWriterPool.append(brokenFile, "First");
+        logWriterPool.append(brokenFile, "Second");
+        assertTrue(logWriterPool.flush(5000));
+
+        logWriterPool.append(fileName, "After the exception");
+        assertTrue(logWriterPool.flush(5000));
+
+        assertEquals(1, readFile(fileName).size());
+    }
+
+    @Test
+    public void closeAndFlushShouldNotHangWhenTheQueueIsFull() throws IOException {
+        final String fileName = getFileName("log");
+        final Object lock = new Object();
+
+        // Blocks the writer thread, so the queue fills up
+        logWriterPool = new LogWriterPool(2, new LogRotator() {
+            @Override
+            public boolean isRotationNeeded(final long size, final long rotationTime, final long now) {
+                synchronized (lock) {
+                    return false;
+                }
+            }
+        });
+
+        synchronized (lock) {
+            int appended = 0;
+
+            while (logWriterPool.append(fileName, "Line")) {
+                appended++;
+            }
+
+            assertTrue(appended > 0);
+
+            logWriterPool.close(fileName);
+            assertFalse(logWriterPool.flush(100));
+        }
+
+        assertTrue(logWriterPool.flush(5000));
+    }
+
+    private String getFileName(final String name) {
+        return new File(logDir, name).getAbsolutePath();
+    }
+
+    private List<String> readFile(final String fileName) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(fileName));
+
+        try {
+            String line = reader.readLine();
+
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        }
+
+        finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+}
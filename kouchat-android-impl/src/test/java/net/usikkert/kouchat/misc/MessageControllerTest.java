@@ -24,6 +24,8 @@ package net.usikkert.kouchat.misc;
 
 import static org.mockito.Mockito.*;
 
+import net.usikkert.kouchat.history.HistoryRecord;
+import net.usikkert.kouchat.history.HistoryStore;
 import net.usikkert.kouchat.ui.ChatWindow;
 import net.usikkert.kouchat.ui.UserInterface;
 import net.usikkert.kouchat.util.TestUtils;
@@ -41,13 +43,19 @@ public class MessageControllerTest {
     private MessageController messageController;
 
     private ChatLogger chatLogger;
+    private HistoryStore historyStore;
+    private Settings settings;
 
     @Before
     public void setUp() {
-        messageController = new MessageController(mock(ChatWindow.class), mock(UserInterface.class), mock(Settings.class));
+        settings = mock(Settings.class);
+        messageController = new MessageController(mock(ChatWindow.class), mock(UserInterface.class), settings);
 
         chatLogger = mock(ChatLogger.class);
         TestUtils.setFieldValue(messageController, "cLog", chatLogger);
+
+        historyStore = mock(HistoryStore.class);
+        TestUtils.setFieldValue(messageController, "historyStore", historyStore);
     }
 
     @Test
@@ -56,4 +64,29 @@ public class MessageControllerTest {
 
         verify(chatLogger).close();
     }
+
+    @Test
+    public void shutdownShouldCloseTheHistoryInTheBackground() {
+        messageController.shutdown();
+
+        verify(historyStore, timeout(5000)).close();
+    }
+
+    @Test
+    public void showSystemMessageShouldAddToTheHistoryInTheBackgroundWhenLogging() throws Exception {
+        when(settings.isLogging()).thenReturn(true);
+
+        messageController.showSystemMessage("Hello");
+
+        verify(historyStore, timeout(5000)).append(any(HistoryRecord.class));
+    }
+
+    @Test
+    public void showSystemMessageShouldNotAddToTheHistoryWhenNotLogging() throws Exception {
+        messageController.showSystemMessage("Hello");
+        messageController.shutdown();
+
+        verify(historyStore, timeout(5000)).close();
+        verify(historyStore, never()).append(any(HistoryRecord.class));
+    }
 }
@@ -0,0 +1,144 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Microbenchmark of {@link SortedUserList}, for join storms and status changes.
+ *
+ * <p>Ignored by default, as timings are machine specific. Run manually to compare changes.
+ * Each workload is run a few times first to let the JIT warm up.</p>
+ *
+ * @author Christian Ihle
+ */
+@Ignore("Benchmark")
+public class SortedUserListPerformanceTest {
+
+    private static final int USERS = 1000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    private List<User> users;
+
+    @Before
+    public void setUp() {
+        users = new ArrayList<User>();
+
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User("User" + i, 10000 + i));
+        }
+
+        Collections.shuffle(users, new Random(42));
+    }
+
+    @Test
+    public void joinStorm() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            addAllUsers();
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            addAllUsers();
+        }
+
+        report("Join storm of " + USERS + " users", start);
+    }
+
+    @Test
+    public void writingStatusToggles() {
+        final SortedUserList userList = addAllUsers();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            toggleWritingForAllUsers(userList);
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            toggleWritingForAllUsers(userList);
+        }
+
+        report("Writing toggles for " + USERS + " users", start);
+    }
+
+    @Test
+    public void nickChanges() {
+        final SortedUserList userList = addAllUsers();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            changeNickForAllUsers(userList, "Warmup" + i);
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            changeNickForAllUsers(userList, "Measured" + i);
+        }
+
+        report("Nick changes for " + USERS + " users", start);
+    }
+
+    private SortedUserList addAllUsers() {
+        final SortedUserList userList = new SortedUserList();
+
+        for (final User user : users) {
+            userList.add(user);
+        }
+
+        assertEquals(USERS, userList.size());
+
+        return userList;
+    }
+
+    private void toggleWritingForAllUsers(final SortedUserList userList) {
+        for (final User user : users) {
+            user.setWriting(!user.isWriting());
+            userList.set(userList.indexOf(user), user);
+        }
+    }
+
+    private void changeNickForAllUsers(final SortedUserList userList, final String prefix) {
+        for (final User user : users) {
+            final int pos = userList.indexOf(user);
+            user.setNick(prefix + user.getCode());
+            userList.set(pos, user);
+        }
+    }
+
+    private void report(final String workload, final long start) {
+        final long averageMicros = (System.nanoTime() - start) / MEASURED_ROUNDS / 1000;
+        System.out.println(workload + ": " + averageMicros + " microseconds per round");
+    }
+}
@@ -271,6 +271,107 @@ public class SortedUserListTest {
         userList.set(0, new User("Test1", 10));
     }
 
+    @Test
+    public void addShouldPutUsersWithSameNickAfterExistingUsers() {
+        final User niles2 = new User("niles", 5);
+        final User niles3 = new User("NILES", 6);
+
+        addAllUsers();
+        userList.add(niles2);
+        userList.add(niles3);
+
+        assertSame(niles, userList.get(3));
+        assertSame(niles2, userList.get(4));
+        assertSame(niles3, userList.get(5));
+
+        verify(listener).userAdded(4, niles2);
+        verify(listener).userAdded(5, niles3);
+    }
+
+    @Test
+    public void indexOfShouldFindUsersWithSameNick() {
+        final User niles2 = new User("Niles", 5);
+
+        addAllUsers();
+        userList.add(niles2);
+
+        assertEquals(3, userList.indexOf(niles));
+        assertEquals(4, userList.indexOf(niles2));
+    }
+
+    @Test
+    public void indexOfShouldFindUserWithNickChangedOutsideTheList() {
+        addAllUsers();
+
+        annie.setNick("Zoe");
+
+        assertEquals(0, userList.indexOf(annie));
+    }
+
+    @Test
+    public void setShouldMoveUserWhenNickChanged() {
+        addAllUsers();
+
+        john.setNick("Martin");
+        userList.set(1, john);
+
+        assertSame(annie, userList.get(0));
+        assertSame(lenny, userList.get(1));
+        assertSame(john, userList.get(2));
+        assertSame(niles, userList.get(3));
+
+        verify(listener).userChanged(2, john);
+    }
+
+    @Test
+    public void setShouldMoveUserToTheStartWhenNickChanged() {
+        addAllUsers();
+
+        niles.setNick("Adam");
+        userList.set(3, niles);
+
+        assertSame(niles, userList.get(0));
+        assertSame(annie, userList.get(1));
+        assertSame(john, userList.get(2));
+        assertSame(lenny, userList.get(3));
+
+        verify(listener).userChanged(0, niles);
+    }
+
+    @Test
+    public void setShouldNotMoveUserWhenSortOrderIsUnchanged() {
+        addAllUsers();
+
+        lenny.setWriting(true);
+        userList.set(2, lenny);
+
+        assertSame(annie, userList.get(0));
+        assertSame(john, userList.get(1));
+        assertSame(lenny, userList.get(2));
+        assertSame(niles, userList.get(3));
+
+        verify(listener).userChanged(2, lenny);
+    }
+
+    @Test
+    public void setShouldNotMoveUserWithSameNickAsNeighbours() {
+        final User niles2 = new User("Niles", 5);
+        final User niles3 = new User("Niles", 6);
+
+        addAllUsers();
+        userList.add(niles2);
+        userList.add(niles3);
+
+        niles2.setAway(true);
+        userList.set(4, niles2);
+
+        assertSame(niles, userList.get(3));
+        assertSame(niles2, userList.get(4));
+        assertSame(niles3, userList.get(5));
+
+        verify(listener).userChanged(4, niles2);
+    }
+
     private void addAllUsers() {
         userList.add(niles);
         userList.add(john);
@@ -0,0 +1,248 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import net.usikkert.kouchat.net.MessageBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserListController}.
+ *
+ * @author Christian Ihle
+ */
+public class UserListControllerTest {
+
+    private UserListController controller;
+
+    private UserList userList;
+    private User me;
+
+    private User niles;
+    private User lenny;
+
+    @Before
+    public void setUp() {
+        final Settings settings = new Settings();
+        me = settings.getMe();
+        me.setNick("Me");
+
+        controller = new UserListController(settings);
+        userList = controller.getUserList();
+
+        niles = new User("Niles", 100);
+        lenny = new User("Lenny", 101);
+
+        userList.add(niles);
+        userList.add(lenny);
+    }
+
+    @Test
+    public void constructorShouldAddMeToTheUserList() {
+        assertTrue(userList.indexOf(me) != -1);
+        assertSame(me, controller.getUser(me.getCode()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionIfSettingsIsNull() {
+        new UserListController(null);
+    }
+
+    @Test
+    public void getUserByCodeShouldFindUsersInTheList() {
+        assertSame(niles, controller.getUser(100));
+        assertSame(lenny, controller.getUser(101));
+    }
+
+    @Test
+    public void getUserByCodeShouldReturnNullForUnknownUser() {
+        assertNull(controller.getUser(102));
+    }
+
+    @Test
+    public void getUserByCodeShouldReturnNullAfterUserIsRemoved() {
+        userList.remove(niles);
+
+        assertNull(controller.getUser(100));
+        assertTrue(controller.isNewUser(100));
+    }
+
+    @Test
+    public void getUserByNickShouldIgnoreCase() {
+        assertSame(niles, controller.getUser("niles"));
+        assertSame(niles, controller.getUser("NILES"));
+        assertSame(lenny, controller.getUser("Lenny"));
+    }
+
+    @Test
+    public void getUserByNickShouldFindMe() {
+        assertSame(me, controller.getUser("me"));
+    }
+
+    @Test
+    public void getUserByNickShouldFindMeAfterNickChangedInSettings() {
+        me.setNick("NewMe");
+
+        assertSame(me, controller.getUser("newme"));
+        assertNull(controller.getUser("Me"));
+    }
+
+    @Test
+    public void getUserByNickShouldReturnNullForUnknownOrNullNick() {
+        assertNull(controller.getUser("Annie"));
+        assertNull(controller.getUser((String) null));
+    }
+
+    @Test
+    public void getUserByNickShouldReturnNullAfterUserIsRemoved() {
+        userList.remove(lenny);
+
+        assertNull(controller.getUser("Lenny"));
+        assertFalse(controller.isNickNameInUse("Lenny"));
+    }
+
+    @Test
+    public void changeNickNameShouldUpdateTheNickIndex() {
+        controller.changeNickName(100, "Frasier");
+
+        assertEquals("Frasier", niles.getNick());
+        assertSame(niles, controller.getUser("frasier"));
+        assertNull(controller.getUser("Niles"));
+        assertTrue(controller.isNickNameInUse("Frasier"));
+        assertFalse(controller.isNickNameInUse("Niles"));
+    }
+
+    @Test
+    public void changeNickNameShouldIgnoreUnknownUser() {
+        controller.changeNickName(102, "Frasier");
+
+        assertNull(controller.getUser("Frasier"));
+    }
+
+    @Test
+    public void removingUserWithDuplicateNickShouldIndexTheOtherUser() {
+        final User otherNiles = new User("niles", 102);
+        userList.add(otherNiles);
+
+        assertSame(niles, controller.getUser("Niles"));
+
+        userList.remove(niles);
+
+        assertSame(otherNiles, controller.getUser("Niles"));
+        assertTrue(controller.isNickNameInUse("Niles"));
+    }
+
+    @Test
+    public void isNickNameInUseShouldNotIncludeMe() {
+        assertFalse(controller.isNickNameInUse("Me"));
+        assertTrue(controller.isNickNameInUse("niles"));
+        assertFalse(controller.isNickNameInUse(null));
+    }
+
+    @Test
+    public void isNewUserShouldCheckTheUserCode() {
+        assertFalse(controller.isNewUser(100));
+        assertFalse(controller.isNewUser(me.getCode()));
+        assertTrue(controller.isNewUser(102));
+    }
+
+    @Test
+    public void changeAwayStatusShouldUpdateUser() {
+        controller.changeAwayStatus(101, true, "Gone");
+
+        assertTrue(lenny.isAway());
+        assertEquals("Gone", lenny.getAwayMsg());
+    }
+
+    @Test
+    public void changeWritingShouldUpdateUser() {
+        controller.changeWriting(101, true);
+
+        assertTrue(lenny.isWriting());
+    }
+
+    @Test
+    public void changeNewMessageShouldUpdateUser() {
+        controller.changeNewMessage(100, true);
+
+        assertTrue(niles.isNewPrivMsg());
+    }
+
+    @Test
+    public void isTimeoutUsersShouldFindUsersWithCodeAsNick() {
+        assertFalse(controller.isTimeoutUsers());
+
+        controller.changeNickName(101, "101");
+
+        assertTrue(controller.isTimeoutUsers());
+    }
+
+    @Test
+    public void isMessageBatchSupportedShouldRequireAllOtherUsersToSupportIt() {
+        assertFalse(controller.isMessageBatchSupported());
+
+        niles.setCapabilities(Collections.singleton(MessageBatch.CAPABILITY));
+        assertFalse(controller.isMessageBatchSupported());
+
+        lenny.setCapabilities(Collections.singleton(MessageBatch.CAPABILITY));
+        assertTrue(controller.isMessageBatchSupported());
+    }
+
+    @Test
+    public void isMessageBatchSupportedShouldBeFalseWithoutOtherUsers() {
+        userList.remove(niles);
+        userList.remove(lenny);
+
+        assertFalse(controller.isMessageBatchSupported());
+    }
+
+    @Test
+    public void isIdleIntervalSupportedShouldRequireAllOtherUsersToSendIt() {
+        assertFalse(controller.isIdleIntervalSupported());
+
+        niles.setIdleInterval(15000);
+        assertFalse(controller.isIdleIntervalSupported());
+
+        lenny.setIdleInterval(30000);
+        assertTrue(controller.isIdleIntervalSupported());
+    }
+
+    @Test
+    public void isIdleIntervalSupportedShouldBeFalseWithoutOtherUsers() {
+        userList.remove(niles);
+        userList.remove(lenny);
+
+        assertFalse(controller.isIdleIntervalSupported());
+    }
+
+    @Test
+    public void toNickKeyShouldMatchEqualsIgnoreCase() {
+        assertEquals(UserListController.toNickKey("NiLeS"), UserListController.toNickKey("niles"));
+        assertFalse(UserListController.toNickKey("Niles").equals(UserListController.toNickKey("Nile")));
+    }
+}
@@ -24,6 +24,9 @@ package net.usikkert.kouchat.misc;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.HashSet;
+
 import org.junit.Test;
 
 /**
@@ -63,4 +66,26 @@ public class UserTest {
         assertFalse(test1.equals(null));
         assertFalse(test1.equals("No user"));
     }
+
+    @Test
+    public void isCapabilitySupportedShouldCheckTheCapabilitiesFromTheClient() {
+        final User user = new User("Test", 123);
+        assertFalse(user.isCapabilitySupported("BATCH"));
+
+        user.setCapabilities(new HashSet<String>(Arrays.asList("BATCH", "RESUME")));
+
+        assertTrue(user.isCapabilitySupported("BATCH"));
+        assertTrue(user.isCapabilitySupported("RESUME"));
+        assertFalse(user.isCapabilitySupported("STREAMS"));
+    }
+
+    @Test
+    public void resetShouldRemoveTheCapabilities() {
+        final User user = new User("Test", 123);
+        user.setCapabilities(new HashSet<String>(Arrays.asList("BATCH")));
+
+        user.reset();
+
+        assertFalse(user.isCapabilitySupported("BATCH"));
+    }
 }
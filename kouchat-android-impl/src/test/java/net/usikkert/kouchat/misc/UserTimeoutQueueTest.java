@@ -0,0 +1,206 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link UserTimeoutQueue}.
+ *
+ * @author Christian Ihle
+ */
+public class UserTimeoutQueueTest {
+
+    private static final long TIMEOUT = 1000;
+
+    private UserTimeoutQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new UserTimeoutQueue(TIMEOUT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addUserShouldThrowExceptionIfUserIsNull() {
+        queue.addUser(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void removeUserShouldThrowExceptionIfUserIsNull() {
+        queue.removeUser(null);
+    }
+
+    @Test
+    public void getNextCheckTimeShouldReturnMaxValueWhenEmpty() {
+        assertEquals(Long.MAX_VALUE, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void getNextCheckTimeShouldReturnEarliestDeadline() {
+        queue.addUser(createUser(1, 5000));
+        queue.addUser(createUser(2, 3000));
+        queue.addUser(createUser(3, 4000));
+
+        assertEquals(4000, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void addUserShouldIgnoreUserAlreadyInQueue() {
+        final User user = createUser(1, 5000);
+
+        queue.addUser(user);
+        queue.addUser(user);
+
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldReturnNothingBeforeDeadline() {
+        queue.addUser(createUser(1, 5000));
+
+        assertTrue(queue.removeTimedOutUsers(5999).isEmpty());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldReturnUserAtDeadline() {
+        final User user = createUser(1, 5000);
+        queue.addUser(user);
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(6000);
+
+        assertEquals(1, timedOutUsers.size());
+        assertSame(user, timedOutUsers.get(0));
+        assertEquals(0, queue.size());
+        assertEquals(Long.MAX_VALUE, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldOnlyReturnUsersPastDeadline() {
+        final User user1 = createUser(1, 5000);
+        final User user2 = createUser(2, 5500);
+        final User user3 = createUser(3, 7000);
+
+        queue.addUser(user1);
+        queue.addUser(user2);
+        queue.addUser(user3);
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(6500);
+
+        assertEquals(2, timedOutUsers.size());
+        assertSame(user1, timedOutUsers.get(0));
+        assertSame(user2, timedOutUsers.get(1));
+        assertEquals(1, queue.size());
+        assertEquals(8000, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldRescheduleUserThatHasBeenIdle() {
+        final User user = createUser(1, 5000);
+        queue.addUser(user);
+
+        user.setLastIdle(5800);
+
+        assertTrue(queue.removeTimedOutUsers(6000).isEmpty());
+        assertEquals(6800, queue.getNextCheckTime());
+        assertEquals(1, queue.size());
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(6800);
+
+        assertEquals(1, timedOutUsers.size());
+        assertSame(user, timedOutUsers.get(0));
+    }
+
+    @Test
+    public void deadlineShouldUseIdleIntervalOfUserIfLongerThanTimeout() {
+        final User shortInterval = createUser(1, 5000);
+        shortInterval.setIdleInterval(100);
+        final User longInterval = createUser(2, 5000);
+        longInterval.setIdleInterval(500);
+
+        queue.addUser(shortInterval);
+        queue.addUser(longInterval);
+
+        assertEquals(6000, queue.getNextCheckTime());
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(6000);
+
+        assertEquals(1, timedOutUsers.size());
+        assertSame(shortInterval, timedOutUsers.get(0));
+        assertEquals(5000 + 500 * UserTimeoutQueue.IDLE_INTERVALS_BEFORE_TIMEOUT, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldNotReturnRemovedUser() {
+        final User user = createUser(1, 5000);
+        queue.addUser(user);
+        queue.removeUser(user);
+
+        assertEquals(0, queue.size());
+        assertTrue(queue.removeTimedOutUsers(6000).isEmpty());
+        assertEquals(Long.MAX_VALUE, queue.getNextCheckTime());
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldUseNewDeadlineWhenUserIsAddedAgainAfterRemove() {
+        final User user = createUser(1, 5000);
+        queue.addUser(user);
+        queue.removeUser(user);
+
+        final User sameUserAgain = createUser(1, 7000);
+        queue.addUser(sameUserAgain);
+
+        assertTrue(queue.removeTimedOutUsers(6000).isEmpty());
+        assertEquals(8000, queue.getNextCheckTime());
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(8000);
+
+        assertEquals(1, timedOutUsers.size());
+        assertSame(sameUserAgain, timedOutUsers.get(0));
+    }
+
+    @Test
+    public void removeTimedOutUsersShouldOnlyCheckUsersThatMightHaveTimedOut() {
+        for (int i = 0; i < 1000; i++) {
+            queue.addUser(createUser(i, 5000 + i));
+        }
+
+        final List<User> timedOutUsers = queue.removeTimedOutUsers(6009);
+
+        assertEquals(10, timedOutUsers.size());
+        assertEquals(990, queue.size());
+        assertEquals(6010, queue.getNextCheckTime());
+    }
+
+    private User createUser(final int code, final long lastIdle) {
+        final User user = new User("User" + code, code);
+        user.setLastIdle(lastIdle);
+
+        return user;
+    }
+}
@@ -0,0 +1,144 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link WaitingList}.
+ *
+ * @author Christian Ihle
+ */
+public class WaitingListTest {
+
+    private WaitingList waitingList;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        waitingList = new WaitingList();
+        events = new ArrayList<String>();
+    }
+
+    @After
+    public void tearDown() {
+        waitingList.stop();
+    }
+
+    @Test
+    public void addAndRemoveShouldUpdateWaitingStatus() {
+        assertFalse(waitingList.isWaitingUser(100));
+
+        waitingList.addWaitingUser(100);
+        waitingList.addWaitingUser(100);
+        assertTrue(waitingList.isWaitingUser(100));
+        assertFalse(waitingList.isWaitingUser(101));
+
+        waitingList.removeWaitingUser(100);
+        assertFalse(waitingList.isWaitingUser(100));
+    }
+
+    @Test
+    public void runWhenIdentifiedShouldRunRightAwayIfUserIsNotWaiting() {
+        waitingList.runWhenIdentified(100, new EventTask("first"));
+
+        assertEquals(1, events.size());
+        assertEquals("first", events.get(0));
+    }
+
+    @Test
+    public void runWhenIdentifiedShouldRunTasksInOrderWhenUserIsRemoved() {
+        waitingList.addWaitingUser(100);
+
+        waitingList.runWhenIdentified(100, new EventTask("first"));
+        waitingList.runWhenIdentified(100, new EventTask("second"));
+        waitingList.runWhenIdentified(100, new EventTask("third"));
+        assertTrue(events.isEmpty());
+
+        waitingList.removeWaitingUser(100);
+
+        assertEquals(3, events.size());
+        assertEquals("first", events.get(0));
+        assertEquals("second", events.get(1));
+        assertEquals("third", events.get(2));
+    }
+
+    @Test
+    public void removingOtherUserShouldNotRunTasks() {
+        waitingList.addWaitingUser(100);
+        waitingList.addWaitingUser(101);
+
+        waitingList.runWhenIdentified(100, new EventTask("first"));
+        waitingList.removeWaitingUser(101);
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void tasksShouldRunWhenUserTimesOut() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        waitingList.addWaitingUser(100);
+        waitingList.runWhenIdentified(100, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(waitingList.isWaitingUser(100));
+    }
+
+    @Test
+    public void addWaitingUserAfterStopShouldNotKeepUserWaiting() {
+        waitingList.stop();
+
+        waitingList.addWaitingUser(100);
+
+        assertFalse(waitingList.isWaitingUser(100));
+    }
+
+    private class EventTask implements Runnable {
+
+        private final String event;
+
+        EventTask(final String event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            events.add(event);
+        }
+    }
+}
@@ -25,9 +25,21 @@ package net.usikkert.kouchat.net;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 
 import net.usikkert.kouchat.misc.User;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 /**
@@ -37,6 +49,22 @@ import org.junit.Test;
  */
 public class FileReceiverTest {
 
+    private File file;
+    private User user;
+    private MockFileTransferListener listener;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("kouchat-filereceivertest-", ".bin");
+        user = new User("Test", 1234);
+        listener = new MockFileTransferListener();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
     @Test
     public void getOriginalFileNameShouldReturnTheNameOfTheFileFromTheConstructorEvenAfterChange() {
         final FileReceiver fileReceiver = new FileReceiver(new User("Test", 123), new File("cows.gif"), 100, 1);
@@ -51,4 +79,492 @@ public class FileReceiverTest {
         assertEquals("chickens.jpg", fileReceiver.getFileName());
         assertEquals("chickens.jpg", fileReceiver.getFile().getName());
     }
+
+    @Test
+    public void transferShouldReceiveTheWholeFile() throws Exception {
+        final byte[] content = createRandomContent(3 * FileReceiver.BUFFER_SIZE + 123);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), content);
+
+        assertTrue(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+        assertTrue(fileReceiver.isTransferred());
+        assertEquals(content.length, fileReceiver.getTransferred());
+        assertEquals(100, fileReceiver.getPercent());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+        assertTrue(listener.getTransferUpdates() > 0);
+    }
+
+    @Test
+    public void transferShouldReplaceTheContentOfAnExistingLargerFile() throws Exception {
+        writeFile(createRandomContent(2000));
+
+        final byte[] content = createRandomContent(1000);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), content);
+
+        assertTrue(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+    }
+
+    @Test
+    public void transferShouldReceiveAnEmptyFile() throws Exception {
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 0, 1);
+        fileReceiver.registerListener(listener);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), new byte[0]);
+
+        assertTrue(fileReceiver.transfer());
+        sender.join();
+
+        assertEquals(0, file.length());
+        assertTrue(fileReceiver.isTransferred());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldFailAndRemoveThePreallocatedPartIfTheSenderStopsEarly() throws Exception {
+        final byte[] content = createRandomContent(FileReceiver.BUFFER_SIZE + 500);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length + 1000, 1);
+        fileReceiver.registerListener(listener);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), content);
+
+        assertFalse(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+        assertFalse(fileReceiver.isTransferred());
+        assertEquals(content.length, fileReceiver.getTransferred());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Failed"), listener.getStatuses());
+    }
+
+    @Test
+    public void resumeFromShouldUseTheChecksumOfThePartialFile() throws Exception {
+        final byte[] content = createRandomContent(5000);
+        writeFile(Arrays.copyOf(content, 3000));
+
+        final FileReceiver fileReceiver = new FileReceiver(user, new File("other.bin"), content.length, 1);
+        fileReceiver.resumeFrom(file);
+
+        assertSame(file, fileReceiver.getFile());
+        assertEquals("other.bin", fileReceiver.getOriginalFileName());
+        assertEquals(3000, fileReceiver.getResumeOffset());
+        assertEquals(FileResume.calculateChecksum(file, 3000), fileReceiver.getResumeChecksum());
+    }
+
+    @Test
+    public void resumeFromShouldNotResumeIfThePartialFileIsGone() {
+        file.delete();
+
+        final FileReceiver fileReceiver = new FileReceiver(user, new File("other.bin"), 5000, 1);
+        fileReceiver.resumeFrom(file);
+
+        assertEquals(0, fileReceiver.getResumeOffset());
+    }
+
+    @Test
+    public void transferShouldOnlyReceiveTheRestOfTheFileWhenResuming() throws Exception {
+        final byte[] content = createRandomContent(FileReceiver.BUFFER_SIZE + 12345);
+        writeFile(Arrays.copyOf(content, 10000));
+
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.resumeFrom(file);
+
+        final byte[] rest = Arrays.copyOfRange(content, 10000, content.length);
+        final SenderThread sender = startSender(fileReceiver.startServer(), withStartOffset(10000, rest));
+
+        assertTrue(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+        assertTrue(fileReceiver.isTransferred());
+        assertEquals(content.length, fileReceiver.getTransferred());
+        assertEquals(100, fileReceiver.getPercent());
+    }
+
+    @Test
+    public void transferShouldReceiveTheWholeFileWhenTheSenderStartsOver() throws Exception {
+        final byte[] content = createRandomContent(50000);
+        writeFile(createRandomContent(20000));
+
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.resumeFrom(file);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), withStartOffset(0, content));
+
+        assertTrue(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+    }
+
+    @Test
+    public void transferShouldKeepThePartialFileIfTheResumeFails() throws Exception {
+        final byte[] partialContent = createRandomContent(20000);
+        writeFile(partialContent);
+
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 50000, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.resumeFrom(file);
+
+        final SenderThread sender = startSender(fileReceiver.startServer(), withStartOffset(12345, new byte[100]));
+
+        assertFalse(fileReceiver.transfer());
+        sender.join();
+
+        assertTrue(Arrays.equals(partialContent, readFile()));
+        assertEquals(20000, fileReceiver.getTransferred());
+    }
+
+    @Test
+    public void setStreamsShouldKeepTheNumberOfStreamsWithinTheLimits() {
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 100, 1);
+        assertEquals(1, fileReceiver.getStreams());
+
+        fileReceiver.setStreams(0);
+        assertEquals(1, fileReceiver.getStreams());
+
+        fileReceiver.setStreams(3);
+        assertEquals(3, fileReceiver.getStreams());
+
+        fileReceiver.setStreams(100);
+        assertEquals(ParallelStreams.MAX_STREAMS, fileReceiver.getStreams());
+    }
+
+    @Test
+    public void transferShouldWriteEachRangeAtItsOwnPositionWithSeveralStreams() throws Exception {
+        final byte[] content = createRandomContent(3 * FileReceiver.BUFFER_SIZE + 4321);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.setStreams(3);
+
+        final int port = fileReceiver.startServer();
+        final long[] offsets = ParallelStreams.splitIntoRanges(0, content.length, 3);
+
+        // The last range first, as the order of the connections should not matter
+        final SenderThread sender3 = startSender(port, withStartOffset(offsets[2], range(content, offsets[2], offsets[3])));
+        final SenderThread sender1 = startSender(port, withStartOffset(offsets[0], range(content, offsets[0], offsets[1])));
+        final SenderThread sender2 = startSender(port, withStartOffset(offsets[1], range(content, offsets[1], offsets[2])));
+
+        assertTrue(fileReceiver.transfer());
+        sender1.join();
+        sender2.join();
+        sender3.join();
+
+        assertTrue(Arrays.equals(content, readFile()));
+        assertTrue(fileReceiver.isTransferred());
+        assertEquals(content.length, fileReceiver.getTransferred());
+        assertEquals(100, fileReceiver.getPercent());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldOnlyKeepTheFirstRangeIfARangeIsMissingBytesWithSeveralStreams() throws Exception {
+        final byte[] content = createRandomContent(30000);
+        final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.setStreams(3);
+
+        final int port = fileReceiver.startServer();
+
+        final SenderThread sender1 = startSender(port, withStartOffset(0, range(content, 0, 10000)));
+        final SenderThread sender2 = startSender(port, withStartOffset(10000, range(content, 10000, 15000)));
+        final SenderThread sender3 = startSender(port, withStartOffset(20000, range(content, 20000, 30000)));
+
+        assertFalse(fileReceiver.transfer());
+        sender1.join();
+        sender2.join();
+        sender3.join();
+
+        assertTrue(Arrays.equals(range(content, 0, 10000), readFile()));
+        assertEquals(10000, fileReceiver.getTransferred());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Failed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldReceiveFromFileSenderWithSeveralStreams() throws Exception {
+        final byte[] content = createRandomContent(2 * 1024 * 1024 + 99);
+        final File sourceFile = File.createTempFile("kouchat-filereceivertest-source-", ".bin");
+
+        try {
+            final OutputStream outputStream = new FileOutputStream(sourceFile);
+
+            try {
+                outputStream.write(content);
+            }
+
+            finally {
+                outputStream.close();
+            }
+
+            final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+            fileReceiver.registerListener(listener);
+            fileReceiver.setStreams(4);
+            final int port = fileReceiver.startServer();
+
+            user.setIpAddress("127.0.0.1");
+            final FileSender fileSender = new FileSender(user, sourceFile, 2);
+            fileSender.registerListener(new MockFileTransferListener());
+            fileSender.resumeFrom(fileReceiver.getResumeOffset(), fileReceiver.getResumeChecksum());
+            fileSender.setStreams(fileReceiver.getStreams());
+
+            final Thread senderThread = new Thread() {
+                @Override
+                public void run() {
+                    fileSender.transfer(port);
+                }
+            };
+
+            senderThread.start();
+
+            assertTrue(fileReceiver.transfer());
+            senderThread.join();
+
+            assertTrue(fileSender.isTransferred());
+            assertTrue(Arrays.equals(content, readFile()));
+        }
+
+        finally {
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void getTokenShouldBeZeroWithoutTheSharedServer() throws Exception {
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 10, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.startServer();
+
+        assertEquals(0, fileReceiver.getToken());
+
+        fileReceiver.cancel();
+    }
+
+    @Test
+    public void transferShouldReceiveFromFileSenderOnTheSharedServerWithSeveralStreams() throws Exception {
+        final byte[] content = createRandomContent(1024 * 1024 + 5);
+        final File sourceFile = File.createTempFile("kouchat-filereceivertest-source-", ".bin");
+        final FileTransferServer server = new FileTransferServer();
+
+        try {
+            final OutputStream outputStream = new FileOutputStream(sourceFile);
+
+            try {
+                outputStream.write(content);
+            }
+
+            finally {
+                outputStream.close();
+            }
+
+            final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+            fileReceiver.registerListener(listener);
+            fileReceiver.setStreams(3);
+            final int port = fileReceiver.startServer(server);
+
+            assertTrue(fileReceiver.getToken() != 0);
+
+            user.setIpAddress("127.0.0.1");
+            final FileSender fileSender = new FileSender(user, sourceFile, 2);
+            fileSender.registerListener(new MockFileTransferListener());
+            fileSender.resumeFrom(fileReceiver.getResumeOffset(), fileReceiver.getResumeChecksum());
+            fileSender.setStreams(fileReceiver.getStreams());
+            fileSender.setToken(fileReceiver.getToken());
+
+            final Thread senderThread = new Thread() {
+                @Override
+                public void run() {
+                    fileSender.transfer(port);
+                }
+            };
+
+            senderThread.start();
+
+            assertTrue(fileReceiver.transfer());
+            senderThread.join();
+
+            assertTrue(fileSender.isTransferred());
+            assertTrue(Arrays.equals(content, readFile()));
+        }
+
+        finally {
+            server.stop();
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void transferShouldReceiveFromFileSenderOnTheSharedServerWithOneStream() throws Exception {
+        final byte[] content = createRandomContent(100000);
+        final File sourceFile = File.createTempFile("kouchat-filereceivertest-source-", ".bin");
+        final FileTransferServer server = new FileTransferServer();
+
+        try {
+            final OutputStream outputStream = new FileOutputStream(sourceFile);
+
+            try {
+                outputStream.write(content);
+            }
+
+            finally {
+                outputStream.close();
+            }
+
+            final FileReceiver fileReceiver = new FileReceiver(user, file, content.length, 1);
+            fileReceiver.registerListener(listener);
+            final int port = fileReceiver.startServer(server);
+
+            assertEquals(0, fileReceiver.getResumeOffset());
+            assertEquals(1, fileReceiver.getStreams());
+            assertTrue(fileReceiver.isResumeMessageNeeded());
+
+            user.setIpAddress("127.0.0.1");
+            final FileSender fileSender = new FileSender(user, sourceFile, 2);
+            fileSender.registerListener(new MockFileTransferListener());
+            fileSender.resumeFrom(fileReceiver.getResumeOffset(), fileReceiver.getResumeChecksum());
+            fileSender.setStreams(fileReceiver.getStreams());
+            fileSender.setToken(fileReceiver.getToken());
+
+            final Thread senderThread = new Thread() {
+                @Override
+                public void run() {
+                    fileSender.transfer(port);
+                }
+            };
+
+            senderThread.start();
+
+            assertTrue(fileReceiver.transfer());
+            senderThread.join();
+
+            assertTrue(fileSender.isTransferred());
+            assertEquals(content.length, file.length());
+            assertTrue(Arrays.equals(content, readFile()));
+        }
+
+        finally {
+            server.stop();
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void isResumeMessageNeededShouldBeFalseForANewFileOnItsOwnServerSocket() throws Exception {
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 10, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.startServer();
+
+        assertFalse(fileReceiver.isResumeMessageNeeded());
+
+        fileReceiver.cancel();
+    }
+
+    @Test
+    public void transferShouldFailWhenTheSharedServerIsStopped() throws Exception {
+        final FileTransferServer server = new FileTransferServer();
+        final FileReceiver fileReceiver = new FileReceiver(user, file, 10, 1);
+        fileReceiver.registerListener(listener);
+        fileReceiver.startServer(server);
+        server.stop();
+
+        assertFalse(fileReceiver.transfer());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Failed"), listener.getStatuses());
+    }
+
+    private byte[] range(final byte[] content, final long from, final long to) {
+        return Arrays.copyOfRange(content, (int) from, (int) to);
+    }
+
+    private byte[] withStartOffset(final long startOffset, final byte[] content) {
+        final ByteBuffer buffer = ByteBuffer.allocate(FileResume.START_OFFSET_SIZE + content.length);
+        buffer.putLong(startOffset);
+        buffer.put(content);
+
+        return buffer.array();
+    }
+
+    private void writeFile(final byte[] content) throws IOException {
+        final OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(content);
+        }
+
+        finally {
+            outputStream.close();
+        }
+    }
+
+    private byte[] createRandomContent(final int size) {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+
+        return content;
+    }
+
+    private byte[] readFile() throws IOException {
+        final byte[] content = new byte[(int) file.length()];
+        final InputStream inputStream = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+
+            while (offset < content.length) {
+                offset += inputStream.read(content, offset, content.length - offset);
+            }
+        }
+
+        finally {
+            inputStream.close();
+        }
+
+        return content;
+    }
+
+    private SenderThread startSender(final int port, final byte[] content) {
+        final SenderThread sender = new SenderThread(port, content);
+        sender.start();
+
+        return sender;
+    }
+
+    /**
+     * Connects to the file receiver, and sends the content.
+     */
+    private static class SenderThread extends Thread {
+
+        private final int port;
+        private final byte[] content;
+
+        SenderThread(final int port, final byte[] content) {
+            this.port = port;
+            this.content = content;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+                final OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(content);
+                outputStream.flush();
+                socket.close();
+            }
+
+            catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,86 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link FileResumeInfo}.
+ *
+ * @author Christian Ihle
+ */
+public class FileResumeInfoTest {
+
+    @Test
+    public void parseShouldReadAllTheValues() {
+        final FileResumeInfo resumeInfo = FileResumeInfo.parse("1048576,3735928559,3,-7046029254386353131");
+
+        assertEquals(1048576, resumeInfo.getOffset());
+        assertEquals(3735928559L, resumeInfo.getChecksum());
+        assertEquals(3, resumeInfo.getStreams());
+        assertEquals(-7046029254386353131L, resumeInfo.getToken());
+    }
+
+    @Test
+    public void parseShouldUseOneStreamAndNoTokenWhenOnlyOffsetAndChecksumFromOlderClient() {
+        assertEquals(new FileResumeInfo(1000, 12345, 1, 0), FileResumeInfo.parse("1000,12345"));
+    }
+
+    @Test
+    public void parseShouldUseNoTokenWhenOnlyStreams() {
+        assertEquals(new FileResumeInfo(0, 1, 4, 0), FileResumeInfo.parse("0,1,4"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseShouldThrowExceptionWhenChecksumIsMissing() {
+        FileResumeInfo.parse("1000");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseShouldThrowExceptionWhenValueIsNotANumber() {
+        FileResumeInfo.parse("1000,abc");
+    }
+
+    @Test
+    public void formatShouldWriteValuesThatParseBackToTheSame() {
+        final FileResumeInfo resumeInfo = new FileResumeInfo(0, 0, 1, -42);
+
+        assertEquals("0,0,1,-42", resumeInfo.format());
+        assertEquals(resumeInfo, FileResumeInfo.parse(resumeInfo.format()));
+    }
+
+    @Test
+    public void equalsAndHashCodeShouldCompareAllTheValues() {
+        final FileResumeInfo resumeInfo = new FileResumeInfo(1, 2, 3, 4);
+
+        assertEquals(resumeInfo, new FileResumeInfo(1, 2, 3, 4));
+        assertEquals(resumeInfo.hashCode(), new FileResumeInfo(1, 2, 3, 4).hashCode());
+
+        assertFalse(resumeInfo.equals(new FileResumeInfo(9, 2, 3, 4)));
+        assertFalse(resumeInfo.equals(new FileResumeInfo(1, 9, 3, 4)));
+        assertFalse(resumeInfo.equals(new FileResumeInfo(1, 2, 9, 4)));
+        assertFalse(resumeInfo.equals(new FileResumeInfo(1, 2, 3, 9)));
+    }
+}
@@ -0,0 +1,126 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Test of {@link FileResume}.
+ *
+ * @author Christian Ihle
+ */
+public class FileResumeTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("kouchat-fileresumetest-", ".bin");
+
+        content = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(content);
+
+        final FileOutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(content);
+        }
+
+        finally {
+            outputStream.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void calculateChecksumShouldOnlyIncludeTheFirstBytes() throws IOException {
+        final Adler32 expected = new Adler32();
+        expected.update(content, 0, 150000);
+
+        assertEquals(expected.getValue(), FileResume.calculateChecksum(file, 150000));
+    }
+
+    @Test
+    public void calculateChecksumShouldIncludeTheWholeFile() throws IOException {
+        final Adler32 expected = new Adler32();
+        expected.update(content);
+
+        assertEquals(expected.getValue(), FileResume.calculateChecksum(file, content.length));
+    }
+
+    @Test
+    public void calculateChecksumOfNothingShouldBeOne() throws IOException {
+        assertEquals(1, FileResume.calculateChecksum(file, 0));
+    }
+
+    @Test
+    public void calculateChecksumShouldThrowExceptionIfFileIsTooShort() throws IOException {
+        expectedException.expect(EOFException.class);
+        expectedException.expectMessage("File is shorter than " + (content.length + 1) + " bytes: " + file.getName());
+
+        FileResume.calculateChecksum(file, content.length + 1);
+    }
+
+    @Test
+    public void startOffsetShouldBeReadAsWritten() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FileResume.writeStartOffset(Channels.newChannel(outputStream), 5000000000L);
+
+        assertEquals(FileResume.START_OFFSET_SIZE, outputStream.size());
+
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        assertEquals(5000000000L, FileResume.readStartOffset(Channels.newChannel(inputStream)));
+    }
+
+    @Test
+    public void readStartOffsetShouldThrowExceptionIfConnectionIsClosedFirst() throws IOException {
+        expectedException.expect(EOFException.class);
+        expectedException.expectMessage("Connection closed before the start offset was received");
+
+        FileResume.readStartOffset(Channels.newChannel(new ByteArrayInputStream(new byte[5])));
+    }
+}
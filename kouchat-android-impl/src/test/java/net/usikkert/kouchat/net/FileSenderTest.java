@@ -0,0 +1,381 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Test of {@link FileSender}.
+ *
+ * @author Christian Ihle
+ */
+public class FileSenderTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private File file;
+    private User user;
+    private MockFileTransferListener listener;
+    private ServerSocket serverSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("kouchat-filesendertest-", ".bin");
+
+        user = new User("Test", 1234);
+        user.setIpAddress("127.0.0.1");
+
+        listener = new MockFileTransferListener();
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        serverSocket.close();
+        file.delete();
+    }
+
+    @Test
+    public void constructorShouldThrowExceptionIfChunkSizeIsNotPositive() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Chunk size must be positive: 0");
+
+        new FileSender(user, file, 1, 0);
+    }
+
+    @Test
+    public void transferShouldSendTheWholeFileInChunks() throws Exception {
+        final byte[] content = writeRandomContent(3 * 1024 * 1024 + 123);
+        final FileSender fileSender = new FileSender(user, file, 1, 64 * 1024);
+        fileSender.registerListener(listener);
+
+        final ReceiverThread receiver = startReceiver();
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+        receiver.join();
+
+        assertTrue(Arrays.equals(content, receiver.getReceived()));
+        assertTrue(fileSender.isTransferred());
+        assertEquals(content.length, fileSender.getTransferred());
+        assertEquals(100, fileSender.getPercent());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+        assertTrue(listener.getTransferUpdates() > 0);
+        assertTrue(listener.getTransferUpdates() <= 100);
+    }
+
+    @Test
+    public void transferShouldSendAnEmptyFile() throws Exception {
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+
+        final ReceiverThread receiver = startReceiver();
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+        receiver.join();
+
+        assertEquals(0, receiver.getReceived().length);
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldOnlySendTheRestOfTheFileWhenResuming() throws Exception {
+        final byte[] content = writeRandomContent(100000);
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(40000, FileResume.calculateChecksum(file, 40000));
+
+        final ReceiverThread receiver = startReceiver();
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+        receiver.join();
+
+        final ByteBuffer received = ByteBuffer.wrap(receiver.getReceived());
+        assertEquals(40000, received.getLong());
+        assertEquals(ByteBuffer.wrap(content, 40000, 60000), received);
+
+        assertTrue(fileSender.isTransferred());
+        assertEquals(content.length, fileSender.getTransferred());
+        assertEquals(100, fileSender.getPercent());
+    }
+
+    @Test
+    public void transferShouldSendTheWholeFileWhenResumingWithDifferentChecksum() throws Exception {
+        final byte[] content = writeRandomContent(100000);
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(40000, FileResume.calculateChecksum(file, 40000) + 1);
+
+        final ReceiverThread receiver = startReceiver();
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+        receiver.join();
+
+        final ByteBuffer received = ByteBuffer.wrap(receiver.getReceived());
+        assertEquals(0, received.getLong());
+        assertEquals(ByteBuffer.wrap(content), received);
+        assertTrue(fileSender.isTransferred());
+    }
+
+    @Test
+    public void transferShouldSendTheWholeFileWhenResumingFromBeyondTheEndOfTheFile() throws Exception {
+        final byte[] content = writeRandomContent(1000);
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(2000, 1);
+
+        final ReceiverThread receiver = startReceiver();
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+        receiver.join();
+
+        final ByteBuffer received = ByteBuffer.wrap(receiver.getReceived());
+        assertEquals(0, received.getLong());
+        assertEquals(ByteBuffer.wrap(content), received);
+    }
+
+    @Test
+    public void transferShouldSendEachRangeOnItsOwnConnectionWithSeveralStreams() throws Exception {
+        final byte[] content = writeRandomContent(1024 * 1024 + 7);
+        final FileSender fileSender = new FileSender(user, file, 1, 64 * 1024);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(0, 0);
+        fileSender.setStreams(3);
+
+        final List<ReceiverThread> receivers = startReceivers(3);
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+
+        final byte[] received = new byte[content.length];
+        final List<Long> startOffsets = new ArrayList<Long>();
+        int totalReceived = 0;
+
+        for (final ReceiverThread receiver : receivers) {
+            receiver.join();
+
+            final ByteBuffer range = ByteBuffer.wrap(receiver.getReceived());
+            final int startOffset = (int) range.getLong();
+            startOffsets.add((long) startOffset);
+            totalReceived += range.remaining();
+            range.get(received, startOffset, range.remaining());
+        }
+
+        assertTrue(startOffsets.containsAll(Arrays.asList(0L, 349527L, 699055L)));
+        assertEquals(content.length, totalReceived);
+        assertTrue(Arrays.equals(content, received));
+
+        assertTrue(fileSender.isTransferred());
+        assertEquals(content.length, fileSender.getTransferred());
+        assertEquals(100, fileSender.getPercent());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Transferring", "Completed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldOnlySendTheRestOfTheFileWhenResumingWithSeveralStreams() throws Exception {
+        final byte[] content = writeRandomContent(100000);
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(40000, FileResume.calculateChecksum(file, 40000));
+        fileSender.setStreams(2);
+
+        final List<ReceiverThread> receivers = startReceivers(2);
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+
+        final byte[] received = new byte[content.length];
+        System.arraycopy(content, 0, received, 0, 40000);
+
+        for (final ReceiverThread receiver : receivers) {
+            receiver.join();
+
+            final ByteBuffer range = ByteBuffer.wrap(receiver.getReceived());
+            final int startOffset = (int) range.getLong();
+            assertTrue(startOffset == 40000 || startOffset == 70000);
+            range.get(received, startOffset, range.remaining());
+        }
+
+        assertTrue(Arrays.equals(content, received));
+        assertEquals(content.length, fileSender.getTransferred());
+    }
+
+    @Test
+    public void transferShouldSendTheTokenFirstOnEachConnection() throws Exception {
+        final byte[] content = writeRandomContent(100 * 1024);
+        final FileSender fileSender = new FileSender(user, file, 1, 64 * 1024);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(0, 0);
+        fileSender.setStreams(2);
+        fileSender.setToken(-1234567890123L);
+
+        final List<ReceiverThread> receivers = startReceivers(2);
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+
+        int totalReceived = 0;
+
+        for (final ReceiverThread receiver : receivers) {
+            receiver.join();
+
+            final ByteBuffer received = ByteBuffer.wrap(receiver.getReceived());
+            assertEquals(-1234567890123L, received.getLong());
+            received.getLong();
+            totalReceived += received.remaining();
+        }
+
+        assertEquals(content.length, totalReceived);
+        assertTrue(fileSender.isTransferred());
+    }
+
+    @Test
+    public void setStreamsShouldKeepTheNumberOfStreamsWithinTheLimits() throws Exception {
+        writeRandomContent(1000);
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.resumeFrom(0, 0);
+        fileSender.setStreams(100);
+
+        final List<ReceiverThread> receivers = startReceivers(ParallelStreams.MAX_STREAMS);
+
+        assertTrue(fileSender.transfer(serverSocket.getLocalPort()));
+
+        for (final ReceiverThread receiver : receivers) {
+            receiver.join();
+            assertTrue(receiver.getReceived().length >= FileResume.START_OFFSET_SIZE);
+        }
+    }
+
+    @Test
+    public void transferShouldFailIfTheOtherUserIsNotListening() throws IOException {
+        writeRandomContent(100);
+        final int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+
+        assertFalse(fileSender.transfer(port));
+
+        assertFalse(fileSender.isTransferred());
+        assertEquals(Arrays.asList("Waiting", "Connecting", "Failed"), listener.getStatuses());
+    }
+
+    @Test
+    public void transferShouldNotStartIfCanceled() {
+        final FileSender fileSender = new FileSender(user, file, 1);
+        fileSender.registerListener(listener);
+        fileSender.cancel();
+
+        assertFalse(fileSender.transfer(serverSocket.getLocalPort()));
+
+        assertTrue(fileSender.isCanceled());
+        assertEquals(Arrays.asList("Waiting", "Failed"), listener.getStatuses());
+    }
+
+    private byte[] writeRandomContent(final int size) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+
+        final FileOutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(content);
+        }
+
+        finally {
+            outputStream.close();
+        }
+
+        return content;
+    }
+
+    private List<ReceiverThread> startReceivers(final int count) {
+        final List<ReceiverThread> receivers = new ArrayList<ReceiverThread>();
+
+        for (int i = 0; i < count; i++) {
+            receivers.add(startReceiver());
+        }
+
+        return receivers;
+    }
+
+    private ReceiverThread startReceiver() {
+        final ReceiverThread receiver = new ReceiverThread();
+        receiver.start();
+
+        return receiver;
+    }
+
+    /**
+     * Accepts one connection on the server socket, and reads everything sent.
+     */
+    private class ReceiverThread extends Thread {
+
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        @Override
+        public void run() {
+            try {
+                final Socket socket = serverSocket.accept();
+                final InputStream inputStream = socket.getInputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = inputStream.read(buffer)) != -1) {
+                    received.write(buffer, 0, read);
+                }
+
+                socket.close();
+            }
+
+            catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public byte[] getReceived() {
+            return received.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link FileTransferServer}.
+ *
+ * @author Christian Ihle
+ */
+public class FileTransferServerTest {
+
+    private FileTransferServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws ServerException {
+        server = new FileTransferServer();
+        port = server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void startShouldReturnTheSamePortWhenAlreadyStarted() throws ServerException {
+        assertTrue(server.isRunning());
+        assertEquals(port, server.start());
+    }
+
+    @Test
+    public void stopShouldStopTheServer() {
+        server.stop();
+
+        assertFalse(server.isRunning());
+    }
+
+    @Test
+    public void registerShouldGiveUniqueTokensThatAreNotZero() {
+        final Set<Long> tokens = new HashSet<Long>();
+
+        for (int i = 0; i < 100; i++) {
+            final long token = server.register(1).getToken();
+
+            assertTrue(token != 0);
+            assertTrue(tokens.add(token));
+        }
+    }
+
+    @Test
+    public void connectionsShouldBeGivenToTheTransferWithTheSameToken() throws IOException {
+        final FileTransferServer.PendingTransfer first = server.register(1);
+        final FileTransferServer.PendingTransfer second = server.register(2);
+
+        final Socket secondA = connect(second.getToken(), 'a');
+        final Socket firstA = connect(first.getToken(), 'b');
+        final Socket secondB = connect(second.getToken(), 'c');
+
+        assertEquals('b', readByte(first.takeConnection()));
+
+        final Set<Integer> secondBytes = new HashSet<Integer>();
+        secondBytes.add(readByte(second.takeConnection()));
+        secondBytes.add(readByte(second.takeConnection()));
+
+        assertTrue(secondBytes.contains((int) 'a'));
+        assertTrue(secondBytes.contains((int) 'c'));
+
+        secondA.close();
+        firstA.close();
+        secondB.close();
+    }
+
+    @Test
+    public void connectionWithUnknownTokenShouldBeClosed() throws IOException {
+        final Socket socket = connect(12345);
+
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+    }
+
+    @Test
+    public void connectionShouldBeClosedWhenTheTransferHasAllItsConnections() throws IOException {
+        final FileTransferServer.PendingTransfer pendingTransfer = server.register(1);
+
+        final Socket first = connect(pendingTransfer.getToken(), 'a');
+        assertEquals('a', readByte(pendingTransfer.takeConnection()));
+
+        final Socket second = connect(pendingTransfer.getToken());
+        assertEquals(-1, second.getInputStream().read());
+
+        first.close();
+        second.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void takeConnectionShouldFailWhenTheTransferTimesOut() throws IOException {
+        final FileTransferServer.PendingTransfer pendingTransfer = server.register(1);
+        pendingTransfer.run();
+
+        pendingTransfer.takeConnection();
+    }
+
+    @Test(expected = IOException.class)
+    public void takeConnectionShouldFailWhenTheServerIsStopped() throws IOException {
+        final FileTransferServer.PendingTransfer pendingTransfer = server.register(1);
+        server.stop();
+
+        pendingTransfer.takeConnection();
+    }
+
+    private Socket connect(final long token) throws IOException {
+        final Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        final OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(ByteBuffer.allocate(FileTransferServer.TOKEN_SIZE).putLong(token).array());
+        outputStream.flush();
+
+        return socket;
+    }
+
+    private Socket connect(final long token, final char firstByte) throws IOException {
+        final Socket socket = connect(token);
+        final OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(firstByte);
+        outputStream.flush();
+
+        return socket;
+    }
+
+    private int readByte(final SocketChannel channel) throws IOException {
+        final InputStream inputStream = channel.socket().getInputStream();
+        final int read = inputStream.read();
+        channel.close();
+
+        return read;
+    }
+}
@@ -0,0 +1,123 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.util.Tools;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageBatch}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageBatchTest {
+
+    @Test
+    public void packShouldReturnEmptyListForNoMessages() {
+        assertTrue(MessageBatch.pack(new ArrayList<String>()).isEmpty());
+    }
+
+    @Test
+    public void packShouldReturnSingleMessageWithoutBatchFormat() {
+        final List<String> datagrams = MessageBatch.pack(Arrays.asList("123!EXPOSE#Test:"));
+
+        assertEquals(Arrays.asList("123!EXPOSE#Test:"), datagrams);
+        assertFalse(MessageBatch.isBatch(datagrams.get(0)));
+    }
+
+    @Test
+    public void packShouldPutLengthBeforeEachMessage() {
+        final List<String> datagrams = MessageBatch.pack(Arrays.asList("123!EXPOSE#Test:", "123!IDLE#Test:"));
+
+        assertEquals(Arrays.asList("BATCH!16:123!EXPOSE#Test:14:123!IDLE#Test:"), datagrams);
+    }
+
+    @Test
+    public void packAndUnpackShouldKeepMessagesWithSpecialCharacters() {
+        final List<String> messages = Arrays.asList("123!MSG#Test:[0]12:H\u00e6: BATCH!3:xyz",
+                                                    "123!AWAY#Test:Gone:\u00e6\u00f8\u00e5",
+                                                    "123!IDLE#Test:");
+
+        final List<String> datagrams = MessageBatch.pack(messages);
+
+        assertEquals(1, datagrams.size());
+        assertEquals(messages, MessageBatch.unpack(datagrams.get(0)));
+    }
+
+    @Test
+    public void packShouldSplitIntoSeveralDatagramsWhenTooLarge() {
+        final List<String> messages = new ArrayList<String>();
+
+        for (int i = 0; i < 20; i++) {
+            messages.add("123!MSG#Test:[0]Message number " + i + " in a long list of messages");
+        }
+
+        final List<String> datagrams = MessageBatch.pack(messages);
+        final List<String> unpacked = new ArrayList<String>();
+
+        assertTrue(datagrams.size() > 1);
+
+        for (final String datagram : datagrams) {
+            assertTrue(Tools.getBytes(datagram) <= Constants.NETWORK_PACKET_SIZE);
+            unpacked.addAll(MessageBatch.unpack(datagram));
+        }
+
+        assertEquals(messages, unpacked);
+    }
+
+    @Test
+    public void unpackShouldHandleLastMessageTrimmedOnArrival() {
+        assertEquals(Arrays.asList("123!AWAY#Test:Away", "123!AWAY#Test:Away"),
+                MessageBatch.unpack("BATCH!18:123!AWAY#Test:Away20:123!AWAY#Test:Away"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unpackShouldFailIfNotBatch() {
+        MessageBatch.unpack("123!IDLE#Test:");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unpackShouldFailIfLengthIsMissing() {
+        MessageBatch.unpack("BATCH!123!IDLE#Test:");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unpackShouldFailIfLengthIsNotANumber() {
+        MessageBatch.unpack("BATCH!1x:123!IDLE#Test:");
+    }
+
+    @Test
+    public void isBatchShouldOnlyAcceptBatchPrefix() {
+        assertTrue(MessageBatch.isBatch("BATCH!14:123!IDLE#Test:"));
+        assertFalse(MessageBatch.isBatch("123!IDLE#Test:"));
+        assertFalse(MessageBatch.isBatch("BATCH"));
+    }
+}
@@ -0,0 +1,167 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Microbenchmark of the header parsing in {@link MessageParser}, compared with the old
+ * header parsing using <code>indexOf</code>, <code>substring</code> and a chain of <code>equals</code>.
+ *
+ * <p>Ignored by default, as timings are machine specific. Run manually to compare changes.
+ * Each workload is run a few times first to let the JIT warm up. The parser is not logged on,
+ * so only the header is parsed, and nothing is given to the responder.</p>
+ *
+ * @author Christian Ihle
+ */
+@Ignore("Benchmark")
+public class MessageParserPerformanceTest {
+
+    private static final int MESSAGES = 10000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 100;
+
+    private static final String[] OLD_TYPES = {
+        "MSG", "LOGON", "EXPOSING", "LOGOFF", "AWAY", "BACK", "EXPOSE", "NICKCRASH", "WRITING",
+        "STOPPEDWRITING", "GETTOPIC", "TOPIC", "NICK", "IDLE", "SENDFILEACCEPT", "SENDFILERESUME",
+        "SENDFILEABORT", "SENDFILE", "CLIENT"
+    };
+
+    private static final String[] TEMPLATES = {
+        "%d!MSG#Peter:[-15987646]Hello there, how are you doing today",
+        "%d!IDLE#Peter:15000",
+        "%d!WRITING#Peter:",
+        "%d!STOPPEDWRITING#Peter:",
+        "%d!CLIENT#Peter:(KouChat v1.2.0 Android)[134]{Linux}<0>|BATCH,RESUME,STREAMS,TOKEN|",
+    };
+
+    private Settings settings;
+    private List<String> messages;
+    private long consumedLength;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        messages = new ArrayList<String>();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(String.format(TEMPLATES[i % TEMPLATES.length], 87654321 - i));
+        }
+    }
+
+    @Test
+    public void oldHeaderParse() {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            parseAllWithOldHeaderParse();
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            parseAllWithOldHeaderParse();
+        }
+
+        report("Old header parse of " + MESSAGES + " messages", start);
+    }
+
+    @Test
+    public void newHeaderParse() {
+        final MessageParser messageParser = new MessageParser(mock(MessageResponder.class), settings);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            parseAllWithMessageParser(messageParser);
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            parseAllWithMessageParser(messageParser);
+        }
+
+        report("New header parse of " + MESSAGES + " messages", start);
+    }
+
+    private void parseAllWithMessageParser(final MessageParser messageParser) {
+        for (final String message : messages) {
+            messageParser.messageArrived(message, "192.168.1.3");
+        }
+    }
+
+    private void parseAllWithOldHeaderParse() {
+        int found = 0;
+
+        for (final String message : messages) {
+            if (oldHeaderParse(message) != null) {
+                found++;
+            }
+        }
+
+        assertEquals(MESSAGES, found);
+    }
+
+    /**
+     * The header parsing from before the single pass parser, with the type compared against
+     * every known type in the same order as the old chain. The nick name and message part are
+     * consumed so they are not optimized away.
+     */
+    private String oldHeaderParse(final String message) {
+        final int exclamation = message.indexOf("!");
+        final int hash = message.indexOf("#");
+        final int colon = message.indexOf(":");
+
+        final int msgCode = Integer.parseInt(message.substring(0, exclamation));
+        final String type = message.substring(exclamation + 1, hash);
+        final String msgNick = message.substring(hash + 1, colon);
+        final String msg = message.substring(colon + 1, message.length());
+
+        final User tempme = settings.getMe();
+
+        if (msgCode != tempme.getCode()) {
+            consumedLength += msgNick.length() + msg.length();
+
+            for (final String oldType : OLD_TYPES) {
+                if (type.equals(oldType)) {
+                    return oldType;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void report(final String workload, final long start) {
+        final long averageMicros = (System.nanoTime() - start) / MEASURED_ROUNDS / 1000;
+        System.out.println(workload + ": " + averageMicros + " microseconds per round");
+    }
+}
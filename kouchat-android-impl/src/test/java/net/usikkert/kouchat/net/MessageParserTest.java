@@ -0,0 +1,292 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.usikkert.kouchat.misc.Settings;
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+/**
+ * Test of {@link MessageParser}.
+ *
+ * @author Christian Ihle
+ */
+public class MessageParserTest {
+
+    private MessageParser messageParser;
+    private MessageResponder responder;
+
+    @Before
+    public void setUp() {
+        responder = mock(MessageResponder.class);
+
+        final Settings settings = mock(Settings.class);
+        when(settings.getMe()).thenReturn(new User("Me", 12345678));
+
+        messageParser = new MessageParser(responder, settings);
+        messageParser.messageArrived("12345678!LOGON#Me:", "192.168.1.2");
+        verify(responder).meLogOn("192.168.1.2");
+    }
+
+    @Test
+    public void messagesShouldBeIgnoredBeforeLogon() {
+        final MessageResponder otherResponder = mock(MessageResponder.class);
+        final Settings settings = mock(Settings.class);
+        when(settings.getMe()).thenReturn(new User("Me", 12345678));
+        final MessageParser parser = new MessageParser(otherResponder, settings);
+
+        parser.messageArrived("87654321!IDLE#Peter:", "192.168.1.3");
+
+        verifyZeroInteractions(otherResponder);
+    }
+
+    @Test
+    public void chatMessageShouldIncludeColorAndFullMessage() {
+        messageParser.messageArrived("87654321!MSG#Peter:[-15987646]Hello: #1 [test]!", "192.168.1.3");
+
+        verify(responder).messageArrived(87654321, "Hello: #1 [test]!", -15987646);
+    }
+
+    @Test
+    public void logonShouldCreateUserWithNickAndIpAddress() {
+        messageParser.messageArrived("87654321!LOGON#Peter:", "192.168.1.3");
+
+        final ArgumentCaptor<User> captor = ArgumentCaptor.forClass(User.class);
+        verify(responder).userLogOn(captor.capture());
+
+        assertEquals("Peter", captor.getValue().getNick());
+        assertEquals(87654321, captor.getValue().getCode());
+        assertEquals("192.168.1.3", captor.getValue().getIpAddress());
+    }
+
+    @Test
+    public void exposingWithAwayMessageShouldCreateAwayUser() {
+        messageParser.messageArrived("87654321!EXPOSING#Peter:Gone fishing", "192.168.1.3");
+
+        final ArgumentCaptor<User> captor = ArgumentCaptor.forClass(User.class);
+        verify(responder).userExposing(captor.capture());
+
+        assertEquals("Peter", captor.getValue().getNick());
+        assertTrue(captor.getValue().isAway());
+        assertEquals("Gone fishing", captor.getValue().getAwayMsg());
+    }
+
+    @Test
+    public void messagesWithoutBodyShouldGoToTheCorrectResponderMethod() {
+        messageParser.messageArrived("87654321!LOGOFF#Peter:", "192.168.1.3");
+        verify(responder).userLogOff(87654321);
+
+        messageParser.messageArrived("87654321!BACK#Peter:", "192.168.1.3");
+        verify(responder).awayChanged(87654321, false, "");
+
+        messageParser.messageArrived("87654321!EXPOSE#Peter:", "192.168.1.3");
+        verify(responder).exposeRequested(87654321, false);
+
+        messageParser.messageArrived("87654321!EXPOSE#Peter:RECONNECT", "192.168.1.3");
+        verify(responder).exposeRequested(87654321, true);
+
+        messageParser.messageArrived("87654321!WRITING#Peter:", "192.168.1.3");
+        verify(responder).writingChanged(87654321, true);
+
+        messageParser.messageArrived("87654321!STOPPEDWRITING#Peter:", "192.168.1.3");
+        verify(responder).writingChanged(87654321, false);
+
+        messageParser.messageArrived("87654321!GETTOPIC#Peter:", "192.168.1.3");
+        verify(responder).topicRequested();
+
+        messageParser.messageArrived("87654321!NICK#Peter2:", "192.168.1.3");
+        verify(responder).nickChanged(87654321, "Peter2");
+
+        messageParser.messageArrived("87654321!IDLE#Peter:", "192.168.1.3");
+        verify(responder).userIdle(87654321, "192.168.1.3", 0);
+    }
+
+    @Test
+    public void idleMessageShouldIncludeIdleIntervalIfValid() {
+        messageParser.messageArrived("87654321!IDLE#Peter:45000", "192.168.1.3");
+        verify(responder).userIdle(87654321, "192.168.1.3", 45000);
+
+        messageParser.messageArrived("87654321!IDLE#Peter:soon", "192.168.1.3");
+        messageParser.messageArrived("87654321!IDLE#Peter:-5", "192.168.1.3");
+        verify(responder, times(2)).userIdle(87654321, "192.168.1.3", 0);
+    }
+
+    @Test
+    public void messagesFromOtherUsersExceptIdleShouldMakeUserActive() {
+        messageParser.messageArrived("87654321!WRITING#Peter:", "192.168.1.3");
+        messageParser.messageArrived("87654321!MSG#Peter:[-15987646]Hello", "192.168.1.3");
+        verify(responder, times(2)).userActive(87654321);
+
+        messageParser.messageArrived("87654321!IDLE#Peter:", "192.168.1.3");
+        verify(responder, times(2)).userActive(87654321);
+    }
+
+    @Test
+    public void nickCrashShouldOnlyBeReportedForExactNickOfApplicationUser() {
+        messageParser.messageArrived("87654321!NICKCRASH#Peter:Mex", "192.168.1.3");
+        messageParser.messageArrived("87654321!NICKCRASH#Peter:M", "192.168.1.3");
+        verify(responder, never()).nickCrash();
+
+        messageParser.messageArrived("87654321!NICKCRASH#Peter:Me", "192.168.1.3");
+        verify(responder).nickCrash();
+    }
+
+    @Test
+    public void topicShouldIncludeNickTimeAndTopic() {
+        messageParser.messageArrived("87654321!TOPIC#Peter:(Peter)[1390000000000]A topic", "192.168.1.3");
+
+        verify(responder).topicChanged(87654321, "A topic", "Peter", 1390000000000L);
+    }
+
+    @Test
+    public void fileMessagesShouldOnlyBeHandledWhenForTheApplicationUser() {
+        messageParser.messageArrived("87654321!SENDFILE#Peter:(11111111)[1024]{99}file.txt", "192.168.1.3");
+        verify(responder, never()).fileSend(anyInt(), anyLong(), anyString(), anyString(), anyInt());
+
+        messageParser.messageArrived("87654321!SENDFILE#Peter:(12345678)[1024]{99}file.txt", "192.168.1.3");
+        verify(responder).fileSend(87654321, 1024, "file.txt", "Peter", 99);
+
+        messageParser.messageArrived("87654321!SENDFILEACCEPT#Peter:(12345678)[40756]{99}file.txt", "192.168.1.3");
+        verify(responder).fileSendAccepted(87654321, "file.txt", 99, 40756);
+
+        messageParser.messageArrived("87654321!SENDFILERESUME#Peter:(11111111)[40756]{99}<1000,12345>file.txt", "192.168.1.3");
+        verify(responder, never()).fileSendResumed(anyInt(), anyString(), anyInt(), anyInt(), any(FileResumeInfo.class));
+
+        messageParser.messageArrived("87654321!SENDFILERESUME#Peter:(12345678)[40756]{99}<1000,12345>file<1>.txt", "192.168.1.3");
+        verify(responder).fileSendResumed(87654321, "file<1>.txt", 99, 40756, new FileResumeInfo(1000, 12345, 1, 0));
+
+        messageParser.messageArrived("87654321!SENDFILERESUME#Peter:(12345678)[40756]{99}<0,1,4>file,2.txt", "192.168.1.3");
+        verify(responder).fileSendResumed(87654321, "file,2.txt", 99, 40756, new FileResumeInfo(0, 1, 4, 0));
+
+        messageParser.messageArrived("87654321!SENDFILERESUME#Peter:(12345678)[40756]{99}<0,0,1,-42>file3.txt", "192.168.1.3");
+        verify(responder).fileSendResumed(87654321, "file3.txt", 99, 40756, new FileResumeInfo(0, 0, 1, -42));
+
+        messageParser.messageArrived("87654321!SENDFILEABORT#Peter:(12345678){99}file.txt", "192.168.1.3");
+        verify(responder).fileSendAborted(87654321, "file.txt", 99);
+    }
+
+    @Test
+    public void clientShouldIncludePrivateChatPort() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v0.14.0 Swing)[5000]{Linux}<40656>", "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v0.14.0 Swing", 5000, "Linux", 40656, capabilities());
+    }
+
+    @Test
+    public void clientWithBatchCapabilityShouldSupportMessageBatch() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|BATCH|", "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656, capabilities("BATCH"));
+    }
+
+    @Test
+    public void clientWithResumeCapabilityShouldSupportFileResume() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|BATCH,RESUME|",
+                                     "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656, capabilities("BATCH", "RESUME"));
+    }
+
+    @Test
+    public void clientWithStreamsCapabilityShouldSupportParallelStreams() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|BATCH,RESUME,STREAMS|",
+                                     "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656, capabilities("BATCH", "RESUME", "STREAMS"));
+    }
+
+    @Test
+    public void clientWithTokenCapabilityShouldSupportFileTransferToken() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|BATCH,RESUME,STREAMS,TOKEN|",
+                                     "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656,
+                                     capabilities("BATCH", "RESUME", "STREAMS", "TOKEN"));
+    }
+
+    @Test
+    public void clientWithUnknownCapabilitiesShouldNotSupportMessageBatch() {
+        messageParser.messageArrived("87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|OTHER|", "192.168.1.3");
+
+        verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656, capabilities("OTHER"));
+    }
+
+    @Test
+    public void batchShouldParseEachMessageInOrder() {
+        // The length of the last message is longer than the message, as trailing spaces are trimmed on arrival
+        messageParser.messageArrived("BATCH!28:87654321!EXPOSING#Peter:Away" +
+                "71:87654321!CLIENT#Peter:(KouChat v1.0 Android)[5000]{Linux}<40656>|BATCH|" +
+                "22:87654321!IDLE#Peter:", "192.168.1.3");
+
+        final InOrder inOrder = inOrder(responder);
+        inOrder.verify(responder).userExposing(any(User.class));
+        inOrder.verify(responder).clientInfo(87654321, "KouChat v1.0 Android", 5000, "Linux", 40656, capabilities("BATCH"));
+        inOrder.verify(responder).userIdle(87654321, "192.168.1.3", 0);
+    }
+
+    @Test
+    public void invalidBatchShouldBeIgnored() {
+        messageParser.messageArrived("BATCH!x:87654321!IDLE#Peter:", "192.168.1.3");
+
+        verify(responder, never()).userIdle(anyInt(), anyString(), anyLong());
+    }
+
+    @Test
+    public void ownIdleMessageShouldGoToMeIdle() {
+        messageParser.messageArrived("12345678!IDLE#Me:", "192.168.1.2");
+
+        verify(responder).meIdle("192.168.1.2");
+        verify(responder, never()).userIdle(anyInt(), anyString(), anyLong());
+    }
+
+    @Test
+    public void unknownAndInvalidMessagesShouldBeIgnored() {
+        messageParser.messageArrived("87654321!UNKNOWN#Peter:", "192.168.1.3");
+        messageParser.messageArrived("87654321!IDLEX#Peter:", "192.168.1.3");
+        messageParser.messageArrived("8765a321!IDLE#Peter:", "192.168.1.3");
+        messageParser.messageArrived("99999999999!IDLE#Peter:", "192.168.1.3");
+        messageParser.messageArrived("!IDLE#Peter:", "192.168.1.3");
+        messageParser.messageArrived("87654321!IDLE#Peter", "192.168.1.3");
+        messageParser.messageArrived("87654321!MSG#Peter:[red]Hello", "192.168.1.3");
+        messageParser.messageArrived("", "192.168.1.3");
+
+        verify(responder).meLogOn("192.168.1.2");
+        verifyNoMoreInteractions(responder);
+    }
+
+    private Set<String> capabilities(final String... capabilities) {
+        return new HashSet<String>(Arrays.asList(capabilities));
+    }
+}
@@ -0,0 +1,246 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.usikkert.kouchat.Constants;
+import net.usikkert.kouchat.event.MessageSentListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link MessageSender}.
+ *
+ * <p>Sends messages to a multicast group on the loopback interface.</p>
+ *
+ * @author Christian Ihle
+ */
+public class MessageSenderTest {
+
+    private static final String IP_ADDRESS = "224.168.5.231";
+    private static final int PORT = 50231;
+
+    private MessageSender sender;
+
+    private MulticastSocket receiver;
+
+    @Before
+    public void setUp() throws IOException {
+        receiver = new MulticastSocket(PORT);
+        receiver.joinGroup(InetAddress.getByName(IP_ADDRESS));
+        receiver.setSoTimeout(500);
+
+        sender = new MessageSender(IP_ADDRESS, PORT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sender.stopSender();
+
+        receiver.leaveGroup(InetAddress.getByName(IP_ADDRESS));
+        receiver.close();
+    }
+
+    @Test
+    public void sendShouldReturnFalseWhenNotConnected() {
+        assertFalse(sender.send("Hello"));
+    }
+
+    @Test
+    public void sendAsyncShouldNotifyListenerWhenNotConnected() {
+        final RecordingListener listener = new RecordingListener(1);
+
+        sender.sendAsync("Hello", null, listener);
+
+        assertEquals(Collections.singletonList("Hello=false"), listener.getResults());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sendAsyncShouldThrowExceptionIfMessageIsNull() {
+        sender.sendAsync(null, null, null);
+    }
+
+    @Test
+    public void sendShouldReturnTrueWhenMessageIsSent() throws IOException {
+        assertTrue(sender.startSender(null));
+
+        assertTrue(sender.send("Hello"));
+
+        assertEquals(Collections.singletonList("Hello"), receiveAll());
+    }
+
+    @Test
+    public void getLastSendTimeShouldOnlyChangeWhenMessageIsSent() throws IOException {
+        assertEquals(0, sender.getLastSendTime());
+        assertFalse(sender.send("Not connected"));
+        assertEquals(0, sender.getLastSendTime());
+
+        assertTrue(sender.startSender(null));
+        final long beforeSend = System.currentTimeMillis();
+        assertTrue(sender.send("Hello"));
+
+        assertTrue(sender.getLastSendTime() >= beforeSend);
+        assertTrue(sender.getLastSendTime() <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void sendAndSendAsyncShouldKeepTheOrderOfTheMessages() throws IOException, InterruptedException {
+        final RecordingListener listener = new RecordingListener(2);
+        assertTrue(sender.startSender(null));
+
+        sender.sendAsync("First", null, listener);
+        sender.sendAsync("Second", null, listener);
+        assertTrue(sender.send("Third"));
+
+        assertTrue(listener.await());
+        assertEquals(list("First=true", "Second=true"), listener.getResults());
+        assertEquals(list("First", "Second", "Third"), receiveAll());
+    }
+
+    @Test
+    public void burstOfMessagesWithReplaceKeyShouldOnlySendTheNewest() throws IOException, InterruptedException {
+        final RecordingListener listener = new RecordingListener(10);
+        assertTrue(sender.startSender(null));
+
+        for (int i = 0; i < 5; i++) {
+            sender.sendAsync("WRITING", "key", listener);
+            sender.sendAsync("STOPPEDWRITING", "key", listener);
+        }
+
+        assertTrue(listener.await());
+        assertEquals(Collections.singletonList("STOPPEDWRITING"), receiveAll());
+
+        final List<String> results = listener.getResults();
+        assertEquals("STOPPEDWRITING=true", results.get(9));
+        assertEquals(9, Collections.frequency(results.subList(0, 9), "WRITING=false") +
+                Collections.frequency(results.subList(0, 9), "STOPPEDWRITING=false"));
+    }
+
+    @Test
+    public void messageIdenticalToLastSentWithSameReplaceKeyShouldBeDropped() throws IOException, InterruptedException {
+        final RecordingListener firstListener = new RecordingListener(1);
+        assertTrue(sender.startSender(null));
+
+        sender.sendAsync("WRITING", "key", firstListener);
+        assertTrue(firstListener.await());
+        assertEquals(Collections.singletonList("WRITING"), receiveAll());
+
+        // A replaced pair of toggles should not cause any messages
+        final RecordingListener secondListener = new RecordingListener(2);
+        sender.sendAsync("STOPPEDWRITING", "key", secondListener);
+        sender.sendAsync("WRITING", "key", secondListener);
+
+        assertTrue(secondListener.await());
+        assertEquals(list("STOPPEDWRITING=false", "WRITING=true"), secondListener.getResults());
+        assertTrue(receiveAll().isEmpty());
+    }
+
+    @Test
+    public void messageWithoutReplaceKeyShouldReleaseHeldBackMessage() throws IOException {
+        assertTrue(sender.startSender(null));
+
+        sender.sendAsync("WRITING", "key", null);
+        assertTrue(sender.send("MSG"));
+
+        assertEquals(list("WRITING", "MSG"), receiveAll());
+    }
+
+    @Test
+    public void messageWithReplaceKeyShouldBeSentAgainAfterReconnect() throws IOException, InterruptedException {
+        final RecordingListener listener = new RecordingListener(2);
+        assertTrue(sender.startSender(null));
+
+        sender.sendAsync("WRITING", "key", listener);
+        Thread.sleep(400);
+
+        sender.stopSender();
+        assertTrue(sender.startSender(null));
+
+        sender.sendAsync("WRITING", "key", listener);
+
+        assertTrue(listener.await());
+        assertEquals(list("WRITING", "WRITING"), receiveAll());
+    }
+
+    private List<String> receiveAll() throws IOException {
+        final List<String> messages = new ArrayList<String>();
+        final byte[] buffer = new byte[Constants.NETWORK_PACKET_SIZE];
+
+        try {
+            while (true) {
+                final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                receiver.receive(packet);
+                messages.add(new String(buffer, 0, packet.getLength(), Constants.MESSAGE_CHARSET));
+            }
+        }
+
+        catch (final SocketTimeoutException e) {
+            return messages;
+        }
+    }
+
+    private List<String> list(final String... values) {
+        final List<String> list = new ArrayList<String>();
+        Collections.addAll(list, values);
+
+        return list;
+    }
+
+    private static class RecordingListener implements MessageSentListener {
+
+        private final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch latch;
+
+        RecordingListener(final int expectedResults) {
+            latch = new CountDownLatch(expectedResults);
+        }
+
+        @Override
+        public void messageSent(final String message, final boolean sent) {
+            results.add(message + "=" + sent);
+            latch.countDown();
+        }
+
+        public boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+
+        public List<String> getResults() {
+            return new ArrayList<String>(results);
+        }
+    }
+}
@@ -22,16 +22,21 @@
 
 package net.usikkert.kouchat.net;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.util.List;
 
+import net.usikkert.kouchat.event.MessageSentListener;
 import net.usikkert.kouchat.misc.CommandException;
 import net.usikkert.kouchat.misc.Settings;
 import net.usikkert.kouchat.misc.Topic;
 import net.usikkert.kouchat.misc.User;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 /**
  * Test of {@link Messages}.
@@ -75,7 +80,7 @@ public class MessagesTest {
     public void testSendAwayMessage() {
         final String awayMsg = "I am away";
         messages.sendAwayMessage(awayMsg);
-        verify(service).sendMulticastMsg(createMessage("AWAY") + awayMsg);
+        verifyAsync(createMessage("AWAY") + awayMsg);
     }
 
     /**
@@ -86,33 +91,66 @@ public class MessagesTest {
     @Test
     public void testSendBackMessage() {
         messages.sendBackMessage();
-        verify(service).sendMulticastMsg(createMessage("BACK"));
+        verifyAsync(createMessage("BACK"));
     }
 
     /**
      * Tests sendChatMessage().
      *
      * Expects: 16899115!MSG#Christian:[-15987646]Some chat message
-     *
-     * @throws CommandException In case the message could not be sent.
      */
     @Test
-    public void testSendChatMessage() throws CommandException {
+    public void testSendChatMessage() {
         final String msg = "Some chat message";
-        messages.sendChatMessage(msg);
-        verify(service).sendMulticastMsg(createMessage("MSG") + "[" + settings.getOwnColor() + "]" + msg);
+        messages.sendChatMessage(msg, null);
+        verifyAsync(createMessage("MSG") + "[" + settings.getOwnColor() + "]" + msg);
+    }
+
+    @Test
+    public void sendChatMessageShouldCheckNetworkAndNotifyListenerWhenMessageWasNotSent() {
+        final MessageSentListener listener = mock(MessageSentListener.class);
+        final String msg = createMessage("MSG") + "[" + settings.getOwnColor() + "]" + "Not sent";
+
+        messages.sendChatMessage("Not sent", listener);
+        verifyAsync(msg).messageSent(msg, false);
+
+        final InOrder inOrder = inOrder(service, listener);
+        inOrder.verify(service).checkNetwork();
+        inOrder.verify(listener).messageSent(msg, false);
+    }
+
+    @Test
+    public void sendChatMessageShouldNotCheckNetworkWhenMessageWasSent() {
+        final MessageSentListener listener = mock(MessageSentListener.class);
+        final String msg = createMessage("MSG") + "[" + settings.getOwnColor() + "]" + "Sent";
+
+        messages.sendChatMessage("Sent", listener);
+        verifyAsync(msg).messageSent(msg, true);
+
+        verify(service, never()).checkNetwork();
+        verify(listener).messageSent(msg, true);
+    }
+
+    @Test
+    public void sendAwayMessageShouldCheckNetworkWhenMessageWasNotSent() {
+        final String msg = createMessage("AWAY") + "Gone";
+
+        messages.sendAwayMessage("Gone");
+        verifyAsync(msg).messageSent(msg, false);
+
+        verify(service).checkNetwork();
     }
 
     /**
      * Tests sendClient().
      *
-     * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<0>
+     * Expects: 13132531!CLIENT#Christian:(KouChat v0.9.9-dev null)[134]{Linux}<0>|BATCH,RESUME,STREAMS,TOKEN|
      */
     @Test
     public void testSendClientMessage() {
         final String startsWith = "(" + me.getClient() + ")[";
         final String middle = ".+\\)\\[\\d+\\]\\{.+"; // like:)[134[{
-        final String endsWidth = "]{" + me.getOperatingSystem() + "}<" + me.getPrivateChatPort() + ">";
+        final String endsWidth = "]{" + me.getOperatingSystem() + "}<" + me.getPrivateChatPort() + ">|BATCH,RESUME,STREAMS,TOKEN|";
 
         messages.sendClient();
 
@@ -121,6 +159,87 @@ public class MessagesTest {
         verify(service).sendMulticastMsg(endsWith(endsWidth));
     }
 
+    @Test
+    public void sendLogonMessagesShouldSendEachMessageWhenNotBatch() {
+        messages.sendLogonMessages(false);
+
+        final InOrder inOrder = inOrder(service);
+        inOrder.verify(service).sendMulticastMsg(createMessage("LOGON"));
+        inOrder.verify(service).sendMulticastMsg(startsWith(createMessage("CLIENT")));
+        inOrder.verify(service).sendMulticastMsg(createMessage("EXPOSE"));
+        inOrder.verify(service).sendMulticastMsg(createMessage("GETTOPIC"));
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void sendLogonMessagesShouldSendSingleDatagramWhenBatch() {
+        messages.sendLogonMessages(true);
+
+        final ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(service).sendMulticastMsg(captor.capture());
+
+        final List<String> msgs = MessageBatch.unpack(captor.getValue());
+        assertEquals(4, msgs.size());
+        assertEquals(createMessage("LOGON"), msgs.get(0));
+        assertTrue(msgs.get(1).startsWith(createMessage("CLIENT")));
+        assertEquals(createMessage("EXPOSE"), msgs.get(2));
+        assertEquals(createMessage("GETTOPIC"), msgs.get(3));
+    }
+
+    @Test
+    public void sendReconnectMessagesShouldSendSingleDatagramWhenBatch() {
+        final Topic topic = new Topic("Topic", "Snoopy", 66532345L);
+
+        messages.sendReconnectMessages(topic, 16500, true);
+
+        final ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(service).sendMulticastMsg(captor.capture());
+        verify(service, never()).checkNetwork();
+
+        final List<String> msgs = MessageBatch.unpack(captor.getValue());
+        assertEquals(5, msgs.size());
+        assertEquals(createMessage("TOPIC") + "(Snoopy)[66532345]Topic", msgs.get(0));
+        assertEquals(createMessage("EXPOSING"), msgs.get(1));
+        assertEquals(createMessage("GETTOPIC"), msgs.get(2));
+        assertEquals(createMessage("EXPOSE") + "RECONNECT", msgs.get(3));
+        assertEquals(createMessage("IDLE") + "16500", msgs.get(4));
+    }
+
+    @Test
+    public void sendReconnectMessagesShouldCheckNetworkIfFailed() {
+        when(service.sendMulticastMsg(anyString())).thenReturn(false);
+
+        messages.sendReconnectMessages(new Topic(), 15000, false);
+
+        verify(service, times(5)).sendMulticastMsg(anyString());
+        verify(service).checkNetwork();
+    }
+
+    @Test
+    public void sendExposingAndClientMessagesShouldSendEachMessageWhenNotBatch() {
+        me.setAwayMsg("Away");
+
+        messages.sendExposingAndClientMessages(false);
+
+        final InOrder inOrder = inOrder(service);
+        inOrder.verify(service).sendMulticastMsg(createMessage("EXPOSING") + "Away");
+        inOrder.verify(service).sendMulticastMsg(startsWith(createMessage("CLIENT")));
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void sendExposingAndClientMessagesShouldSendSingleDatagramWhenBatch() {
+        messages.sendExposingAndClientMessages(true);
+
+        final ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(service).sendMulticastMsg(captor.capture());
+
+        final List<String> msgs = MessageBatch.unpack(captor.getValue());
+        assertEquals(2, msgs.size());
+        assertEquals(createMessage("EXPOSING"), msgs.get(0));
+        assertTrue(msgs.get(1).startsWith(createMessage("CLIENT")));
+    }
+
     /**
      * Tests sendExposeMessage().
      *
@@ -218,6 +337,36 @@ public class MessagesTest {
         verify(service).sendMulticastMsg(createMessage("SENDFILEACCEPT") + info);
     }
 
+    /**
+     * Tests sendFileResume().
+     *
+     * Expects: 17247198!SENDFILERESUME#Christian:(4321)[20103]{8578765}<1048576,3735928559,3,-7046029254386353131>some_file.txt
+     *
+     * @throws CommandException In case the message could not be sent.
+     */
+    @Test
+    public void testSendFileResumeMessage() throws CommandException {
+        final int userCode = 4321;
+        final int port = 20103;
+        final int fileHash = 8578765;
+        final String fileName = "some_file.txt";
+        final long resumeOffset = 1048576;
+        final long resumeChecksum = 3735928559L;
+        final int streams = 3;
+        final long token = -7046029254386353131L;
+
+        final String info = "(" + userCode + ")" +
+                "[" + port + "]" +
+                "{" + fileHash + "}" +
+                "<" + resumeOffset + "," + resumeChecksum + "," + streams + "," + token + ">" +
+                fileName;
+
+        final User user = new User("TestUser", userCode);
+
+        messages.sendFileResume(user, port, fileHash, fileName, new FileResumeInfo(resumeOffset, resumeChecksum, streams, token));
+        verify(service).sendMulticastMsg(createMessage("SENDFILERESUME") + info);
+    }
+
     /**
      * Tests sendGetTopicMessage().
      *
@@ -232,12 +381,12 @@ public class MessagesTest {
     /**
      * Tests sendIdleMessage().
      *
-     * Expects: 10223997!IDLE#Christian:
+     * Expects: 10223997!IDLE#Christian:30000
      */
     @Test
     public void testSendIdleMessage() {
-        messages.sendIdleMessage();
-        verify(service).sendMulticastMsg(createMessage("IDLE"));
+        messages.sendIdleMessage(30000);
+        verify(service).sendMulticastMsg(createMessage("IDLE") + "30000");
     }
 
     /**
@@ -283,7 +432,7 @@ public class MessagesTest {
     public void testSendNickMessage() {
         final String newNick = "Cookie";
         messages.sendNickMessage(newNick);
-        verify(service).sendMulticastMsg(createMessage("NICK", newNick));
+        verifyAsync(createMessage("NICK", newNick));
     }
 
     /**
@@ -320,7 +469,7 @@ public class MessagesTest {
     @Test
     public void testSendStoppedWritingMessage() {
         messages.sendStoppedWritingMessage();
-        verify(service).sendMulticastMsg(createMessage("STOPPEDWRITING"));
+        verify(service).sendMulticastMsgAsync(createMessage("STOPPEDWRITING"), Messages.WRITING_REPLACE_KEY, null);
     }
 
     /**
@@ -336,7 +485,7 @@ public class MessagesTest {
                 topic.getTopic();
 
         messages.sendTopicChangeMessage(topic);
-        verify(service).sendMulticastMsg(createMessage("TOPIC") + message);
+        verifyAsync(createMessage("TOPIC") + message);
     }
 
     /**
@@ -363,7 +512,7 @@ public class MessagesTest {
     @Test
     public void testSendWritingMessage() {
         messages.sendWritingMessage();
-        verify(service).sendMulticastMsg(createMessage("WRITING"));
+        verify(service).sendMulticastMsgAsync(createMessage("WRITING"), Messages.WRITING_REPLACE_KEY, null);
     }
 
     /**
@@ -386,4 +535,18 @@ public class MessagesTest {
     private String createMessage(final String type, final String nick) {
         return me.getCode() + "!" + type + "#" + nick + ":";
     }
+
+    /**
+     * Verifies that the message was queued without waiting for it to be sent, without a replace key.
+     *
+     * @param message The message that should have been queued.
+     * @return The listener given with the message.
+     */
+    private MessageSentListener verifyAsync(final String message) {
+        final ArgumentCaptor<MessageSentListener> listenerCaptor = ArgumentCaptor.forClass(MessageSentListener.class);
+        verify(service).sendMulticastMsgAsync(eq(message), (String) isNull(), listenerCaptor.capture());
+        verify(service, never()).sendMulticastMsg(anyString());
+
+        return listenerCaptor.getValue();
+    }
 }
@@ -0,0 +1,95 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.usikkert.kouchat.event.FileTransferListener;
+
+/**
+ * This is a mock implementation of the file transfer listener, for use in unit tests.
+ * It remembers the changes in status, and counts the progress updates.
+ *
+ * @author Christian Ihle
+ */
+public class MockFileTransferListener implements FileTransferListener {
+
+    private final List<String> statuses;
+    private int transferUpdates;
+
+    /**
+     * Constructor.
+     */
+    public MockFileTransferListener() {
+        statuses = new ArrayList<String>();
+    }
+
+    @Override
+    public synchronized void statusWaiting() {
+        statuses.add("Waiting");
+    }
+
+    @Override
+    public synchronized void statusConnecting() {
+        statuses.add("Connecting");
+    }
+
+    @Override
+    public synchronized void statusTransferring() {
+        statuses.add("Transferring");
+    }
+
+    @Override
+    public synchronized void statusCompleted() {
+        statuses.add("Completed");
+    }
+
+    @Override
+    public synchronized void statusFailed() {
+        statuses.add("Failed");
+    }
+
+    @Override
+    public synchronized void transferUpdate() {
+        transferUpdates++;
+    }
+
+    /**
+     * Gets all the changes in status, in the order they happened.
+     *
+     * @return A copy of the list of statuses.
+     */
+    public synchronized List<String> getStatuses() {
+        return new ArrayList<String>(statuses);
+    }
+
+    /**
+     * Gets the number of times the progress was updated.
+     *
+     * @return The number of progress updates.
+     */
+    public synchronized int getTransferUpdates() {
+        return transferUpdates;
+    }
+}
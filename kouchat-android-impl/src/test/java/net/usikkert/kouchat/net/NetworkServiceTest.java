@@ -53,6 +53,7 @@ public class NetworkServiceTest {
 
         assertNotNull(TestUtils.getFieldValue(networkService, UDPReceiver.class, "udpReceiver"));
         assertNotNull(TestUtils.getFieldValue(networkService, UDPSender.class, "udpSender"));
+        assertNotNull(TestUtils.getFieldValue(networkService, ReceiverEngine.class, "receiverEngine"));
     }
 
     @Test
@@ -63,6 +64,7 @@ public class NetworkServiceTest {
 
         assertNull(TestUtils.getFieldValue(networkService, UDPReceiver.class, "udpReceiver"));
         assertNull(TestUtils.getFieldValue(networkService, UDPSender.class, "udpSender"));
+        assertNull(TestUtils.getFieldValue(networkService, ReceiverEngine.class, "receiverEngine"));
     }
 
     @Test
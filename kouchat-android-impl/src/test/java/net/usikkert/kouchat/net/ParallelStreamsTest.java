@@ -0,0 +1,74 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link ParallelStreams}.
+ *
+ * @author Christian Ihle
+ */
+public class ParallelStreamsTest {
+
+    @Test
+    public void getStreamsShouldUseOneStreamForSmallFiles() {
+        assertEquals(1, ParallelStreams.getStreams(0));
+        assertEquals(1, ParallelStreams.getStreams(1000));
+        assertEquals(1, ParallelStreams.getStreams(2 * ParallelStreams.MIN_BYTES_PER_STREAM - 1));
+    }
+
+    @Test
+    public void getStreamsShouldUseOneStreamForEachMinimumNumberOfBytes() {
+        assertEquals(2, ParallelStreams.getStreams(2 * ParallelStreams.MIN_BYTES_PER_STREAM));
+        assertEquals(3, ParallelStreams.getStreams(3 * ParallelStreams.MIN_BYTES_PER_STREAM + 100));
+    }
+
+    @Test
+    public void getStreamsShouldNotUseMoreThanMaxStreams() {
+        assertEquals(ParallelStreams.MAX_STREAMS, ParallelStreams.getStreams(100L * 1024 * 1024 * 1024));
+    }
+
+    @Test
+    public void splitIntoRangesShouldSplitTheWholeFile() {
+        final long[] offsets = ParallelStreams.splitIntoRanges(0, 1000, 3);
+
+        assertArrayEquals(new long[] {0, 333, 666, 1000}, offsets);
+    }
+
+    @Test
+    public void splitIntoRangesShouldOnlySplitTheRestOfTheFileWhenResuming() {
+        final long[] offsets = ParallelStreams.splitIntoRanges(400, 1000, 4);
+
+        assertArrayEquals(new long[] {400, 550, 700, 850, 1000}, offsets);
+    }
+
+    @Test
+    public void splitIntoRangesShouldGiveEmptyRangesWhenThereAreMoreStreamsThanBytes() {
+        final long[] offsets = ParallelStreams.splitIntoRanges(998, 1000, 4);
+
+        assertArrayEquals(new long[] {998, 998, 999, 999, 1000}, offsets);
+    }
+}
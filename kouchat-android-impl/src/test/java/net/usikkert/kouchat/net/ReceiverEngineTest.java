@@ -0,0 +1,143 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import net.usikkert.kouchat.util.Tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link ReceiverEngine}.
+ *
+ * @author Christian Ihle
+ */
+public class ReceiverEngineTest {
+
+    private ReceiverEngine receiverEngine;
+    private DatagramChannel channel;
+    private DatagramSocket sender;
+
+    @Before
+    public void setUp() throws IOException {
+        receiverEngine = new ReceiverEngine();
+
+        channel = DatagramChannel.open();
+        channel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+
+        sender = new DatagramSocket();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        receiverEngine.stop();
+        channel.close();
+        sender.close();
+    }
+
+    @Test
+    public void startAndStopShouldChangeRunningState() {
+        assertFalse(receiverEngine.isRunning());
+
+        assertTrue(receiverEngine.start());
+        assertTrue(receiverEngine.isRunning());
+
+        receiverEngine.stop();
+        assertFalse(receiverEngine.isRunning());
+    }
+
+    @Test
+    public void startShouldBePossibleAfterStop() {
+        receiverEngine.start();
+        receiverEngine.stop();
+
+        assertTrue(receiverEngine.start());
+        assertTrue(receiverEngine.isRunning());
+    }
+
+    @Test
+    public void registeredChannelShouldNotifyListenerOfMessages() throws IOException {
+        final SimpleReceiverListener listener = new SimpleReceiverListener("Hello from the engine");
+
+        receiverEngine.start();
+        receiverEngine.registerChannel(channel, listener);
+
+        send("Hello from the engine");
+        waitForMessage(listener);
+
+        assertEquals("Hello from the engine", listener.getMessage());
+        assertEquals("127.0.0.1", listener.getIpAddress());
+    }
+
+    @Test
+    public void channelRegisteredBeforeStartShouldNotifyListenerWhenStarted() throws IOException {
+        final SimpleReceiverListener listener = new SimpleReceiverListener("Early bird");
+
+        receiverEngine.registerChannel(channel, listener);
+        receiverEngine.start();
+
+        send("Early bird");
+        waitForMessage(listener);
+
+        assertEquals("Early bird", listener.getMessage());
+    }
+
+    @Test
+    public void shortMessageShouldNotIncludeDataFromPreviousLongerMessage() throws IOException {
+        final SimpleReceiverListener listener = new SimpleReceiverListener("short");
+
+        receiverEngine.start();
+        receiverEngine.registerChannel(channel, listener);
+
+        send("a much longer message than the next one");
+        send("short");
+        waitForMessage(listener);
+
+        assertEquals("short", listener.getMessage());
+    }
+
+    private void send(final String message) throws IOException {
+        final byte[] bytes = message.getBytes("UTF-8");
+        sender.send(new DatagramPacket(bytes, bytes.length, channel.socket().getLocalSocketAddress()));
+    }
+
+    private void waitForMessage(final SimpleReceiverListener listener) {
+        for (int i = 0; i < 40; i++) {
+            if (listener.getMessage() == null) {
+                Tools.sleep(50);
+            } else {
+                break;
+            }
+        }
+    }
+}
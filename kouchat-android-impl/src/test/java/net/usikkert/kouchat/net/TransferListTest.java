@@ -0,0 +1,88 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import net.usikkert.kouchat.misc.User;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of {@link TransferList}.
+ *
+ * @author Christian Ihle
+ */
+public class TransferListTest {
+
+    private TransferList tList;
+    private User peter;
+    private User tina;
+
+    @Before
+    public void setUp() {
+        tList = new TransferList();
+        peter = new User("Peter", 12345);
+        tina = new User("Tina", 67890);
+    }
+
+    @Test
+    public void removePartialFileReceiverShouldFindReceiverForSameUserCodeFileNameAndSize() {
+        final FileReceiver fileReceiver = new FileReceiver(peter, new File("file.txt"), 100, 1);
+        tList.addPartialFileReceiver(fileReceiver);
+
+        assertNull(tList.removePartialFileReceiver(peter, "file.txt", 200));
+        assertNull(tList.removePartialFileReceiver(peter, "other.txt", 100));
+        assertNull(tList.removePartialFileReceiver(tina, "file.txt", 100));
+
+        assertSame(fileReceiver, tList.removePartialFileReceiver(new User("Peter", 12345), "file.txt", 100));
+        assertNull(tList.removePartialFileReceiver(peter, "file.txt", 100));
+    }
+
+    @Test
+    public void addPartialFileReceiverShouldForgetTheOldestReceiverWhenFull() {
+        for (int i = 0; i <= TransferList.MAX_PARTIAL_RECEIVERS; i++) {
+            tList.addPartialFileReceiver(new FileReceiver(peter, new File("file" + i + ".txt"), 100, i));
+        }
+
+        assertNull(tList.removePartialFileReceiver(peter, "file0.txt", 100));
+        assertNotNull(tList.removePartialFileReceiver(peter, "file1.txt", 100));
+        assertNotNull(tList.removePartialFileReceiver(peter, "file" + TransferList.MAX_PARTIAL_RECEIVERS + ".txt", 100));
+    }
+
+    @Test
+    public void removePartialFileReceiversShouldOnlyForgetReceiversForTheUser() {
+        tList.addPartialFileReceiver(new FileReceiver(peter, new File("file1.txt"), 100, 1));
+        tList.addPartialFileReceiver(new FileReceiver(tina, new File("file1.txt"), 100, 2));
+        tList.addPartialFileReceiver(new FileReceiver(peter, new File("file2.txt"), 100, 3));
+
+        tList.removePartialFileReceivers(peter);
+
+        assertNull(tList.removePartialFileReceiver(peter, "file1.txt", 100));
+        assertNull(tList.removePartialFileReceiver(peter, "file2.txt", 100));
+        assertNotNull(tList.removePartialFileReceiver(tina, "file1.txt", 100));
+    }
+}
@@ -0,0 +1,181 @@
+
+/***************************************************************************
+ *   Copyright 2006-2014 by Christian Ihle                                 *
+ *   contact@kouchat.net                                                   *
+ *                                                                         *
+ *   This file is part of KouChat.                                         *
+ *                                                                         *
+ *   KouChat is free software; you can redistribute it and/or modify       *
+ *   it under the terms of the GNU Lesser General Public License as        *
+ *   published by the Free Software Foundation, either version 3 of        *
+ *   the License, or (at your option) any later version.                   *
+ *                                                                         *
+ *   KouChat is distributed in the hope that it will be useful,            *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU      *
+ *   Lesser General Public License for more details.                       *
+ *                                                                         *
+ *   You should have received a copy of the GNU Lesser General Public      *
+ *   License along with KouChat.                                           *
+ *   If not, see <http://www.gnu.org/licenses/>.                           *
+ ***************************************************************************/
+
+package net.usikkert.kouchat.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.usikkert.kouchat.event.TaskMetricsListener;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test of {@link BoundedExecutor}.
+ *
+ * @author Christian Ihle
+ */
+public class BoundedExecutorTest {
+
+    private BoundedExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldThrowExceptionIfNameIsEmpty() {
+        executor = new BoundedExecutor("", 1, 1);
+    }
+
+    @Test
+    public void executeShouldRunTheTask() throws InterruptedException {
+        executor = new BoundedExecutor("Test", 2, 10);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        assertTrue(executor.execute(new CountDownTask(latch)));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void threadsShouldHaveTheGivenPriority() throws InterruptedException {
+        executor = new BoundedExecutor("Test", 1, 10, Thread.MIN_PRIORITY);
+        final AtomicInteger priority = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                priority.set(Thread.currentThread().getPriority());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(Thread.MIN_PRIORITY, priority.get());
+    }
+
+    @Test
+    public void executeShouldRejectTasksWhenQueueIsFull() throws InterruptedException {
+        executor = new BoundedExecutor("Test", 1, 1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountingMetricsListener listener = new CountingMetricsListener();
+        executor.registerTaskMetricsListener(listener);
+
+        assertTrue(executor.execute(new AwaitTask(blocker))); // Running
+        assertTrue(executor.execute(new AwaitTask(blocker))); // Queued
+        assertFalse(executor.execute(new AwaitTask(blocker))); // Rejected
+
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(1, listener.rejected.get());
+
+        blocker.countDown();
+    }
+
+    @Test
+    public void metricsListenerShouldBeNotifiedWhenTaskCompletes() throws InterruptedException {
+        executor = new BoundedExecutor("Test", 1, 10);
+        final CountingMetricsListener listener = new CountingMetricsListener();
+        executor.registerTaskMetricsListener(listener);
+
+        executor.execute(new CountDownTask(new CountDownLatch(1)));
+
+        assertTrue(listener.completedLatch.await(2, TimeUnit.SECONDS));
+        assertEquals("Test", listener.executorName);
+        assertEquals(0, listener.rejected.get());
+    }
+
+    @Test
+    public void failingTaskShouldNotStopTheExecutor() throws InterruptedException {
+        executor = new BoundedExecutor("Test", 1, 10);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Failing on purpose");
+            }
+        });
+
+        executor.execute(new CountDownTask(latch));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    private static class CountDownTask implements Runnable {
+
+        private final CountDownLatch latch;
+
+        CountDownTask(final CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+
+    private static class AwaitTask implements Runnable {
+
+        private final CountDownLatch latch;
+
+        AwaitTask(final CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                latch.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class CountingMetricsListener implements TaskMetricsListener {
+
+        private final CountDownLatch completedLatch = new CountDownLatch(1);
+        private final AtomicInteger rejected = new AtomicInteger();
+        private volatile String executorName;
+
+        @Override
+        public void taskCompleted(final String name, final int queueDepth, final long waitTime, final long runTime) {
+            executorName = name;
+            completedLatch.countDown();
+        }
+
+        @Override
+        public void taskRejected(final String name, final int queueDepth) {
+            rejected.incrementAndGet();
+        }
+    }
+}
@@ -139,7 +139,7 @@ public class MainChatTest extends ActivityInstrumentationTestCase2<MainChatContr
         assertTrue(mainChatInput.hasFocus());
 
         // Need to support losing focus when clicking in the main chat to support text selection.
-        solo.clickOnView(solo.getView(R.id.mainChatScroll));
+        solo.clickOnView(solo.getView(R.id.mainChatView));
         solo.sleep(500);
 
         // Input field can't loose focus on Android 2.3.3. Skipping this assert.
@@ -165,7 +165,7 @@ public class MainChatTest extends ActivityInstrumentationTestCase2<MainChatContr
         RobotiumTestUtils.writeLine(solo, "Lets select something yeah?");
         solo.sleep(500);
 
-        RobotiumTestUtils.clickLongOnText(solo, R.id.mainChatView, R.id.mainChatScroll, "something");
+        RobotiumTestUtils.clickLongOnText(solo, R.id.mainChatView, "something");
         solo.sleep(500);
     }
 
@@ -194,7 +194,7 @@ public class MainChatTest extends ActivityInstrumentationTestCase2<MainChatContr
         client.logon();
 
         solo.sleep(500);
-        solo.clickOnView(solo.getView(R.id.mainChatScroll)); // Removes focus from the input field
+        solo.clickOnView(solo.getView(R.id.mainChatView)); // Removes focus from the input field
 
         solo.sleep(500);
         final EditText mainChatInput = (EditText) solo.getView(R.id.mainChatInput);
@@ -234,6 +234,6 @@ public class MainChatTest extends ActivityInstrumentationTestCase2<MainChatContr
     }
 
     private boolean textIsVisible(final String textToFind) {
-        return RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, R.id.mainChatScroll, textToFind);
+        return RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, textToFind);
     }
 }
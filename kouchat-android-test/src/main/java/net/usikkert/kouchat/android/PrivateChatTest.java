@@ -147,7 +147,7 @@ public class PrivateChatTest extends ActivityInstrumentationTestCase2<MainChatCo
         assertTrue(privateChatInput.hasFocus());
 
         // Need to support losing focus when clicking in the private chat to support text selection.
-        solo.clickOnView(solo.getView(R.id.privateChatScroll));
+        solo.clickOnView(solo.getView(R.id.privateChatView));
         solo.sleep(500);
 
         // Input field can't loose focus on Android 2.3.3. Skipping this assert.
@@ -174,7 +174,7 @@ public class PrivateChatTest extends ActivityInstrumentationTestCase2<MainChatCo
         RobotiumTestUtils.writeLine(solo, "Lets select something yeah?");
         solo.sleep(500);
 
-        RobotiumTestUtils.clickLongOnText(solo, R.id.privateChatView, R.id.privateChatScroll, "something");
+        RobotiumTestUtils.clickLongOnText(solo, R.id.privateChatView, "something");
         solo.sleep(500);
     }
 
@@ -216,7 +216,7 @@ public class PrivateChatTest extends ActivityInstrumentationTestCase2<MainChatCo
         openPrivateChat();
 
         solo.sleep(1000);
-        solo.clickOnView(solo.getView(R.id.privateChatScroll)); // Removes focus from the input field
+        solo.clickOnView(solo.getView(R.id.privateChatView)); // Removes focus from the input field
 
         solo.sleep(500);
         final EditText privateChatInput = (EditText) solo.getView(R.id.privateChatInput);
@@ -258,6 +258,6 @@ public class PrivateChatTest extends ActivityInstrumentationTestCase2<MainChatCo
     }
 
     private boolean textIsVisible(final String textToFind) {
-        return RobotiumTestUtils.textIsVisible(solo, R.id.privateChatView, R.id.privateChatScroll, textToFind);
+        return RobotiumTestUtils.textIsVisible(solo, R.id.privateChatView, textToFind);
     }
 }
@@ -47,7 +47,8 @@ import android.content.ContentResolver;
 import android.content.Intent;
 import android.os.Environment;
 import android.test.ActivityInstrumentationTestCase2;
-import android.widget.TextView;
+import android.widget.ListAdapter;
+import android.widget.ListView;
 
 /**
  * Tests file reception.
@@ -437,12 +438,20 @@ public class ReceiveFileTest extends ActivityInstrumentationTestCase2<MainChatCo
     }
 
     private void checkMainChatMessage(final String textToFind) {
-        assertTrue(RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, R.id.mainChatScroll, textToFind));
+        assertTrue(RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, textToFind));
     }
 
     private void checkPastMainChatMessage(final String text) {
-        final TextView mainChatView = (TextView) getActivity().findViewById(R.id.mainChatView);
-        assertTrue(mainChatView.getText().toString().contains(text));
+        final ListView mainChatView = (ListView) getActivity().findViewById(R.id.mainChatView);
+        final ListAdapter messages = mainChatView.getAdapter();
+
+        for (int i = 0; i < messages.getCount(); i++) {
+            if (messages.getItem(i).toString().contains(text)) {
+                return;
+            }
+        }
+
+        fail("Could not find: " + text);
     }
 
     private void checkDialogMessage(final String textToFind) {
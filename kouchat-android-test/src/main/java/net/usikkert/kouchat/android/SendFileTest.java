@@ -243,6 +243,6 @@ public class SendFileTest extends ActivityInstrumentationTestCase2<SendFileContr
     }
 
     private boolean textIsVisible(final String textToFind) {
-        return RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, R.id.mainChatScroll, textToFind);
+        return RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, textToFind);
     }
 }
@@ -69,7 +69,7 @@ public class ManualLinkTest extends ActivityInstrumentationTestCase2<MainChatCon
         solo.sleep(500);
         assertTrue(solo.getCurrentActivity().hasWindowFocus()); // KouChat is in focus
 
-        RobotiumTestUtils.clickOnText(solo, R.id.mainChatView, R.id.mainChatScroll, URL);
+        RobotiumTestUtils.clickOnText(solo, R.id.mainChatView, URL);
         solo.sleep(1000);
         assertFalse(solo.getCurrentActivity().hasWindowFocus()); // Browser is in focus
 
@@ -78,7 +78,7 @@ public class ManualLinkTest extends ActivityInstrumentationTestCase2<MainChatCon
 
         solo.sleep(2000);
         assertTrue(solo.getCurrentActivity().hasWindowFocus()); // KouChat is in focus
-        RobotiumTestUtils.clickOnText(solo, R.id.mainChatView, R.id.mainChatScroll, URL);
+        RobotiumTestUtils.clickOnText(solo, R.id.mainChatView, URL);
         solo.sleep(1000);
         assertFalse(solo.getCurrentActivity().hasWindowFocus()); // Browser is in focus
     }
@@ -91,7 +91,7 @@ public class ManualLinkTest extends ActivityInstrumentationTestCase2<MainChatCon
         solo.sleep(500);
         assertTrue(solo.getCurrentActivity().hasWindowFocus()); // KouChat is in focus
 
-        RobotiumTestUtils.clickOnText(solo, R.id.privateChatView, R.id.privateChatScroll, URL);
+        RobotiumTestUtils.clickOnText(solo, R.id.privateChatView, URL);
         solo.sleep(1000);
         assertFalse(solo.getCurrentActivity().hasWindowFocus()); // Browser is in focus
 
@@ -100,7 +100,7 @@ public class ManualLinkTest extends ActivityInstrumentationTestCase2<MainChatCon
 
         solo.sleep(2000);
         assertTrue(solo.getCurrentActivity().hasWindowFocus()); // KouChat is in focus
-        RobotiumTestUtils.clickOnText(solo, R.id.privateChatView, R.id.privateChatScroll, URL);
+        RobotiumTestUtils.clickOnText(solo, R.id.privateChatView, URL);
         solo.sleep(1000);
         assertFalse(solo.getCurrentActivity().hasWindowFocus()); // Browser is in focus
     }
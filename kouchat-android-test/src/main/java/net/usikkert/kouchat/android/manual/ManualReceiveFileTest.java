@@ -160,7 +160,7 @@ public class ManualReceiveFileTest extends ActivityInstrumentationTestCase2<Main
     }
 
     private void checkMainChatMessage(final String textToFind) {
-        assertTrue(RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, R.id.mainChatScroll, textToFind));
+        assertTrue(RobotiumTestUtils.textIsVisible(solo, R.id.mainChatView, textToFind));
     }
 
     private void checkDialogMessage(final String textToFind) {
@@ -48,7 +48,6 @@ import android.text.Layout;
 import android.text.TextPaint;
 import android.view.KeyEvent;
 import android.widget.ListView;
-import android.widget.ScrollView;
 import android.widget.TextView;
 
 /**
@@ -168,13 +167,12 @@ public final class RobotiumTestUtils {
      * It will often click the wrong place. Use this method instead.</p>
      *
      * @param solo The solo tester.
-     * @param textViewId Id of the textview with the text to click.
-     * @param scrollViewId Id of the scrollview that contains the textview.
+     * @param listViewId Id of the listview with the rows of text to click.
      * @param textToClick The text to click.
      * @throws IllegalArgumentException If the text is not visible or not found.
      */
-    public static void clickOnText(final Solo solo, final int textViewId, final int scrollViewId, final String textToClick) {
-        final Point coordinatesForLine = getCoordinatesForText(solo, textViewId, scrollViewId, textToClick);
+    public static void clickOnText(final Solo solo, final int listViewId, final String textToClick) {
+        final Point coordinatesForLine = getCoordinatesForText(solo, listViewId, textToClick);
 
         solo.clickOnScreen(coordinatesForLine.x, coordinatesForLine.y);
     }
@@ -186,13 +184,12 @@ public final class RobotiumTestUtils {
      * It will often click the wrong place. Use this method instead.</p>
      *
      * @param solo The solo tester.
-     * @param textViewId Id of the textview with the text to long click.
-     * @param scrollViewId Id of the scrollview that contains the textview.
+     * @param listViewId Id of the listview with the rows of text to long click.
      * @param textToClick The text to long click.
      * @throws IllegalArgumentException If the text is not visible or not found.
      */
-    public static void clickLongOnText(final Solo solo, final int textViewId, final int scrollViewId, final String textToClick) {
-        final Point coordinatesForLine = getCoordinatesForText(solo, textViewId, scrollViewId, textToClick);
+    public static void clickLongOnText(final Solo solo, final int listViewId, final String textToClick) {
+        final Point coordinatesForLine = getCoordinatesForText(solo, listViewId, textToClick);
 
         solo.clickLongOnScreen(coordinatesForLine.x, coordinatesForLine.y);
     }
@@ -387,20 +384,25 @@ public final class RobotiumTestUtils {
     }
 
     /**
-     * Checks if the text is currently visible in the scrollview.
+     * Checks if the text is currently visible in the listview.
+     *
+     * <p>Only the visible rows of the listview exist, so text that is scrolled out
+     * of view is not visible, and can not be found.</p>
      *
      * @param solo The solo tester.
-     * @param textViewId Id of the textview with the text to check.
-     * @param scrollViewId Id of the scrollview that contains the textview.
+     * @param listViewId Id of the listview with the rows of text to check.
      * @param textToFind The text to check if it's visible.
      * @return If the text is currently visible.
-     * @throws IllegalArgumentException If the text is not not found.
      */
-    public static boolean textIsVisible(final Solo solo, final int textViewId, final int scrollViewId, final String textToFind) {
-        final TextView textView = (TextView) solo.getView(textViewId);
-        final ScrollView scrollView = (ScrollView) solo.getView(scrollViewId);
+    public static boolean textIsVisible(final Solo solo, final int listViewId, final String textToFind) {
+        final ListView listView = (ListView) solo.getView(listViewId);
+        final TextView textView = findRowWithText(listView, textToFind);
+
+        if (textView == null) {
+            return false;
+        }
 
-        final Rect visibleScrollArea = getVisibleScrollArea(scrollView);
+        final Rect visibleScrollArea = getVisibleScrollArea(listView);
         final String fullText = textView.getText().toString();
         final List<String> allLinesOfText = getAllLinesOfText(fullText, textView);
         final List<Line> matchingLinesOfText = getMatchingLinesOfText(fullText, allLinesOfText, textToFind);
@@ -506,23 +508,46 @@ public final class RobotiumTestUtils {
         matchingLines.add(new Line(currentLineNumber, matchingLine.toString()));
     }
 
-    private static Rect getVisibleScrollArea(final ScrollView scrollView) {
+    private static Rect getVisibleScrollArea(final ListView listView) {
         final int[] locationOnScreen = new int[2];
 
-        scrollView.getLocationOnScreen(locationOnScreen);
+        listView.getLocationOnScreen(locationOnScreen);
 
         return new Rect(
                 locationOnScreen[0], // left position
                 locationOnScreen[1], // top position
-                locationOnScreen[0] + scrollView.getWidth(), // right position
-                locationOnScreen[1] + scrollView.getHeight()); // bottom position
+                locationOnScreen[0] + listView.getWidth(), // right position
+                locationOnScreen[1] + listView.getHeight()); // bottom position
+    }
+
+    /**
+     * Finds the last row in the listview containing the text to find.
+     *
+     * @param listView The listview with rows of text.
+     * @param textToFind The text to find.
+     * @return The row with the text, or <code>null</code> if none of the current rows contains the text.
+     */
+    private static TextView findRowWithText(final ListView listView, final String textToFind) {
+        for (int i = listView.getChildCount() - 1; i >= 0; i--) {
+            final TextView row = (TextView) listView.getChildAt(i);
+
+            if (row.getText().toString().contains(textToFind)) {
+                return row;
+            }
+        }
+
+        return null;
     }
 
-    private static Point getCoordinatesForText(final Solo solo, final int textViewId, final int scrollViewId, final String textToFind) {
-        final TextView textView = (TextView) solo.getView(textViewId);
-        final ScrollView scrollView = (ScrollView) solo.getView(scrollViewId);
+    private static Point getCoordinatesForText(final Solo solo, final int listViewId, final String textToFind) {
+        final ListView listView = (ListView) solo.getView(listViewId);
+        final TextView textView = findRowWithText(listView, textToFind);
+
+        if (textView == null) {
+            throw new IllegalArgumentException("Could not find: " + textToFind);
+        }
 
-        final Rect visibleScrollArea = getVisibleScrollArea(scrollView);
+        final Rect visibleScrollArea = getVisibleScrollArea(listView);
         final String fullText = textView.getText().toString();
         final List<String> allLinesOfText = getAllLinesOfText(fullText, textView);
         final List<Line> matchingLinesOfText = getMatchingLinesOfText(fullText, allLinesOfText, textToFind);